@@ -6,14 +6,16 @@ import ro.sellfluence.db.EmagMirrorDB.ReturnStornoOrderDetail;
 import ro.sellfluence.db.ProductTable.ProductInfo;
 import ro.sellfluence.db.ProductTable.ProductWithVendor;
 import ro.sellfluence.db.Task;
-import ro.sellfluence.support.DoubleWindow;
-import ro.sellfluence.support.Statistics;
+import ro.sellfluence.support.DailySeries;
+import ro.sellfluence.support.RatioWindow;
+import ro.sellfluence.support.RefreshAheadCache;
 import ro.sellfluence.support.Statistics.Estimate;
 
 import java.sql.SQLException;
+import java.time.Duration;
 import java.time.LocalDate;
-import java.time.LocalDateTime;
 import java.time.YearMonth;
+import java.time.temporal.ChronoUnit;
 import java.util.ArrayList;
 import java.util.Comparator;
 import java.util.HashMap;
@@ -22,7 +24,6 @@ import java.util.List;
 import java.util.Map;
 import java.util.logging.Logger;
 import java.util.function.Function;
-import java.util.stream.Collectors;
 
 import static java.util.logging.Level.SEVERE;
 import static ro.sellfluence.api.API.ProductForFrontend.nameComparator;
@@ -40,18 +41,51 @@ public class API {
 
     public API(EmagMirrorDB db) {
         mirrorDB = db;
+        cachedDailyOrders = dailyCountCache("daily orders", mirrorDB::countOrdersByDayForProduct);
+        cachedDailyStorno = dailyCountCache("daily storno", mirrorDB::countStornoByDayForProduct);
+        cachedDailyReturns = dailyCountCache("daily returns", mirrorDB::countReturnByDayForProduct);
+    }
+
+    private static RefreshAheadCache<String, Map<LocalDate, Integer>> dailyCountCache(String name, RefreshAheadCache.Loader<String, Map<LocalDate, Integer>> loader) {
+        return new RefreshAheadCache<>(name, maxCachedProducts, dailyCountExpiry, dailyCountRefresh, loader);
+    }
+
+    /**
+     * Drop the cached daily counts, so that newly fetched orders, storno and returns show up.
+     */
+    public void invalidateDailyCounts() {
+        cachedDailyOrders.invalidateAll();
+        cachedDailyStorno.invalidateAll();
+        cachedDailyReturns.invalidateAll();
+    }
+
+    /**
+     * Get the hit, miss and load time counters of the daily count caches.
+     *
+     * @return map from the cache name to its counters.
+     */
+    public Map<String, RefreshAheadCache.Stats> getDailyCountCacheStats() {
+        var stats = new LinkedHashMap<String, RefreshAheadCache.Stats>();
+        stats.put("orders", cachedDailyOrders.stats());
+        stats.put("storno", cachedDailyStorno.stats());
+        stats.put("returns", cachedDailyReturns.stats());
+        return stats;
     }
 
     record ProductForFrontend(String name, String id) {
         public static final Comparator<ProductForFrontend> nameComparator = Comparator.comparing(ProductForFrontend::name, nameComparatorString);
     }
 
-    record CachedDailyAmounts(LocalDateTime lastRead, Map<LocalDate, Integer> cachedData) {
-    }
+    /**
+     * Maximum number of products for which the daily counts are held in each cache.
+     */
+    private static final int maxCachedProducts = 1_000;
+    private static final Duration dailyCountExpiry = Duration.ofHours(1);
+    private static final Duration dailyCountRefresh = Duration.ofMinutes(50);
 
-    private static final Map<String, CachedDailyAmounts> cachedDailyOrders = new HashMap<>();
-    private static final Map<String, CachedDailyAmounts> cachedDailyStorno = new HashMap<>();
-    private static final Map<String, CachedDailyAmounts> cachedDailyReturns = new HashMap<>();
+    private final RefreshAheadCache<String, Map<LocalDate, Integer>> cachedDailyOrders;
+    private final RefreshAheadCache<String, Map<LocalDate, Integer>> cachedDailyStorno;
+    private final RefreshAheadCache<String, Map<LocalDate, Integer>> cachedDailyReturns;
 
     public record CountByDate(LocalDate date, int count) {
     }
@@ -70,10 +104,6 @@ public class API {
     public record CurrentMonthRatesRow(String name, String pnk, Double returnRate, Double stornoRate) {
     }
 
-    private interface Retriever<T, V> {
-        V retrieve(T t) throws SQLException;
-    }
-
     /**
      * Retrieves a list of products from the database and returns it as a JSON string.
      * Each product includes its name and product code.
@@ -93,30 +123,23 @@ public class API {
         }
     }
 
+    /**
+     * Compute the ratio of returns to orders over the last 90 days for each day of the past 12 months.
+     * Days on which the window holds no orders are left out.
+     *
+     * @param id of the product.
+     * @return the rolling return rate by day.
+     */
     public List<ValueByDate> getRRR(String id) {
-        var orders = getOrders(id);
-        var startDate = orders.getFirst().date();
-        var endDate = orders.getLast().date();
-        var returns = getReturns(id);
-        if (returns.getFirst().date().isAfter(startDate)) {
-            startDate = returns.getFirst().date();
-        }
-        if (returns.getLast().date().isBefore(endDate)) {
-            endDate = returns.getLast().date();
-        }
-        var ordersByDate = orders.stream().collect(Collectors.toMap(CountByDate::date, CountByDate::count));
-        var returnsByDate = returns.stream().collect(Collectors.toMap(CountByDate::date, CountByDate::count));
-        var orderWindow = new DoubleWindow(90);
-        var returnWindow = new DoubleWindow(90);
-        var date = startDate;
+        var orders = getDailySeries(id, cachedDailyOrders);
+        var returns = getDailySeries(id, cachedDailyReturns);
+        var window = new RatioWindow(90);
         var result = new ArrayList<ValueByDate>();
-        while (!date.isAfter(endDate)) {
-            orderWindow.add(ordersByDate.get(date));
-            returnWindow.add(returnsByDate.get(date));
-            if (orderWindow.isFull() && returnWindow.isFull()) {
-                result.add(new ValueByDate(date, returnWindow.getSum() / orderWindow.getSum()));
+        for (int i = 0; i < orders.size(); i++) {
+            window.add(returns.get(i), orders.get(i));
+            if (window.isFull() && window.getDenominatorSum() > 0) {
+                result.add(new ValueByDate(orders.date(i), window.getRatio()));
             }
-            date = date.plusDays(1);
         }
         return result;
     }
@@ -130,7 +153,7 @@ public class API {
     public List<SmoothedRateByDate> getCohortSmoothedRRR(String id) {
         try {
             //TODO: Figure out if the parameters are appropriate.
-            return mirrorDB.getCohortSmoothedRollingReturnRate(id, 90, 90, 100, 20).stream()
+            return mirrorDB.getReturnRateEngine().compute(id, 90, 90, 100, 20).stream()
                     .map(it -> new SmoothedRateByDate(
                             it.date(),
                             it.soldQty(),
@@ -154,7 +177,7 @@ public class API {
      * @return a JSON string representation of order counts by date
      */
     public List<CountByDate> getOrders(String id) {
-        return getCountById(id, cachedDailyOrders, mirrorDB::countOrdersByDayForProduct);
+        return getCountById(id, cachedDailyOrders);
     }
 
     /**
@@ -165,7 +188,7 @@ public class API {
      * @return a JSON string representation of order counts by date
      */
     public List<CountByDate> getStorno(String id) {
-        return getCountById(id, cachedDailyStorno, mirrorDB::countStornoByDayForProduct);
+        return getCountById(id, cachedDailyStorno);
     }
 
     /**
@@ -176,7 +199,7 @@ public class API {
      * @return a JSON string representation of order counts by date
      */
     public List<CountByDate> getReturns(String id) {
-        return getCountById(id, cachedDailyReturns, mirrorDB::countReturnByDayForProduct);
+        return getCountById(id, cachedDailyReturns);
     }
 
     /**
@@ -186,21 +209,12 @@ public class API {
      * @throws SQLException on database error.
      */
     public Map<ProductWithVendor, Map<YearMonth, Integer>> getOrdersByProductAndMonth() throws SQLException {
-        var result = new LinkedHashMap<ProductWithVendor, Map<YearMonth, Integer>>();
         var products = mirrorDB.readProductsWithVendor().stream()
                 .sorted(ProductWithVendor.nameComparator)
                 .toList();
         var end = YearMonth.now();
-        var month = end.minusYears(2);
-        while (month.isBefore(end)) {
-            var ordersByMonth = mirrorDB.countOrdersByMonth(month);
-            for (ProductWithVendor product : products) {
-                var map = result.computeIfAbsent(product, _ -> new HashMap<>());
-                map.put(month, ordersByMonth.getOrDefault(product.pnk(), 0));
-            }
-            month = month.plusMonths(1);
-        }
-        return result;
+        var start = end.minusYears(2);
+        return countsByProductAndMonth(products, start, end, mirrorDB.countOrdersByMonth(start, end));
     }
 
     public record MonthStats(int orderCount, int returnCount, int stornoCount, int refusedCount, Estimate returnRate,
@@ -287,21 +301,12 @@ public class API {
      * @throws SQLException on database error.
      */
     public Map<ProductWithVendor, Map<YearMonth, Integer>> getStornoByProductAndMonth() throws SQLException {
-        var result = new LinkedHashMap<ProductWithVendor, Map<YearMonth, Integer>>();
         var products = mirrorDB.readProductsWithVendor().stream()
                 .sorted(ProductWithVendor.nameComparator)
                 .toList();
         var endExclusive = YearMonth.now().plusMonths(1);
-        var month = endExclusive.minusYears(2);
-        while (month.isBefore(endExclusive)) {
-            var storno = mirrorDB.countStornoByMonth(month);
-            for (ProductWithVendor product : products) {
-                var map = result.computeIfAbsent(product, _ -> new HashMap<>());
-                map.put(month, storno.getOrDefault(product.pnk(), 0));
-            }
-            month = month.plusMonths(1);
-        }
-        return result;
+        var start = endExclusive.minusYears(2);
+        return countsByProductAndMonth(products, start, endExclusive, mirrorDB.countStornoByMonth(start, endExclusive));
     }
 
     public List<ReturnStornoOrderDetail> stornoDetails(String pnk, YearMonth month) throws SQLException {
@@ -315,21 +320,12 @@ public class API {
      * @throws SQLException on database error.
      */
     public Map<ProductWithVendor, Map<YearMonth, Integer>> getReturnsByProductAndMonth() throws SQLException {
-        var result = new LinkedHashMap<ProductWithVendor, Map<YearMonth, Integer>>();
         var products = mirrorDB.readProductsWithVendor().stream()
                 .sorted(ProductWithVendor.nameComparator)
                 .toList();
         var endExclusive = YearMonth.now().plusMonths(1);
-        var month = endExclusive.minusYears(2);
-        while (month.isBefore(endExclusive)) {
-            var countByPNK = mirrorDB.countReturnByMonth(month);
-            for (ProductWithVendor product : products) {
-                var map = result.computeIfAbsent(product, _ -> new HashMap<>());
-                map.put(month, countByPNK.getOrDefault(product.pnk(), 0));
-            }
-            month = month.plusMonths(1);
-        }
-        return result;
+        var start = endExclusive.minusYears(2);
+        return countsByProductAndMonth(products, start, endExclusive, mirrorDB.countReturnByMonth(start, endExclusive));
     }
 
     /**
@@ -410,6 +406,31 @@ public class API {
         return result;
     }
 
+    /**
+     * Arrange the counts by product and month, with 0 for the months without entry.
+     *
+     * @param products in the order of the result.
+     * @param start first month (inclusive).
+     * @param endExclusive last month (exclusive).
+     * @param countsByPNK counts as read from the database.
+     * @return map from product to map of month to count.
+     */
+    private static Map<ProductWithVendor, Map<YearMonth, Integer>> countsByProductAndMonth(List<ProductWithVendor> products,
+                                                                                           YearMonth start,
+                                                                                           YearMonth endExclusive,
+                                                                                           Map<String, Map<YearMonth, Integer>> countsByPNK) {
+        var result = new LinkedHashMap<ProductWithVendor, Map<YearMonth, Integer>>();
+        for (ProductWithVendor product : products) {
+            var counts = countsByPNK.getOrDefault(product.pnk(), Map.of());
+            var map = new HashMap<YearMonth, Integer>();
+            for (var month = start; month.isBefore(endExclusive); month = month.plusMonths(1)) {
+                map.put(month, counts.getOrDefault(month, 0));
+            }
+            result.put(product, map);
+        }
+        return result;
+    }
+
     private MonthCountMaps getMonthCountMaps(YearMonth startMonth, YearMonth endMonth) throws SQLException {
         return new MonthCountMaps(
                 mirrorDB.countOrdersByMonth(startMonth, endMonth),
@@ -443,26 +464,43 @@ public class API {
                                                                    int aggregateMonths,
                                                                    double confidenceLevel) {
         var result = new LinkedHashMap<T, Map<YearMonth, MonthStats>>();
-        var month = startMonth;
-        while (month.isBefore(endMonth)) {
-            var aggregateStart = month.minusMonths(aggregateMonths);
-            for (T row : rows) {
-                var key = keyExtractor.apply(row);
-                var map = result.computeIfAbsent(row, _ -> new HashMap<>());
-                var ordersLastNMonths = Statistics.sumOver(aggregateStart, month, counts.ordersByKey().get(key));
-                var returnsLastNMonths = Statistics.sumOver(aggregateStart, month, counts.returnsByKey().get(key));
-                var stornoLastNMonths = Statistics.sumOver(aggregateStart, month, counts.stornoByKey().get(key));
-                var refusedLastNMonths = stornoLastNMonths - returnsLastNMonths;
-                var returnsRate = Statistics.estimateRateOrNull(returnsLastNMonths, ordersLastNMonths, confidenceLevel);
-                var stornoRate = Statistics.estimateRateOrNull(stornoLastNMonths, ordersLastNMonths, confidenceLevel);
-                var refusedRate = Statistics.estimateRateOrNull(refusedLastNMonths, ordersLastNMonths, confidenceLevel);
-                map.put(month, new MonthStats(ordersLastNMonths, returnsLastNMonths, stornoLastNMonths, refusedLastNMonths, returnsRate, stornoRate, refusedRate));
+        if (!startMonth.isBefore(endMonth)) {
+            return result;
+        }
+        var aggregateStart = startMonth.minusMonths(aggregateMonths);
+        var months = Math.toIntExact(aggregateStart.until(endMonth, ChronoUnit.MONTHS));
+        var orders = new int[rows.size() * months];
+        var returns = new int[orders.length];
+        var storno = new int[orders.length];
+        for (int r = 0; r < rows.size(); r++) {
+            var key = keyExtractor.apply(rows.get(r));
+            fillRow(orders, r, months, aggregateStart, counts.ordersByKey().get(key));
+            fillRow(returns, r, months, aggregateStart, counts.returnsByKey().get(key));
+            fillRow(storno, r, months, aggregateStart, counts.stornoByKey().get(key));
+        }
+        var stats = MonthStatsKernel.compute(orders, returns, storno, rows.size(), months, aggregateMonths, confidenceLevel);
+        for (int r = 0; r < rows.size(); r++) {
+            var map = new HashMap<YearMonth, MonthStats>();
+            for (int m = 0; m < stats[r].length; m++) {
+                map.put(startMonth.plusMonths(m), stats[r][m]);
             }
-            month = month.plusMonths(1);
+            result.put(rows.get(r), map);
         }
         return result;
     }
 
+    private static void fillRow(int[] counts, int row, int months, YearMonth firstMonth, Map<YearMonth, Integer> countByMonth) {
+        if (countByMonth == null) {
+            return;
+        }
+        for (var entry : countByMonth.entrySet()) {
+            var m = firstMonth.until(entry.getKey(), ChronoUnit.MONTHS);
+            if (m >= 0 && m < months && entry.getValue() != null) {
+                counts[row * months + (int) m] += entry.getValue();
+            }
+        }
+    }
+
     private static String normalizeCategory(String category) {
         return category == null ? "" : category.trim();
     }
@@ -477,54 +515,29 @@ public class API {
 
     /**
      * Retrieves the count of items by date for a given ID, within the past 12 months.
-     * The result is returned as a JSON string containing a list of date-count pairs.
      *
-     * @param id        the identifier for which the counts are to be retrieved
-     * @param cache     the cache holding previously retrieved counts to minimize database calls
-     * @param retriever a retriever function to fetch counts from the database if not in the cache.
-     * @return a JSON string representation of counts by date
+     * @param id    the identifier for which the counts are to be retrieved
+     * @param cache the cache holding previously retrieved counts to minimize database calls
+     * @return list of counts by date
      */
-    private List<CountByDate> getCountById(String id, final Map<String, CachedDailyAmounts> cache, final Retriever<String, Map<LocalDate, Integer>> retriever) {
-        var ordersByDate = getOrRefresh(cache, id, retriever);
-        var date = YearMonth.now().minusMonths(12).atDay(1);
-        var end = LocalDate.now();
-        var result = new ArrayList<CountByDate>();
-        while (date.isBefore(end)) {
-            result.add(
-                    new CountByDate(
-                            date,
-                            ordersByDate.getOrDefault(date, 0)
-                    )
-            );
-            date = date.plusDays(1);
+    private List<CountByDate> getCountById(String id, RefreshAheadCache<String, Map<LocalDate, Integer>> cache) {
+        var series = getDailySeries(id, cache);
+        var result = new ArrayList<CountByDate>(series.size());
+        for (int i = 0; i < series.size(); i++) {
+            result.add(new CountByDate(series.date(i), Math.toIntExact(series.get(i))));
         }
         return result;
     }
 
     /**
-     * Fetches a map of item counts by date from the cache or retrieves the data from the database if
-     * the cached data is outdated or missing. If retrieved from the database, the cache is updated.
+     * Get the counts by date for a given ID for each day of the past 12 months, missing days are 0.
      *
-     * @param cache     the cache holding previously retrieved counts to minimize database calls.
-     * @param id        the identifier for which the counts are to be retrieved.
-     * @param retriever the retriever function that fetches counts from the database if not present in the cache.
-     * @return a map where the keys are dates and the values are item counts for the specified ID.
-     * @throws RuntimeException if unable to retrieve data from the external source due to an SQL error.
+     * @param id    the identifier for which the counts are to be retrieved
+     * @param cache the cache holding previously retrieved counts to minimize database calls
+     * @return the counts from the first day of the month 12 months ago until yesterday.
+     * @throws RuntimeException if unable to retrieve data from the database.
      */
-    private Map<LocalDate, Integer> getOrRefresh(Map<String, CachedDailyAmounts> cache, String id, Retriever<String, Map<LocalDate, Integer>> retriever) {
-        var cachedValue = cache.get(id);
-        LocalDateTime now = LocalDateTime.now();
-        if (cachedValue == null || cachedValue.lastRead.isBefore(now.minusHours(1))) {
-            CachedDailyAmounts newCachedValue;
-            try {
-                newCachedValue = new CachedDailyAmounts(now, retriever.retrieve(id));
-            } catch (SQLException e) {
-                throw new RuntimeException("Could not read from the database for the product %s".formatted(id), e);
-            }
-            cache.put(id, newCachedValue);
-            return newCachedValue.cachedData;
-        } else {
-            return cachedValue.cachedData;
-        }
+    private DailySeries getDailySeries(String id, RefreshAheadCache<String, Map<LocalDate, Integer>> cache) {
+        return DailySeries.of(cache.get(id), YearMonth.now().minusMonths(12).atDay(1), LocalDate.now());
     }
 }
@@ -0,0 +1,90 @@
+package ro.sellfluence.api;
+
+import ro.sellfluence.api.API.MonthStats;
+import ro.sellfluence.support.Statistics.RateEstimator;
+
+import java.util.stream.IntStream;
+
+/**
+ * Computes the month statistics of a grid of rows (products or categories) and months.
+ * <p>
+ * The counts are passed as primitive arrays with one row after the other, each row holding
+ * the aggregation months before the first result month followed by the result months.
+ * The window sums come from a prefix sum per row and all rates share one {@link RateEstimator}.
+ */
+final class MonthStatsKernel {
+
+    /**
+     * Grids with at least this many result cells are computed with one task per row on the common pool.
+     */
+    static final int PARALLEL_THRESHOLD = 20_000;
+
+    private MonthStatsKernel() {
+    }
+
+    /**
+     * Compute the statistics of all rows and result months.
+     *
+     * @param orders          order counts, rows × months.
+     * @param returns         return counts, rows × months.
+     * @param storno          storno counts, rows × months.
+     * @param rows            number of rows.
+     * @param months          number of months per row, including the aggregateMonths before the first result month.
+     * @param aggregateMonths number of preceding months summed up for each result month.
+     * @param confidenceLevel of the Wilson intervals.
+     * @return statistics by row and result month.
+     */
+    static MonthStats[][] compute(int[] orders, int[] returns, int[] storno,
+                                  int rows, int months, int aggregateMonths, double confidenceLevel) {
+        if (aggregateMonths <= 0 || aggregateMonths > months) {
+            throw new IllegalArgumentException("aggregateMonths must be in 1..%d".formatted(months));
+        }
+        if (orders.length != rows * months || returns.length != orders.length || storno.length != orders.length) {
+            throw new IllegalArgumentException("Count arrays must have rows × months elements.");
+        }
+        var estimator = new RateEstimator(confidenceLevel);
+        var resultMonths = months - aggregateMonths;
+        var result = new MonthStats[rows][resultMonths];
+        var rowRange = IntStream.range(0, rows);
+        if ((long) rows * resultMonths >= PARALLEL_THRESHOLD) {
+            rowRange = rowRange.parallel();
+        }
+        rowRange.forEach(row -> computeRow(orders, returns, storno, row, months, aggregateMonths, estimator, result[row]));
+        return result;
+    }
+
+    private static void computeRow(int[] orders, int[] returns, int[] storno, int row, int months, int aggregateMonths,
+                                   RateEstimator estimator, MonthStats[] result) {
+        var offset = row * months;
+        var orderSums = prefixSums(orders, offset, months);
+        var returnSums = prefixSums(returns, offset, months);
+        var stornoSums = prefixSums(storno, offset, months);
+        for (int m = aggregateMonths; m < months; m++) {
+            var from = m - aggregateMonths;
+            var ordersLastNMonths = Math.toIntExact(orderSums[m] - orderSums[from]);
+            var returnsLastNMonths = Math.toIntExact(returnSums[m] - returnSums[from]);
+            var stornoLastNMonths = Math.toIntExact(stornoSums[m] - stornoSums[from]);
+            var refusedLastNMonths = stornoLastNMonths - returnsLastNMonths;
+            result[from] = new MonthStats(
+                    ordersLastNMonths,
+                    returnsLastNMonths,
+                    stornoLastNMonths,
+                    refusedLastNMonths,
+                    estimator.estimateOrNull(returnsLastNMonths, ordersLastNMonths),
+                    estimator.estimateOrNull(stornoLastNMonths, ordersLastNMonths),
+                    estimator.estimateOrNull(refusedLastNMonths, ordersLastNMonths)
+            );
+        }
+    }
+
+    /**
+     * Sums of the first i values of a row, for i in 0..months.
+     */
+    private static long[] prefixSums(int[] values, int offset, int months) {
+        var sums = new long[months + 1];
+        for (int m = 0; m < months; m++) {
+            sums[m + 1] = sums[m] + values[offset + m];
+        }
+        return sums;
+    }
+}
@@ -2,21 +2,33 @@ package ro.sellfluence.app;
 
 import ro.sellfluence.db.EmagFetchLog;
 import ro.sellfluence.db.EmagMirrorDB;
+import ro.sellfluence.db.EmagMirrorDB.OrderWriteResult;
+import ro.sellfluence.emagapi.AccountThrottle;
 import ro.sellfluence.emagapi.EmagApi;
+import ro.sellfluence.emagapi.EmagApi.PageConsumer;
+import ro.sellfluence.emagapi.EmagClients;
 import ro.sellfluence.emagapi.OrderResult;
 import ro.sellfluence.emagapi.RMAResult;
 import ro.sellfluence.support.Arguments;
 import ro.sellfluence.support.Logs;
-import ro.sellfluence.support.UserPassword;
 
 import java.io.IOException;
 import java.sql.SQLException;
 import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.time.Period;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.logging.Logger;
 import java.util.random.RandomGenerator;
 
@@ -47,6 +59,43 @@ public class EmagDBApp {
             "sellfusion"
     );
 
+    /**
+     * Option to set the maximum number of eMAG accounts which are fetched at the same time.
+     */
+    private static final String accountConcurrencyOptionName = "account_concurrency";
+
+    /**
+     * Maximum number of accounts fetched at the same time, see {@link #setAccountConcurrency(int)}.
+     */
+    private static volatile int accountConcurrency = 4;
+
+    /**
+     * Option to set the number of pages requested at the same time from eMAG for each account.
+     */
+    private static final String pagesInFlightOptionName = "pages_in_flight";
+
+    /**
+     * Number of pages requested at the same time for each account, see {@link EmagApi#setPagesInFlight(int)}.
+     */
+    private static volatile int pagesInFlight = 1;
+
+    /**
+     * Number of orders requested per page from eMAG. Each page is written to the database in one transaction.
+     */
+    private static final int ordersPerPage = 300;
+
+    /**
+     * Number of order IDs placed in the filter of a single request when refetching open orders.
+     * Kept below {@link #ordersPerPage} so that each group is answered with one page.
+     */
+    static final int orderIdsPerRequest = 100;
+
+    /**
+     * Delays used by {@link #repeatUntilDone(Callable)} after a failure.
+     */
+    private static final long initialRepeatDelayMilliseconds = 5_000;
+    private static final long maxRepeatDelayMilliseconds = 60_000;
+
     private static final RandomGenerator random = RandomGenerator.of("L64X128MixRandom");
     private static final LocalDate today = LocalDate.now();
 
@@ -59,12 +108,27 @@ public class EmagDBApp {
     }
 
     public static void fetchFromEmag(EmagMirrorDB mirrorDB, Arguments arguments) {
+        if (arguments.hasOption(accountConcurrencyOptionName)) {
+            setAccountConcurrency(Integer.parseInt(arguments.getOption(accountConcurrencyOptionName)));
+        }
+        if (arguments.hasOption(pagesInFlightOptionName)) {
+            setPagesInFlight(Integer.parseInt(arguments.getOption(pagesInFlightOptionName)));
+        }
         try {
             if (arguments.hasFlag("refetch_some")) { fetchAndStoreToDBProbabilistic(mirrorDB); }
             else if (arguments.hasFlag("refetch_all")) { refetchAndStoreToDB(mirrorDB, Period.ofYears(3)); }
             else if (!arguments.hasFlag("nofetch")) { fetchAndStoreToDB(mirrorDB); }
-            mirrorDB.updateGMVTable();
+            if (arguments.hasFlag("refetch_all") || arguments.hasFlag("recompute_gmv")) {
+                mirrorDB.recomputeGMVTable();
+            } else {
+                mirrorDB.updateGMVTable();
+            }
             mirrorDB.updateStornoTable();
+            if (arguments.hasFlag("refetch_all")) {
+                mirrorDB.recomputeMonthlyCounts();
+            } else {
+                mirrorDB.updateMonthlyCounts();
+            }
         } catch (SQLException e) {
             throw new RuntimeException("error initializing database", e);
         } catch (IOException e) {
@@ -108,74 +172,248 @@ public class EmagDBApp {
         );
     }
 
-    public static Boolean fetchRMAs(EmagMirrorDB mirrorDB) {
-        for (String emagAccount : emagAccounts) {
-            System.out.println(emagAccount);
-            try {
-                transferRMAsToDatabase(emagAccount, mirrorDB, LocalDate.now().minusMonths(6).atStartOfDay(), null);
-            } catch (IOException | InterruptedException e) {
-                throw new RuntimeException(e);
-            }
+    /**
+     * Set the maximum number of eMAG accounts that are fetched concurrently.
+     * A value of 1 processes the accounts one after the other.
+     *
+     * @param maxConcurrentAccounts number of accounts fetched at the same time, must be at least 1.
+     */
+    public static void setAccountConcurrency(int maxConcurrentAccounts) {
+        if (maxConcurrentAccounts < 1) {
+            throw new IllegalArgumentException("Account concurrency must be at least 1 but was %d.".formatted(maxConcurrentAccounts));
         }
+        accountConcurrency = maxConcurrentAccounts;
+    }
+
+    /**
+     * Set the number of pages requested concurrently from eMAG for each account.
+     * A value of 1 reads the pages one after the other.
+     *
+     * @param maxPagesInFlight number of page requests running at the same time, must be at least 1.
+     */
+    public static void setPagesInFlight(int maxPagesInFlight) {
+        if (maxPagesInFlight < 1) {
+            throw new IllegalArgumentException("Pages in flight must be at least 1 but was %d.".formatted(maxPagesInFlight));
+        }
+        pagesInFlight = maxPagesInFlight;
+    }
+
+    public static Boolean fetchRMAs(EmagMirrorDB mirrorDB) {
+        forEachAccount(
+                "Fetch RMAs",
+                emagAccount -> transferRMAsToDatabase(emagAccount, mirrorDB, LocalDate.now().minusMonths(6).atStartOfDay(), null)
+        );
         return true;
     }
 
     public static boolean fetchStornoOrders(EmagMirrorDB mirrorDB) {
-        for (String emagAccount : emagAccounts) {
-            System.out.println(emagAccount);
-            try {
-                transferOrdersToDatabase(emagAccount, mirrorDB, null, null, LocalDate.now().minusMonths(6).atStartOfDay(), null, List.of(5), null);
-            } catch (IOException | InterruptedException e) {
-                throw new RuntimeException(e);
-            }
-        }
+        forEachAccount(
+                "Fetch storno orders",
+                emagAccount -> transferOrdersToDatabase(emagAccount, mirrorDB, null, null, LocalDate.now().minusMonths(6).atStartOfDay(), null, List.of(5), null)
+        );
         return true;
     }
 
     /**
      * Look for new orders.
+     * The last fetch time is saved per account, so an account which fails doesn't
+     * lose orders because another account was fetched successfully.
      *
      * @param mirrorDB to which to store the orders.
      */
     public static boolean fetchNewOrders(EmagMirrorDB mirrorDB) {
-        for (String emagAccount : emagAccounts) {
-            try {
-                var startOfFetch = LocalDateTime.now();
-                LocalDateTime lastFetchTime;
-                try {
-                    lastFetchTime = mirrorDB.getLastFetchTimeByAccount(emagAccount);
-                } catch (NullPointerException e) {
-                    lastFetchTime = null;
-                }
-                if (lastFetchTime == null) {
-                    lastFetchTime = startOfFetch.minusMonths(2);
+        forEachAccount(
+                "Fetch new orders",
+                emagAccount -> {
+                    var startOfFetch = LocalDateTime.now();
+                    LocalDateTime lastFetchTime;
+                    try {
+                        lastFetchTime = mirrorDB.getLastFetchTimeByAccount(emagAccount);
+                    } catch (NullPointerException e) {
+                        lastFetchTime = null;
+                    }
+                    if (lastFetchTime == null) {
+                        lastFetchTime = startOfFetch.minusMonths(2);
+                    }
+                    consoleLogger.log(INFO, "%s since %s.".formatted(emagAccount, lastFetchTime));
+                    transferOrdersToDatabase(emagAccount, mirrorDB, lastFetchTime, null, null, null, List.of(1, 2, 3, 4), null);
+                    mirrorDB.saveLastFetchTime(emagAccount, startOfFetch);
                 }
-                System.out.printf("%s since %s.%n", emagAccount, lastFetchTime);
-                transferOrdersToDatabase(emagAccount, mirrorDB, lastFetchTime, null, null, null, List.of(1, 2, 3, 4), null);
-                mirrorDB.saveLastFetchTime(emagAccount, startOfFetch);
-            } catch (IOException | InterruptedException | SQLException e) {
-                throw new RuntimeException(e);
-            }
-        }
+        );
         return true;
     }
 
     public static boolean fetchOrdersNotFinalizedInDB(EmagMirrorDB mirrorDB, boolean newOnly) {
+        Map<String, List<String>> ordersInProgress;
         try {
-            var ordersInProgress = mirrorDB.readOrderIdForOpenOrdersByVendor(newOnly);
+            ordersInProgress = mirrorDB.readOrderIdForOpenOrdersByVendor(newOnly);
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        }
+        forEachAccount(
+                "Fetch orders not finalised",
+                emagAccount -> {
+                    List<String> orderIds = ordersInProgress.get(emagAccount);
+                    if (orderIds != null) {
+                        transferOrdersByIdToDatabase(emagAccount, mirrorDB, orderIds);
+                    }
+                }
+        );
+        return true;
+    }
+
+    /**
+     * Thrown by the page consumer when eMAG returned orders which were not asked for,
+     * meaning that the list of IDs in the filter was not honoured.
+     */
+    private static class IdFilterIgnoredException extends RuntimeException {
+        IdFilterIgnoredException(String message) {
+            super(message);
+        }
+    }
+
+    /**
+     * Reads the orders with the given IDs and hands them over page by page.
+     */
+    @FunctionalInterface
+    interface OrderReader {
+        void read(List<String> orderIds, PageConsumer<OrderResult, RuntimeException> pageConsumer) throws IOException, InterruptedException;
+    }
+
+    /**
+     * Stores a page of orders.
+     */
+    @FunctionalInterface
+    interface OrderStore {
+        /**
+         * @param page orders to store.
+         * @return number of orders stored.
+         */
+        int store(List<OrderResult> page);
+    }
+
+    /**
+     * Refetch the orders with the given IDs from eMAG and store them in the database.
+     *
+     * @param account eMAG account.
+     * @param mirrorDB database to store the orders.
+     * @param orderIds IDs of the orders to refetch.
+     * @return number of orders stored.
+     * @see #transferOrdersById(String, List, OrderReader, OrderStore)
+     */
+    private static int transferOrdersByIdToDatabase(String account, EmagMirrorDB mirrorDB, List<String> orderIds) throws IOException, InterruptedException {
+        return transferOrdersById(
+                account,
+                orderIds,
+                (ids, pageConsumer) -> readFromEmag(account, null, null, null, null, null, ids, pageConsumer),
+                page -> {
+                    var pageResult = new AtomicReference<>(OrderWriteResult.NONE);
+                    writeOrders(account, mirrorDB, page, pageResult);
+                    return pageResult.get().total();
+                }
+        );
+    }
+
+    /**
+     * Read the orders with the given IDs and store them.
+     * <p>
+     * The IDs are requested in groups of {@link #orderIdsPerRequest} with a single request each.
+     * Orders missing from the response of a group are requested individually afterward.
+     * If eMAG does not accept the list of IDs, i.e., it answers a group with no or with other orders,
+     * the reading of that group stops at the first such page, and the remaining IDs are all requested individually.
+     *
+     * @param account eMAG account, used in log messages.
+     * @param orderIds IDs of the orders.
+     * @param reader reading orders from eMAG.
+     * @param store storing a page of orders.
+     * @return number of orders stored.
+     */
+    static int transferOrdersById(String account, List<String> orderIds, OrderReader reader, OrderStore store) throws IOException, InterruptedException {
+        var transferred = new AtomicInteger();
+        var individually = new ArrayList<String>();
+        var batchingWorks = true;
+        for (int start = 0; start < orderIds.size(); start += orderIdsPerRequest) {
+            var group = orderIds.subList(start, Math.min(start + orderIdsPerRequest, orderIds.size()));
+            if (!batchingWorks || group.size() == 1) {
+                individually.addAll(group);
+                continue;
+            }
+            var requested = new HashSet<>(group);
+            var received = new HashSet<String>();
+            try {
+                reader.read(group, page -> {
+                    transferred.addAndGet(store.store(page));
+                    page.forEach(order -> received.add(order.id()));
+                    if (!requested.containsAll(received)) {
+                        throw new IdFilterIgnoredException("eMAG returned orders which were not requested.");
+                    }
+                });
+                if (received.isEmpty()) {
+                    throw new IdFilterIgnoredException("eMAG returned none of the %d requested orders.".formatted(group.size()));
+                }
+            } catch (IdFilterIgnoredException e) {
+                warnLogger.log(WARNING, "%s: %s Requesting the orders one by one.".formatted(account, e.getMessage()));
+                batchingWorks = false;
+            }
+            group.stream().filter(id -> !received.contains(id)).forEach(individually::add);
+        }
+        for (String orderId : individually) {
+            reader.read(List.of(orderId), page -> transferred.addAndGet(store.store(page)));
+        }
+        consoleLogger.log(FINE, "%s: %d of %d open orders refetched, %d of them one by one.".formatted(account, transferred.get(), orderIds.size(), individually.size()));
+        return transferred.get();
+    }
+
+    @FunctionalInterface
+    private interface AccountTask {
+        void run(String account) throws Exception;
+    }
+
+    /**
+     * Run the task once for every eMAG account, each account on its own virtual thread.
+     * At most {@link #accountConcurrency} accounts are processed at the same time.
+     * The time taken is reported for every account.
+     *
+     * <p>All accounts are processed even if some of them fail. Afterwards, the first
+     * failure is thrown with the others attached as suppressed exceptions, so that
+     * {@link #repeatUntilDone(Callable)} can retry.</p>
+     *
+     * @param title describing the task, used for logging.
+     * @param task to execute for each account.
+     */
+    private static void forEachAccount(String title, AccountTask task) {
+        var permits = new Semaphore(accountConcurrency);
+        var futures = new ArrayList<Future<?>>();
+        try (var executor = Executors.newVirtualThreadPerTaskExecutor()) {
             for (String emagAccount : emagAccounts) {
-                System.out.println(emagAccount);
-                List<String> orderIds = ordersInProgress.get(emagAccount);
-                if (orderIds != null) {
-                    for (String orderId : orderIds) {
-                        transferOrdersToDatabase(emagAccount, mirrorDB, null, null, null, null, null, orderId);
+                futures.add(executor.submit(() -> {
+                    permits.acquire();
+                    try {
+                        timeE("%s for %s".formatted(title, emagAccount), () -> task.run(emagAccount));
+                    } finally {
+                        permits.release();
                     }
+                    return null;
+                }));
+            }
+        }
+        RuntimeException failure = null;
+        for (int i = 0; i < futures.size(); i++) {
+            try {
+                futures.get(i).get();
+            } catch (ExecutionException | InterruptedException e) {
+                var cause = (e instanceof ExecutionException) ? e.getCause() : e;
+                warnLogger.log(WARNING, "%s failed for %s.".formatted(title, emagAccounts.get(i)), cause);
+                if (failure == null) {
+                    failure = new RuntimeException("%s failed for %s.".formatted(title, emagAccounts.get(i)), cause);
+                } else {
+                    failure.addSuppressed(cause);
                 }
             }
-        } catch (SQLException | IOException | InterruptedException e) {
-            throw new RuntimeException(e);
         }
-        return true;
+        if (failure != null) {
+            throw failure;
+        }
     }
 
     /**
@@ -250,8 +488,8 @@ public class EmagDBApp {
             startTime = endTime.minus(chunkSize);
         }
         timeE(
-                "Refresh return-rate materialized views",
-                mirrorDB::refreshReturnRateMaterializedViews
+                "Rebuild return-rate data",
+                mirrorDB::rebuildReturnRateData
         );
     }
 
@@ -269,19 +507,28 @@ public class EmagDBApp {
         }
     }
 
+    /**
+     * Call the callable until it completes without exception.
+     * <p>
+     * After a failure, wait until the circuit breakers of all eMAG accounts accept requests again,
+     * but at least for a delay, which starts at a few seconds and doubles with each consecutive failure
+     * up to a minute.
+     */
     private static boolean repeatUntilDone(Callable<Boolean> callable) {
         boolean allFetched;
         var result = false;
+        var retryDelay = initialRepeatDelayMilliseconds;
         do {
             try {
                 result = callable.call();
                 allFetched = true;
             } catch (Exception e) {
                 allFetched = false;
-                warnLogger.log(WARNING, "Waiting for a minute because of an exception ", e);
-                e.printStackTrace();
+                var delay = Math.max(retryDelay, AccountThrottle.millisecondsUntilAllAccountsAcceptRequests());
+                warnLogger.log(WARNING, "Waiting %d s because of an exception, eMAG throttles: %s".formatted(delay / 1000, AccountThrottle.allStatuses()), e);
+                retryDelay = Math.min(maxRepeatDelayMilliseconds, retryDelay * 2);
                 try {
-                    Thread.sleep(60_000);
+                    Thread.sleep(delay);
                 } catch (InterruptedException ex) {
                     // Ignored
                 }
@@ -382,21 +629,29 @@ public class EmagDBApp {
         return probability;
     }
 
-    private static int transferOrdersToDatabase(String account, EmagMirrorDB mirrorDB, LocalDateTime createdAfter, LocalDateTime createdBefore, LocalDateTime modifiedAfter, LocalDateTime modifiedBefore, List<Integer> statusList, String orderId) throws IOException, InterruptedException {
-        var orders = readFromEmag(account, createdAfter, createdBefore, modifiedAfter, modifiedBefore, statusList, orderId);
-        if (orders != null) {
-            orders.forEach(orderResult ->
-                    {
-                        try {
-                            mirrorDB.addOrder(orderResult, account);
-                        } catch (SQLException e) {
-                            throw new RuntimeException("Error inserting order " + orderResult, e);
-                        }
-                    }
-            );
-            return orders.size();
+    /**
+     * Read the orders matching the filter from eMAG and store them page by page in the database.
+     * The next page is already fetched while the previous page is written to the database.
+     *
+     * @return number of orders transferred.
+     */
+    private static int transferOrdersToDatabase(String account, EmagMirrorDB mirrorDB, LocalDateTime createdAfter, LocalDateTime createdBefore, LocalDateTime modifiedAfter, LocalDateTime modifiedBefore, List<Integer> statusList, List<String> orderIds) throws IOException, InterruptedException {
+        var writeResult = new AtomicReference<>(OrderWriteResult.NONE);
+        readFromEmag(account, createdAfter, createdBefore, modifiedAfter, modifiedBefore, statusList, orderIds, page -> writeOrders(account, mirrorDB, page, writeResult));
+        var result = writeResult.get();
+        consoleLogger.log(FINE, "%s: %d orders inserted, %d updated, %d unchanged.".formatted(account, result.inserted(), result.updated(), result.unchanged()));
+        return result.total();
+    }
+
+    /**
+     * Store a page of orders and add the outcome to the accumulated result.
+     */
+    private static void writeOrders(String account, EmagMirrorDB mirrorDB, List<OrderResult> page, AtomicReference<OrderWriteResult> writeResult) {
+        try {
+            writeResult.accumulateAndGet(mirrorDB.addOrders(page, account), OrderWriteResult::plus);
+        } catch (SQLException e) {
+            throw new RuntimeException("Error inserting %d orders from %s starting with %s".formatted(page.size(), account, page.getFirst().id()), e);
         }
-        return 0;
     }
 
     private static int transferRMAsToDatabase(String account, EmagMirrorDB mirrorDB, LocalDateTime startTime, LocalDateTime endTime) throws IOException, InterruptedException {
@@ -416,31 +671,30 @@ public class EmagDBApp {
         return 0;
     }
 
-    private static List<OrderResult> readFromEmag(String alias, LocalDateTime createdAfter, LocalDateTime createdBefore, LocalDateTime modifiedAfter, LocalDateTime modifiedBefore, List<Integer> statusList, String id) throws IOException, InterruptedException {
-        var emagCredentials = UserPassword.findAlias(alias);
-        if (emagCredentials == null) {
+    private static void readFromEmag(String alias, LocalDateTime createdAfter, LocalDateTime createdBefore, LocalDateTime modifiedAfter, LocalDateTime modifiedBefore, List<Integer> statusList, List<String> ids, PageConsumer<OrderResult, RuntimeException> pageConsumer) throws IOException, InterruptedException {
+        var emag = EmagClients.shared().forAlias(alias);
+        if (emag == null) {
             warnLogger.log(WARNING, "Missing credentials for alias " + alias);
         } else {
-            var emag = new EmagApi(emagCredentials.getUsername(), emagCredentials.getPassword());
+            emag.setPagesInFlight(pagesInFlight);
             var filter = new HashMap<String, Object>();
-            filter.put("itemsPerPage", 300);
+            filter.put("itemsPerPage", ordersPerPage);
             if (createdAfter != null) filter.put("createdAfter", createdAfter);
             if (createdBefore != null) filter.put("createdBefore", createdBefore);
             if (modifiedAfter != null) filter.put("modifiedAfter", modifiedAfter);
             if (modifiedBefore != null) filter.put("modifiedBefore", modifiedBefore);
             if (statusList != null) filter.put("status", statusList);
-            if (id != null) filter.put("id", id);
-            return emag.readRequest("order", filter, null, OrderResult.class);
+            if (ids != null) filter.put("id", ids.size() == 1 ? ids.getFirst() : ids);
+            emag.readRequestInPages("order", filter, null, OrderResult.class, pageConsumer);
         }
-        return null;
     }
 
     private static List<RMAResult> readRMAFromEmag(String alias, LocalDateTime startTime, LocalDateTime endTime) throws IOException, InterruptedException {
-        var emagCredentials = UserPassword.findAlias(alias);
-        if (emagCredentials == null) {
+        var emag = EmagClients.shared().forAlias(alias);
+        if (emag == null) {
             warnLogger.log(WARNING, "Missing credentials for alias " + alias);
         } else {
-            var emag = new EmagApi(emagCredentials.getUsername(), emagCredentials.getPassword());
+            emag.setPagesInFlight(pagesInFlight);
             var filter = new HashMap<String, Object>();
             if (startTime != null) {
                 filter.put("date_start", startTime);
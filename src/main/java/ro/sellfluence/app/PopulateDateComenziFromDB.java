@@ -1,8 +1,10 @@
 package ro.sellfluence.app;
 
 import org.jspecify.annotations.NullMarked;
+import ro.sellfluence.apphelper.SpreadsheetExport;
 import ro.sellfluence.apphelper.Vendor;
 import ro.sellfluence.db.EmagMirrorDB;
+import ro.sellfluence.db.GMVMatrix;
 import ro.sellfluence.db.ProductTable.ProductInfo;
 import ro.sellfluence.googleapi.SheetsAPI;
 import ro.sellfluence.support.Arguments;
@@ -24,6 +26,7 @@ import static java.util.logging.Level.WARNING;
 import static ro.sellfluence.apphelper.Defaults.databaseOptionName;
 import static ro.sellfluence.apphelper.Defaults.defaultDatabase;
 import static ro.sellfluence.apphelper.Defaults.defaultGoogleApp;
+import static ro.sellfluence.googleapi.SheetsAPI.UNFORMATTED_VALUE;
 import static ro.sellfluence.sheetSupport.Conversions.isEMAGFbe;
 import static ro.sellfluence.support.UsefulMethods.findColumnMatchingMonth;
 
@@ -55,18 +58,36 @@ public class PopulateDateComenziFromDB {
      */
     private static final String gmvSheetName = "T. GMV/M.";
 
+    /**
+     * A vendor group and its spreadsheet.
+     */
+    private record VendorSheet(String vendorGroup, SheetsAPI sheet) {
+    }
+
+    /**
+     * Update the spreadsheets of all vendor groups, working on the spreadsheets in parallel.
+     *
+     * @param mirrorDB source database.
+     * @throws SQLException if the orders cannot be read.
+     */
     public void updateSpreadsheets(EmagMirrorDB mirrorDB) throws SQLException {
         logger.log(INFO, "Read from the database.");
         var allOrderLines = mirrorDB.readForSheet(year);
+        var vendorSheets = new ArrayList<VendorSheet>();
         for (String vendorGroup : List.of("Z", "J", "S", "K")) {
             String spreadSheetName = spreadSheetName(vendorGroup);
             var sheet = SheetsAPI.getSpreadSheetByName(defaultGoogleApp, spreadSheetName);
             if (sheet == null) {
                 throw new RuntimeException("Could not find the spreadsheet %s.".formatted(spreadSheetName));
             }
-            logger.log(INFO, "--- Update GMVs --------------------------");
+            vendorSheets.add(new VendorSheet(vendorGroup, sheet));
+        }
+        SpreadsheetExport.forEach("Transfer to the order and GMV sheets", vendorSheets, vendorSheet -> vendorSheet.sheet().getSpreadSheetName(), vendorSheet -> {
+            var vendorGroup = vendorSheet.vendorGroup();
+            var sheet = vendorSheet.sheet();
+            logger.log(INFO, "--- Update GMVs of %s ---------------------".formatted(vendorGroup));
             updateGMVs(mirrorDB, sheet, vendorGroup);
-            logger.log(INFO, "--- Update orders ------------------------");
+            logger.log(INFO, "--- Update orders of %s -------------------".formatted(vendorGroup));
             var rows = allOrderLines.stream().filter(row -> {
                 List<Object> firstBlock = row.getFirst();
                 Object o = firstBlock.get(5);
@@ -75,8 +96,8 @@ public class PopulateDateComenziFromDB {
                 }
                 return o.toString().startsWith(vendorGroup);
             }).toList();
-            updateOrders(rows, sheet);
-        }
+            updateOrders(mirrorDB, rows, sheet);
+        });
     }
 
     /**
@@ -88,26 +109,26 @@ public class PopulateDateComenziFromDB {
      * @throws SQLException if something goes wrong.
      */
     private void updateGMVs(EmagMirrorDB mirrorDB, SheetsAPI sheet, String vendorGroup) throws SQLException {
+        var gmvMatrix = mirrorDB.readGMVMatrix();
         var month = YearMonth.from(LocalDate.now());
         while (month.getYear() == year) {
-            updateGMVForMonth(mirrorDB, sheet, month, vendorGroup);
+            updateGMVForMonth(gmvMatrix, sheet, month, vendorGroup);
             month = month.minusMonths(1);
         }
     }
 
     /**
-     * Read for the specific month the data from the gmv table and update the spreadsheet.
+     * Take for the specific month the data from the gmv table and update the spreadsheet.
      *
-     * @param mirrorDB    database.
+     * @param gmvMatrix   GMV values of all products as read from the database.
      * @param sheet       sheet to update.
      * @param month       month to transfer.
      * @param vendorGroup letter identifying the vendors to include.
-     * @throws SQLException on database errors.
      */
-    private static void updateGMVForMonth(EmagMirrorDB mirrorDB, SheetsAPI sheet, YearMonth month, String vendorGroup) throws SQLException {
+    private static void updateGMVForMonth(GMVMatrix gmvMatrix, SheetsAPI sheet, YearMonth month, String vendorGroup) {
         logger.log(INFO, "Transfer %s from the database to the sheet.".formatted(month));
-        var gmvsByProduct = mirrorDB.readGMVByMonth(month);
-        var products = mirrorDB.readProducts().stream()
+        var gmvsByProduct = gmvMatrix.gmvByProductName(month);
+        var products = gmvMatrix.products().stream()
                 .filter(productInfo -> productInfo.name().startsWith(vendorGroup))
                 .collect(Collectors.groupingBy(ProductInfo::name));
         var productsInSheet = sheet.getColumn(gmvSheetName, "B").stream().toList();
@@ -164,24 +185,34 @@ public class PopulateDateComenziFromDB {
         }
     }
 
+    /**
+     * Orders found in the order tab of a spreadsheet.
+     *
+     * @param lastRow number of the last row.
+     * @param keys    {@link OrderLine#key()} of the orders.
+     */
+    private record ExistingOrders(int lastRow, Set<String> keys) {
+    }
+
     /**
      * Transfer new orders from the database to the spreadsheet.
      *
-     * @param rows  order rows.
-     * @param sheet target sheet.
+     * @param mirrorDB database holding the export state.
+     * @param rows     order rows.
+     * @param sheet    target sheet.
+     * @throws SQLException if the export state cannot be read or written.
      */
-    private void updateOrders(List<List<List<Object>>> rows, SheetsAPI sheet) {
+    private void updateOrders(EmagMirrorDB mirrorDB, List<List<List<Object>>> rows, SheetsAPI sheet) throws SQLException {
         var spreadSheetId = sheet.getSpreadSheetId();
-        logger.log(INFO, "Read from the spreadsheet.");
-        List<List<Object>> sheetData = sheet.getMultipleColumns(dateSheetName, "A", "B", "F", "X", "Y");
+        var existingOrders = readExistingOrders(mirrorDB, sheet);
         //TODO: The filter does not notice changed orders.
         logger.log(INFO, "Filter out the orders that are already in the spreadsheet.");
-        rows = filterOutExisting(rows, sheetData);
+        rows = filterOutExisting(rows, existingOrders.keys());
         if (rows.isEmpty()) {
             logger.log(INFO, "No new orders were found.");
         } else {
             logger.log(INFO, "Adding %d new orders to the sheet.".formatted(rows.size()));
-            var lastRowNumber = sheetData.size();
+            var lastRowNumber = existingOrders.lastRow();
             var nextRow = lastRowNumber + 1;
             var lastRow = lastRowNumber + rows.size();
             logger.log(INFO, "Now fixing cell format");
@@ -189,19 +220,57 @@ public class PopulateDateComenziFromDB {
             sheet.formatAsCheckboxes(spreadSheetId, 27, 31, lastRowNumber, lastRow);
             logger.log(INFO, "Now adding the rows");
             sheet.updateRanges(rows, "%s!A%d".formatted(dateSheetName, nextRow), "%s!Y%d".formatted(dateSheetName, nextRow), "%s!AB%d".formatted(dateSheetName, nextRow), "%s!AG%d".formatted(dateSheetName, nextRow));
+            var keys = rows.stream().map(groupedRow -> new OrderLine((String) groupedRow.get(0).get(1), (String) groupedRow.get(0).get(5)).key()).toList();
+            mirrorDB.appendSheetExportState(spreadSheetId, dateSheetName, lastRow, keys.getLast(), keys);
         }
     }
 
+    /**
+     * Find the orders already in the order tab.
+     * <p>
+     * If the last row recorded after the previous export still holds the same order and nothing follows it,
+     * the orders recorded in the database are used. Otherwise, the tab is read completely and the record is
+     * replaced.
+     *
+     * @param mirrorDB database holding the export state.
+     * @param sheet    spreadsheet.
+     * @return orders in the tab.
+     * @throws SQLException if the export state cannot be read or written.
+     */
+    private static ExistingOrders readExistingOrders(EmagMirrorDB mirrorDB, SheetsAPI sheet) throws SQLException {
+        var spreadSheetId = sheet.getSpreadSheetId();
+        var state = mirrorDB.readSheetExportStates(spreadSheetId).get(dateSheetName);
+        if (state != null) {
+            var range = SheetsAPI.tabRange(dateSheetName, "A%d:Y%d".formatted(state.lastRow(), state.lastRow() + 1));
+            var lastRows = sheet.readRanges(List.of(range), UNFORMATTED_VALUE).getFirst();
+            if (lastRows.size() == 1 && lastRows.getFirst().size() > 5) {
+                var lastRow = lastRows.getFirst();
+                if (state.lastKey().equals(new OrderLine(lastRow.get(1).toString(), lastRow.get(5).toString()).key())) {
+                    logger.log(INFO, "The orders are unchanged since the last export up to row %d.".formatted(state.lastRow()));
+                    return new ExistingOrders(state.lastRow(), state.keys());
+                }
+            }
+        }
+        logger.log(INFO, "Read from the spreadsheet.");
+        List<List<Object>> sheetData = sheet.getMultipleColumns(dateSheetName, "A", "B", "F", "X", "Y");
+        var keys = simplify(sheetData).stream().map(OrderLine::key).collect(Collectors.toSet());
+        if (!sheetData.isEmpty()) {
+            var lastRow = sheetData.getLast();
+            var lastKey = new OrderLine(lastRow.get(1).toString(), lastRow.get(2).toString()).key();
+            mirrorDB.replaceSheetExportState(spreadSheetId, dateSheetName, sheetData.size(), lastKey, keys);
+        }
+        return new ExistingOrders(sheetData.size(), keys);
+    }
+
     /**
      * Check with what we already have in the database and reduce the entries retrieved from the database to
      * a shorter list, which does not include orders already in the spreadsheet.
      *
      * @param groupedRowsFromDB input from the database.
-     * @param sheetData         orders from the spreadsheet.
+     * @param sheetOrders       {@link OrderLine#key()} of the orders in the spreadsheet.
      * @return the reduced list without the orders already found in the spreadsheet.
      */
-    private static List<List<List<Object>>> filterOutExisting(List<List<List<Object>>> groupedRowsFromDB, List<List<Object>> sheetData) {
-        var sheetOrders = simplify(sheetData);
+    private static List<List<List<Object>>> filterOutExisting(List<List<List<Object>>> groupedRowsFromDB, Set<String> sheetOrders) {
         //   var lastDateTime = toLocalDateTime((String) sheetData.getLast().getFirst());
         return groupedRowsFromDB.stream()
                 .filter(groupedRow -> {
@@ -212,7 +281,7 @@ public class PopulateDateComenziFromDB {
                         throw new RuntimeException("Could not find the product name for order %s (%s).".formatted(order_id, vendor.name()));
                     }
                     var orderLine = new OrderLine(order_id, /*vendor,*/ productName);
-                    return !sheetOrders.contains(orderLine);
+                    return !sheetOrders.contains(orderLine.key());
                 }).toList();
     }
 
@@ -224,6 +293,15 @@ public class PopulateDateComenziFromDB {
      * @param productName name of the product
      */
     record OrderLine(String orderId, /*Vendor vendor,*/ String productName) {
+
+        /**
+         * Identify the order line in the export state stored in the database.
+         *
+         * @return order ID and product name separated by a tab.
+         */
+        String key() {
+            return orderId + "\t" + productName;
+        }
     }
 
     /**
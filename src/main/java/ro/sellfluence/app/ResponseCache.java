@@ -0,0 +1,212 @@
+package ro.sellfluence.app;
+
+import org.jspecify.annotations.Nullable;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.time.temporal.ChronoUnit;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Cache of the serialized JSON answers of the analytics endpoints.
+ * <p>
+ * The entries are keyed by the request path and query string and belong to a data version.
+ * Calling {@link #invalidate()} after the underlying data changed starts a new version, so that
+ * the next request computes the answer again. Each body is kept both plain and gzip compressed,
+ * together with an ETag derived from its content and the time of the version as Last-Modified.
+ */
+final class ResponseCache {
+
+    /**
+     * A cached answer.
+     *
+     * @param etag         weak entity tag derived from the JSON.
+     * @param lastModified time at which the data version started, to the second.
+     * @param json         UTF-8 encoded body.
+     * @param gzip         gzip compressed body.
+     */
+    record Body(String etag, Instant lastModified, byte[] json, byte[] gzip) {
+
+        String lastModifiedHeader() {
+            return DateTimeFormatter.RFC_1123_DATE_TIME.format(lastModified.atOffset(ZoneOffset.UTC));
+        }
+
+        /**
+         * Check the conditional request headers. If-Modified-Since is only used without If-None-Match.
+         *
+         * @param ifNoneMatch     value of the If-None-Match header.
+         * @param ifModifiedSince value of the If-Modified-Since header.
+         * @return true if the client already has this body.
+         */
+        boolean isNotModified(@Nullable String ifNoneMatch, @Nullable String ifModifiedSince) {
+            if (ifNoneMatch != null) {
+                for (var tag : ifNoneMatch.split(",")) {
+                    var trimmed = tag.trim();
+                    if (trimmed.equals("*") || weakTag(trimmed).equals(weakTag(etag))) {
+                        return true;
+                    }
+                }
+                return false;
+            }
+            if (ifModifiedSince != null) {
+                try {
+                    var since = Instant.from(DateTimeFormatter.RFC_1123_DATE_TIME.parse(ifModifiedSince.trim()));
+                    return !lastModified.isAfter(since);
+                } catch (DateTimeParseException _) {
+                    return false;
+                }
+            }
+            return false;
+        }
+
+        private static String weakTag(String tag) {
+            return tag.startsWith("W/") ? tag.substring(2) : tag;
+        }
+    }
+
+    private record Entry(long version, long createdAt, Body body) {
+    }
+
+    private final int maxEntries;
+    private final long maxAgeMillis;
+    private final Supplier<Instant> clock;
+    private final AtomicLong version = new AtomicLong();
+    private volatile Instant versionStart;
+    private final Map<String, Entry> entries;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * Counters since the server started.
+     *
+     * @param version current data version.
+     * @param hits    number of requests answered from the cache.
+     * @param misses  number of requests which computed the answer.
+     * @param size    current number of entries.
+     */
+    record Stats(long version, long hits, long misses, int size) {
+    }
+
+    /**
+     * Create a cache.
+     *
+     * @param maxEntries maximum number of answers kept, the least recently used are dropped.
+     * @param maxAge     age after which an answer is computed again even without a new data version,
+     *                   so that answers depending on the current date stay fresh.
+     */
+    ResponseCache(int maxEntries, Duration maxAge) {
+        this(maxEntries, maxAge, Instant::now);
+    }
+
+    ResponseCache(int maxEntries, Duration maxAge, Supplier<Instant> clock) {
+        if (maxEntries <= 0) {
+            throw new IllegalArgumentException("maxEntries must be > 0");
+        }
+        this.maxEntries = maxEntries;
+        this.maxAgeMillis = maxAge.toMillis();
+        this.clock = clock;
+        this.versionStart = clock.get().truncatedTo(ChronoUnit.SECONDS);
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                return size() > ResponseCache.this.maxEntries;
+            }
+        };
+    }
+
+    /**
+     * Start a new data version, the existing answers are no longer returned.
+     */
+    void invalidate() {
+        synchronized (entries) {
+            versionStart = clock.get().truncatedTo(ChronoUnit.SECONDS);
+            version.incrementAndGet();
+            entries.clear();
+        }
+    }
+
+    /**
+     * Get the cached answer for a key or compute it.
+     * <p>
+     * Concurrent requests for a missing key may compute the answer more than once, which is harmless.
+     * An answer computed while the data version changed is returned but not kept.
+     *
+     * @param key     path and query of the request.
+     * @param compute produces the JSON or null if it could not be read.
+     * @return the answer or null if compute returned null, which is not cached.
+     * @throws Exception thrown by compute.
+     */
+    @Nullable Body get(String key, Callable<@Nullable String> compute) throws Exception {
+        long currentVersion;
+        Instant currentVersionStart;
+        synchronized (entries) {
+            currentVersion = version.get();
+            currentVersionStart = versionStart;
+            var entry = entries.get(key);
+            if (entry != null && entry.version == currentVersion
+                && clock.get().toEpochMilli() - entry.createdAt < maxAgeMillis) {
+                hits.incrementAndGet();
+                return entry.body;
+            }
+        }
+        misses.incrementAndGet();
+        var json = compute.call();
+        if (json == null) {
+            return null;
+        }
+        var bytes = json.getBytes(StandardCharsets.UTF_8);
+        var now = clock.get();
+        // An answer recomputed after maxAge may differ without a new version, so it must not be older than its content.
+        var lastModified = now.isAfter(currentVersionStart.plusMillis(maxAgeMillis))
+                ? now.truncatedTo(ChronoUnit.SECONDS)
+                : currentVersionStart;
+        var body = new Body(etag(bytes), lastModified, bytes, gzip(bytes));
+        synchronized (entries) {
+            if (version.get() == currentVersion) {
+                entries.put(key, new Entry(currentVersion, now.toEpochMilli(), body));
+            }
+        }
+        return body;
+    }
+
+    Stats stats() {
+        synchronized (entries) {
+            return new Stats(version.get(), hits.get(), misses.get(), entries.size());
+        }
+    }
+
+    private static String etag(byte[] content) {
+        try {
+            var digest = MessageDigest.getInstance("SHA-256").digest(content);
+            return "W/\"" + HexFormat.of().formatHex(digest, 0, 16) + "\"";
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    private static byte[] gzip(byte[] content) {
+        var buffer = new ByteArrayOutputStream(Math.max(64, content.length / 4));
+        try (var out = new GZIPOutputStream(buffer)) {
+            out.write(content);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return buffer.toByteArray();
+    }
+}
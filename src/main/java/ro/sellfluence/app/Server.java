@@ -20,6 +20,7 @@ import io.javalin.Javalin;
 import io.javalin.community.ssl.SslPlugin;
 import io.javalin.config.JavalinConfig;
 import io.javalin.http.Context;
+import io.javalin.http.HandlerType;
 import io.javalin.rendering.template.JavalinJte;
 import io.javalin.router.JavalinDefaultRoutingApi;
 import io.javalin.validation.Validator;
@@ -55,6 +56,7 @@ import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.StandardOpenOption;
 import java.sql.SQLException;
+import java.time.Duration;
 import java.time.LocalDate;
 import java.time.YearMonth;
 import java.time.format.DateTimeParseException;
@@ -67,6 +69,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.Callable;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
@@ -75,6 +78,7 @@ import java.util.logging.Logger;
 import java.util.stream.Collectors;
 
 import static io.javalin.http.HttpStatus.FORBIDDEN;
+import static io.javalin.http.HttpStatus.NOT_MODIFIED;
 import static java.util.logging.Level.INFO;
 import static java.util.logging.Level.SEVERE;
 import static java.util.logging.Level.WARNING;
@@ -347,6 +351,7 @@ public class Server {
     private static void configureRoutes(JavalinDefaultRoutingApi app,
                                         EmagMirrorDB mirrorDB,
                                         API api,
+                                        ResponseCache responseCache,
                                         RelyingParty rp,
                                         BackgroundJob backgroundJob) {
         configureAcmeChallenge(app);
@@ -358,7 +363,7 @@ public class Server {
             app.get("/index.html", ctx -> ctx.redirect("/private/overview"));
         }
 
-        configureAPI(app, api, backgroundJob);
+        configureAPI(app, api, responseCache, backgroundJob);
         configurePasskey(app, mirrorDB, rp);
 
         app.before("/private/*", ctx -> checkRole(ctx, user));
@@ -373,6 +378,8 @@ public class Server {
         app.post("/private/products/insert", ctx -> insertProduct(ctx, mirrorDB));
         app.post("/private/products/save", ctx -> saveProductTableChanges(ctx, mirrorDB));
         app.get("/private/{page}", ctx -> renderPage(ctx, mirrorDB, ctx.pathParam("page")));
+        // Products, categories and employees are part of the analytics answers.
+        app.after("/private/*", ctx -> invalidateAfterChange(ctx, responseCache));
 
         app.before("/admin/*", ctx -> checkRole(ctx, admin));
         app.get("/admin/db-explorer", ctx -> ctx.redirect("/admin/db-explorer/products"));
@@ -649,6 +656,7 @@ public class Server {
         mirrorDB.resetTasks();
 
         API api = new API(mirrorDB);
+        ResponseCache responseCache = new ResponseCache(500, Duration.ofHours(1));
 
         String configNamePort = "PORT";
         String configNameSecurePort = "PORT_SECURE";
@@ -664,6 +672,8 @@ public class Server {
             return thread;
         });
         BackgroundJob backgroundJob = new BackgroundJob(mirrorDB, scheduler);
+        backgroundJob.addFetchListener(api::invalidateDailyCounts);
+        backgroundJob.addFetchListener(responseCache::invalidate);
 
         // Give administrators time to pause individual tasks before the first dispatcher cycle.
         scheduler.schedule(() -> scheduleWithRestart(scheduler, backgroundJob), 5, TimeUnit.MINUTES);
@@ -672,7 +682,7 @@ public class Server {
 
         var app = Javalin.create(config -> {
             configure(config, port, securePort);
-            configureRoutes(config.routes, mirrorDB, api, rp, backgroundJob);
+            configureRoutes(config.routes, mirrorDB, api, responseCache, rp, backgroundJob);
         });
 
         app.start();
@@ -967,167 +977,52 @@ public class Server {
         shutdownThread.start();
     }
 
-    private static void configureAPI(JavalinDefaultRoutingApi app, API api, BackgroundJob backgroundJob) {
+    private static void configureAPI(JavalinDefaultRoutingApi app, API api, ResponseCache responseCache, BackgroundJob backgroundJob) {
         app.before("/app/*", ctx -> checkRole(ctx, user)); // TODO: Need to protect admin calls
-        app.get("/app/products", ctx -> {
-            String json = api.getProducts();
-            if (json == null) {
-                ctx.status(500).result("""
-                        {"error":"Database error"}""");
-            } else {
-                ctx.contentType("application/json").result(json);
-            }
-        });
+        app.get("/app/products", ctx -> cachedJson(ctx, responseCache, api::getProducts));
 
-        app.get("/app/rrr/{id}", ctx -> {
-            String id = ctx.pathParam("id");
-            var rrr = api.getRRR(id);
-            if (rrr == null) {
-                ctx.status(500).result("{\"error\":\"Database error\"}");
-            } else {
-                ctx.json(rrr);
-            }
-        });
+        app.get("/app/rrr/{id}", ctx -> cachedJson(ctx, responseCache, () -> api.getRRR(ctx.pathParam("id"))));
 
-        app.get("/app/rrr-smoothed/{id}", ctx -> {
-            String id = ctx.pathParam("id");
-            var rrr = api.getCohortSmoothedRRR(id);
-            if (rrr == null) {
-                ctx.status(500).result("{\"error\":\"Database error\"}");
-            } else {
-                ctx.json(rrr);
-            }
-        });
+        app.get("/app/rrr-smoothed/{id}", ctx -> cachedJson(ctx, responseCache, () -> api.getCohortSmoothedRRR(ctx.pathParam("id"))));
 
-        app.get("/app/orders/{id}", ctx -> {
-            String id = ctx.pathParam("id");
-            var orders = api.getOrders(id);
-            if (orders == null) {
-                ctx.status(500).result("{\"error\":\"Database error\"}");
-            } else {
-                ctx.json(orders);
-            }
-        });
+        app.get("/app/orders/{id}", ctx -> cachedJson(ctx, responseCache, () -> api.getOrders(ctx.pathParam("id"))));
 
-        app.get("/app/storno/{id}", ctx -> {
-            String id = ctx.pathParam("id");
-            var storno = api.getStorno(id);
-            if (storno == null) {
-                ctx.status(500).result("{\"error\":\"Database error\"}");
-            } else {
-                ctx.json(storno);
-            }
-        });
+        app.get("/app/storno/{id}", ctx -> cachedJson(ctx, responseCache, () -> api.getStorno(ctx.pathParam("id"))));
 
-        app.get("/app/returns/{id}", ctx -> {
-            String id = ctx.pathParam("id");
-            var returns = api.getReturns(id);
-            if (returns == null) {
-                ctx.status(500).result("{\"error\":\"Database error\"}");
-            } else {
-                ctx.json(returns);
-            }
-        });
+        app.get("/app/returns/{id}", ctx -> cachedJson(ctx, responseCache, () -> api.getReturns(ctx.pathParam("id"))));
 
-        app.get("/app/orderTable", ctx -> {
-            var returns = api.getOrdersByProductAndMonth();
-            if (returns == null) {
-                ctx.status(500).result("{\"error\":\"Database error\"}");
-            } else {
-                ctx.json(returns);
-            }
-        });
+        app.get("/app/orderTable", ctx -> cachedJson(ctx, responseCache, api::getOrdersByProductAndMonth));
         app.get("/app/orderDetails", ctx -> {
             Validator<YearMonth> month = ctx.queryParamAsClass("month", YearMonth.class);
-            var returns = api.orderDetails(ctx.queryParam("pnk"), month.get());
-            if (returns == null) {
-                ctx.status(500).result("{\"error\":\"Database error\"}");
-            } else {
-                ctx.json(returns);
-            }
+            cachedJson(ctx, responseCache, () -> api.orderDetails(ctx.queryParam("pnk"), month.get()));
         });
 
-        app.get("/app/stornoTable", ctx -> {
-            var returns = api.getStornoByProductAndMonth();
-            if (returns == null) {
-                ctx.status(500).result("{\"error\":\"Database error\"}");
-            } else {
-                ctx.json(returns);
-            }
-        });
+        app.get("/app/stornoTable", ctx -> cachedJson(ctx, responseCache, api::getStornoByProductAndMonth));
         app.get("/app/stornoDetails", ctx -> {
             Validator<YearMonth> month = ctx.queryParamAsClass("month", YearMonth.class);
-            var returns = api.stornoDetails(ctx.queryParam("pnk"), month.get());
-            if (returns == null) {
-                ctx.status(500).result("{\"error\":\"Database error\"}");
-            } else {
-                ctx.json(returns);
-            }
-        });
-        app.get("/app/returnTable", ctx -> {
-            var returns = api.getReturnsByProductAndMonth();
-            if (returns == null) {
-                ctx.status(500).result("{\"error\":\"Database error\"}");
-            } else {
-                ctx.json(returns);
-            }
-        });
-        app.get("/app/stornoRateTable", ctx -> {
-            var returns = api.getStornoRateByProductAndMonth();
-            if (returns == null) {
-                ctx.status(500).result("{\"error\":\"Database error\"}");
-            } else {
-                ctx.json(returns);
-            }
-        });
-        app.get("/app/returnRateTable", ctx -> {
-            var returns = api.getReturnRateByProductAndMonth();
-            if (returns == null) {
-                ctx.status(500).result("{\"error\":\"Database error\"}");
-            } else {
-                ctx.json(returns);
-            }
+            cachedJson(ctx, responseCache, () -> api.stornoDetails(ctx.queryParam("pnk"), month.get()));
         });
+        app.get("/app/returnTable", ctx -> cachedJson(ctx, responseCache, api::getReturnsByProductAndMonth));
+        app.get("/app/stornoRateTable", ctx -> cachedJson(ctx, responseCache, api::getStornoRateByProductAndMonth));
+        app.get("/app/returnRateTable", ctx -> cachedJson(ctx, responseCache, api::getReturnRateByProductAndMonth));
         app.get("/app/monthStats", ctx -> {
             var aggregateMonths = ctx.queryParamAsClass("aggregateMonths", Integer.class);
             var confidenceLevel = ctx.queryParamAsClass("confidenceLevel", Double.class);
             var startMonth = ctx.queryParamAsClass("startMonth", YearMonth.class);
             var endMonth = ctx.queryParamAsClass("endMonth", YearMonth.class);
-            var returns = api.getMonthStats(startMonth.get(), endMonth.get(), aggregateMonths.get(), confidenceLevel.get());
-            if (returns == null) {
-                ctx.status(500).result("{\"error\":\"Database error\"}");
-            } else {
-                ctx.json(returns);
-            }
+            cachedJson(ctx, responseCache, () -> api.getMonthStats(startMonth.get(), endMonth.get(), aggregateMonths.get(), confidenceLevel.get()));
         });
         app.get("/app/monthStatsByCategory", ctx -> {
             var aggregateMonths = ctx.queryParamAsClass("aggregateMonths", Integer.class);
             var confidenceLevel = ctx.queryParamAsClass("confidenceLevel", Double.class);
             var startMonth = ctx.queryParamAsClass("startMonth", YearMonth.class);
             var endMonth = ctx.queryParamAsClass("endMonth", YearMonth.class);
-            var returns = api.getMonthStatsByCategory(startMonth.get(), endMonth.get(), aggregateMonths.get(), confidenceLevel.get());
-            if (returns == null) {
-                ctx.status(500).result("{\"error\":\"Database error\"}");
-            } else {
-                ctx.json(returns);
-            }
-        });
-        app.get("/app/currentRatesTable", ctx -> {
-            var returns = api.getCurrentMonthRatesTable();
-            if (returns == null) {
-                ctx.status(500).result("{\"error\":\"Database error\"}");
-            } else {
-                ctx.json(returns);
-            }
+            cachedJson(ctx, responseCache, () -> api.getMonthStatsByCategory(startMonth.get(), endMonth.get(), aggregateMonths.get(), confidenceLevel.get()));
         });
+        app.get("/app/currentRatesTable", ctx -> cachedJson(ctx, responseCache, api::getCurrentMonthRatesTable));
         app.get("/app/returnDetails", ctx -> {
             Validator<YearMonth> month = ctx.queryParamAsClass("month", YearMonth.class);
-            var returns = api.returnDetails(ctx.queryParam("pnk"), month.get());
-            if (returns == null) {
-                ctx.status(500).result("{\"error\":\"Database error\"}");
-            } else {
-                ctx.json(returns);
-            }
+            cachedJson(ctx, responseCache, () -> api.returnDetails(ctx.queryParam("pnk"), month.get()));
         });
         app.get("/app/tasks", ctx -> {
             ctx.header("Cache-Control", "no-store");
@@ -1146,6 +1041,59 @@ public class Server {
             ctx.header("Cache-Control", "no-store");
             ctx.json(backgroundJob.pausedTaskNames());
         });
+        app.get("/app/cacheStats", ctx -> {
+            ctx.header("Cache-Control", "no-store");
+            ctx.json(Map.of(
+                    "dailyCounts", api.getDailyCountCacheStats(),
+                    "responses", responseCache.stats()
+            ));
+        });
+    }
+
+    /**
+     * Answer from the response cache, computing the JSON on a miss.
+     * Sends ETag and Last-Modified, answers conditional requests with 304 and uses the gzip body when accepted.
+     *
+     * @param ctx     of the request.
+     * @param cache   holding the answers.
+     * @param compute produces the result, a JSON string or an object serialized by the JSON mapper, or null on database errors.
+     */
+    private static void cachedJson(Context ctx, ResponseCache cache, Callable<@Nullable Object> compute) throws Exception {
+        var query = ctx.queryString();
+        var key = query == null ? ctx.path() : ctx.path() + "?" + query;
+        var body = cache.get(key, () -> {
+            var result = compute.call();
+            if (result == null) {
+                return null;
+            }
+            return result instanceof String json ? json : ctx.jsonMapper().toJsonString(result, result.getClass());
+        });
+        if (body == null) {
+            ctx.status(500).result("{\"error\":\"Database error\"}");
+            return;
+        }
+        ctx.header("ETag", body.etag());
+        ctx.header("Last-Modified", body.lastModifiedHeader());
+        ctx.header("Cache-Control", "private, no-cache");
+        ctx.header("Vary", "Accept-Encoding");
+        if (body.isNotModified(ctx.header("If-None-Match"), ctx.header("If-Modified-Since"))) {
+            ctx.status(NOT_MODIFIED);
+            return;
+        }
+        ctx.contentType("application/json");
+        var acceptEncoding = ctx.header("Accept-Encoding");
+        if (acceptEncoding != null && acceptEncoding.contains("gzip")) {
+            ctx.header("Content-Encoding", "gzip");
+            ctx.result(body.gzip());
+        } else {
+            ctx.result(body.json());
+        }
+    }
+
+    private static void invalidateAfterChange(Context ctx, ResponseCache cache) {
+        if (ctx.method() == HandlerType.POST && ctx.status().getCode() < 400) {
+            cache.invalidate();
+        }
     }
 
     private static void renderProductsPage(Context ctx, EmagMirrorDB mirrorDB) {
@@ -1,6 +1,8 @@
 package ro.sellfluence.app;
 
+import org.jspecify.annotations.Nullable;
 import ro.sellfluence.apphelper.EmployeeSheetData;
+import ro.sellfluence.apphelper.SpreadsheetExport;
 import ro.sellfluence.db.EmagMirrorDB;
 import ro.sellfluence.db.ProductTable.ProductInfo;
 import ro.sellfluence.googleapi.SheetsAPI;
@@ -22,10 +24,13 @@ import java.util.Locale;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Logger;
 import java.util.stream.Collectors;
 
 import static java.util.Comparator.comparing;
+import static java.util.Objects.requireNonNull;
 import static java.util.logging.Level.INFO;
 import static java.util.logging.Level.WARNING;
 import static ro.sellfluence.apphelper.Defaults.databaseOptionName;
@@ -72,6 +77,44 @@ public class UpdateEmployeeSheetsFromDB {
     record FeedbackTab(SheetsAPI sheet, String tabName) {
     }
 
+    private static final String orderIdColumnName = "A";
+    private static final String pnkColumnName = "G";
+
+    /**
+     * Number of header rows of a feedback tab.
+     */
+    private static final int headerRows = 4;
+
+    /**
+     * Orders of a feedback tab as needed to append new ones.
+     *
+     * @param lastRow  number of the last row with an order ID.
+     * @param orderIds order IDs below the header.
+     * @param pnks     PNKs in the tab. Only the one of the last row, if the tab was not read completely.
+     */
+    private record TabOrders(int lastRow, Set<String> orderIds, Set<String> pnks) {
+    }
+
+    /**
+     * Rows queued for a feedback tab, to be recorded in the database once they are written.
+     */
+    private record Appended(String tabName, int lastRow, String lastOrderId, List<String> orderIds) {
+    }
+
+    /**
+     * Orders of the feedback tabs, read once per spreadsheet in this run.
+     */
+    private final Map<FeedbackTab, TabOrders> tabOrders = new ConcurrentHashMap<>();
+
+    /**
+     * What is read from an employee spreadsheet before the new orders are determined.
+     *
+     * @param dates     start date by PNK from the statistics tab.
+     * @param tabOrders orders by the name of the feedback tab. Tabs which do not exist are missing.
+     */
+    private record SheetState(Map<String, LocalDate> dates, Map<String, TabOrders> tabOrders) {
+    }
+
     /**
      * This method will transfer new orders to the appropriate employee sheet depending on the products.
      *
@@ -81,6 +124,7 @@ public class UpdateEmployeeSheetsFromDB {
     public void transferFromDBToSheet(EmagMirrorDB mirrorDB) throws SQLException {
         // Consider only products that are still sold.
         var products = mirrorDB.readProducts().stream().filter(it -> !it.retracted()).toList();
+        SheetsAPI.prefetchSpreadSheetIds(defaultGoogleApp, products.stream().map(ProductInfo::employeeSheetName).filter(Objects::nonNull).collect(Collectors.toSet()));
         // add everything for one employee
         // products = products.stream().filter(it -> it.employeeSheetName().equals("Z. Purdel Maria Mălina - Feedback Clienti")).toList();
         // add only for one PNK
@@ -124,14 +168,18 @@ public class UpdateEmployeeSheetsFromDB {
         var existingOrderAssignments = new HashMap<String, FeedbackTab>();
         // Map SheetData to OrderId
         var newAssignments = new HashMap<EmployeeSheetData, String>();
-        for (var entry : productsByEmployee.entrySet()) {
-            var spreadSheet = entry.getKey();
-            var productsForEmployee = entry.getValue();
-            if (spreadSheet == null) {
-                logger.log(WARNING, "No spreadsheet found for products %s".formatted(productsByEmployee));
-                continue;
-            }
-            var dates = datesByProductForSheet(spreadSheet);
+        // Read all spreadsheets in parallel, then process them one after the other.
+        var employeeSheets = List.copyOf(productsByEmployee.keySet());
+        var sheetStates = SpreadsheetExport.map("Read the employee sheets", employeeSheets, SheetsAPI::getSpreadSheetName, spreadSheet -> {
+            var tabNames = productsByEmployee.get(spreadSheet).stream().map(ProductInfo::employeeSheetTab).filter(Objects::nonNull).toList();
+            return new SheetState(datesByProductForSheet(spreadSheet), readTabOrders(mirrorDB, spreadSheet, tabNames));
+        });
+        for (int i = 0; i < employeeSheets.size(); i++) {
+            var spreadSheet = employeeSheets.get(i);
+            var productsForEmployee = productsByEmployee.get(spreadSheet);
+            var dates = sheetStates.get(i).dates();
+            var ordersByTab = sheetStates.get(i).tabOrders();
+            ordersByTab.forEach((tabName, orders) -> tabOrders.put(new FeedbackTab(spreadSheet, tabName), orders));
             for (ProductInfo product : productsForEmployee) {
                 var pnk = product.pnk();
                 if (product.employeeSheetName() == null) {
@@ -142,8 +190,12 @@ public class UpdateEmployeeSheetsFromDB {
                     logger.log(WARNING, "No product tab found for PNK %s on the sheet %s.".formatted(pnk, product.employeeSheetName()));
                     continue;
                 }
-                progressLogger.log(INFO, () -> "Read orders from the spreadsheet %s tab %s for PNK %s.".formatted(spreadSheet, product.employeeSheetTab(), pnk));
-                accumulateExistingOrders(spreadSheet, product.employeeSheetTab(), existingOrderAssignments);
+                var orders = ordersByTab.get(product.employeeSheetTab());
+                if (orders == null) {
+                    logger.log(WARNING, "The tab %s for PNK %s does not exist on the sheet %s.".formatted(product.employeeSheetTab(), pnk, product.employeeSheetName()));
+                    continue;
+                }
+                accumulateExistingOrders(spreadSheet, product.employeeSheetTab(), orders, existingOrderAssignments);
                 LocalDate startDate = dates.get(pnk);
                 if (startDate == null) {
                     startDate = LocalDate.now().minusMonths(1);
@@ -213,8 +265,12 @@ public class UpdateEmployeeSheetsFromDB {
                         .add(data);
             }
         }
-        for (Map.Entry<SheetsAPI, List<EmployeeSheetData>> entry : reorderedByEmployeeSheet.entrySet()) {
+        var savedCalls = new AtomicInteger();
+        var sheetEntries = List.copyOf(reorderedByEmployeeSheet.entrySet());
+        SpreadsheetExport.forEach("Transfer to the employee sheets", sheetEntries, entry -> entry.getKey().getSpreadSheetName(), entry -> {
             var sheet = entry.getKey();
+            var writeBuffer = sheet.newWriteBuffer();
+            var appendedTabs = new ArrayList<Appended>();
             var groupedBySheet = entry.getValue().stream().collect(Collectors.groupingBy(it -> productsByPNK.get(it.partNumberKey()).employeeSheetTab()));
             for (var entry1 : groupedBySheet.entrySet()) {
                 var sheetName = entry1.getKey();
@@ -239,10 +295,22 @@ public class UpdateEmployeeSheetsFromDB {
                             .sorted(comparing(EmployeeSheetData::orderDate))
                             .map(UpdateEmployeeSheetsFromDB::mapEmagToRow)
                             .toList();
-                    addToSheet(filteredOrders.getFirst().partNumberKey(), sheet, sheetName, rowData);
+                    var appended = addToSheet(filteredOrders.getFirst().partNumberKey(), sheet, sheetName, rowData, writeBuffer);
+                    if (appended != null) {
+                        appendedTabs.add(appended);
+                    }
                 }
             }
-        }
+            if (writeBuffer.pendingRanges() > 0) {
+                var result = writeBuffer.flush();
+                savedCalls.addAndGet(result.savedCalls());
+                progressLogger.log(INFO, "Wrote %d tabs of spreadsheet %s with %d calls.".formatted(result.ranges(), sheet.getSpreadSheetName(), result.calls()));
+                for (Appended appended : appendedTabs) {
+                    mirrorDB.appendSheetExportState(sheet.getSpreadSheetId(), appended.tabName(), appended.lastRow(), appended.lastOrderId(), appended.orderIds());
+                }
+            }
+        });
+        progressLogger.log(INFO, () -> "Batching the writes saved %d Sheets API calls.".formatted(savedCalls.get()));
         //TODO: We currently look at orders but shouldn't we rather look at customers?
     }
 
@@ -251,11 +319,11 @@ public class UpdateEmployeeSheetsFromDB {
      *
      * @param sheet                    spreadsheet.
      * @param tabName                  name of the sheet within the spreadsheet.
+     * @param orders                   orders in the tab.
      * @param existingOrderAssignments map of existing order IDs to sheets.
      */
-    private static void accumulateExistingOrders(SheetsAPI sheet, final String tabName, HashMap<String, FeedbackTab> existingOrderAssignments) {
-        var orderIdColumn = sheet.getColumn(tabName, "A").stream().skip(4).toList();
-        for (var orderId : orderIdColumn) {
+    private static void accumulateExistingOrders(SheetsAPI sheet, final String tabName, TabOrders orders, HashMap<String, FeedbackTab> existingOrderAssignments) {
+        for (var orderId : orders.orderIds()) {
             var oldAssignment = existingOrderAssignments.put(orderId, new FeedbackTab(sheet, tabName));
             if (oldAssignment != null) {
                 logger.log(
@@ -318,13 +386,60 @@ public class UpdateEmployeeSheetsFromDB {
     }
 
     /**
-     * Add new orders for a product to its assigned sheet.
+     * Read the orders of the feedback tabs of a spreadsheet.
+     * <p>
+     * A tab exported before only needs its last row to be read: if it still holds the order ID recorded in the
+     * database and the row below is empty, the order IDs recorded in the database are those in the tab.
+     * The other tabs are read completely and their state in the database is replaced.
      *
-     * @param pnk       Product identification
-     * @param rowsToAdd Additional rows.
+     * @param mirrorDB    database holding the export state.
+     * @param spreadSheet employee spreadsheet.
+     * @param tabNames    names of the feedback tabs.
+     * @return orders by tab name, tabs which do not exist are missing.
+     * @throws SQLException on database errors.
      */
-    private void addToSheet(String pnk, SheetsAPI sheet, String sheetName, List<List<Object>> rowsToAdd) {
-        List<String> orderIdColumn = sheet.getColumnInChunks(sheetName, "A", 1000);
+    private static Map<String, TabOrders> readTabOrders(EmagMirrorDB mirrorDB, SheetsAPI spreadSheet, List<String> tabNames) throws SQLException {
+        var existingTabs = spreadSheet.refreshTabNames();
+        var tabs = tabNames.stream().distinct().filter(existingTabs::contains).toList();
+        var states = mirrorDB.readSheetExportStates(spreadSheet.getSpreadSheetId());
+        var result = new HashMap<String, TabOrders>();
+        var tabsToVerify = tabs.stream().filter(states::containsKey).toList();
+        var lastRanges = tabsToVerify.stream()
+                .map(tab -> {
+                    var lastRow = states.get(tab).lastRow();
+                    return SheetsAPI.tabRange(tab, "%s%d:%s%d".formatted(orderIdColumnName, lastRow, pnkColumnName, lastRow + 1));
+                })
+                .toList();
+        var lastRows = spreadSheet.readRanges(lastRanges, null);
+        for (int i = 0; i < tabsToVerify.size(); i++) {
+            var state = states.get(tabsToVerify.get(i));
+            var rows = lastRows.get(i);
+            if (rows.size() == 1 && !rows.getFirst().isEmpty() && state.lastKey().equals(rows.getFirst().getFirst())) {
+                var lastRow = rows.getFirst();
+                var pnks = lastRow.size() > 6 && lastRow.get(6) instanceof String pnk && !pnk.isBlank() ? Set.of(pnk) : Set.<String>of();
+                result.put(state.tabName(), new TabOrders(state.lastRow(), state.keys(), pnks));
+            }
+        }
+        var tabsToRead = tabs.stream().filter(tab -> !result.containsKey(tab)).toList();
+        progressLogger.log(INFO, () -> "Spreadsheet %s: %d tabs unchanged since the last export, reading %d tabs."
+                .formatted(spreadSheet.getSpreadSheetName(), result.size(), tabsToRead.size()));
+        if (!tabsToRead.isEmpty()) {
+            var snapshot = spreadSheet.readColumns(tabsToRead, orderIdColumnName, pnkColumnName);
+            for (var tab : tabsToRead) {
+                var orderIdColumn = requireNonNull(snapshot.getColumn(tab, orderIdColumnName));
+                warnAboutRepeatedOrders(orderIdColumn);
+                var orderIds = orderIdColumn.stream().skip(headerRows).filter(id -> !id.isBlank()).collect(Collectors.toSet());
+                var pnks = requireNonNull(snapshot.getColumn(tab, pnkColumnName)).stream().skip(3).filter(x -> !x.isBlank()).collect(Collectors.toSet());
+                result.put(tab, new TabOrders(orderIdColumn.size(), orderIds, pnks));
+                if (!orderIdColumn.isEmpty()) {
+                    mirrorDB.replaceSheetExportState(spreadSheet.getSpreadSheetId(), tab, orderIdColumn.size(), orderIdColumn.getLast(), orderIds);
+                }
+            }
+        }
+        return result;
+    }
+
+    private static void warnAboutRepeatedOrders(List<String> orderIdColumn) {
         var mapOrderToColumn = new HashMap<String, List<Integer>>();
         for (var rowNumber = 0; rowNumber < orderIdColumn.size(); rowNumber++) {
             var orderId = orderIdColumn.get(rowNumber);
@@ -348,8 +463,24 @@ public class UpdateEmployeeSheetsFromDB {
                                 )
                         )
                 );
-        var lastRowNumber = orderIdColumn.size();
-        var processedOrderIds = new HashSet<>(orderIdColumn);   // Drops duplicates.
+    }
+
+    /**
+     * Add new orders for a product to its assigned sheet.
+     *
+     * @param pnk         Product identification
+     * @param rowsToAdd   Additional rows.
+     * @param writeBuffer collecting the writes to the spreadsheet.
+     * @return the rows queued, or null if nothing was queued.
+     */
+    private @Nullable Appended addToSheet(String pnk, SheetsAPI sheet, String sheetName, List<List<Object>> rowsToAdd, SheetsAPI.WriteBuffer writeBuffer) {
+        var orders = tabOrders.get(new FeedbackTab(sheet, sheetName));
+        if (orders == null) {
+            logger.log(WARNING, "The tab %s does not exist on the sheet %s.".formatted(sheetName, sheet.getSpreadSheetName()));
+            return null;
+        }
+        var lastRowNumber = orders.lastRow();
+        var processedOrderIds = orders.orderIds();
         var withoutDuplicates = rowsToAdd.stream()
                 .filter(row -> !processedOrderIds.contains(((String) row.getFirst())))
                 .toList();
@@ -358,7 +489,7 @@ public class UpdateEmployeeSheetsFromDB {
                     "Adding %d rows after row %d to tab %s of spreadsheet %s."
                             .formatted(withoutDuplicates.size(), lastRowNumber, sheetName, sheet.getSpreadSheetName())
             );
-            var pnksInSheet = sheet.getColumn(sheetName, "G").stream().skip(3).filter(x -> !x.isBlank()).collect(Collectors.toSet());
+            var pnksInSheet = orders.pnks();
             if (pnksInSheet.size() > 1 && !pnksInSheet.contains(pnk)) {
                 logger.log(WARNING, "Sheet '%s' in Spreadsheet '%s' contains multiple PNKs in column 7: %s.".formatted(sheetName, sheet.getTitle(), pnksInSheet));
             } else if (pnksInSheet.size() == 1 && !Objects.equals(pnksInSheet.iterator().next(), pnk)) {
@@ -367,32 +498,13 @@ public class UpdateEmployeeSheetsFromDB {
                 if (pnksInSheet.size() > 1) {
                     logger.log(WARNING, "Adding even though sheet '%s' in Spreadsheet '%s' contains multiple PNKs in column 7: %s.".formatted(sheetName, sheet.getTitle(), pnksInSheet));
                 }
-                updateRangeInChunks(sheet, sheetName, lastRowNumber + 1, withoutDuplicates);
+                var firstRow = lastRowNumber + 1;
+                var range = "%s!A%d:N%d".formatted(sheetName, firstRow, firstRow + withoutDuplicates.size() - 1);
+                writeBuffer.updateRange(range, withoutDuplicates);
+                var orderIds = withoutDuplicates.stream().map(row -> (String) row.getFirst()).toList();
+                return new Appended(sheetName, firstRow + withoutDuplicates.size() - 1, orderIds.getLast(), orderIds);
             }
         }
+        return null;
     }
-
-    private static final int chunkSize = 50;
-
-    /**
-     * Split the rows into chunks of size chunkSize and call sheet.updateRange for each.
-     *
-     * @param sheet     the SheetsAPI instance
-     * @param sheetName target sheet name
-     * @param startRow  1-based row number where the first chunk should be inserted
-     * @param rows      the full list of rows to insert
-     */
-    private void updateRangeInChunks(SheetsAPI sheet,
-                                     String sheetName,
-                                     int startRow,
-                                     List<List<Object>> rows) {
-        for (int offset = 0; offset < rows.size(); offset += chunkSize) {
-            int endIndex = Math.min(rows.size(), offset + chunkSize);
-            List<List<Object>> chunk = rows.subList(offset, endIndex);
-            int chunkStart = startRow + offset;
-            int chunkEnd = startRow + endIndex - 1;
-            String range = "%s!A%d:N%d".formatted(sheetName, chunkStart, chunkEnd);
-            sheet.updateRange(range, chunk);
-        }
-    }
-}
\ No newline at end of file
+}
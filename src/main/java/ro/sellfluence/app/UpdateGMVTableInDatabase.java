@@ -12,6 +12,6 @@ import static ro.sellfluence.apphelper.Defaults.defaultDatabase;
 public class UpdateGMVTableInDatabase {
 
     public static void main(String[] args) throws SQLException, IOException {
-        EmagMirrorDB.getEmagMirrorDB(new Arguments(args).getOption(databaseOptionName, defaultDatabase)).updateGMVTable();
+        EmagMirrorDB.getEmagMirrorDB(new Arguments(args).getOption(databaseOptionName, defaultDatabase)).recomputeGMVTable();
     }
 }
\ No newline at end of file
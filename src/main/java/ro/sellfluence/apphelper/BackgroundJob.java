@@ -10,6 +10,7 @@ import ro.sellfluence.app.UpdateProductEmployeeSheetTabsFromSheets;
 import ro.sellfluence.app.UpdateEmployeeSheetsFromDB;
 import ro.sellfluence.db.EmagMirrorDB;
 import ro.sellfluence.db.Task;
+import ro.sellfluence.emagapi.EmagClients;
 import ro.sellfluence.support.Logs;
 
 import java.sql.SQLException;
@@ -18,6 +19,7 @@ import java.time.LocalDateTime;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.atomic.AtomicBoolean;
@@ -42,12 +44,22 @@ public class BackgroundJob {
     private final Set<String> pausedTaskNames = new HashSet<>();
     private final EmagMirrorDB mirrorDB;
     private final ScheduledExecutorService scheduler;
+    private final List<Runnable> fetchListeners = new CopyOnWriteArrayList<>();
 
     public BackgroundJob(EmagMirrorDB db, ScheduledExecutorService scheduler) {
         mirrorDB = db;
         this.scheduler = scheduler;
     }
 
+    /**
+     * Register an action to run each time a task fetching from eMAG ended, also when it failed part way.
+     *
+     * @param listener action to run on the task thread.
+     */
+    public void addFetchListener(Runnable listener) {
+        fetchListeners.add(listener);
+    }
+
     public enum RunStatus {
         ACCEPTED,
         BUSY,
@@ -110,27 +122,27 @@ public class BackgroundJob {
             new TaskRunner("Populate products from sheets", hourly, always, PopulateProductsTableFromSheets::updateProductTable),
             new TaskRunner("Fetch new orders from eMAG and update GMV in DB", hourly, always, db -> {
                 EmagDBApp.fetchNewOrders(db);
-                db.updateGMVTable();
+                updateDerivedTables(db);
             }),
             new TaskRunner("Fetch not finalized orders from last 30 days eMAG and update GMV in DB", hourly, always, db -> {
                 EmagDBApp.fetchOrdersNotFinalizedInDB(db, true);
-                db.updateGMVTable();
+                updateDerivedTables(db);
             }),
             new TaskRunner("Fetch not finalized orders and update GMV in DB", daily, this::outOfOfficeHour, db -> {
                 EmagDBApp.fetchOrdersNotFinalizedInDB(db, false);
-                db.updateGMVTable();
+                updateDerivedTables(db);
             }),
             new TaskRunner("Fetch storno orders from eMAG and update GMV in DB", hourly, always, db -> {
                 EmagDBApp.fetchStornoOrders(db);
-                db.updateGMVTable();
+                updateDerivedTables(db);
             }),
             new TaskRunner("Fetch RMAs from eMAG and update GMV in DB", hourly, always, db -> {
                 EmagDBApp.fetchRMAs(db);
-                db.updateGMVTable();
+                updateDerivedTables(db);
             }),
             new TaskRunner("Refetch some from eMAG and update GMV in DB", weekly, always, db -> {
                 EmagDBApp.fetchAndStoreToDBProbabilistic(db);
-                db.updateGMVTable();
+                updateDerivedTables(db);
             })
     );
 
@@ -147,6 +159,15 @@ public class BackgroundJob {
             new TaskRunner("Transfer to employee sheet", hourly, this::outOfOfficeHour, UpdateEmployeeSheetsFromDB::updateSheets)
     );
 
+    /**
+     * Bring the tables computed from the orders and returns up to date after a fetch.
+     */
+    private static void updateDerivedTables(EmagMirrorDB db) throws SQLException {
+        db.updateGMVTable();
+        db.updateStornoTable();
+        db.updateMonthlyCounts();
+    }
+
     private boolean outOfOfficeHour(LocalDateTime time) {
         return time.getHour() < 7 || time.getHour() > 18;
     }
@@ -322,10 +343,23 @@ public class BackgroundJob {
             }
             logger.log(WARNING, taskName + " ended with an error.", e);
         } finally {
+            if (fetchers.contains(taskRunner)) {
+                notifyFetchListeners();
+            }
             activeTaskName.compareAndSet(taskName, null);
         }
     }
 
+    private void notifyFetchListeners() {
+        for (var listener : fetchListeners) {
+            try {
+                listener.run();
+            } catch (RuntimeException e) {
+                logger.log(WARNING, "Fetch listener failed.", e);
+            }
+        }
+    }
+
     private @Nullable TaskRunner findRunner(String taskName) {
         for (var taskRunner : fetchers) {
             if (taskRunner.name().equals(taskName)) {
@@ -364,10 +398,11 @@ public class BackgroundJob {
     }
 
     /**
-     * Mark the background job for not running any more.
+     * Mark the background job for not running any more and close the eMAG clients shared by the fetch tasks.
      */
     public void shutdown() {
         running.set(false);
+        EmagClients.shared().closeAll();
         logger.info("BackgroundJob: Shutdown requested");
     }
 }
@@ -0,0 +1,113 @@
+package ro.sellfluence.apphelper;
+
+import ro.sellfluence.googleapi.SheetsQuota;
+import ro.sellfluence.support.Logs;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.function.Function;
+import java.util.logging.Logger;
+
+import static java.util.logging.Level.INFO;
+import static java.util.logging.Level.WARNING;
+
+/**
+ * Runs the export to several spreadsheets in parallel on virtual threads.
+ * <p>
+ * Work on different spreadsheets is independent, so the total time is about that of the slowest spreadsheet.
+ * The requests of all workers are paced by the shared {@link SheetsQuota}.
+ */
+public final class SpreadsheetExport {
+
+    private static final Logger logger = Logs.getConsoleLogger("SpreadsheetExport", INFO);
+
+    /**
+     * Maximum number of spreadsheets worked on at the same time.
+     */
+    static final int MAX_CONCURRENT_SPREADSHEETS = 8;
+
+    @FunctionalInterface
+    public interface Work<T, R> {
+        R apply(T item) throws Exception;
+    }
+
+    @FunctionalInterface
+    public interface Task<T> {
+        void run(T item) throws Exception;
+    }
+
+    private SpreadsheetExport() {
+    }
+
+    /**
+     * Run the task for each item in parallel and wait for all of them.
+     *
+     * @param title    used in log messages.
+     * @param items    typically one per spreadsheet.
+     * @param describe names an item in log messages.
+     * @param task     work for one item.
+     * @throws RuntimeException if at least one task failed, after all tasks finished.
+     */
+    public static <T> void forEach(String title, List<T> items, Function<T, String> describe, Task<T> task) {
+        map(title, items, describe, item -> {
+            task.run(item);
+            return null;
+        });
+    }
+
+    /**
+     * Compute a result for each item in parallel and wait for all of them.
+     *
+     * @param title    used in log messages.
+     * @param items    typically one per spreadsheet.
+     * @param describe names an item in log messages.
+     * @param work     computes the result of one item.
+     * @return results in the order of the items.
+     * @throws RuntimeException if at least one task failed, after all tasks finished.
+     */
+    public static <T, R> List<R> map(String title, List<T> items, Function<T, String> describe, Work<T, R> work) {
+        var permits = new Semaphore(MAX_CONCURRENT_SPREADSHEETS);
+        var futures = new ArrayList<Future<R>>();
+        var t0 = System.currentTimeMillis();
+        try (var executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (T item : items) {
+                futures.add(executor.submit(() -> {
+                    permits.acquire();
+                    try {
+                        var start = System.currentTimeMillis();
+                        var result = work.apply(item);
+                        logger.log(INFO, "%s for %s took %.2f seconds.".formatted(title, describe.apply(item), (System.currentTimeMillis() - start) / 1000.0));
+                        return result;
+                    } finally {
+                        permits.release();
+                    }
+                }));
+            }
+        }
+        var results = new ArrayList<R>();
+        RuntimeException failure = null;
+        for (int i = 0; i < futures.size(); i++) {
+            try {
+                results.add(futures.get(i).get());
+            } catch (ExecutionException | InterruptedException e) {
+                var cause = (e instanceof ExecutionException) ? e.getCause() : e;
+                var name = describe.apply(items.get(i));
+                logger.log(WARNING, "%s failed for %s.".formatted(title, name), cause);
+                if (failure == null) {
+                    failure = new RuntimeException("%s failed for %s.".formatted(title, name), cause);
+                } else {
+                    failure.addSuppressed(cause);
+                }
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+        logger.log(INFO, "%s for %d spreadsheets took %.2f seconds.".formatted(title, items.size(), (System.currentTimeMillis() - t0) / 1000.0));
+        return results;
+    }
+}
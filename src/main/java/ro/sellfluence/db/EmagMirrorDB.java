@@ -5,10 +5,12 @@ import com.yubico.webauthn.RegisteredCredential;
 import com.yubico.webauthn.data.ByteArray;
 import com.yubico.webauthn.data.PublicKeyCredentialDescriptor;
 import org.jspecify.annotations.NonNull;
+import org.jspecify.annotations.Nullable;
 import ro.sellfluence.apphelper.EmployeeSheetData;
 import ro.sellfluence.db.CategoryDataTable.CategoryInfo;
 import ro.sellfluence.db.EmagFetchLog.EmagFetchHistogram;
 import ro.sellfluence.db.EmployeeDataTable.EmployeeInfo;
+import ro.sellfluence.db.GMV.AllProductsGMV;
 import ro.sellfluence.db.EmagOrder.ExtendedOrder;
 import ro.sellfluence.db.ProductTable.ProductInfo;
 import ro.sellfluence.db.ProductTable.ProductWithVendor;
@@ -21,10 +23,12 @@ import ro.sellfluence.emagapi.Product;
 import ro.sellfluence.emagapi.RMAResult;
 import ro.sellfluence.sheetSupport.Conversions;
 import ro.sellfluence.support.Logs;
+import ro.sellfluence.support.UsefulMethods;
 
 import java.io.IOException;
 import java.math.BigDecimal;
 import java.sql.Connection;
+import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.time.Instant;
 import java.time.LocalDate;
@@ -32,8 +36,10 @@ import java.time.LocalDateTime;
 import java.time.YearMonth;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Comparator;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
@@ -41,6 +47,7 @@ import java.util.Set;
 import java.util.SortedMap;
 import java.util.TreeMap;
 import java.util.UUID;
+import java.util.function.BiConsumer;
 import java.util.logging.Logger;
 import java.util.stream.Stream;
 
@@ -52,10 +59,12 @@ import static ro.sellfluence.db.EmagFetchLog.getEmagLog;
 import static ro.sellfluence.db.EmagFetchLog.insertEmagLog;
 import static ro.sellfluence.db.EmagFetchLog.updateEmagLog;
 import static ro.sellfluence.db.EmagOrder.addOrderResult;
+import static ro.sellfluence.db.EmagOrder.addOrderResults;
 import static ro.sellfluence.db.GMV.computeAndStoreGMVForProduct;
 import static ro.sellfluence.db.GMV.getGMVByMonth;
-import static ro.sellfluence.db.GMV.getGMVByProductId;
-import static ro.sellfluence.db.ProductTable.getProductCodes;
+import static ro.sellfluence.db.GMV.getGMVOfAllProducts;
+import static ro.sellfluence.db.GMV.upsertGMV;
+import static ro.sellfluence.db.GMV.takeChangedMonthsByProduct;
 import static ro.sellfluence.db.ProductTable.getProducts;
 import static ro.sellfluence.db.ProductTable.insertOrUpdateProduct;
 import static ro.sellfluence.db.ProductTable.insertOrUpdateProductPreservingEmployeeSheetTab;
@@ -68,7 +77,6 @@ import static ro.sellfluence.support.UsefulMethods.require;
 import static ro.sellfluence.support.UsefulMethods.toLocalDate;
 import static ro.sellfluence.support.UsefulMethods.toLocalDateTime;
 import static ro.sellfluence.support.UsefulMethods.toTimestamp;
-import static ro.sellfluence.support.UsefulMethods.toYearMonth;
 
 /**
  * EmagMirrorDB provides a mechanism for managing and interacting with the eMAG mirrored database system.
@@ -87,6 +95,14 @@ public class EmagMirrorDB {
 
     private final DB database;
 
+    /**
+     * Sales and returns held in memory for the rolling return rate, see {@link #getReturnRateEngine()}.
+     */
+    private record LoadedReturnRateEngine(LocalDateTime loaded, RollingReturnRateEngine engine) {
+    }
+
+    private volatile @Nullable LoadedReturnRateEngine returnRateEngine;
+
     public record ProductWrite(ProductInfo productInfo, boolean insert) {
     }
 
@@ -105,6 +121,25 @@ public class EmagMirrorDB {
     public record CategoryWriteResult(int inserted, int updated) {
     }
 
+    /**
+     * Outcome of writing orders read from eMAG.
+     *
+     * @param inserted number of orders which were new.
+     * @param updated number of existing orders where something changed.
+     * @param unchanged number of existing orders which were identical to the stored version.
+     */
+    public record OrderWriteResult(int inserted, int updated, int unchanged) {
+        public static final OrderWriteResult NONE = new OrderWriteResult(0, 0, 0);
+
+        public OrderWriteResult plus(OrderWriteResult other) {
+            return new OrderWriteResult(inserted + other.inserted, updated + other.updated, unchanged + other.unchanged);
+        }
+
+        public int total() {
+            return inserted + updated + unchanged;
+        }
+    }
+
     private EmagMirrorDB(DB database) {
         this.database = database;
     }
@@ -144,7 +179,32 @@ public class EmagMirrorDB {
     public void addOrder(OrderResult order, String account) throws SQLException {
         database.writeTX(db -> {
             var vendorId = insertOrUpdateVendor(db, order.vendor_name(), account);
-            return addOrderResult(order, db, vendorId, order.vendor_name());
+            return addOrderResult(order, db, vendorId);
+        });
+    }
+
+    /**
+     * Add or update several orders in a single transaction.
+     * This is much faster than calling {@link #addOrder(OrderResult, String)} for each of them,
+     * as the dependent rows are written in batches.
+     *
+     * @param orders list of orders, typically one page as returned by eMAG.
+     * @param account eMAG account from which the orders were read.
+     * @return the number of orders inserted, updated and found unchanged.
+     * @throws SQLException on database errors.
+     */
+    public OrderWriteResult addOrders(List<OrderResult> orders, String account) throws SQLException {
+        if (orders.isEmpty()) {
+            return OrderWriteResult.NONE;
+        }
+        return database.writeTX(db -> {
+            var vendorIds = new HashMap<String, UUID>();
+            for (var order : orders) {
+                if (!vendorIds.containsKey(order.vendor_name())) {
+                    vendorIds.put(order.vendor_name(), insertOrUpdateVendor(db, order.vendor_name(), account));
+                }
+            }
+            return addOrderResults(orders, db, vendorIds);
         });
     }
 
@@ -566,35 +626,112 @@ public class EmagMirrorDB {
     }
 
     /**
-     * Update the GMV table based on all orders in the database.
+     * Update the GMV table for the products and months affected by orders added or changed since the last update.
      *
+     * @return number of product and month combinations recomputed.
      * @throws SQLException on database errors.
      */
-    public void updateGMVTable() throws SQLException {
+    public int updateGMVTable() throws SQLException {
+        return database.writeTX(EmagMirrorDB::computeChangedGMV);
+    }
+
+    /**
+     * Recompute the whole GMV table based on all orders in the database.
+     *
+     * @throws SQLException on database errors.
+     */
+    public void recomputeGMVTable() throws SQLException {
         database.writeTX(EmagMirrorDB::computeGMV);
     }
 
     /**
-     * Refresh materialized views used by the cohort-based rolling return rate chart.
-     * Refresh order matters because downstream views depend on upstream ones.
+     * Recompute the monthly counts of all products for the months affected by orders and returns
+     * added or changed since the last update.
      *
+     * @return number of months recomputed.
      * @throws SQLException on database errors.
      */
-    public void refreshReturnRateMaterializedViews() throws SQLException {
+    public int updateMonthlyCounts() throws SQLException {
+        return database.writeTX(db -> ProductMonthCount.refresh(db, false));
+    }
+
+    /**
+     * Read what is known about the tabs of a spreadsheet from previous exports.
+     *
+     * @param spreadsheetId ID of the spreadsheet.
+     * @return state by tab name.
+     * @throws SQLException on database errors.
+     */
+    public Map<String, SheetExportState.State> readSheetExportStates(String spreadsheetId) throws SQLException {
+        return database.readTX(db -> SheetExportState.readStates(db, spreadsheetId));
+    }
+
+    /**
+     * Replace the export state of a tab after it was read completely.
+     *
+     * @param spreadsheetId ID of the spreadsheet.
+     * @param tabName       name of the tab.
+     * @param lastRow       number of the last row.
+     * @param lastKey       key in the last row.
+     * @param keys          keys of all rows.
+     * @throws SQLException on database errors.
+     */
+    public void replaceSheetExportState(String spreadsheetId, String tabName, int lastRow, String lastKey, Collection<String> keys) throws SQLException {
         database.writeTX(db -> {
-            try (var s = db.prepareStatement("REFRESH MATERIALIZED VIEW orders_canonical")) {
-                s.execute();
-            }
-            try (var s = db.prepareStatement("REFRESH MATERIALIZED VIEW sales_daily")) {
-                s.execute();
-            }
-            try (var s = db.prepareStatement("REFRESH MATERIALIZED VIEW returns_linked")) {
-                s.execute();
-            }
-            return true;
+            SheetExportState.replace(db, spreadsheetId, tabName, lastRow, lastKey, keys);
+            return 0;
+        });
+    }
+
+    /**
+     * Record rows appended to a tab.
+     *
+     * @param spreadsheetId ID of the spreadsheet.
+     * @param tabName       name of the tab.
+     * @param lastRow       number of the new last row.
+     * @param lastKey       key in the new last row.
+     * @param keys          keys of the appended rows.
+     * @throws SQLException on database errors.
+     */
+    public void appendSheetExportState(String spreadsheetId, String tabName, int lastRow, String lastKey, Collection<String> keys) throws SQLException {
+        database.writeTX(db -> {
+            SheetExportState.append(db, spreadsheetId, tabName, lastRow, lastKey, keys);
+            return 0;
         });
     }
 
+    /**
+     * Recompute the monthly counts of all products and months.
+     *
+     * @throws SQLException on database errors.
+     */
+    public void recomputeMonthlyCounts() throws SQLException {
+        database.writeTX(db -> ProductMonthCount.refresh(db, true));
+    }
+
+    /**
+     * Bring the data used by the cohort-based rolling return rate chart up to date.
+     * Only the sale days of orders and returns changed since the last refresh are rebuilt.
+     *
+     * @return number of sale days rebuilt.
+     * @throws SQLException on database errors.
+     */
+    public int refreshReturnRateMaterializedViews() throws SQLException {
+        var days = database.writeTX(db -> ReturnRate.refresh(db, false));
+        returnRateEngine = null;
+        return days;
+    }
+
+    /**
+     * Rebuild the data used by the cohort-based rolling return rate chart for all days.
+     *
+     * @throws SQLException on database errors.
+     */
+    public void rebuildReturnRateData() throws SQLException {
+        database.writeTX(db -> ReturnRate.refresh(db, true));
+        returnRateEngine = null;
+    }
+
     /**
      * Retrieve GMVs for a particular month.
      *
@@ -610,6 +747,16 @@ public class EmagMirrorDB {
         return database.readTX(EmagMirrorDB::getGMV);
     }
 
+    /**
+     * Retrieve the full GMV table in columnar form.
+     *
+     * @return GMV values of all products and months.
+     * @throws SQLException on database error.
+     */
+    public GMVMatrix readGMVMatrix() throws SQLException {
+        return database.readTX(EmagMirrorDB::getGMVMatrix);
+    }
+
     /**
      * Retrieve the full GMV table.
      *
@@ -621,13 +768,18 @@ public class EmagMirrorDB {
         var rows = new TreeMap<ProductInfo, SortedMap<YearMonth, BigDecimal>>(
                 Comparator.comparing(ProductInfo::name)
         );
+        var gmvByProductCode = getGMVOfAllProducts(db);
         for (ProductInfo product : getProducts(db)) {
-            var gmvs = getGMVByProductId(db, product.productCode());
+            var gmvs = gmvByProductCode.getOrDefault(product.productCode(), Map.of());
             rows.put(product, new TreeMap<>(gmvs));
         }
         return rows;
     }
 
+    private static GMVMatrix getGMVMatrix(Connection db) throws SQLException {
+        return new GMVMatrix(getProducts(db), getGMVOfAllProducts(db));
+    }
+
     /**
      * Read database information and prepare them for inclusion in the spreadsheet.
      * Only orders with status finalized or returned matching the year are provided.
@@ -916,6 +1068,17 @@ public class EmagMirrorDB {
         });
     }
 
+    /**
+     * Read orders with all their products, vouchers, flags, attachments and voucher splits.
+     *
+     * @param surrogateIds of the orders to read.
+     * @return map from surrogate ID to the order.
+     * @throws SQLException on database errors.
+     */
+    public Map<Integer, OrderResult> readWholeOrders(Collection<Integer> surrogateIds) throws SQLException {
+        return database.readTX(db -> EmagOrder.selectWholeOrderResults(db, surrogateIds));
+    }
+
     public Map<Integer, List<Product>> readAllProducts() throws SQLException {
         return database.readTX(EmagOrder::selectAllProduct);
     }
@@ -1100,6 +1263,7 @@ public class EmagMirrorDB {
     /**
      * Compute a daily cohort-linked rolling return rate for one product and smooth it with a Bayesian prior.
      * The rolling sums are computed using delta events + cumulative windows for performance.
+     * {@link RollingReturnRateEngine} computes the same from memory.
      *
      * @param productCode        product code used by the frontend.
      * @param rollDays           rolling denominator window size (for example, 90).
@@ -1264,6 +1428,28 @@ public class EmagMirrorDB {
         });
     }
 
+    /**
+     * Get the in-memory engine for the rolling return rate of all products.
+     * The data is read again after the return rate data was refreshed or when it is older than one hour,
+     * to pick up refreshes done by other processes.
+     *
+     * @return the engine.
+     * @throws SQLException on database errors.
+     */
+    public RollingReturnRateEngine getReturnRateEngine() throws SQLException {
+        var loaded = returnRateEngine;
+        if (loaded == null || loaded.loaded().isBefore(LocalDateTime.now().minusHours(1))) {
+            synchronized (this) {
+                loaded = returnRateEngine;
+                if (loaded == null || loaded.loaded().isBefore(LocalDateTime.now().minusHours(1))) {
+                    loaded = new LoadedReturnRateEngine(LocalDateTime.now(), database.readTX(RollingReturnRateEngine::load));
+                    returnRateEngine = loaded;
+                }
+            }
+        }
+        return loaded.engine();
+    }
+
     /**
      * Return the number of orders for each product in a specific month.
      *
@@ -1271,27 +1457,7 @@ public class EmagMirrorDB {
      * @return map from PNK to number of orders.
      */
     public @NonNull Map<String, Integer> countOrdersByMonth(@NonNull YearMonth month) throws SQLException {
-        return countByMonth(month, """
-                WITH picked AS (
-                  SELECT DISTINCT ON (o.id, pio.part_number_key)
-                         CASE WHEN o.status = 4 THEN pio.quantity ELSE pio.initial_qty END AS picked_qty,
-                         pio.part_number_key AS pnk
-                  FROM emag_order AS o
-                  JOIN product_in_order AS pio ON o.surrogate_id = pio.emag_order_surrogate_id
-                  WHERE o.status IN (4,5)
-                    AND o.date >= ?
-                    AND o.date < ?
-                  ORDER BY
-                    o.id,
-                    pio.part_number_key,
-                    o.status,          -- prefer status 4; fallback to 5
-                    o.surrogate_id DESC
-                )
-                SELECT SUM(picked_qty) AS quantity, pnk
-                FROM picked
-                GROUP BY pnk
-                ORDER BY pnk;
-                """);
+        return countByMonth(month, ProductMonthCount.Quantity.ORDERS);
     }
 
     /**
@@ -1303,29 +1469,7 @@ public class EmagMirrorDB {
      */
     public @NonNull Map<String, Map<YearMonth, Integer>> countOrdersByMonth(@NonNull YearMonth startMonth,
                                                                              @NonNull YearMonth endMonth) throws SQLException {
-        return countByMonthRange(startMonth, endMonth, """
-                WITH picked AS (
-                  SELECT DISTINCT ON (o.id, pio.part_number_key, DATE_TRUNC('month', o.date)::date)
-                         CASE WHEN o.status = 4 THEN pio.quantity ELSE pio.initial_qty END AS picked_qty,
-                         pio.part_number_key AS pnk,
-                         DATE_TRUNC('month', o.date)::date AS month_start
-                  FROM emag_order AS o
-                  JOIN product_in_order AS pio ON o.surrogate_id = pio.emag_order_surrogate_id
-                  WHERE o.status IN (4,5)
-                    AND o.date >= ?
-                    AND o.date < ?
-                  ORDER BY
-                    o.id,
-                    pio.part_number_key,
-                    DATE_TRUNC('month', o.date)::date,
-                    o.status,          -- prefer status 4; fallback to 5
-                    o.surrogate_id DESC
-                )
-                SELECT pnk, month_start, SUM(picked_qty) AS quantity
-                FROM picked
-                GROUP BY pnk, month_start
-                ORDER BY pnk, month_start;
-                """);
+        return database.singleReadTX(db -> ProductMonthCount.countByMonthRange(db, startMonth, endMonth, ProductMonthCount.Quantity.ORDERS));
     }
 
     /**
@@ -1335,16 +1479,7 @@ public class EmagMirrorDB {
      * @return map from PNK to number of storno.
      */
     public @NonNull Map<String, Integer> countStornoByMonth(@NonNull YearMonth month) throws SQLException {
-        return countByMonth(month, """
-                SELECT
-                  SUM(s.quantity) AS quantity,
-                  p.part_number_key AS pnk
-                FROM storno AS s
-                JOIN emag_order AS o ON o.id = s.order_id
-                JOIN product_in_order AS p ON p.id = s.product_id AND p.emag_order_surrogate_id = o.surrogate_id
-                WHERE o.status = 5 AND s.storno_date >= ? AND s.storno_date < ?
-                GROUP BY p.part_number_key;
-                """);
+        return countByMonth(month, ProductMonthCount.Quantity.STORNO);
     }
 
     /**
@@ -1356,20 +1491,7 @@ public class EmagMirrorDB {
      */
     public @NonNull Map<String, Map<YearMonth, Integer>> countStornoByMonth(@NonNull YearMonth startMonth,
                                                                              @NonNull YearMonth endMonth) throws SQLException {
-        return countByMonthRange(startMonth, endMonth, """
-                SELECT
-                  p.part_number_key AS pnk,
-                  DATE_TRUNC('month', s.storno_date)::date AS month_start,
-                  SUM(s.quantity) AS quantity
-                FROM storno AS s
-                JOIN emag_order AS o ON o.id = s.order_id
-                JOIN product_in_order AS p ON p.id = s.product_id AND p.emag_order_surrogate_id = o.surrogate_id
-                WHERE o.status = 5
-                  AND s.storno_date >= ?
-                  AND s.storno_date < ?
-                GROUP BY p.part_number_key, month_start
-                ORDER BY p.part_number_key, month_start;
-                """);
+        return database.singleReadTX(db -> ProductMonthCount.countByMonthRange(db, startMonth, endMonth, ProductMonthCount.Quantity.STORNO));
     }
 
     /**
@@ -1379,19 +1501,7 @@ public class EmagMirrorDB {
      * @return map from PNK to the number of returns.
      */
     public @NonNull Map<String, Integer> countReturnByMonth(@NonNull YearMonth month) throws SQLException {
-        return countByMonth(month, """
-                SELECT SUM(rp.quantity) AS quantity, pio.part_number_key AS pnk
-                FROM rma_result AS r
-                INNER JOIN emag_returned_products AS rp ON r.emag_id = rp.emag_id
-                    INNER JOIN (
-                        SELECT DISTINCT ON (id) id, surrogate_id, vendor_id
-                        FROM emag_order
-                        ORDER BY id, status DESC
-                    ) AS o ON r.order_id = o.id
-                INNER JOIN product_in_order AS pio ON o.surrogate_id = pio.emag_order_surrogate_id
-                WHERE r.request_status = 7 AND rp.product_id = pio.product_id AND rp.product_emag_id = pio.mkt_id AND r.date >= ? AND r.date < ?
-                GROUP BY pnk
-                """);
+        return countByMonth(month, ProductMonthCount.Quantity.RETURNS);
     }
 
     /**
@@ -1403,27 +1513,7 @@ public class EmagMirrorDB {
      */
     public @NonNull Map<String, Map<YearMonth, Integer>> countReturnByMonth(@NonNull YearMonth startMonth,
                                                                              @NonNull YearMonth endMonth) throws SQLException {
-        return countByMonthRange(startMonth, endMonth, """
-                SELECT
-                  pio.part_number_key AS pnk,
-                  DATE_TRUNC('month', r.date)::date AS month_start,
-                  SUM(rp.quantity) AS quantity
-                FROM rma_result AS r
-                INNER JOIN emag_returned_products AS rp ON r.emag_id = rp.emag_id
-                    INNER JOIN (
-                        SELECT DISTINCT ON (id) id, surrogate_id, vendor_id
-                        FROM emag_order
-                        ORDER BY id, status DESC
-                    ) AS o ON r.order_id = o.id
-                INNER JOIN product_in_order AS pio ON o.surrogate_id = pio.emag_order_surrogate_id
-                WHERE r.request_status = 7
-                  AND rp.product_id = pio.product_id
-                  AND rp.product_emag_id = pio.mkt_id
-                  AND r.date >= ?
-                  AND r.date < ?
-                GROUP BY pnk, month_start
-                ORDER BY pnk, month_start
-                """);
+        return database.singleReadTX(db -> ProductMonthCount.countByMonthRange(db, startMonth, endMonth, ProductMonthCount.Quantity.RETURNS));
     }
 
     /**
@@ -1437,19 +1527,7 @@ public class EmagMirrorDB {
      */
     public @NonNull Map<String, Map<YearMonth, Double>> getStornoRateByProductAndMonth(@NonNull YearMonth startMonth,
                                                                                           @NonNull YearMonth endMonth) throws SQLException {
-        return getRateByProductAndMonth(startMonth, endMonth, """
-                SELECT
-                  p.part_number_key AS pnk,
-                  DATE_TRUNC('month', s.storno_date)::date AS month_start,
-                  SUM(s.quantity)::double precision AS quantity
-                FROM storno AS s
-                JOIN emag_order AS o ON o.id = s.order_id
-                JOIN product_in_order AS p ON p.id = s.product_id AND p.emag_order_surrogate_id = o.surrogate_id
-                WHERE o.status = 5
-                  AND s.storno_date >= (SELECT start_month - INTERVAL '3 month' FROM params)
-                  AND s.storno_date < (SELECT end_month FROM params)
-                GROUP BY p.part_number_key, month_start
-                """);
+        return database.singleReadTX(db -> ProductMonthCount.rateByMonthRange(db, startMonth, endMonth, ProductMonthCount.Quantity.STORNO));
     }
 
     /**
@@ -1463,26 +1541,7 @@ public class EmagMirrorDB {
      */
     public @NonNull Map<String, Map<YearMonth, Double>> getReturnRateByProductAndMonth(@NonNull YearMonth startMonth,
                                                                                           @NonNull YearMonth endMonth) throws SQLException {
-        return getRateByProductAndMonth(startMonth, endMonth, """
-                SELECT
-                  pio.part_number_key AS pnk,
-                  DATE_TRUNC('month', r.date)::date AS month_start,
-                  SUM(rp.quantity)::double precision AS quantity
-                FROM rma_result AS r
-                JOIN emag_returned_products AS rp ON r.emag_id = rp.emag_id
-                JOIN (
-                    SELECT DISTINCT ON (id) id, surrogate_id
-                    FROM emag_order
-                    ORDER BY id, status DESC
-                ) AS o ON r.order_id = o.id
-                JOIN product_in_order AS pio ON o.surrogate_id = pio.emag_order_surrogate_id
-                WHERE r.request_status = 7
-                  AND rp.product_id = pio.product_id
-                  AND rp.product_emag_id = pio.mkt_id
-                  AND r.date >= (SELECT start_month - INTERVAL '3 month' FROM params)
-                  AND r.date < (SELECT end_month FROM params)
-                GROUP BY pio.part_number_key, month_start
-                """);
+        return database.singleReadTX(db -> ProductMonthCount.rateByMonthRange(db, startMonth, endMonth, ProductMonthCount.Quantity.RETURNS));
     }
 
     public Set<PublicKeyCredentialDescriptor> getCredentialIdsForUsername(String username) throws SQLException {
@@ -1583,149 +1642,21 @@ public class EmagMirrorDB {
         );
     }
 
-    private @NonNull HashMap<String, Integer> countByMonth(@NonNull final YearMonth month, @NonNull final String sql) throws SQLException {
+    private @NonNull Map<String, Integer> countByMonth(@NonNull final YearMonth month, ProductMonthCount.@NonNull Quantity quantity) throws SQLException {
         return database.singleReadTX(db -> {
                     var result = new HashMap<String, Integer>();
-                    try (var s = db.prepareStatement(sql)) {
-                        s.setTimestamp(1, toTimestamp(month.atDay(1).atStartOfDay()));
-                        s.setTimestamp(2, toTimestamp(month.plusMonths(1).atDay(1).atStartOfDay()));
-                        try (var rs = s.executeQuery()) {
-                            while (rs.next()) {
-                                var pnk = rs.getString("pnk");
-                                var oldValue = result.put(pnk, rs.getInt("quantity"));
-                                require(oldValue == null, () -> "Unexpected duplicate for PNK %s".formatted(pnk));
-                            }
-                        }
-                    }
+                    ProductMonthCount.countByMonthRange(db, month, month.plusMonths(1), quantity)
+                            .forEach((pnk, countByMonth) -> result.put(pnk, countByMonth.getOrDefault(month, 0)));
                     return result;
                 }
         );
     }
 
-    private @NonNull HashMap<String, Map<YearMonth, Integer>> countByMonthRange(@NonNull final YearMonth startMonth,
-                                                                                  @NonNull final YearMonth endMonth,
-                                                                                  @NonNull final String sql) throws SQLException {
-        require(startMonth.isBefore(endMonth), () -> "Invalid month interval: [%s, %s).".formatted(startMonth, endMonth));
-        return database.singleReadTX(db -> {
-                    var result = new HashMap<String, Map<YearMonth, Integer>>();
-                    try (var s = db.prepareStatement(sql)) {
-                        s.setTimestamp(1, toTimestamp(startMonth.atDay(1).atStartOfDay()));
-                        s.setTimestamp(2, toTimestamp(endMonth.atDay(1).atStartOfDay()));
-                        try (var rs = s.executeQuery()) {
-                            while (rs.next()) {
-                                var pnk = rs.getString("pnk");
-                                var month = toYearMonth(rs.getDate("month_start"));
-                                var oldValue = result.computeIfAbsent(pnk, _ -> new HashMap<>()).put(month, rs.getInt("quantity"));
-                                require(oldValue == null, () -> "Unexpected duplicate for PNK %s in month %s".formatted(pnk, month));
-                            }
-                        }
-                    }
-                    return result;
-                }
-        );
-    }
-
-    private @NonNull HashMap<String, Map<YearMonth, Double>> getRateByProductAndMonth(@NonNull final YearMonth startMonth,
-                                                                                        @NonNull final YearMonth endMonth,
-                                                                                        @NonNull final String numeratorAggregationSQL) throws SQLException {
-        require(startMonth.isBefore(endMonth), () -> "Invalid month interval: [%s, %s).".formatted(startMonth, endMonth));
-        var sql = """
-                WITH params AS (
-                    SELECT ?::timestamp AS start_month,
-                           ?::timestamp AS end_month
-                ),
-                months AS (
-                    SELECT generate_series(
-                        (SELECT (start_month - INTERVAL '3 month')::date FROM params),
-                        (SELECT (end_month - INTERVAL '1 month')::date FROM params),
-                        INTERVAL '1 month'
-                    )::date AS month_start
-                ),
-                products AS (
-                    SELECT p.emag_pnk AS pnk
-                    FROM product AS p
-                ),
-                orders_agg AS (
-                    WITH picked AS (
-                        SELECT DISTINCT ON (o.id, pio.part_number_key)
-                            CASE WHEN o.status = 4 THEN pio.quantity ELSE pio.initial_qty END AS picked_qty,
-                            pio.part_number_key AS pnk,
-                            DATE_TRUNC('month', o.date)::date AS month_start
-                        FROM emag_order AS o
-                        JOIN product_in_order AS pio ON o.surrogate_id = pio.emag_order_surrogate_id
-                        WHERE o.status IN (4,5)
-                          AND o.date >= (SELECT start_month - INTERVAL '3 month' FROM params)
-                          AND o.date < (SELECT end_month FROM params)
-                        ORDER BY o.id, pio.part_number_key, o.status, o.surrogate_id DESC
-                    )
-                    SELECT pnk, month_start, SUM(picked_qty)::double precision AS quantity
-                    FROM picked
-                    GROUP BY pnk, month_start
-                ),
-                numerator_agg AS (
-                    %s
-                ),
-                base AS (
-                    SELECT
-                        p.pnk,
-                        m.month_start,
-                        COALESCE(n.quantity, 0) AS numerator_quantity,
-                        COALESCE(o.quantity, 0) AS orders_quantity
-                    FROM products AS p
-                    CROSS JOIN months AS m
-                    LEFT JOIN numerator_agg AS n ON n.pnk = p.pnk AND n.month_start = m.month_start
-                    LEFT JOIN orders_agg AS o ON o.pnk = p.pnk AND o.month_start = m.month_start
-                ),
-                with_window AS (
-                    SELECT
-                        pnk,
-                        month_start,
-                        AVG(numerator_quantity) OVER (
-                            PARTITION BY pnk
-                            ORDER BY month_start
-                            ROWS BETWEEN 3 PRECEDING AND 1 PRECEDING
-                        ) AS numerator_avg,
-                        AVG(orders_quantity) OVER (
-                            PARTITION BY pnk
-                            ORDER BY month_start
-                            ROWS BETWEEN 3 PRECEDING AND 1 PRECEDING
-                        ) AS orders_avg
-                    FROM base
-                )
-                SELECT
-                    pnk,
-                    month_start,
-                    CASE
-                        WHEN orders_avg IS NULL OR orders_avg = 0 THEN NULL
-                        ELSE numerator_avg / orders_avg
-                    END AS ratio
-                FROM with_window
-                WHERE month_start >= (SELECT start_month::date FROM params)
-                ORDER BY pnk, month_start;
-                """.formatted(numeratorAggregationSQL);
-
-        return database.singleReadTX(db -> {
-            var result = new HashMap<String, Map<YearMonth, Double>>();
-            try (var s = db.prepareStatement(sql)) {
-                s.setTimestamp(1, toTimestamp(startMonth.atDay(1).atStartOfDay()));
-                s.setTimestamp(2, toTimestamp(endMonth.atDay(1).atStartOfDay()));
-                try (var rs = s.executeQuery()) {
-                    while (rs.next()) {
-                        var pnk = rs.getString("pnk");
-                        var month = toYearMonth(rs.getDate("month_start"));
-                        var ratio = rs.getObject("ratio", Double.class);
-                        result.computeIfAbsent(pnk, _ -> new HashMap<>()).put(month, ratio);
-                    }
-                }
-            }
-            return result;
-        });
-    }
-
     /**
      * Computes the delta between product_in_order.storno_qty and what's already recorded in
      * the storno table, then inserts the missing amount (positive or negative) using the
      * emag_order.modified timestamp as storno_date.
+     * The months of the inserted rows are marked for the recomputation of the monthly counts.
      *
      * @return number of rows inserted into storno
      */
@@ -1770,20 +1701,46 @@ public class EmagMirrorDB {
                   delta_qty
                 FROM to_insert
                 WHERE delta_qty <> 0
+                RETURNING storno_date
                 """)) {
-            return s.executeUpdate();
+            var inserted = 0;
+            var months = new HashSet<YearMonth>();
+            try (var rs = s.executeQuery()) {
+                while (rs.next()) {
+                    inserted++;
+                    var stornoDate = rs.getTimestamp(1);
+                    if (stornoDate != null) {
+                        months.add(YearMonth.from(stornoDate.toLocalDateTime()));
+                    }
+                }
+            }
+            ProductMonthCount.markMonthsChanged(db, months);
+            return inserted;
         }
     }
 
     private static boolean computeGMV(Connection db) throws SQLException {
-        var products = getProductCodes(db);
-        for (String productCode : products) {
-            var ordersWithProduct = getOrderDataByProduct(db, productCode);
-            computeAndStoreGMVForProduct(db, productCode, ordersWithProduct);
-        }
+        var gmv = new AllProductsGMV();
+        streamOrderDataOfAllProducts(db, gmv::add);
+        var rowsWritten = upsertGMV(db, gmv.result());
+        logger.log(INFO, "GMV recomputed, %d values changed.".formatted(rowsWritten));
+        takeChangedMonthsByProduct(db);
         return true;
     }
 
+    private static int computeChangedGMV(Connection db) throws SQLException {
+        var changedMonthsByProduct = takeChangedMonthsByProduct(db);
+        var cells = 0;
+        for (var entry : changedMonthsByProduct.entrySet()) {
+            var productCode = entry.getKey();
+            var months = entry.getValue();
+            var ordersWithProduct = getOrderDataByProduct(db, productCode, months);
+            computeAndStoreGMVForProduct(db, productCode, ordersWithProduct, months);
+            cells += months.size();
+        }
+        return cells;
+    }
+
     private List<EmployeeSheetData> getOrderDataByProductAndTime(Connection db, String pnk, LocalDateTime startTime, LocalDateTime endTime) throws SQLException {
         var list = new ArrayList<EmployeeSheetData>();
         try (var s = db.prepareStatement(
@@ -1861,57 +1818,100 @@ public class EmagMirrorDB {
         return list;
     }
 
-    private static Map<String, List<POInfo>> getOrderDataByProduct(Connection db, String productCode) throws SQLException {
+    private static final String orderDataSelect = """
+            SELECT p.product_code AS productCode,
+            p.name AS productName,
+            pio.quantity AS quantity,
+            pio.initial_qty AS initialQuantity,
+            pio.storno_qty AS stornoQuantity,
+            pio.sale_price AS salePrice,
+            pio.vat AS vat,
+            pio.created, pio.modified,
+            o.status AS orderStatus,
+            o.date AS orderDate,
+            o.modified,
+            o.id AS orderId,
+            o.surrogate_id AS orderSurrogateId,
+            pio.id AS pioId
+            FROM product_in_order AS pio
+            INNER JOIN product AS p ON p.emag_pnk = pio.part_number_key
+            INNER JOIN emag_order AS o ON pio.emag_order_surrogate_id = o.surrogate_id
+            """;
+
+    /**
+     * Read the finalized and storno orders containing the product,
+     * which have a finalized or storno entry in one of the given months.
+     *
+     * @param db database connection.
+     * @param productCode code of the product.
+     * @param months of the orders to read.
+     * @return order entries grouped by the eMAG order ID.
+     * @throws SQLException on database error.
+     */
+    private static Map<String, List<POInfo>> getOrderDataByProduct(Connection db, String productCode, Collection<YearMonth> months) throws SQLException {
         var result = new HashMap<String, List<POInfo>>();
-        try (var s = db.prepareStatement("""
-                SELECT p.name AS productName,
-                pio.quantity AS quantity,
-                pio.initial_qty AS initialQuantity,
-                pio.storno_qty AS stornoQuantity,
-                pio.sale_price AS salePrice,
-                pio.vat AS vat,
-                pio.created, pio.modified,
-                o.status AS orderStatus,
-                o.date AS orderDate,
-                o.modified,
-                o.id AS orderId,
-                o.surrogate_id AS orderSurrogateId,
-                pio.id AS pioId
-                FROM product_in_order AS pio
-                INNER JOIN product AS p ON p.emag_pnk = pio.part_number_key
-                INNER JOIN emag_order AS o ON pio.emag_order_surrogate_id = o.surrogate_id
+        try (var s = db.prepareStatement(orderDataSelect + """
                 WHERE p.product_code = ? AND (o.status = 4 OR o.status = 5)
+                AND o.id IN (
+                  SELECT o2.id
+                  FROM product_in_order AS pio2
+                  INNER JOIN product AS p2 ON p2.emag_pnk = pio2.part_number_key
+                  INNER JOIN emag_order AS o2 ON pio2.emag_order_surrogate_id = o2.surrogate_id
+                  WHERE p2.product_code = ? AND (o2.status = 4 OR o2.status = 5)
+                    AND date_trunc('month', o2.date)::date = ANY(?)
+                )
                 ORDER BY o.id, o.status
                 """)) {
             s.setObject(1, productCode);
+            s.setObject(2, productCode);
+            s.setArray(3, db.createArrayOf("date", months.stream().map(UsefulMethods::toDate).toArray()));
             try (var rs = s.executeQuery()) {
                 while (rs.next()) {
-                    var orderId = rs.getString("orderId");
-                    var poInfos = result.getOrDefault(orderId, new ArrayList<>());
-                    var quantity = rs.getInt("quantity");
-                    var initialQuantity = rs.getInt("initialQuantity");
-                    var stornoQuantity = rs.getInt("stornoQuantity");
-                    var salePrice = rs.getBigDecimal("salePrice");
-                    var vat = new BigDecimal(rs.getString("vat"));
-                    var price = vat.add(BigDecimal.ONE).multiply(salePrice).setScale(2, HALF_EVEN);
-                    var poInfo = new POInfo(
-                            orderId,
-                            rs.getInt("orderSurrogateId"),
-                            toLocalDate(rs.getTimestamp("orderDate")),
-                            rs.getInt("orderStatus"),
-                            rs.getInt("pioId"),
-                            rs.getString("productName"),
-                            quantity,
-                            initialQuantity,
-                            stornoQuantity,
-                            price
-                    );
-                    poInfos.add(poInfo);
-                    result.put(orderId, poInfos);
+                    var poInfo = poInfoFrom(rs);
+                    result.computeIfAbsent(poInfo.orderId(), _ -> new ArrayList<>()).add(poInfo);
                 }
-
             }
         }
         return result;
     }
+
+    /**
+     * Stream the finalized and storno order entries of all products to the consumer,
+     * ordered by product code, order ID and order status, as required by {@link GMV.AllProductsGMV}.
+     *
+     * @param db database connection.
+     * @param consumer receiving the product code and the order entry.
+     * @throws SQLException on database error.
+     */
+    private static void streamOrderDataOfAllProducts(Connection db, BiConsumer<String, POInfo> consumer) throws SQLException {
+        try (var s = db.prepareStatement(orderDataSelect + """
+                WHERE o.status = 4 OR o.status = 5
+                ORDER BY p.product_code, o.id, o.status
+                """)) {
+            s.setFetchSize(10_000);
+            try (var rs = s.executeQuery()) {
+                while (rs.next()) {
+                    consumer.accept(rs.getString("productCode"), poInfoFrom(rs));
+                }
+            }
+        }
+    }
+
+    private static POInfo poInfoFrom(ResultSet rs) throws SQLException {
+        var salePrice = rs.getBigDecimal("salePrice");
+        var vat = new BigDecimal(rs.getString("vat"));
+        var price = vat.add(BigDecimal.ONE).multiply(salePrice).setScale(2, HALF_EVEN);
+        return new POInfo(
+                rs.getString("orderId"),
+                rs.getInt("orderSurrogateId"),
+                toLocalDate(rs.getTimestamp("orderDate")),
+                rs.getInt("orderStatus"),
+                rs.getInt("pioId"),
+                rs.getString("productName"),
+                rs.getInt("quantity"),
+                rs.getInt("initialQuantity"),
+                rs.getInt("stornoQuantity"),
+                price
+        );
+    }
 }
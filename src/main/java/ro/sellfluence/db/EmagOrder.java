@@ -1,5 +1,7 @@
 package ro.sellfluence.db;
 
+import org.jspecify.annotations.Nullable;
+import ro.sellfluence.db.EmagMirrorDB.OrderWriteResult;
 import ro.sellfluence.emagapi.Attachment;
 import ro.sellfluence.emagapi.CancellationReason;
 import ro.sellfluence.emagapi.Customer;
@@ -10,22 +12,33 @@ import ro.sellfluence.emagapi.Product;
 import ro.sellfluence.emagapi.Voucher;
 import ro.sellfluence.emagapi.VoucherSplit;
 
-import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.sql.Array;
 import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
 import java.sql.SQLException;
-import java.time.LocalDateTime;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Scanner;
+import java.util.Set;
 import java.util.UUID;
 
 import static com.google.common.base.Strings.nullToEmpty;
 import static java.sql.Statement.RETURN_GENERATED_KEYS;
 import static ro.sellfluence.db.CustomerTable.insertOrUpdateCustomer;
+import static ro.sellfluence.db.GMV.markOrdersChanged;
 import static ro.sellfluence.db.LockerDetailsTable.insertOrUpdateLockerDetails;
 import static ro.sellfluence.support.UsefulMethods.toLocalDateTime;
 import static ro.sellfluence.support.UsefulMethods.toTimestamp;
@@ -44,7 +57,166 @@ public class EmagOrder {
     private record InsertResult(boolean inserted, int surrogateId) {
     }
 
-    static int addOrderResult(OrderResult order, Connection db, UUID vendorId, String vendorName) throws SQLException {
+    /**
+     * Result of comparing an order with the version stored in the database.
+     *
+     * @param changed true if any column or dependent row was written.
+     * @param unhandledDifferences true if the order differs in fields which are not written by the update.
+     */
+    private record UpdateResult(boolean changed, boolean unhandledDifferences) {
+    }
+
+    static int addOrderResult(OrderResult order, Connection db, UUID vendorId) throws SQLException {
+        addOrderResults(List.of(order), db, Map.of(order.vendor_name(), vendorId));
+        return 0;
+    }
+
+    /**
+     * Add or update a list of orders, typically a whole page as read from eMAG, with the
+     * rows for products, vouchers, flags, attachments and voucher splits sent as JDBC batches.
+     *
+     * <p>Orders whose fingerprint is already stored are identical to the stored version
+     * and are skipped without reading anything else.
+     * New orders are inserted first and their dependents are written in one batch.
+     * Orders that already exist are then loaded together and compared with the database content,
+     * which by then also contains the freshly written dependents.</p>
+     *
+     * @param orders the orders to add.
+     * @param db the database connection.
+     * @param vendorIds maps the vendor name to the vendor ID for all vendors found in the orders.
+     * @return the number of orders inserted, updated and found unchanged.
+     * @throws SQLException on database errors.
+     */
+    static OrderWriteResult addOrderResults(List<OrderResult> orders, Connection db, Map<String, UUID> vendorIds) throws SQLException {
+        var inserted = 0;
+        var updated = 0;
+        var unchanged = 0;
+        var fingerprints = orders.stream().map(EmagOrder::fingerprint).toList();
+        var knownFingerprints = selectKnownFingerprints(db, fingerprints);
+        var existingOrders = new LinkedHashMap<Integer, OrderResult>();
+        var newFingerprints = new LinkedHashMap<Integer, String>();
+        var changedOrders = new ArrayList<OrderResult>();
+        var ordersWithUnhandledDifferences = new HashSet<Integer>();
+        try (var batch = new DependentsBatch(db)) {
+            for (int i = 0; i < orders.size(); i++) {
+                var order = orders.get(i);
+                var fingerprint = fingerprints.get(i);
+                if (knownFingerprints.contains(fingerprint)) {
+                    unchanged++;
+                    continue;
+                }
+                var orderInserted = insertOrderWithDetails(db, order, vendorIds.get(order.vendor_name()));
+                if (orderInserted.inserted) {
+                    insertOrderDependents(batch, order, orderInserted.surrogateId);
+                    changedOrders.add(order);
+                    inserted++;
+                } else {
+                    // If the same order appears more than once, the last one wins, like when adding them one by one.
+                    existingOrders.put(orderInserted.surrogateId, order);
+                }
+                newFingerprints.put(orderInserted.surrogateId, fingerprint);
+            }
+            batch.execute();
+            var oldOrders = selectWholeOrderResults(db, existingOrders.keySet());
+            for (var entry : existingOrders.entrySet()) {
+                var surrogateId = entry.getKey();
+                var oldOrder = oldOrders.get(surrogateId);
+                var update = updateOrder(db, batch, oldOrder, entry.getValue(), surrogateId);
+                if (update.unhandledDifferences()) {
+                    ordersWithUnhandledDifferences.add(surrogateId);
+                }
+                if (update.changed()) {
+                    changedOrders.add(oldOrder);
+                    changedOrders.add(entry.getValue());
+                    updated++;
+                } else {
+                    unchanged++;
+                }
+            }
+            batch.execute();
+        }
+        updateFingerprints(db, newFingerprints, ordersWithUnhandledDifferences);
+        markOrdersChanged(db, changedOrders);
+        ReturnRate.markOrdersChanged(db, changedOrders.stream().map(OrderResult::id).toList());
+        ProductMonthCount.markOrdersChanged(db, changedOrders);
+        return new OrderWriteResult(inserted, updated, unchanged);
+    }
+
+    /**
+     * Compute a fingerprint of the order as received from eMAG.
+     * The order and all its parts are records, so their string representation
+     * contains every field in a fixed order and serves as canonical form.
+     *
+     * @param order as received from eMAG.
+     * @return SHA-256 hash of the canonical form as hex string.
+     */
+    static String fingerprint(OrderResult order) {
+        try {
+            var digest = MessageDigest.getInstance("SHA-256");
+            return HexFormat.of().formatHex(digest.digest(order.toString().getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available.", e);
+        }
+    }
+
+    /**
+     * Find which of the fingerprints are already stored.
+     *
+     * @param db database connection.
+     * @param fingerprints to look for.
+     * @return the subset of the fingerprints found in the emag_order table.
+     * @throws SQLException on database errors.
+     */
+    private static Set<String> selectKnownFingerprints(Connection db, List<String> fingerprints) throws SQLException {
+        var known = new HashSet<String>();
+        if (fingerprints.isEmpty()) {
+            return known;
+        }
+        try (var s = db.prepareStatement("SELECT fingerprint FROM emag_order WHERE fingerprint = ANY(?)")) {
+            s.setArray(1, db.createArrayOf("text", fingerprints.toArray()));
+            try (var rs = s.executeQuery()) {
+                while (rs.next()) {
+                    known.add(rs.getString(1));
+                }
+            }
+        }
+        return known;
+    }
+
+    /**
+     * Store the fingerprints of the orders written.
+     * Orders with differences not handled by the update keep their old fingerprint,
+     * so that they are compared again and reported the next time they are read.
+     *
+     * @param db database connection.
+     * @param fingerprints maps the surrogate ID of each order to its new fingerprint.
+     * @param ordersWithUnhandledDifferences surrogate IDs of the orders whose fingerprint is not stored.
+     * @throws SQLException on database errors.
+     */
+    static void updateFingerprints(Connection db, Map<Integer, String> fingerprints, Set<Integer> ordersWithUnhandledDifferences) throws SQLException {
+        try (var s = db.prepareStatement("UPDATE emag_order SET fingerprint = ? WHERE surrogate_id = ?")) {
+            for (var entry : fingerprints.entrySet()) {
+                if (ordersWithUnhandledDifferences.contains(entry.getKey())) {
+                    continue;
+                }
+                s.setString(1, entry.getValue());
+                s.setInt(2, entry.getKey());
+                s.addBatch();
+            }
+            s.executeBatch();
+        }
+    }
+
+    /**
+     * Insert or update the customer and locker details of the order and insert the order itself, if it is new.
+     *
+     * @param db the database.
+     * @param order the order to insert.
+     * @param vendorId the vendor to which this order belongs.
+     * @return the result of {@link #insertOrder(Connection, OrderResult, UUID)}.
+     * @throws SQLException on database errors.
+     */
+    private static InsertResult insertOrderWithDetails(Connection db, OrderResult order, UUID vendorId) throws SQLException {
         if (order.customer() != null) {
             insertOrUpdateCustomer(db, order.customer());
         }
@@ -59,74 +231,153 @@ public class EmagOrder {
                             reportIssue(order);
                         }
                 );
-        if (orderInserted.inserted) {
-            insertOrderDependents(db, order, orderInserted.surrogateId);
-        } else {
-            var oldOrder = selectWholeOrderResult(db, orderInserted.surrogateId, vendorName);
-            var hasDifferences = oldOrder.reportUnhandledDifferences(order);
-            if (hasDifferences) {
-                System.out.printf("There are changes in order %s of vendor %s that are not handled yet.", order.id(), order.vendor_name());
-                reportIssue(order);
-            }
-            if (order.modified() != null) {
-                if ((oldOrder.modified() == null) || order.modified().isAfter(oldOrder.modified())) {
-                    updateTimestamp(db, orderInserted.surrogateId, "modified", order.modified());
-                } else if (order.modified().isBefore(oldOrder.modified())) {
-                    System.out.printf("%s:%s -> %s:%s Modified date changed to an older date, from %s to %s.%n", oldOrder.vendor_name(), oldOrder.id(), order.vendor_name(), order.id(), oldOrder.modified(), order.modified());
+        return orderInserted;
+    }
+
+    /**
+     * Compare an order with the version stored in the database and update the columns and
+     * dependent rows which changed. All changed columns are written with a single UPDATE
+     * and nothing is written if the order is unchanged. New dependent rows are only added to the batch.
+     *
+     * @param db the database.
+     * @param batch collecting the rows to insert for dependent tables.
+     * @param oldOrder order as it was found in the database.
+     * @param order order with the up-to-date values.
+     * @param surrogateId row id of the order in the database.
+     * @return whether anything was changed and whether there were differences which are not handled.
+     * @throws SQLException on database errors.
+     */
+    private static UpdateResult updateOrder(Connection db, DependentsBatch batch, OrderResult oldOrder, OrderResult order, int surrogateId) throws SQLException {
+        var hasDifferences = oldOrder.reportUnhandledDifferences(order);
+        if (hasDifferences) {
+            System.out.printf("There are changes in order %s of vendor %s that are not handled yet.", order.id(), order.vendor_name());
+            reportIssue(order);
+        }
+        if (order.modified() != null && oldOrder.modified() != null && order.modified().isBefore(oldOrder.modified())) {
+            System.out.printf("%s:%s -> %s:%s Modified date changed to an older date, from %s to %s.%n", oldOrder.vendor_name(), oldOrder.id(), order.vendor_name(), order.id(), oldOrder.modified(), order.modified());
+        }
+        if (oldOrder.status() != order.status()) {
+            System.out.printf("Update status for order %s, was %d will be %d%n.", order.id(), oldOrder.status(), order.status());
+        }
+        var changes = diffOrderColumns(oldOrder, order);
+        if (!changes.isEmpty()) {
+            changes.execute(db, surrogateId);
+        }
+        var dependentsChanged = updateOrderDependents(db, batch, order, oldOrder, surrogateId);
+        return new UpdateResult(!changes.isEmpty() || dependentsChanged, hasDifferences);
+    }
+
+    /**
+     * Determine the columns of the emag_order table, which differ between the stored and the new order.
+     * The modification time is only updated if the new one is more recent.
+     *
+     * @param oldOrder order as it was found in the database.
+     * @param order order with the up-to-date values.
+     * @return the changed columns with their new values.
+     */
+    static ColumnChanges diffOrderColumns(OrderResult oldOrder, OrderResult order) {
+        var changes = new ColumnChanges();
+        if (order.modified() != null && (oldOrder.modified() == null || order.modified().isAfter(oldOrder.modified()))) {
+            changes.set("modified", toTimestamp(order.modified()));
+        }
+        if (oldOrder.status() != order.status()) {
+            changes.set("status", order.status());
+        }
+        if (!Objects.equals(oldOrder.is_complete(), order.is_complete())) {
+            changes.set("is_complete", order.is_complete());
+        }
+        if (!Objects.equals(oldOrder.late_shipment(), order.late_shipment())) {
+            changes.set("late_shipment", order.late_shipment());
+        }
+        if (!Objects.equals(oldOrder.payment_status(), order.payment_status())) {
+            changes.set("payment_status", order.payment_status());
+        }
+        if (!Objects.equals(oldOrder.reason_cancellation(), order.reason_cancellation())) {
+            var reason = order.reason_cancellation();
+            changes.set("cancellation_reason", reason == null ? null : reason.id());
+            changes.set("cancellation_reason_text", reason == null ? null : reason.name());
+        }
+        if (!Objects.equals(order.maximum_date_for_shipment(), oldOrder.maximum_date_for_shipment())) {
+            changes.set("maximum_date_for_shipment", toTimestamp(order.maximum_date_for_shipment()));
+        }
+        if (!Objects.equals(oldOrder.finalization_date(), order.finalization_date())) {
+            changes.set("finalization_date", toTimestamp(order.finalization_date()));
+        }
+        if (!Objects.equals(oldOrder.cashed_co(), order.cashed_co())) {
+            changes.set("cashed_co", order.cashed_co());
+        }
+        if (!Objects.equals(oldOrder.cashed_cod(), order.cashed_cod())) {
+            changes.set("cashed_cod", order.cashed_cod());
+        }
+        if (!Objects.equals(oldOrder.refunded_amount(), order.refunded_amount())) {
+            changes.set("refunded_amount", order.refunded_amount());
+        }
+        if (!Objects.equals(oldOrder.refund_status(), order.refund_status())) {
+            changes.set("refund_status", order.refund_status());
+        }
+        if (!Objects.equals(oldOrder.delivery_mode(), order.delivery_mode())) {
+            changes.set("delivery_mode", order.delivery_mode());
+        }
+        if (!Objects.equals(oldOrder.delivery_payment_mode(), order.delivery_payment_mode())) {
+            changes.set("delivery_payment_mode", order.delivery_payment_mode());
+        }
+        if (!Objects.equals(oldOrder.payment_mode(), order.payment_mode())) {
+            changes.set("payment_mode", order.payment_mode());
+        }
+        if (!Objects.equals(oldOrder.payment_mode_id(), order.payment_mode_id())) {
+            changes.set("payment_mode_id", order.payment_mode_id());
+        }
+        if (!Objects.equals(oldOrder.detailed_payment_method(), order.detailed_payment_method())) {
+            changes.set("detailed_payment_method", order.detailed_payment_method());
+        }
+        return changes;
+    }
+
+    /**
+     * Collects the changed columns of an emag_order row, so that they can be written with a single UPDATE statement.
+     */
+    static final class ColumnChanges {
+        private final List<String> columns = new ArrayList<>();
+        private final List<@Nullable Object> values = new ArrayList<>();
+
+        /**
+         * Record a new value for a column.
+         *
+         * @param column name of the column.
+         * @param value new value, which must be of a type accepted by {@link java.sql.PreparedStatement#setObject(int, Object)}.
+         */
+        void set(String column, @Nullable Object value) {
+            columns.add(column);
+            values.add(value);
+        }
+
+        boolean isEmpty() {
+            return columns.isEmpty();
+        }
+
+        List<String> columns() {
+            return Collections.unmodifiableList(columns);
+        }
+
+        /**
+         * Write all recorded changes to the order.
+         *
+         * @param db database connection.
+         * @param surrogateId row id.
+         * @return 1 if the row was updated or 0 if no row matched the surrogateId.
+         * @throws SQLException on database errors.
+         */
+        int execute(Connection db, int surrogateId) throws SQLException {
+            var assignments = String.join(", ", columns.stream().map(column -> column + " = ?").toList());
+            try (var s = db.prepareStatement("UPDATE emag_order SET " + assignments + " WHERE surrogate_id = ?")) {
+                var index = 1;
+                for (var value : values) {
+                    s.setObject(index++, value);
                 }
+                s.setInt(index, surrogateId);
+                return s.executeUpdate();
             }
-            if (oldOrder.status() != order.status()) {
-                System.out.printf("Update status for order %s, was %d will be %d%n.", order.id(), oldOrder.status(), order.status());
-                updateInt(db, orderInserted.surrogateId, "status", order.status());
-            }
-            if (!Objects.equals(oldOrder.is_complete(), order.is_complete())) {
-                updateInt(db, orderInserted.surrogateId, "is_complete", order.status());
-            }
-            if (!Objects.equals(oldOrder.late_shipment(), order.late_shipment())) {
-                updateInt(db, orderInserted.surrogateId, "late_shipment", order.late_shipment());
-            }
-            if (!Objects.equals(oldOrder.payment_status(), order.payment_status())) {
-                updateInt(db, orderInserted.surrogateId, "payment_status", order.payment_status());
-            }
-            if (!Objects.equals(oldOrder.reason_cancellation(), order.reason_cancellation())) {
-                updateCancellationReason(db, orderInserted.surrogateId, order.reason_cancellation());
-            }
-            if (!Objects.equals(order.maximum_date_for_shipment(), oldOrder.maximum_date_for_shipment())) {
-                updateTimestamp(db, orderInserted.surrogateId, "maximum_date_for_shipment", order.maximum_date_for_shipment());
-            }
-            if (!Objects.equals(oldOrder.finalization_date(), order.finalization_date())) {
-                updateTimestamp(db, orderInserted.surrogateId, "finalization_date", order.finalization_date());
-            }
-            if (!Objects.equals(oldOrder.cashed_co(), order.cashed_co())) {
-                updateNumeric(db, orderInserted.surrogateId, "cashed_co", order.cashed_co());
-            }
-            if (!Objects.equals(oldOrder.cashed_cod(), order.cashed_cod())) {
-                updateNumeric(db, orderInserted.surrogateId, "cashed_cod", order.cashed_cod());
-            }
-            if (!Objects.equals(oldOrder.refunded_amount(), order.refunded_amount())) {
-                updateNumeric(db, orderInserted.surrogateId, "refunded_amount", order.refunded_amount());
-            }
-            if (!Objects.equals(oldOrder.refund_status(), order.refund_status())) {
-                updateString(db, orderInserted.surrogateId, "refund_status", order.refund_status());
-            }
-            if (!Objects.equals(oldOrder.delivery_mode(), order.delivery_mode())) {
-                updateString(db, orderInserted.surrogateId, "delivery_mode", order.delivery_mode());
-            }
-            if (!Objects.equals(oldOrder.delivery_payment_mode(), order.delivery_payment_mode())) {
-                updateString(db, orderInserted.surrogateId, "delivery_payment_mode", order.delivery_payment_mode());
-            }
-            if (!Objects.equals(oldOrder.payment_mode(), order.payment_mode())) {
-                updateString(db, orderInserted.surrogateId, "payment_mode", order.payment_mode());
-            }
-            if (!Objects.equals(oldOrder.payment_mode_id(), order.payment_mode_id())) {
-                updateInteger(db, orderInserted.surrogateId, "payment_mode_id", order.payment_mode_id());
-            }
-            if (!Objects.equals(oldOrder.detailed_payment_method(), order.detailed_payment_method())) {
-                updateString(db, orderInserted.surrogateId, "detailed_payment_method", order.detailed_payment_method());
-            }
-            updateOrderDependents(db, order, oldOrder, orderInserted.surrogateId);
         }
-        return 0;
     }
 
     /**
@@ -230,51 +481,80 @@ public class EmagOrder {
         }
     }
 
-    private static OrderResult selectWholeOrderResult(Connection db, int surrogateId, String vendorName) throws SQLException {
-        var customer = selectCustomerByOrderId(db, surrogateId);
-        var productIds = selectProductIdByOrderId(db, surrogateId);
-        var products = productIds.stream().map(productId -> {
-            List<VoucherSplit> voucherSplits;
-            try {
-                voucherSplits = selectVoucherSplitsByProductId(db, productId);
-                try {
-                    return selectProduct(db, productId, surrogateId, voucherSplits, new ArrayList<>());
-                } catch (SQLException e) {
-                    throw new RuntimeException("Error retrieving product with productId " + productId, e);
+    /**
+     * Load an order with all its dependents from the database.
+     *
+     * @param db database to read from.
+     * @param surrogateId of the order.
+     * @return reconstructed order or null if there is no order with this surrogate ID.
+     * @throws SQLException on database problems.
+     */
+    private static OrderResult selectWholeOrderResult(Connection db, int surrogateId) throws SQLException {
+        return selectWholeOrderResults(db, List.of(surrogateId)).get(surrogateId);
+    }
+
+    /**
+     * Load several orders with all their dependents from the database.
+     * Each dependent table is read with a single query for all orders,
+     * so the number of queries doesn't depend on the number of orders or products.
+     *
+     * @param db database to read from.
+     * @param surrogateIds of the orders to load.
+     * @return map from surrogate ID to the reconstructed order. IDs not found in the database are missing from the map.
+     * @throws SQLException on database problems.
+     */
+    static Map<Integer, OrderResult> selectWholeOrderResults(Connection db, Collection<Integer> surrogateIds) throws SQLException {
+        var result = new HashMap<Integer, OrderResult>();
+        if (surrogateIds.isEmpty()) {
+            return result;
+        }
+        var ids = db.createArrayOf("integer", surrogateIds.toArray());
+        var customers = selectCustomersByOrderIds(db, ids);
+        var productVoucherSplits = selectVoucherSplitsByOrderIds(db, ids);
+        var products = selectProductsByOrderIds(db, ids, productVoucherSplits);
+        var orderVoucherSplits = selectOrderVoucherSplitsByOrderIds(db, ids);
+        var attachments = selectAttachmentsByOrderIds(db, ids);
+        var vouchers = selectVouchersByOrderIds(db, ids);
+        var enforcedVendorCourierAccounts = selectEnforcedVendorCourierAccountsByOrderIds(db, ids);
+        var flags = selectFlagsByOrderIds(db, ids);
+        try (var s = db.prepareStatement("""
+                SELECT o.*, v.vendor_name
+                FROM emag_order AS o
+                INNER JOIN vendor AS v
+                ON o.vendor_id = v.id
+                WHERE o.surrogate_id = ANY(?)
+                """)) {
+            s.setArray(1, ids);
+            try (var rs = s.executeQuery()) {
+                while (rs.next()) {
+                    var surrogateId = rs.getInt("surrogate_id");
+                    result.put(surrogateId, orderFrom(rs,
+                            rs.getString("vendor_name"),
+                            customers.get(surrogateId),
+                            orderVoucherSplits.getOrDefault(surrogateId, new ArrayList<>()),
+                            products.getOrDefault(surrogateId, new ArrayList<>()),
+                            attachments.getOrDefault(surrogateId, new ArrayList<>()),
+                            vouchers.getOrDefault(surrogateId, new ArrayList<>()),
+                            enforcedVendorCourierAccounts.getOrDefault(surrogateId, new ArrayList<>()),
+                            flags.get(surrogateId)));
                 }
-            } catch (SQLException e) {
-                throw new RuntimeException("Error retrieving the voucher splits of the product with the productId %s.".formatted(productId), e);
             }
-        }).toList();
-        var voucherSplits = selectVoucherSplitsByOrderId(db, surrogateId);
-        List<Attachment> attachments = selectAttachmentsByOrderId(db, surrogateId);
-        List<Voucher> vouchers = selectVouchersByOrderId(db, surrogateId);
-        var enforcedVendorCourierAccounts = selectEnforcedVendorCourierAccountsByOrderId(db, surrogateId);
-        var flags = selectFlagsByOrderId(db, surrogateId);
-        return selectOrder(db,
-                surrogateId,
-                vendorName,
-                customer,
-                voucherSplits,
-                products,
-                attachments,
-                vouchers,
-                enforcedVendorCourierAccounts,
-                flags);
+        }
+        return result;
     }
 
-    private static Customer selectCustomerByOrderId(Connection db, int surrogateId) throws SQLException {
-        Customer customer = null;
+    private static Map<Integer, Customer> selectCustomersByOrderIds(Connection db, Array surrogateIds) throws SQLException {
+        var customers = new HashMap<Integer, Customer>();
         try (var s = db.prepareStatement("""
-                SELECT * FROM customer AS c
+                SELECT o.surrogate_id, c.* FROM customer AS c
                 INNER JOIN emag_order as o
                 ON c.id = o.customer_id
-                WHERE o.surrogate_id = ?
+                WHERE o.surrogate_id = ANY(?)
                 """)) {
-            s.setInt(1, surrogateId);
+            s.setArray(1, surrogateIds);
             try (var rs = s.executeQuery()) {
-                if (rs.next()) {
-                    customer = new Customer(rs.getInt("id"),
+                while (rs.next()) {
+                    customers.put(rs.getInt("surrogate_id"), new Customer(rs.getInt("id"),
                             rs.getInt("mkt_id"),
                             rs.getString("name"),
                             rs.getString("email"),
@@ -308,196 +588,199 @@ public class EmagOrder {
                             rs.getString("shipping_contact"),
                             rs.getString("shipping_phone"),
                             toLocalDateTime(rs.getTimestamp("created")),
-                            toLocalDateTime(rs.getTimestamp("modified")));
+                            toLocalDateTime(rs.getTimestamp("modified"))));
                 }
             }
         }
-        return customer;
+        return customers;
     }
 
-    private static List<Attachment> selectAttachmentsByOrderId(Connection db, int surrogateId) throws SQLException {
-        String query = "SELECT name, url, type, force_download, visibility FROM attachment WHERE emag_order_surrogate_id = ?";
-        var list = new ArrayList<Attachment>();
+    private static Map<Integer, List<Attachment>> selectAttachmentsByOrderIds(Connection db, Array surrogateIds) throws SQLException {
+        var attachments = new HashMap<Integer, List<Attachment>>();
+        String query = "SELECT emag_order_surrogate_id, name, url, type, force_download, visibility FROM attachment WHERE emag_order_surrogate_id = ANY(?) ORDER BY emag_order_surrogate_id";
         try (var s = db.prepareStatement(query)) {
-            s.setInt(1, surrogateId);
+            s.setArray(1, surrogateIds);
             try (var rs = s.executeQuery()) {
                 while (rs.next()) {
-                    list.add(new Attachment(rs.getString("name"), rs.getString("url"), rs.getInt("type"), rs.getInt("force_download"), rs.getString("visibility")));
+                    attachments.computeIfAbsent(rs.getInt("emag_order_surrogate_id"), _ -> new ArrayList<>())
+                            .add(new Attachment(rs.getString("name"), rs.getString("url"), rs.getInt("type"), rs.getInt("force_download"), rs.getString("visibility")));
                 }
             }
         }
-        return list;
+        return attachments;
     }
 
-    private static List<Flag> selectFlagsByOrderId(Connection db, int surrogateId) throws SQLException {
-        var list = new ArrayList<Flag>();
-        String query = "SELECT emag_order_surrogate_id, flag, value FROM flag WHERE emag_order_surrogate_id = ?";
+    private static Map<Integer, List<Flag>> selectFlagsByOrderIds(Connection db, Array surrogateIds) throws SQLException {
+        var flags = new HashMap<Integer, List<Flag>>();
+        String query = "SELECT emag_order_surrogate_id, flag, value FROM flag WHERE emag_order_surrogate_id = ANY(?) ORDER BY emag_order_surrogate_id";
         try (var s = db.prepareStatement(query)) {
-            s.setInt(1, surrogateId);
+            s.setArray(1, surrogateIds);
             try (var rs = s.executeQuery()) {
-                if (rs.next()) {
-                    list.add(new Flag(
-                            rs.getString("flag"),
-                            rs.getString("value")
-                    ));
-                } else {
-                    return null; // or throw an exception if not found
+                while (rs.next()) {
+                    flags.computeIfAbsent(rs.getInt("emag_order_surrogate_id"), _ -> new ArrayList<>())
+                            .add(new Flag(
+                                    rs.getString("flag"),
+                                    rs.getString("value")
+                            ));
                 }
             }
         }
-        return list;
+        return flags;
     }
 
-    private static List<String> selectEnforcedVendorCourierAccountsByOrderId(Connection db, int surrogateId) throws SQLException {
-        var list = new ArrayList<String>();
-        String query = "SELECT courier FROM enforced_vendor_courier_account WHERE emag_order_surrogate_id = ?";
+    private static Map<Integer, List<String>> selectEnforcedVendorCourierAccountsByOrderIds(Connection db, Array surrogateIds) throws SQLException {
+        var accounts = new HashMap<Integer, List<String>>();
+        String query = "SELECT emag_order_surrogate_id, courier FROM enforced_vendor_courier_account WHERE emag_order_surrogate_id = ANY(?) ORDER BY emag_order_surrogate_id";
         try (var s = db.prepareStatement(query)) {
-            s.setInt(1, surrogateId);
+            s.setArray(1, surrogateIds);
             try (var rs = s.executeQuery()) {
                 while (rs.next()) {
-                    list.add(rs.getString("courier"));
+                    accounts.computeIfAbsent(rs.getInt("emag_order_surrogate_id"), _ -> new ArrayList<>())
+                            .add(rs.getString("courier"));
                 }
             }
         }
-        return list;
+        return accounts;
     }
 
-    private static List<Voucher> selectVouchersByOrderId(Connection db, int surrogateId) throws SQLException {
-        var list = new ArrayList<Voucher>();
+    private static Map<Integer, List<Voucher>> selectVouchersByOrderIds(Connection db, Array surrogateIds) throws SQLException {
+        var vouchers = new HashMap<Integer, List<Voucher>>();
         String query = """
-                SELECT voucher_id, modified, created, status, sale_price_vat, sale_price, voucher_name, vat, issue_date, id
+                SELECT emag_order_surrogate_id, voucher_id, modified, created, status, sale_price_vat, sale_price, voucher_name, vat, issue_date, id
                 FROM voucher
-                WHERE emag_order_surrogate_id = ?
+                WHERE emag_order_surrogate_id = ANY(?)
+                ORDER BY emag_order_surrogate_id
                 """;
         try (var s = db.prepareStatement(query)) {
-            s.setInt(1, surrogateId);
+            s.setArray(1, surrogateIds);
             try (var rs = s.executeQuery()) {
                 while (rs.next()) {
-                    list.add(new Voucher(rs.getInt("voucher_id"),
-                            rs.getString("modified"),
-                            rs.getString("created"),
-                            rs.getInt("status"),
-                            rs.getBigDecimal("sale_price_vat"),
-                            rs.getBigDecimal("sale_price"),
-                            rs.getString("voucher_name"),
-                            rs.getBigDecimal("vat"),
-                            rs.getString("issue_date"),
-                            rs.getString("id")));
+                    vouchers.computeIfAbsent(rs.getInt("emag_order_surrogate_id"), _ -> new ArrayList<>())
+                            .add(new Voucher(rs.getInt("voucher_id"),
+                                    rs.getString("modified"),
+                                    rs.getString("created"),
+                                    rs.getInt("status"),
+                                    rs.getBigDecimal("sale_price_vat"),
+                                    rs.getBigDecimal("sale_price"),
+                                    rs.getString("voucher_name"),
+                                    rs.getBigDecimal("vat"),
+                                    rs.getString("issue_date"),
+                                    rs.getString("id")));
                 }
             }
         }
-        return list;
+        return vouchers;
     }
 
-    private static List<VoucherSplit> selectVoucherSplitsByProductId(Connection db, int productId) throws SQLException {
-        var list = new ArrayList<VoucherSplit>();
+    /**
+     * Read the voucher splits of the products in the given orders.
+     *
+     * @param db database.
+     * @param surrogateIds of the orders.
+     * @return map from surrogate ID to a map from product ID to the voucher splits of the product.
+     * @throws SQLException on database error.
+     */
+    private static Map<Integer, Map<Integer, List<VoucherSplit>>> selectVoucherSplitsByOrderIds(Connection db, Array surrogateIds) throws SQLException {
+        var voucherSplits = new HashMap<Integer, Map<Integer, List<VoucherSplit>>>();
         try (var s = db.prepareStatement("""
-                SELECT voucher_id, value, vat_value, vat, offered_by, voucher_name FROM voucher_split WHERE product_id = ?
+                SELECT emag_order_surrogate_id, product_id, voucher_id, value, vat_value, vat, offered_by, voucher_name
+                FROM voucher_split
+                WHERE emag_order_surrogate_id = ANY(?)
+                ORDER BY emag_order_surrogate_id
                 """)) {
-            s.setInt(1, productId);
+            s.setArray(1, surrogateIds);
             try (var rs = s.executeQuery()) {
                 while (rs.next()) {
-                    list.add(new VoucherSplit(rs.getObject("voucher_id", Integer.class),
-                            rs.getBigDecimal("value"),
-                            rs.getBigDecimal("vat_value"),
-                            rs.getString("vat"),
-                            rs.getString("offered_by"),
-                            rs.getString("voucher_name")));
+                    voucherSplits.computeIfAbsent(rs.getInt("emag_order_surrogate_id"), _ -> new HashMap<>())
+                            .computeIfAbsent(rs.getInt("product_id"), _ -> new ArrayList<>())
+                            .add(voucherSplitFrom(rs));
                 }
             }
         }
-        return list;
+        return voucherSplits;
     }
 
-    private static List<VoucherSplit> selectVoucherSplitsByOrderId(Connection db, int surrogateId) throws SQLException {
-        var list = new ArrayList<VoucherSplit>();
+    private static Map<Integer, List<VoucherSplit>> selectOrderVoucherSplitsByOrderIds(Connection db, Array surrogateIds) throws SQLException {
+        var voucherSplits = new HashMap<Integer, List<VoucherSplit>>();
         try (var s = db.prepareStatement("""
-                SELECT voucher_id, value, vat_value, vat, offered_by, voucher_name FROM order_voucher_split WHERE emag_order_surrogate_id = ?
+                SELECT emag_order_surrogate_id, voucher_id, value, vat_value, vat, offered_by, voucher_name
+                FROM order_voucher_split
+                WHERE emag_order_surrogate_id = ANY(?)
+                ORDER BY emag_order_surrogate_id
                 """)) {
-            s.setInt(1, surrogateId);
+            s.setArray(1, surrogateIds);
             try (var rs = s.executeQuery()) {
                 while (rs.next()) {
-                    list.add(new VoucherSplit(rs.getObject("voucher_id", Integer.class),
-                            rs.getBigDecimal("value"),
-                            rs.getBigDecimal("vat_value"),
-                            rs.getString("vat"),
-                            rs.getString("offered_by"),
-                            rs.getString("voucher_name")));
+                    voucherSplits.computeIfAbsent(rs.getInt("emag_order_surrogate_id"), _ -> new ArrayList<>())
+                            .add(voucherSplitFrom(rs));
                 }
             }
         }
-        return list;
+        return voucherSplits;
+    }
+
+    private static VoucherSplit voucherSplitFrom(ResultSet rs) throws SQLException {
+        return new VoucherSplit(rs.getObject("voucher_id", Integer.class),
+                rs.getBigDecimal("value"),
+                rs.getBigDecimal("vat_value"),
+                rs.getString("vat"),
+                rs.getString("offered_by"),
+                rs.getString("voucher_name"));
     }
 
     /**
-     * Read all product ID belonging to an order.
+     * Read all products belonging to the given orders.
      *
-     * @param db database
-     * @param surrogateId the synthetic ID of the order
-     * @return list of product IDs.
-     * @throws SQLException on database error
+     * @param db database.
+     * @param surrogateIds the synthetic IDs of the orders.
+     * @param voucherSplits of the products as returned by {@link #selectVoucherSplitsByOrderIds(Connection, Array)}.
+     * @return map from surrogate ID to the products of the order.
+     * @throws SQLException on database error.
      */
-    private static List<Integer> selectProductIdByOrderId(Connection db, int surrogateId) throws SQLException {
-        var list = new ArrayList<Integer>();
+    private static Map<Integer, List<Product>> selectProductsByOrderIds(Connection db, Array surrogateIds, Map<Integer, Map<Integer, List<VoucherSplit>>> voucherSplits) throws SQLException {
+        var products = new HashMap<Integer, List<Product>>();
         try (var s = db.prepareStatement("""
-                SELECT id
+                SELECT emag_order_surrogate_id, id, product_id, mkt_id, name, status, ext_part_number, part_number, part_number_key, currency, vat, retained_amount, quantity, initial_qty, storno_qty, reversible_vat_charging, sale_price, original_price, created, modified, details, recycle_warranties, serial_numbers
                 FROM product_in_order
-                WHERE emag_order_surrogate_id = ?
+                WHERE emag_order_surrogate_id = ANY(?)
+                ORDER BY emag_order_surrogate_id
                 """)) {
-            s.setInt(1, surrogateId);
+            s.setArray(1, surrogateIds);
             try (var rs = s.executeQuery()) {
                 while (rs.next()) {
-                    list.add(rs.getInt("id"));
+                    var surrogateId = rs.getInt("emag_order_surrogate_id");
+                    var productId = rs.getInt("id");
+                    var productVoucherSplits = voucherSplits.getOrDefault(surrogateId, Map.of()).getOrDefault(productId, new ArrayList<>());
+                    products.computeIfAbsent(surrogateId, _ -> new ArrayList<>())
+                            .add(new Product(productId,
+                                    rs.getInt("product_id"),
+                                    rs.getInt("mkt_id"),
+                                    rs.getString("name"),
+                                    productVoucherSplits,
+                                    rs.getInt("status"),
+                                    rs.getString("ext_part_number"),
+                                    rs.getString("part_number"),
+                                    rs.getString("part_number_key"),
+                                    rs.getString("currency"),
+                                    rs.getString("vat"),
+                                    rs.getInt("retained_amount"),
+                                    rs.getInt("quantity"),
+                                    rs.getInt("initial_qty"),
+                                    rs.getInt("storno_qty"),
+                                    rs.getInt("reversible_vat_charging"),
+                                    rs.getBigDecimal("sale_price"),
+                                    rs.getBigDecimal("original_price"),
+                                    toLocalDateTime(rs.getTimestamp("created")),
+                                    toLocalDateTime(rs.getTimestamp("modified")),
+                                    Arrays.asList(rs.getString("details").split("\\n")),
+                                    Arrays.asList(rs.getString("recycle_warranties").split("\\n")),
+                                    new ArrayList<>(),
+                                    rs.getString("serial_numbers"),
+                                    null));
                 }
             }
         }
-        return list;
-
-    }
-
-    private static Product selectProduct(Connection db, int productId, int surrogateId, List<VoucherSplit> product_voucher_splits, List<Attachment> attachments) throws SQLException {
-        Product product = null;
-        try (var s = db.prepareStatement("""
-                SELECT id, product_id, mkt_id, name, status, ext_part_number, part_number, part_number_key, currency, vat, retained_amount, quantity, initial_qty, storno_qty, reversible_vat_charging, sale_price, original_price, created, modified, details, recycle_warranties, serial_numbers
-                FROM product_in_order
-                WHERE id = ? and emag_order_surrogate_id = ?
-                """)) {
-            s.setInt(1, productId);
-            s.setInt(2, surrogateId);
-            try (var rs = s.executeQuery()) {
-                if (rs.next()) {
-                    product = new Product(rs.getInt("id"),
-                            rs.getInt("product_id"),
-                            rs.getInt("mkt_id"),
-                            rs.getString("name"),
-                            product_voucher_splits,
-                            rs.getInt("status"),
-                            rs.getString("ext_part_number"),
-                            rs.getString("part_number"),
-                            rs.getString("part_number_key"),
-                            rs.getString("currency"),
-                            rs.getString("vat"),
-                            rs.getInt("retained_amount"),
-                            rs.getInt("quantity"),
-                            rs.getInt("initial_qty"),
-                            rs.getInt("storno_qty"),
-                            rs.getInt("reversible_vat_charging"),
-                            rs.getBigDecimal("sale_price"),
-                            rs.getBigDecimal("original_price"),
-                            toLocalDateTime(rs.getTimestamp("created")),
-                            toLocalDateTime(rs.getTimestamp("modified")),
-                            Arrays.asList(rs.getString("details").split("\\n")),
-                            Arrays.asList(rs.getString("recycle_warranties").split("\\n")),
-                            attachments,
-                            rs.getString("serial_numbers"),
-                            null);
-                }
-                if (rs.next()) {
-                    throw new RuntimeException("More than one product with the same ID " + productId);
-                }
-            }
-        }
-        return product;
+        return products;
     }
 
     public static Map<Integer, List<Product>> selectAllProduct(Connection db) throws SQLException {
@@ -568,45 +851,7 @@ public class EmagOrder {
                     var vendorId = rs.getObject("vendor_id", UUID.class);
                     var vendorName = allVendors.get(vendorId);
                     var products = allProducts.get(surrogateId);
-                    List<VoucherSplit>
-                            shipping_tax_voucher_split = null;
-                    Customer
-                            customer = null;
-                    List<Attachment>
-                            attachments = null;
-                    List<Voucher>
-                            vouchers = null;
-                    List<Flag>
-                            flags = null;
-                    List<String>
-                            enforcedVendorCourierAccounts = null;
-                    var order = new OrderResult(
-                            vendorName, rs.getString("id"), rs.getInt("status"), rs.getInt("is_complete"), rs.getInt("type"), rs.getString("payment_mode"),
-                            rs.getInt("payment_mode_id"), rs.getString("delivery_payment_mode"), rs.getString("delivery_mode"), rs.getString("observation"),
-                            new LockerDetails(rs.getString("details_id"), null, 0, null), // Assuming LockerDetails has a constructor that takes locker_id
-                            toLocalDateTime(rs.getTimestamp("date")), rs.getInt("payment_status"), rs.getBigDecimal("cashed_co"), rs.getBigDecimal("cashed_cod"),
-                            rs.getBigDecimal("shipping_tax"),
-                            shipping_tax_voucher_split, customer, products, attachments, vouchers,
-                            rs.getBoolean("is_storno"),
-                            rs.getBigDecimal("refunded_amount"),
-                            rs.getString("refund_status"),
-                            toLocalDateTime(rs.getTimestamp("maximum_date_for_shipment")),
-                            toLocalDateTime(rs.getTimestamp("finalization_date")),
-                            rs.getString("parent_id"),
-                            rs.getString("detailed_payment_method"),
-                            Arrays.asList(rs.getString("proforms").split("\n")), // Split the string back into a list
-                            rs.getString("cancellation_request"),
-                            rs.getInt("has_editable_products"),
-                            new CancellationReason(rs.getObject("cancellation_reason", Integer.class),
-                                    rs.getString("cancellation_reason_text")),
-                            rs.getObject("late_shipment", Integer.class), // Assuming late_shipment is a Timestamp
-                            flags, rs.getInt("emag_club"),
-                            rs.getInt("weekend_delivery"),
-                            toLocalDateTime(rs.getTimestamp("created")),
-                            toLocalDateTime(rs.getTimestamp("modified")),
-                            enforcedVendorCourierAccounts,
-                            "" // TODO: currency
-                    );
+                    var order = orderFrom(rs, vendorName, null, null, products, null, null, null, null);
                     orders
                             .computeIfAbsent(
                                     order.id(),
@@ -620,10 +865,9 @@ public class EmagOrder {
     }
 
     /**
-     * Select an order based on the surrogate id.
+     * Build an order from the current row of a result set on the emag_order table.
      *
-     * @param db database to read from.
-     * @param surrogateId used to look up the order.
+     * @param rs result set positioned on the row of the order.
      * @param vendorName to insert into the resulting order.
      * @param customer to insert into the resulting order.
      * @param shipping_tax_voucher_split to insert into the resulting order.
@@ -635,52 +879,42 @@ public class EmagOrder {
      * @return reconstructed order.
      * @throws SQLException on database problems.
      */
-    private static OrderResult selectOrder(Connection db,
-                                           int surrogateId,
-                                           String vendorName,
-                                           Customer customer,
-                                           List<VoucherSplit> shipping_tax_voucher_split,
-                                           List<Product> products,
-                                           List<Attachment> attachments,
-                                           List<Voucher> vouchers,
-                                           List<String> enforcedVendorCourierAccounts,
-                                           List<Flag> flags) throws SQLException {
-        OrderResult order = null;
-        try (var s = db.prepareStatement("SELECT * FROM emag_order WHERE surrogate_id = ?")) {
-            s.setInt(1, surrogateId);
-            try (var rs = s.executeQuery()) {
-                if (rs.next()) {
-                    order = new OrderResult(
-                            vendorName, rs.getString("id"), rs.getInt("status"), rs.getInt("is_complete"), rs.getInt("type"), rs.getString("payment_mode"),
-                            rs.getInt("payment_mode_id"), rs.getString("delivery_payment_mode"), rs.getString("delivery_mode"), rs.getString("observation"),
-                            new LockerDetails(rs.getString("details_id"), null, 0, null), // Assuming LockerDetails has a constructor that takes locker_id
-                            toLocalDateTime(rs.getTimestamp("date")), rs.getInt("payment_status"), rs.getBigDecimal("cashed_co"), rs.getBigDecimal("cashed_cod"),
-                            rs.getBigDecimal("shipping_tax"),
-                            shipping_tax_voucher_split, customer, products, attachments, vouchers,
-                            rs.getBoolean("is_storno"),
-                            rs.getBigDecimal("refunded_amount"),
-                            rs.getString("refund_status"),
-                            toLocalDateTime(rs.getTimestamp("maximum_date_for_shipment")),
-                            toLocalDateTime(rs.getTimestamp("finalization_date")),
-                            rs.getString("parent_id"),
-                            rs.getString("detailed_payment_method"),
-                            Arrays.asList(rs.getString("proforms").split("\n")), // Split the string back into a list
-                            rs.getString("cancellation_request"),
-                            rs.getInt("has_editable_products"),
-                            new CancellationReason(rs.getObject("cancellation_reason", Integer.class),
-                                    rs.getString("cancellation_reason_text")),
-                            rs.getObject("late_shipment", Integer.class), // Assuming late_shipment is a Timestamp
-                            flags, rs.getInt("emag_club"),
-                            rs.getInt("weekend_delivery"),
-                            toLocalDateTime(rs.getTimestamp("created")),
-                            toLocalDateTime(rs.getTimestamp("modified")),
-                            enforcedVendorCourierAccounts,
-                            "" //TODO Currency
-                    );
-                }
-            }
-        }
-        return order;
+    private static OrderResult orderFrom(ResultSet rs,
+                                         String vendorName,
+                                         Customer customer,
+                                         List<VoucherSplit> shipping_tax_voucher_split,
+                                         List<Product> products,
+                                         List<Attachment> attachments,
+                                         List<Voucher> vouchers,
+                                         List<String> enforcedVendorCourierAccounts,
+                                         List<Flag> flags) throws SQLException {
+        return new OrderResult(
+                vendorName, rs.getString("id"), rs.getInt("status"), rs.getInt("is_complete"), rs.getInt("type"), rs.getString("payment_mode"),
+                rs.getInt("payment_mode_id"), rs.getString("delivery_payment_mode"), rs.getString("delivery_mode"), rs.getString("observation"),
+                new LockerDetails(rs.getString("details_id"), null, 0, null), // Assuming LockerDetails has a constructor that takes locker_id
+                toLocalDateTime(rs.getTimestamp("date")), rs.getInt("payment_status"), rs.getBigDecimal("cashed_co"), rs.getBigDecimal("cashed_cod"),
+                rs.getBigDecimal("shipping_tax"),
+                shipping_tax_voucher_split, customer, products, attachments, vouchers,
+                rs.getBoolean("is_storno"),
+                rs.getBigDecimal("refunded_amount"),
+                rs.getString("refund_status"),
+                toLocalDateTime(rs.getTimestamp("maximum_date_for_shipment")),
+                toLocalDateTime(rs.getTimestamp("finalization_date")),
+                rs.getString("parent_id"),
+                rs.getString("detailed_payment_method"),
+                Arrays.asList(rs.getString("proforms").split("\n")), // Split the string back into a list
+                rs.getString("cancellation_request"),
+                rs.getInt("has_editable_products"),
+                new CancellationReason(rs.getObject("cancellation_reason", Integer.class),
+                        rs.getString("cancellation_reason_text")),
+                rs.getObject("late_shipment", Integer.class), // Assuming late_shipment is a Timestamp
+                flags, rs.getInt("emag_club"),
+                rs.getInt("weekend_delivery"),
+                toLocalDateTime(rs.getTimestamp("created")),
+                toLocalDateTime(rs.getTimestamp("modified")),
+                enforcedVendorCourierAccounts,
+                "" //TODO Currency
+        );
     }
 
     /**
@@ -724,115 +958,6 @@ public class EmagOrder {
         if (!isYes) System.exit(1);
     }
 
-    /**
-     * Update a numeric field in the emag_order table.
-     *
-     * @param db database connection.
-     * @param surrogateId row id.
-     * @param field name of the field.
-     * @param newValue value to store.
-     * @return 1 if the row was updated or 0 if no row matched the surrogateId.
-     * @throws SQLException on database errors.
-     */
-    private static int updateNumeric(Connection db, int surrogateId, final String field, BigDecimal newValue) throws SQLException {
-        try (var s = db.prepareStatement("UPDATE emag_order SET " + field + " =? WHERE surrogate_id= ?")) {
-            s.setObject(1, newValue);
-            s.setInt(2, surrogateId);
-            return s.executeUpdate();
-        }
-    }
-
-    /**
-     * Update an integer field in the emag_order table.
-     *
-     * @param db database connection.
-     * @param surrogateId row id.
-     * @param field name of the field.
-     * @param newValue value to store.
-     * @return 1 if the row was updated or 0 if no row matched the surrogateId.
-     * @throws SQLException on database errors.
-     */
-    private static int updateInt(Connection db, int surrogateId, final String field, int newValue) throws SQLException {
-        try (var s = db.prepareStatement("UPDATE emag_order SET " + field + " =? WHERE surrogate_id= ?")) {
-            s.setInt(1, newValue);
-            s.setInt(2, surrogateId);
-            return s.executeUpdate();
-        }
-    }
-
-    /**
-     * Update an integer field in the emag_order table.
-     *
-     * @param db database connection.
-     * @param surrogateId row id.
-     * @param field name of the field.
-     * @param newValue value to store.
-     * @return 1 if the row was updated or 0 if no row matched the surrogateId.
-     * @throws SQLException on database errors.
-     */
-    private static int updateInteger(Connection db, int surrogateId, final String field, Integer newValue) throws SQLException {
-        try (var s = db.prepareStatement("UPDATE emag_order SET " + field + " =? WHERE surrogate_id= ?")) {
-            s.setObject(1, newValue);
-            s.setInt(2, surrogateId);
-            return s.executeUpdate();
-        }
-    }
-
-    /**
-     * Update a string field in the emag_order table.
-     *
-     * @param db database connection.
-     * @param surrogateId row id.
-     * @param field name of the field.
-     * @param newValue value to store.
-     * @return 1 if the row was updated or 0 if no row matched the surrogateId.
-     * @throws SQLException on database errors.
-     */
-    private static int updateString(Connection db, int surrogateId, final String field, String newValue) throws SQLException {
-        try (var s = db.prepareStatement("UPDATE emag_order SET " + field + " =? WHERE surrogate_id= ?")) {
-            s.setString(1, newValue);
-            s.setInt(2, surrogateId);
-            return s.executeUpdate();
-        }
-    }
-
-    /**
-     * Update a timestamp field in the emag_order table.
-     *
-     * @param db database connection.
-     * @param surrogateId row id.
-     * @param field name of the field.
-     * @param newValue value to store.
-     * @return 1 if the row was updated or 0 if no row matched the surrogateId.
-     * @throws SQLException on database errors.
-     */
-    private static int updateTimestamp(Connection db, int surrogateId, String field, LocalDateTime newValue) throws SQLException {
-        try (var s = db.prepareStatement("UPDATE emag_order SET " + field + " =? WHERE surrogate_id= ?")) {
-            s.setTimestamp(1, toTimestamp(newValue));
-            s.setInt(2, surrogateId);
-            return s.executeUpdate();
-        }
-    }
-
-    /**
-     * Update the cancellation reason in the emag_order table.
-     * This updates both cancellation_reason and cancellation_reason_text.
-     *
-     * @param db database connection.
-     * @param surrogateId row id.
-     * @param newValue value to store.
-     * @return 1 if the row was updated or 0 if no row matched the surrogateId.
-     * @throws SQLException on database errors.
-     */
-    private static int updateCancellationReason(Connection db, int surrogateId, CancellationReason newValue) throws SQLException {
-        try (var s = db.prepareStatement("UPDATE emag_order SET cancellation_reason = ?, cancellation_reason_text = ?  WHERE surrogate_id = ?")) {
-            s.setInt(1, newValue.id());
-            s.setString(2, newValue.name());
-            s.setInt(3, surrogateId);
-            return s.executeUpdate();
-        }
-    }
-
     /**
      * Update order products, flags, attachments, and vouchers.
      *
@@ -840,157 +965,159 @@ public class EmagOrder {
      * @param order order with the up-to-date values.
      * @param oldOrder order as it was found in the database.
      * @param surrogateId row id.
+     * @return true if any of the dependents changed.
      * @throws SQLException on database errors.
      */
-    private static void updateOrderDependents(Connection db, OrderResult order, OrderResult oldOrder, int surrogateId) throws SQLException {
+    private static boolean updateOrderDependents(Connection db, DependentsBatch batch, OrderResult order, OrderResult oldOrder, int surrogateId) throws SQLException {
+        var changed = false;
         if (!Objects.equals(oldOrder.flags(), order.flags())) {
-            updateFlags(db, order, surrogateId);
+            updateFlags(db, batch, order, surrogateId);
+            changed = true;
         }
         if (!Objects.equals(oldOrder.products(), order.products())) {
-            updateProducts(db, order, surrogateId);
+            updateProducts(db, batch, order, surrogateId);
+            changed = true;
         }
         if (!Objects.equals(oldOrder.attachments(), order.attachments())) {
-            updateAttachments(db, order, surrogateId);
+            updateAttachments(db, batch, order, surrogateId);
+            changed = true;
         }
         if (!Objects.equals(oldOrder.vouchers(), order.vouchers())) {
-            updateVouchers(db, order, surrogateId);
+            updateVouchers(db, batch, order, surrogateId);
+            changed = true;
         }
         if (!Objects.equals(oldOrder.shipping_tax_voucher_split(), order.shipping_tax_voucher_split())) {
-            updateOrderVoucherSplits(db, order, surrogateId);
+            updateOrderVoucherSplits(db, batch, order, surrogateId);
+            changed = true;
         }
+        return changed;
     }
 
-    private static void insertOrderDependents(Connection db, OrderResult order, int surrogateId) throws SQLException {
-        insertProducts(db, order, surrogateId);
+    private static void insertOrderDependents(DependentsBatch batch, OrderResult order, int surrogateId) throws SQLException {
+        insertProducts(batch, order, surrogateId);
         if (order.shipping_tax_voucher_split() != null) {
             for (var voucherSplit : order.shipping_tax_voucher_split()) {
-                insertOrderVoucherSplit(db, voucherSplit, surrogateId);
+                insertOrderVoucherSplit(batch, voucherSplit, surrogateId);
             }
         }
-        insertAttachments(db, order, surrogateId);
-        insertVouchers(db, order, surrogateId);
-        insertFlags(db, order, surrogateId);
+        insertAttachments(batch, order, surrogateId);
+        insertVouchers(batch, order, surrogateId);
+        insertFlags(batch, order, surrogateId);
         if (order.enforced_vendor_courier_accounts() != null) {
             for (String enforced_vendor_courier_account : order.enforced_vendor_courier_accounts()) {
-                insertEnforcedVendorCourierAccount(db, enforced_vendor_courier_account, surrogateId);
+                insertEnforcedVendorCourierAccount(batch, enforced_vendor_courier_account, surrogateId);
             }
         }
     }
 
-    private static int insertEnforcedVendorCourierAccount(Connection db, String enforcedVendorCourierAccount, int surrogateId) throws SQLException {
-        try (var s = db.prepareStatement("INSERT INTO enforced_vendor_courier_account (emag_order_surrogate_id, courier) VALUES (?, ?) ON CONFLICT(emag_order_surrogate_id, courier) DO NOTHING")) {
-            s.setInt(1, surrogateId);
-            s.setString(2, enforcedVendorCourierAccount);
-            return s.executeUpdate();
-        }
+    private static void insertEnforcedVendorCourierAccount(DependentsBatch batch, String enforcedVendorCourierAccount, int surrogateId) throws SQLException {
+        var s = batch.enforcedVendorCourierAccounts;
+        s.setInt(1, surrogateId);
+        s.setString(2, enforcedVendorCourierAccount);
+        s.addBatch();
     }
 
-    private static int insertVoucherSplit(Connection conn, VoucherSplit voucherSplit, int surrogateId, int productId) throws SQLException {
-        try (var s = conn.prepareStatement("INSERT INTO voucher_split (voucher_id, emag_order_surrogate_id, product_id, value, vat_value, vat, offered_by, voucher_name) VALUES (?, ?, ?, ?, ?, ?, ?, ?) ON CONFLICT(voucher_id, product_id, emag_order_surrogate_id) DO NOTHING")) {
-            s.setInt(1, voucherSplit.voucher_id());
-            s.setInt(2, surrogateId);
-            s.setInt(3, productId);
-            s.setBigDecimal(4, voucherSplit.value());
-            s.setBigDecimal(5, voucherSplit.vat_value());
-            s.setString(6, voucherSplit.vat());
-            s.setString(7, voucherSplit.offered_by());
-            s.setString(8, voucherSplit.voucher_name());
-            return s.executeUpdate();
-        }
+    private static void insertVoucherSplit(DependentsBatch batch, VoucherSplit voucherSplit, int surrogateId, int productId) throws SQLException {
+        var s = batch.voucherSplits;
+        s.setInt(1, voucherSplit.voucher_id());
+        s.setInt(2, surrogateId);
+        s.setInt(3, productId);
+        s.setBigDecimal(4, voucherSplit.value());
+        s.setBigDecimal(5, voucherSplit.vat_value());
+        s.setString(6, voucherSplit.vat());
+        s.setString(7, voucherSplit.offered_by());
+        s.setString(8, voucherSplit.voucher_name());
+        s.addBatch();
     }
 
-    private static int insertOrderVoucherSplit(Connection conn, VoucherSplit voucherSplit, int surrogateId) throws SQLException {
-        try (var s = conn.prepareStatement("INSERT INTO order_voucher_split (voucher_id, emag_order_surrogate_id, value, vat_value, vat, offered_by, voucher_name) VALUES (?, ?, ?, ?, ?, ?, ?) ON CONFLICT(voucher_id, emag_order_surrogate_id) DO NOTHING")) {
-            s.setInt(1, voucherSplit.voucher_id());
-            s.setInt(2, surrogateId);
-            s.setBigDecimal(3, voucherSplit.value());
-            s.setBigDecimal(4, voucherSplit.vat_value());
-            s.setString(5, voucherSplit.vat());
-            s.setString(6, voucherSplit.offered_by());
-            s.setString(7, voucherSplit.voucher_name());
-            return s.executeUpdate();
-        }
+    private static void insertOrderVoucherSplit(DependentsBatch batch, VoucherSplit voucherSplit, int surrogateId) throws SQLException {
+        var s = batch.orderVoucherSplits;
+        s.setInt(1, voucherSplit.voucher_id());
+        s.setInt(2, surrogateId);
+        s.setBigDecimal(3, voucherSplit.value());
+        s.setBigDecimal(4, voucherSplit.vat_value());
+        s.setString(5, voucherSplit.vat());
+        s.setString(6, voucherSplit.offered_by());
+        s.setString(7, voucherSplit.voucher_name());
+        s.addBatch();
     }
 
-    private static int insertProductInOrder(Connection db, Product product, int surrogateId) throws SQLException {
-        try (var s = db.prepareStatement("INSERT INTO product_in_order (id, emag_order_surrogate_id, product_id, mkt_id, name, status, ext_part_number, part_number, part_number_key, currency, vat, retained_amount, quantity, initial_qty, storno_qty, reversible_vat_charging, sale_price, original_price, created, modified, details, recycle_warranties, serial_numbers) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?) ON CONFLICT(id, emag_order_surrogate_id) DO NOTHING")) {
-            s.setInt(1, product.id());
-            s.setInt(2, surrogateId);
-            s.setInt(3, product.product_id());
-            s.setObject(4, product.mkt_id());
-            s.setString(5, product.name());
-            s.setInt(6, product.status());
-            s.setString(7, product.ext_part_number());
-            s.setString(8, product.part_number());
-            s.setString(9, product.part_number_key());
-            s.setString(10, product.currency());
-            s.setString(11, product.vat());
-            s.setInt(12, product.retained_amount());
-            s.setInt(13, product.quantity());
-            s.setInt(14, product.initial_qty());
-            s.setInt(15, product.storno_qty());
-            s.setInt(16, product.reversible_vat_charging());
-            s.setBigDecimal(17, product.sale_price());
-            s.setBigDecimal(18, product.original_price());
-            s.setTimestamp(19, toTimestamp(product.created()));
-            s.setTimestamp(20, toTimestamp(product.modified()));
-            s.setString(21, String.join("\n", product.details()));
-            s.setString(22, String.join("\n", product.recycle_warranties()));
-            s.setString(23, nullToEmpty(product.serial_numbers()));
-            return s.executeUpdate();
-        }
+    private static void insertProductInOrder(DependentsBatch batch, Product product, int surrogateId) throws SQLException {
+        var s = batch.products;
+        s.setInt(1, product.id());
+        s.setInt(2, surrogateId);
+        s.setInt(3, product.product_id());
+        s.setObject(4, product.mkt_id());
+        s.setString(5, product.name());
+        s.setInt(6, product.status());
+        s.setString(7, product.ext_part_number());
+        s.setString(8, product.part_number());
+        s.setString(9, product.part_number_key());
+        s.setString(10, product.currency());
+        s.setString(11, product.vat());
+        s.setInt(12, product.retained_amount());
+        s.setInt(13, product.quantity());
+        s.setInt(14, product.initial_qty());
+        s.setInt(15, product.storno_qty());
+        s.setInt(16, product.reversible_vat_charging());
+        s.setBigDecimal(17, product.sale_price());
+        s.setBigDecimal(18, product.original_price());
+        s.setTimestamp(19, toTimestamp(product.created()));
+        s.setTimestamp(20, toTimestamp(product.modified()));
+        s.setString(21, String.join("\n", product.details()));
+        s.setString(22, String.join("\n", product.recycle_warranties()));
+        s.setString(23, nullToEmpty(product.serial_numbers()));
+        s.addBatch();
     }
 
-    private static void insertVouchers(Connection db, OrderResult order, int surrogateId) throws SQLException {
+    private static void insertVouchers(DependentsBatch batch, OrderResult order, int surrogateId) throws SQLException {
         if (order.vouchers() != null) {
             for (Voucher voucher : order.vouchers()) {
-                insertVoucher(db, voucher, surrogateId);
+                insertVoucher(batch, voucher, surrogateId);
             }
         }
     }
 
-    private static int insertVoucher(Connection db, Voucher voucher, int surrogateId) throws SQLException {
-        try (var s = db.prepareStatement("INSERT INTO voucher (voucher_id, emag_order_surrogate_id, modified, created, status, sale_price_vat, sale_price, voucher_name, vat, issue_date, id) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?) ON CONFLICT(voucher_id, emag_order_surrogate_id) DO NOTHING")) {
-            s.setInt(1, voucher.voucher_id());
-            s.setInt(2, surrogateId);
-            s.setString(3, voucher.modified());
-            s.setString(4, voucher.created());
-            s.setInt(5, voucher.status());
-            s.setBigDecimal(6, voucher.sale_price_vat());
-            s.setBigDecimal(7, voucher.sale_price());
-            s.setString(8, voucher.voucher_name());
-            s.setBigDecimal(9, voucher.vat());
-            s.setString(10, voucher.issue_date());
-            s.setString(11, voucher.id());
-            return s.executeUpdate();
-        }
+    private static void insertVoucher(DependentsBatch batch, Voucher voucher, int surrogateId) throws SQLException {
+        var s = batch.vouchers;
+        s.setInt(1, voucher.voucher_id());
+        s.setInt(2, surrogateId);
+        s.setString(3, voucher.modified());
+        s.setString(4, voucher.created());
+        s.setInt(5, voucher.status());
+        s.setBigDecimal(6, voucher.sale_price_vat());
+        s.setBigDecimal(7, voucher.sale_price());
+        s.setString(8, voucher.voucher_name());
+        s.setBigDecimal(9, voucher.vat());
+        s.setString(10, voucher.issue_date());
+        s.setString(11, voucher.id());
+        s.addBatch();
     }
 
-    private static void insertAttachments(Connection db, OrderResult order, int surrogateId) throws SQLException {
+    private static void insertAttachments(DependentsBatch batch, OrderResult order, int surrogateId) throws SQLException {
         if (order.attachments() != null) {
             for (var attachment : order.attachments()) {
-                insertAttachment(db, attachment, surrogateId);
+                insertAttachment(batch, attachment, surrogateId);
             }
         }
     }
 
-    private static int insertAttachment(Connection db, Attachment attachment, int surrogateId) throws SQLException {
-        try (var s = db.prepareStatement("INSERT INTO attachment (emag_order_surrogate_id, name, url, type, force_download, visibility) VALUES (?, ?, ?, ?, ?, ?) ON CONFLICT(emag_order_surrogate_id, url) DO NOTHING")) {
-            s.setInt(1, surrogateId);
-            s.setString(2, attachment.name());
-            s.setString(3, attachment.url());
-            s.setInt(4, attachment.type());
-            s.setInt(5, attachment.force_download());
-            s.setString(6, attachment.visibility());
-            return s.executeUpdate();
-        }
+    private static void insertAttachment(DependentsBatch batch, Attachment attachment, int surrogateId) throws SQLException {
+        var s = batch.attachments;
+        s.setInt(1, surrogateId);
+        s.setString(2, attachment.name());
+        s.setString(3, attachment.url());
+        s.setInt(4, attachment.type());
+        s.setInt(5, attachment.force_download());
+        s.setString(6, attachment.visibility());
+        s.addBatch();
     }
 
-    private static void insertProducts(Connection db, OrderResult order, int surrogateId) throws SQLException {
+    private static void insertProducts(DependentsBatch batch, OrderResult order, int surrogateId) throws SQLException {
         if (order.products() != null) {
             for (var product : order.products()) {
-                insertProductInOrder(db, product, surrogateId);
-                insertVoucherSplits(db, surrogateId, product);
+                insertProductInOrder(batch, product, surrogateId);
+                insertVoucherSplits(batch, surrogateId, product);
             }
         }
     }
@@ -1002,20 +1129,20 @@ public class EmagOrder {
         }
     }
 
-    private static void updateProducts(Connection db, OrderResult order, int surrogateId) throws SQLException {
+    private static void updateProducts(Connection db, DependentsBatch batch, OrderResult order, int surrogateId) throws SQLException {
         deleteVoucherSplits(db, surrogateId);
         deleteProducts(db, surrogateId);
         if (order.products() != null) {
             for (var product : order.products()) {
-                insertProductInOrder(db, product, surrogateId);
-                insertVoucherSplits(db, surrogateId, product);
+                insertProductInOrder(batch, product, surrogateId);
+                insertVoucherSplits(batch, surrogateId, product);
             }
         }
     }
 
-    private static void insertVoucherSplits(Connection db, int surrogateId, Product product) throws SQLException {
+    private static void insertVoucherSplits(DependentsBatch batch, int surrogateId, Product product) throws SQLException {
         for (var voucherSplit : product.product_voucher_split()) {
-            insertVoucherSplit(db, voucherSplit, surrogateId, product.id());
+            insertVoucherSplit(batch, voucherSplit, surrogateId, product.id());
         }
     }
 
@@ -1033,21 +1160,20 @@ public class EmagOrder {
         }
     }
 
-    private static void insertFlags(Connection db, OrderResult order, int surrogateId) throws SQLException {
+    private static void insertFlags(DependentsBatch batch, OrderResult order, int surrogateId) throws SQLException {
         if (order.flags() != null) {
             for (Flag flag : order.flags()) {
-                insertFlag(db, flag, surrogateId);
+                insertFlag(batch, flag, surrogateId);
             }
         }
     }
 
-    private static int insertFlag(Connection db, Flag flag, int surrogateId) throws SQLException {
-        try (var s = db.prepareStatement("INSERT INTO flag (emag_order_surrogate_id, flag, value) VALUES (?, ?, ?) ON CONFLICT(emag_order_surrogate_id, flag) DO NOTHING")) {
-            s.setInt(1, surrogateId);
-            s.setString(2, flag.flag());
-            s.setString(3, flag.value());
-            return s.executeUpdate();
-        }
+    private static void insertFlag(DependentsBatch batch, Flag flag, int surrogateId) throws SQLException {
+        var s = batch.flags;
+        s.setInt(1, surrogateId);
+        s.setString(2, flag.flag());
+        s.setString(3, flag.value());
+        s.addBatch();
     }
 
     private static int deleteFlags(Connection db, int surrogateId) throws SQLException {
@@ -1071,25 +1197,76 @@ public class EmagOrder {
         }
     }
 
-    private static void updateFlags(Connection db, OrderResult order, int surrogateId) throws SQLException {
+    private static void updateFlags(Connection db, DependentsBatch batch, OrderResult order, int surrogateId) throws SQLException {
         deleteFlags(db, surrogateId);
-        insertFlags(db, order, surrogateId);
+        insertFlags(batch, order, surrogateId);
     }
 
-    private static void updateAttachments(Connection db, OrderResult order, int surrogateId) throws SQLException {
+    private static void updateAttachments(Connection db, DependentsBatch batch, OrderResult order, int surrogateId) throws SQLException {
         deleteAttachments(db, surrogateId);
-        insertAttachments(db, order, surrogateId);
+        insertAttachments(batch, order, surrogateId);
     }
 
-    private static void updateVouchers(Connection db, OrderResult order, int surrogateId) throws SQLException {
+    private static void updateVouchers(Connection db, DependentsBatch batch, OrderResult order, int surrogateId) throws SQLException {
         deleteVouchers(db, surrogateId);
-        insertVouchers(db, order, surrogateId);
+        insertVouchers(batch, order, surrogateId);
     }
 
-    private static void updateOrderVoucherSplits(Connection db, OrderResult order, int surrogateId) throws SQLException {
+    private static void updateOrderVoucherSplits(Connection db, DependentsBatch batch, OrderResult order, int surrogateId) throws SQLException {
         deleteOrderVoucherSplits(db, surrogateId);
         for (VoucherSplit voucherSplit : order.shipping_tax_voucher_split()) {
-            insertOrderVoucherSplit(db, voucherSplit, surrogateId);
+            insertOrderVoucherSplit(batch, voucherSplit, surrogateId);
+        }
+    }
+
+    /**
+     * Prepared statements for the rows of the tables depending on an order.
+     * The rows are collected as JDBC batches and sent to the database by {@link #execute()}.
+     */
+    private static final class DependentsBatch implements AutoCloseable {
+        private final PreparedStatement products;
+        private final PreparedStatement voucherSplits;
+        private final PreparedStatement orderVoucherSplits;
+        private final PreparedStatement vouchers;
+        private final PreparedStatement attachments;
+        private final PreparedStatement flags;
+        private final PreparedStatement enforcedVendorCourierAccounts;
+
+        private DependentsBatch(Connection db) throws SQLException {
+            products = db.prepareStatement("INSERT INTO product_in_order (id, emag_order_surrogate_id, product_id, mkt_id, name, status, ext_part_number, part_number, part_number_key, currency, vat, retained_amount, quantity, initial_qty, storno_qty, reversible_vat_charging, sale_price, original_price, created, modified, details, recycle_warranties, serial_numbers) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?) ON CONFLICT(id, emag_order_surrogate_id) DO NOTHING");
+            voucherSplits = db.prepareStatement("INSERT INTO voucher_split (voucher_id, emag_order_surrogate_id, product_id, value, vat_value, vat, offered_by, voucher_name) VALUES (?, ?, ?, ?, ?, ?, ?, ?) ON CONFLICT(voucher_id, product_id, emag_order_surrogate_id) DO NOTHING");
+            orderVoucherSplits = db.prepareStatement("INSERT INTO order_voucher_split (voucher_id, emag_order_surrogate_id, value, vat_value, vat, offered_by, voucher_name) VALUES (?, ?, ?, ?, ?, ?, ?) ON CONFLICT(voucher_id, emag_order_surrogate_id) DO NOTHING");
+            vouchers = db.prepareStatement("INSERT INTO voucher (voucher_id, emag_order_surrogate_id, modified, created, status, sale_price_vat, sale_price, voucher_name, vat, issue_date, id) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?) ON CONFLICT(voucher_id, emag_order_surrogate_id) DO NOTHING");
+            attachments = db.prepareStatement("INSERT INTO attachment (emag_order_surrogate_id, name, url, type, force_download, visibility) VALUES (?, ?, ?, ?, ?, ?) ON CONFLICT(emag_order_surrogate_id, url) DO NOTHING");
+            flags = db.prepareStatement("INSERT INTO flag (emag_order_surrogate_id, flag, value) VALUES (?, ?, ?) ON CONFLICT(emag_order_surrogate_id, flag) DO NOTHING");
+            enforcedVendorCourierAccounts = db.prepareStatement("INSERT INTO enforced_vendor_courier_account (emag_order_surrogate_id, courier) VALUES (?, ?) ON CONFLICT(emag_order_surrogate_id, courier) DO NOTHING");
+        }
+
+        /**
+         * Send all collected rows to the database.
+         * Products are written before the voucher splits belonging to them.
+         *
+         * @throws SQLException on database errors.
+         */
+        private void execute() throws SQLException {
+            products.executeBatch();
+            voucherSplits.executeBatch();
+            orderVoucherSplits.executeBatch();
+            vouchers.executeBatch();
+            attachments.executeBatch();
+            flags.executeBatch();
+            enforcedVendorCourierAccounts.executeBatch();
+        }
+
+        @Override
+        public void close() throws SQLException {
+            products.close();
+            voucherSplits.close();
+            orderVoucherSplits.close();
+            vouchers.close();
+            attachments.close();
+            flags.close();
+            enforcedVendorCourierAccounts.close();
         }
     }
-}
\ No newline at end of file
+}
@@ -1,14 +1,21 @@
 package ro.sellfluence.db;
 
+import org.jspecify.annotations.Nullable;
+import ro.sellfluence.emagapi.OrderResult;
+import ro.sellfluence.emagapi.Product;
 import ro.sellfluence.support.Logs;
 
 import java.math.BigDecimal;
 import java.sql.Connection;
 import java.sql.SQLException;
 import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.logging.Logger;
 import java.util.stream.Collectors;
 
@@ -25,17 +32,188 @@ public class GMV {
     private static final Logger logger = Logs.getConsoleLogger("GMV", WARNING);
 
     /**
-     * Compute the GMV for a specific product.
+     * Compute the GMV for a specific product and store it for the given months only.
+     * The orders must include all orders contributing to these months,
+     * but they may also contribute to other months, whose values would be incomplete.
      *
      * @param db database for writing to the GMV table.
      * @param productCode ID of the product.
      * @param ordersWithProduct Flattened orders with the product information belonging to the selected product.
+     * @param months for which the GMV is stored.
      * @throws SQLException on database error.
      */
-    static void computeAndStoreGMVForProduct(Connection db, String productCode, Map<String, List<POInfo>> ordersWithProduct) throws SQLException {
+    static void computeAndStoreGMVForProduct(Connection db, String productCode, Map<String, List<POInfo>> ordersWithProduct, Set<YearMonth> months) throws SQLException {
+        var gmvByMonth = computeGMVByMonth(ordersWithProduct);
+        gmvByMonth.keySet().retainAll(months);
+        upsertGMV(db, Map.of(productCode, gmvByMonth));
+    }
+
+    /**
+     * Compute the GMV by month of a single product.
+     *
+     * @param ordersWithProduct Flattened orders with the product information belonging to the product, grouped by order ID.
+     * @return GMV by month.
+     */
+    static Map<YearMonth, BigDecimal> computeGMVByMonth(Map<String, List<POInfo>> ordersWithProduct) {
         var gmvByMonth = new HashMap<YearMonth, BigDecimal>();
         ordersWithProduct.forEach((_, poInfos) -> computeGMVForOrder(poInfos, gmvByMonth));
-        insertOrUpdateGMV(db, productCode, gmvByMonth);
+        return gmvByMonth;
+    }
+
+    /**
+     * Computes the GMV of all products in a single pass over the order entries.
+     * The entries must be added ordered by product code, order ID and order status,
+     * so that all entries of an order are seen together, the finalized one before the storno one.
+     * Only the GMV values are kept in memory, not the orders.
+     */
+    static final class AllProductsGMV {
+        private final Map<String, HashMap<YearMonth, BigDecimal>> gmvByProduct = new HashMap<>();
+        private @Nullable String currentProduct;
+        private @Nullable String currentOrder;
+        private final List<POInfo> currentOrderEntries = new ArrayList<>();
+
+        void add(String productCode, POInfo poInfo) {
+            if (!productCode.equals(currentProduct) || !poInfo.orderId().equals(currentOrder)) {
+                completeOrder();
+                currentProduct = productCode;
+                currentOrder = poInfo.orderId();
+            }
+            currentOrderEntries.add(poInfo);
+        }
+
+        /**
+         * Complete the computation.
+         *
+         * @return GMV by month for each product code.
+         */
+        Map<String, ? extends Map<YearMonth, BigDecimal>> result() {
+            completeOrder();
+            return gmvByProduct;
+        }
+
+        private void completeOrder() {
+            if (currentProduct != null && !currentOrderEntries.isEmpty()) {
+                computeGMVForOrder(currentOrderEntries, gmvByProduct.computeIfAbsent(currentProduct, _ -> new HashMap<>()));
+                currentOrderEntries.clear();
+            }
+        }
+    }
+
+    /**
+     * Insert or update GMV values with a single batch.
+     * Rows whose value did not change are left untouched.
+     *
+     * @param db database connection.
+     * @param gmvByProduct GMV by month for each product code.
+     * @return number of rows inserted or changed.
+     * @throws SQLException on database error.
+     */
+    static int upsertGMV(Connection db, Map<String, ? extends Map<YearMonth, BigDecimal>> gmvByProduct) throws SQLException {
+        try (var s = db.prepareStatement("""
+                INSERT INTO gmv (product_code, month, gmv) VALUES (?, ?, ?)
+                ON CONFLICT (month, product_code) DO UPDATE SET gmv = EXCLUDED.gmv
+                WHERE gmv.gmv IS DISTINCT FROM EXCLUDED.gmv
+                """)) {
+            for (var productEntry : gmvByProduct.entrySet()) {
+                for (var monthEntry : productEntry.getValue().entrySet()) {
+                    s.setObject(1, productEntry.getKey());
+                    s.setDate(2, toDate(monthEntry.getKey()));
+                    s.setBigDecimal(3, monthEntry.getValue().setScale(2, HALF_EVEN));
+                    s.addBatch();
+                }
+            }
+            var changed = 0;
+            for (int count : s.executeBatch()) {
+                changed += Math.max(count, 0);
+            }
+            return changed;
+        }
+    }
+
+    /**
+     * Record that the GMV of the products in these orders needs to be recomputed for the months of the orders.
+     *
+     * @param db database connection.
+     * @param orders added or changed.
+     * @throws SQLException on database error.
+     */
+    static void markOrdersChanged(Connection db, Collection<OrderResult> orders) throws SQLException {
+        var cells = new HashSet<ChangedCell>();
+        for (OrderResult order : orders) {
+            if (order.products() != null && order.date() != null) {
+                var month = YearMonth.from(order.date());
+                for (Product product : order.products()) {
+                    if (product.part_number_key() != null) {
+                        cells.add(new ChangedCell(product.part_number_key(), month));
+                    }
+                }
+            }
+        }
+        if (cells.isEmpty()) {
+            return;
+        }
+        try (var s = db.prepareStatement("INSERT INTO gmv_dirty (part_number_key, month) VALUES (?, ?) ON CONFLICT DO NOTHING")) {
+            for (ChangedCell cell : cells) {
+                s.setString(1, cell.partNumberKey());
+                s.setDate(2, toDate(cell.month()));
+                s.addBatch();
+            }
+            s.executeBatch();
+        }
+    }
+
+    /**
+     * Record that the GMV of all months with orders of the PNK needs to be recomputed,
+     * because a product was added for the PNK or its PNK changed.
+     *
+     * @param db database connection.
+     * @param partNumberKey PNK of the orders.
+     * @throws SQLException on database error.
+     */
+    static void markProductChanged(Connection db, String partNumberKey) throws SQLException {
+        try (var s = db.prepareStatement("""
+                INSERT INTO gmv_dirty (part_number_key, month)
+                SELECT DISTINCT pio.part_number_key, date_trunc('month', o.date)::date
+                FROM product_in_order AS pio
+                INNER JOIN emag_order AS o ON pio.emag_order_surrogate_id = o.surrogate_id
+                WHERE pio.part_number_key = ?
+                ON CONFLICT DO NOTHING
+                """)) {
+            s.setString(1, partNumberKey);
+            s.executeUpdate();
+        }
+    }
+
+    /**
+     * Remove the recorded changes of products in the product table and return them as the months to recompute
+     * for each product. Changes of other PNKs are kept until a product is added for them.
+     *
+     * @param db database connection.
+     * @return map from product code to the months whose GMV needs to be recomputed.
+     * @throws SQLException on database error.
+     */
+    static Map<String, Set<YearMonth>> takeChangedMonthsByProduct(Connection db) throws SQLException {
+        var result = new HashMap<String, Set<YearMonth>>();
+        try (var s = db.prepareStatement("""
+                WITH taken AS (
+                  DELETE FROM gmv_dirty AS d
+                  WHERE EXISTS (SELECT 1 FROM product AS p WHERE p.emag_pnk = d.part_number_key)
+                  RETURNING d.part_number_key, d.month
+                )
+                SELECT DISTINCT p.product_code, taken.month
+                FROM taken
+                INNER JOIN product AS p ON p.emag_pnk = taken.part_number_key
+                """)) {
+            try (var rs = s.executeQuery()) {
+                while (rs.next()) {
+                    result.computeIfAbsent(rs.getString(1), _ -> new HashSet<>()).add(toYearMonth(rs.getDate(2)));
+                }
+            }
+        }
+        return result;
+    }
+
+    private record ChangedCell(String partNumberKey, YearMonth month) {
     }
 
     /**
@@ -80,19 +258,38 @@ public class GMV {
         return result;
     }
 
-    private static void addToGMV(HashMap<YearMonth, BigDecimal> gmvByMonth, YearMonth yearMonth, POInfo order) {
+    /**
+     * Return all GMV values with a single query.
+     *
+     * @param db database connection.
+     * @return map, which associates each product code with its GMV values by month.
+     * @throws SQLException on database error.
+     */
+    static Map<String, Map<YearMonth, BigDecimal>> getGMVOfAllProducts(Connection db) throws SQLException {
+        var result = new HashMap<String, Map<YearMonth, BigDecimal>>();
+        try (var s = db.prepareStatement("SELECT product_code, month, gmv FROM gmv")) {
+            try (var rs = s.executeQuery()) {
+                while (rs.next()) {
+                    result.computeIfAbsent(rs.getString(1), _ -> new HashMap<>()).put(toYearMonth(rs.getDate(2)), rs.getBigDecimal(3));
+                }
+            }
+        }
+        return result;
+    }
+
+    private static void addToGMV(Map<YearMonth, BigDecimal> gmvByMonth, YearMonth yearMonth, POInfo order) {
         var gmv = gmvByMonth.getOrDefault(yearMonth, BigDecimal.ZERO);
         gmv = gmv.add(order.price().multiply(BigDecimal.valueOf(order.quantity())));
         gmvByMonth.put(yearMonth, gmv);
     }
 
-    private static void subtractFromGMV(HashMap<YearMonth, BigDecimal> gmvByMonth, YearMonth yearMonthMonth, POInfo storno) {
+    private static void subtractFromGMV(Map<YearMonth, BigDecimal> gmvByMonth, YearMonth yearMonthMonth, POInfo storno) {
         var stornoGMV = gmvByMonth.getOrDefault(yearMonthMonth, BigDecimal.ZERO);
         stornoGMV = stornoGMV.subtract(storno.price().multiply(BigDecimal.valueOf(storno.stornoQuantity())));
         gmvByMonth.put(yearMonthMonth, stornoGMV);
     }
 
-    private static void singleProductWithFinalizedAndStorno(HashMap<YearMonth, BigDecimal> gmvByMonth, POInfo finalized, POInfo storno) {
+    private static void singleProductWithFinalizedAndStorno(Map<YearMonth, BigDecimal> gmvByMonth, POInfo finalized, POInfo storno) {
         if (storno.initialQuantity() != finalized.quantity()) {
             logger.log(WARNING, "Mismatch in quantity between\n finalized order: %s\n and storno order: %s.".formatted(finalized, storno));
         }
@@ -112,7 +309,7 @@ public class GMV {
         }
     }
 
-    private static void computeGMVForOrder(List<POInfo> poInfos, HashMap<YearMonth, BigDecimal> gmvByMonth) {
+    private static void computeGMVForOrder(List<POInfo> poInfos, Map<YearMonth, BigDecimal> gmvByMonth) {
         var poInfoByOrderProductId = poInfos.stream()
                 .collect(Collectors.groupingBy(POInfo::productInOrderId));
         poInfoByOrderProductId.forEach((productInOrderId, orderInfos) -> {
@@ -129,71 +326,4 @@ public class GMV {
             }
         });
     }
-
-    /**
-     * Update the GMV table with GV values.
-     * This method will take care of inserting or updating values.
-     *
-     * @param db database connection.
-     * @param productCode code of the product.
-     * @param gmvByMonth GMV table having the GMV value for several months.
-     * @throws SQLException on database error.
-     */
-    private static void insertOrUpdateGMV(Connection db, String productCode, Map<YearMonth, BigDecimal> gmvByMonth) throws SQLException {
-        var currentGMVByMonth = getGMVByProductId(db, productCode);
-        for (Map.Entry<YearMonth, BigDecimal> entry : gmvByMonth.entrySet()) {
-            YearMonth month = entry.getKey();
-            BigDecimal gmv = entry.getValue().setScale(2, HALF_EVEN);
-            var currentGMV = currentGMVByMonth.get(month);
-            if (currentGMV == null) {
-                var linesAdded = insertGMV(db, productCode, month, gmv);
-                if (linesAdded != 1) {
-                    throw new RuntimeException("Unexpected number of lines added: %d for the product %s and month %s.".formatted(linesAdded, productCode, month));
-                }
-            } else if (!gmv.equals(currentGMV)) {
-                var linesUpdated = updateGMV(db, productCode, month, gmv);
-                if (linesUpdated != 1) {
-                    throw new RuntimeException("Unexpected number of lines updated: %d for the product %s and month %s.".formatted(linesUpdated, productCode, month));
-                }
-            }
-        }
-    }
-
-    /**
-     * Insert a GMV value.
-     *
-     * @param db database connection.
-     * @param productCode code of the product for which the GMV value is provided.
-     * @param month for which the GMV value is provided.
-     * @param gmv GMV value to insert.
-     * @return 1 if the value was inserted, 0 otherwise.
-     * @throws SQLException on database error.
-     */
-    private static int insertGMV(Connection db, String productCode, YearMonth month, BigDecimal gmv) throws SQLException {
-        try (var s = db.prepareStatement("INSERT INTO gmv (product_code, month, gmv) VALUES (?,?,?)")) {
-            s.setObject(1, productCode);
-            s.setDate(2, toDate(month));
-            s.setBigDecimal(3, gmv);
-            return s.executeUpdate();
-        }
-    }
-
-    /**
-     * Update a GMV value.
-     *
-     * @param db database connection.
-     * @param productCode code of the product for which the GMV value is provided.
-     * @param month for which the GMV value is provided.
-     * @param gmv GMV new GMV value.
-     * @return 1 if the value was update, 0 otherwise.
-     * @throws SQLException on database error.
-     */
-    private static int updateGMV(Connection db, String productCode, YearMonth month, BigDecimal gmv) throws SQLException {
-        try (var s = db.prepareStatement("UPDATE gmv SET gmv = ? WHERE product_code = ? AND month = ?")) {
-            s.setBigDecimal(1, gmv);
-            s.setObject(2, productCode);
-            s.setDate(3, toDate(month));
-            return s.executeUpdate();
-        }
-    }
-}
\ No newline at end of file
+}
@@ -0,0 +1,134 @@
+package ro.sellfluence.db;
+
+import org.jspecify.annotations.Nullable;
+import ro.sellfluence.db.ProductTable.ProductInfo;
+
+import java.math.BigDecimal;
+import java.time.YearMonth;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import static java.math.RoundingMode.HALF_EVEN;
+
+/**
+ * GMV values of all products and months in columnar form.
+ * <p>
+ * Products are sorted by name and months ascending. The values are kept as cents in a single array,
+ * indexed by product index × month index, so that a whole month or a whole product is read without any lookups.
+ */
+public final class GMVMatrix {
+
+    /**
+     * Marks a product and month combination without entry in the gmv table.
+     */
+    private static final long absent = Long.MIN_VALUE;
+
+    private final List<ProductInfo> products;
+    private final List<YearMonth> months;
+    private final Map<YearMonth, Integer> monthIndex = new HashMap<>();
+    private final long[] cents;
+
+    /**
+     * Build the matrix.
+     *
+     * @param products all products, also those without GMV.
+     * @param gmvByProductCode GMV by month for each product code.
+     */
+    GMVMatrix(List<ProductInfo> products, Map<String, ? extends Map<YearMonth, BigDecimal>> gmvByProductCode) {
+        this.products = products.stream().sorted(ProductInfo.nameComparator).toList();
+        var allMonths = new TreeSet<YearMonth>();
+        gmvByProductCode.values().forEach(gmvByMonth -> allMonths.addAll(gmvByMonth.keySet()));
+        months = List.copyOf(allMonths);
+        for (int m = 0; m < months.size(); m++) {
+            monthIndex.put(months.get(m), m);
+        }
+        cents = new long[this.products.size() * months.size()];
+        Arrays.fill(cents, absent);
+        for (int p = 0; p < this.products.size(); p++) {
+            var gmvByMonth = gmvByProductCode.get(this.products.get(p).productCode());
+            if (gmvByMonth != null) {
+                for (var entry : gmvByMonth.entrySet()) {
+                    cents[p * months.size() + monthIndex.get(entry.getKey())] = entry.getValue().setScale(2, HALF_EVEN).unscaledValue().longValueExact();
+                }
+            }
+        }
+    }
+
+    public List<ProductInfo> products() {
+        return products;
+    }
+
+    public List<YearMonth> months() {
+        return months;
+    }
+
+    /**
+     * Find the column of a month.
+     *
+     * @param month to look for.
+     * @return index of the month or -1 if there are no GMV values for the month.
+     */
+    public int monthIndex(YearMonth month) {
+        return monthIndex.getOrDefault(month, -1);
+    }
+
+    /**
+     * Get a single value.
+     *
+     * @param productIndex index into {@link #products()}.
+     * @param monthIndex index into {@link #months()}.
+     * @return the GMV or null if there is no entry for the product and month.
+     */
+    public @Nullable BigDecimal gmv(int productIndex, int monthIndex) {
+        var value = cents[productIndex * months.size() + monthIndex];
+        return value == absent ? null : BigDecimal.valueOf(value, 2);
+    }
+
+    /**
+     * Get the GMV values of a month like {@link GMV#getGMVByMonth}.
+     *
+     * @param month for which to retrieve the values.
+     * @return map, which associates each product name with its GMV value, empty if there is no value for the month.
+     */
+    public Map<String, BigDecimal> gmvByProductName(YearMonth month) {
+        var result = new HashMap<String, BigDecimal>();
+        var m = monthIndex(month);
+        if (m >= 0) {
+            for (int p = 0; p < products.size(); p++) {
+                var gmv = gmv(p, m);
+                if (gmv != null) {
+                    result.put(products.get(p).name(), gmv);
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Convert to the nested map form, products are compared by name only.
+     *
+     * @return map from productInfo to map of month to GMV.
+     */
+    public SortedMap<ProductInfo, SortedMap<YearMonth, BigDecimal>> toSortedMap() {
+        var rows = new TreeMap<ProductInfo, SortedMap<YearMonth, BigDecimal>>(
+                Comparator.comparing(ProductInfo::name)
+        );
+        for (int p = 0; p < products.size(); p++) {
+            var row = new TreeMap<YearMonth, BigDecimal>();
+            for (int m = 0; m < months.size(); m++) {
+                var gmv = gmv(p, m);
+                if (gmv != null) {
+                    row.put(months.get(m), gmv);
+                }
+            }
+            rows.put(products.get(p), row);
+        }
+        return rows;
+    }
+}
@@ -0,0 +1,321 @@
+package ro.sellfluence.db;
+
+import ro.sellfluence.emagapi.OrderResult;
+
+import java.sql.Connection;
+import java.sql.Date;
+import java.sql.SQLException;
+import java.time.LocalDateTime;
+import java.time.YearMonth;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import static ro.sellfluence.support.UsefulMethods.require;
+import static ro.sellfluence.support.UsefulMethods.toDate;
+import static ro.sellfluence.support.UsefulMethods.toYearMonth;
+
+/**
+ * Collect all database methods for the product_month_count table, which holds the number of ordered,
+ * cancelled (storno), returned and refused items of each product and month.
+ * <p>
+ * Order and RMA writes record the affected months in product_month_count_dirty and {@link #refresh}
+ * recomputes all products for these months.
+ */
+public class ProductMonthCount {
+
+    /**
+     * Columns of product_month_count which can be read by month.
+     */
+    public enum Quantity {
+        ORDERS("order_qty"),
+        STORNO("storno_qty"),
+        RETURNS("return_qty"),
+        REFUSED("refused_qty");
+
+        private final String column;
+
+        Quantity(String column) {
+            this.column = column;
+        }
+    }
+
+    /**
+     * Record the months affected by added or changed orders.
+     * Storno entries are dated with the modification time of the order, so that month is marked too.
+     *
+     * @param db database connection.
+     * @param orders added orders and both versions of changed orders.
+     * @throws SQLException on database error.
+     */
+    static void markOrdersChanged(Connection db, Collection<OrderResult> orders) throws SQLException {
+        var months = new HashSet<YearMonth>();
+        for (OrderResult order : orders) {
+            addMonth(months, order.date());
+            addMonth(months, order.modified());
+        }
+        markMonthsChanged(db, months);
+    }
+
+    /**
+     * Record the months which need to be recomputed.
+     *
+     * @param db database connection.
+     * @param months to recompute.
+     * @throws SQLException on database error.
+     */
+    static void markMonthsChanged(Connection db, Collection<YearMonth> months) throws SQLException {
+        if (months.isEmpty()) {
+            return;
+        }
+        try (var s = db.prepareStatement("INSERT INTO product_month_count_dirty (month) VALUES (?) ON CONFLICT DO NOTHING")) {
+            for (YearMonth month : new HashSet<>(months)) {
+                s.setDate(1, toDate(month));
+                s.addBatch();
+            }
+            s.executeBatch();
+        }
+    }
+
+    private static void addMonth(Set<YearMonth> months, LocalDateTime time) {
+        if (time != null) {
+            months.add(YearMonth.from(time));
+        }
+    }
+
+    /**
+     * Recompute the counts of all products for the months recorded as changed.
+     *
+     * @param db database connection.
+     * @param full if true, all months with orders, storno or returns are recomputed.
+     * @return number of months recomputed.
+     * @throws SQLException on database error.
+     */
+    static int refresh(Connection db, boolean full) throws SQLException {
+        if (full) {
+            try (var s = db.prepareStatement("""
+                    INSERT INTO product_month_count_dirty (month)
+                    SELECT date_trunc('month', date)::date FROM emag_order WHERE date IS NOT NULL
+                    UNION
+                    SELECT date_trunc('month', storno_date)::date FROM storno WHERE storno_date IS NOT NULL
+                    UNION
+                    SELECT date_trunc('month', date)::date FROM rma_result WHERE date IS NOT NULL
+                    ON CONFLICT DO NOTHING
+                    """)) {
+                s.executeUpdate();
+            }
+        }
+        var months = new HashSet<Date>();
+        try (var s = db.prepareStatement("DELETE FROM product_month_count_dirty RETURNING month")) {
+            try (var rs = s.executeQuery()) {
+                while (rs.next()) {
+                    months.add(rs.getDate(1));
+                }
+            }
+        }
+        if (months.isEmpty()) {
+            return 0;
+        }
+        var monthArray = db.createArrayOf("date", months.toArray());
+        try (var s = db.prepareStatement("DELETE FROM product_month_count WHERE month = ANY(?)")) {
+            s.setArray(1, monthArray);
+            s.executeUpdate();
+        }
+        try (var s = db.prepareStatement("""
+                WITH months AS (
+                  SELECT unnest(?::date[]) AS month_start
+                ),
+                bounds AS (
+                  SELECT MIN(month_start)::timestamp AS first_month,
+                         (MAX(month_start) + INTERVAL '1 month')::timestamp AS end_month
+                  FROM months
+                ),
+                picked AS (
+                  SELECT DISTINCT ON (o.id, pio.part_number_key, DATE_TRUNC('month', o.date)::date)
+                         CASE WHEN o.status = 4 THEN pio.quantity ELSE pio.initial_qty END AS picked_qty,
+                         pio.part_number_key AS pnk,
+                         DATE_TRUNC('month', o.date)::date AS month_start
+                  FROM emag_order AS o
+                  JOIN product_in_order AS pio ON o.surrogate_id = pio.emag_order_surrogate_id
+                  WHERE o.status IN (4,5)
+                    AND o.date >= (SELECT first_month FROM bounds)
+                    AND o.date < (SELECT end_month FROM bounds)
+                    AND DATE_TRUNC('month', o.date)::date IN (SELECT month_start FROM months)
+                  ORDER BY
+                    o.id,
+                    pio.part_number_key,
+                    DATE_TRUNC('month', o.date)::date,
+                    o.status,          -- prefer status 4; fallback to 5
+                    o.surrogate_id DESC
+                ),
+                orders_agg AS (
+                  SELECT pnk, month_start, SUM(picked_qty) AS quantity
+                  FROM picked
+                  GROUP BY pnk, month_start
+                ),
+                storno_agg AS (
+                  SELECT
+                    p.part_number_key AS pnk,
+                    DATE_TRUNC('month', s.storno_date)::date AS month_start,
+                    SUM(s.quantity) AS quantity
+                  FROM storno AS s
+                  JOIN emag_order AS o ON o.id = s.order_id
+                  JOIN product_in_order AS p ON p.id = s.product_id AND p.emag_order_surrogate_id = o.surrogate_id
+                  WHERE o.status = 5
+                    AND s.storno_date >= (SELECT first_month FROM bounds)
+                    AND s.storno_date < (SELECT end_month FROM bounds)
+                    AND DATE_TRUNC('month', s.storno_date)::date IN (SELECT month_start FROM months)
+                  GROUP BY p.part_number_key, month_start
+                ),
+                returns_agg AS (
+                  SELECT
+                    pio.part_number_key AS pnk,
+                    DATE_TRUNC('month', r.date)::date AS month_start,
+                    SUM(rp.quantity) AS quantity
+                  FROM rma_result AS r
+                  JOIN emag_returned_products AS rp ON r.emag_id = rp.emag_id
+                  JOIN (
+                      SELECT DISTINCT ON (id) id, surrogate_id
+                      FROM emag_order
+                      ORDER BY id, status DESC
+                  ) AS o ON r.order_id = o.id
+                  JOIN product_in_order AS pio ON o.surrogate_id = pio.emag_order_surrogate_id
+                  WHERE r.request_status = 7
+                    AND rp.product_id = pio.product_id
+                    AND rp.product_emag_id = pio.mkt_id
+                    AND r.date >= (SELECT first_month FROM bounds)
+                    AND r.date < (SELECT end_month FROM bounds)
+                    AND DATE_TRUNC('month', r.date)::date IN (SELECT month_start FROM months)
+                  GROUP BY pio.part_number_key, month_start
+                ),
+                orders_and_storno AS (
+                  SELECT
+                    COALESCE(o.pnk, s.pnk) AS pnk,
+                    COALESCE(o.month_start, s.month_start) AS month_start,
+                    COALESCE(o.quantity, 0) AS order_qty,
+                    COALESCE(s.quantity, 0) AS storno_qty
+                  FROM orders_agg AS o
+                  FULL JOIN storno_agg AS s ON s.pnk = o.pnk AND s.month_start = o.month_start
+                )
+                INSERT INTO product_month_count (pnk, month, order_qty, storno_qty, return_qty)
+                SELECT
+                  COALESCE(os.pnk, r.pnk),
+                  COALESCE(os.month_start, r.month_start),
+                  COALESCE(os.order_qty, 0)::int,
+                  COALESCE(os.storno_qty, 0)::int,
+                  COALESCE(r.quantity, 0)::int
+                FROM orders_and_storno AS os
+                FULL JOIN returns_agg AS r ON r.pnk = os.pnk AND r.month_start = os.month_start
+                WHERE COALESCE(os.pnk, r.pnk) IS NOT NULL
+                """)) {
+            s.setArray(1, monthArray);
+            s.executeUpdate();
+        }
+        return months.size();
+    }
+
+    /**
+     * Read one quantity for all products in a month interval.
+     *
+     * @param db database connection.
+     * @param startMonth first month to return (inclusive).
+     * @param endMonth last month to return (exclusive).
+     * @param quantity which count to read.
+     * @return map from PNK to map of month to the count, months without entry are missing.
+     * @throws SQLException on database error.
+     */
+    static Map<String, Map<YearMonth, Integer>> countByMonthRange(Connection db, YearMonth startMonth, YearMonth endMonth, Quantity quantity) throws SQLException {
+        require(startMonth.isBefore(endMonth), () -> "Invalid month interval: [%s, %s).".formatted(startMonth, endMonth));
+        var result = new HashMap<String, Map<YearMonth, Integer>>();
+        try (var s = db.prepareStatement("""
+                SELECT pnk, month, %s AS quantity
+                FROM product_month_count
+                WHERE month >= ? AND month < ?
+                """.formatted(quantity.column))) {
+            s.setDate(1, toDate(startMonth));
+            s.setDate(2, toDate(endMonth));
+            try (var rs = s.executeQuery()) {
+                while (rs.next()) {
+                    var pnk = rs.getString("pnk");
+                    result.computeIfAbsent(pnk, _ -> new HashMap<>()).put(toYearMonth(rs.getDate("month")), rs.getInt("quantity"));
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Compute for each product and month M the ratio avg(quantity in M-3..M-1) / avg(orders in M-3..M-1).
+     *
+     * @param db database connection.
+     * @param startMonth first month to return (inclusive).
+     * @param endMonth last month to return (exclusive).
+     * @param numerator the quantity to divide by the orders.
+     * @return map from PNK to map of the month to the ratio, which is null if there were no orders.
+     * @throws SQLException on database error.
+     */
+    static Map<String, Map<YearMonth, Double>> rateByMonthRange(Connection db, YearMonth startMonth, YearMonth endMonth, Quantity numerator) throws SQLException {
+        require(startMonth.isBefore(endMonth), () -> "Invalid month interval: [%s, %s).".formatted(startMonth, endMonth));
+        var result = new HashMap<String, Map<YearMonth, Double>>();
+        try (var s = db.prepareStatement("""
+                WITH months AS (
+                    SELECT generate_series(
+                        (?::date - INTERVAL '3 month')::date,
+                        (?::date - INTERVAL '1 month')::date,
+                        INTERVAL '1 month'
+                    )::date AS month_start
+                ),
+                base AS (
+                    SELECT
+                        p.emag_pnk AS pnk,
+                        m.month_start,
+                        COALESCE(c.%s, 0)::double precision AS numerator_quantity,
+                        COALESCE(c.order_qty, 0)::double precision AS orders_quantity
+                    FROM product AS p
+                    CROSS JOIN months AS m
+                    LEFT JOIN product_month_count AS c ON c.pnk = p.emag_pnk AND c.month = m.month_start
+                ),
+                with_window AS (
+                    SELECT
+                        pnk,
+                        month_start,
+                        AVG(numerator_quantity) OVER (
+                            PARTITION BY pnk
+                            ORDER BY month_start
+                            ROWS BETWEEN 3 PRECEDING AND 1 PRECEDING
+                        ) AS numerator_avg,
+                        AVG(orders_quantity) OVER (
+                            PARTITION BY pnk
+                            ORDER BY month_start
+                            ROWS BETWEEN 3 PRECEDING AND 1 PRECEDING
+                        ) AS orders_avg
+                    FROM base
+                )
+                SELECT
+                    pnk,
+                    month_start,
+                    CASE
+                        WHEN orders_avg IS NULL OR orders_avg = 0 THEN NULL
+                        ELSE numerator_avg / orders_avg
+                    END AS ratio
+                FROM with_window
+                WHERE month_start >= ?::date
+                ORDER BY pnk, month_start;
+                """.formatted(numerator.column))) {
+            s.setDate(1, toDate(startMonth));
+            s.setDate(2, toDate(endMonth));
+            s.setDate(3, toDate(startMonth));
+            try (var rs = s.executeQuery()) {
+                while (rs.next()) {
+                    var pnk = rs.getString("pnk");
+                    var month = toYearMonth(rs.getDate("month_start"));
+                    var ratio = rs.getObject("ratio", Double.class);
+                    result.computeIfAbsent(pnk, _ -> new HashMap<>()).put(month, ratio);
+                }
+            }
+        }
+        return result;
+    }
+}
@@ -1,11 +1,14 @@
 package ro.sellfluence.db;
 
+import org.jspecify.annotations.Nullable;
+
 import java.math.BigDecimal;
 import java.sql.Connection;
 import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.Comparator;
 import java.util.List;
+import java.util.Objects;
 import java.util.UUID;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -571,7 +574,11 @@ public class ProductTable {
             s.setObject(9, productInfo.employeeSheetName());
             s.setObject(10, productInfo.employeeSheetTab());
             bindAdditionalFields(s, productInfo, 11, brandId);
-            return s.executeUpdate();
+            var inserted = s.executeUpdate();
+            if (inserted > 0) {
+                markPnkChanged(db, productInfo.pnk());
+            }
+            return inserted;
         }
     }
 
@@ -590,6 +597,7 @@ public class ProductTable {
 
     private static int updateProduct(Connection db, ProductInfo productInfo, boolean updateEmployeeSheetTab) throws SQLException {
         var brandId = Brand.insertOrGetBrand(db, productInfo.brand(), productInfo.vendor());
+        var oldPnk = selectPnk(db, productInfo.productCode());
         var employeeSheetTabAssignment = updateEmployeeSheetTab ? "employee_sheet_tab = ?," : "";
         try (var s = db.prepareStatement("""
                 UPDATE product
@@ -691,7 +699,36 @@ public class ProductTable {
             s.setObject(index++, productInfo.vendor());
             index = bindAdditionalFields(s, productInfo, index, brandId);
             s.setObject(index, productInfo.productCode());
-            return s.executeUpdate();
+            var updated = s.executeUpdate();
+            if (updated > 0 && !Objects.equals(oldPnk, productInfo.pnk())) {
+                markPnkChanged(db, oldPnk);
+                markPnkChanged(db, productInfo.pnk());
+            }
+            return updated;
+        }
+    }
+
+    private static @Nullable String selectPnk(Connection db, String productCode) throws SQLException {
+        try (var s = db.prepareStatement("SELECT emag_pnk FROM product WHERE product_code = ?")) {
+            s.setObject(1, productCode);
+            try (var rs = s.executeQuery()) {
+                return rs.next() ? rs.getString(1) : null;
+            }
+        }
+    }
+
+    /**
+     * The orders of a PNK are attributed to a product by the product table,
+     * so the values derived from them are recomputed when a product gains or loses the PNK.
+     *
+     * @param db database connection.
+     * @param pnk PNK which was added to or removed from a product, ignored if null.
+     * @throws SQLException on database error.
+     */
+    private static void markPnkChanged(Connection db, @Nullable String pnk) throws SQLException {
+        if (pnk != null) {
+            GMV.markProductChanged(db, pnk);
+            ReturnRate.markProductChanged(db, pnk);
         }
     }
 
@@ -1,5 +1,6 @@
 package ro.sellfluence.db;
 
+import org.jspecify.annotations.Nullable;
 import ro.sellfluence.emagapi.AWB;
 import ro.sellfluence.emagapi.RMAResult;
 import ro.sellfluence.emagapi.RequestHistory;
@@ -9,6 +10,8 @@ import ro.sellfluence.emagapi.StatusRequest;
 
 import java.sql.Connection;
 import java.sql.SQLException;
+import java.time.YearMonth;
+import java.util.List;
 import java.util.UUID;
 
 import static ro.sellfluence.support.UsefulMethods.toTimestamp;
@@ -16,6 +19,15 @@ import static ro.sellfluence.support.UsefulMethods.toTimestamp;
 public class RMA {
     static int addRMAResult(Connection db, RMAResult rmaResult) throws SQLException {
         var emagId = rmaResult.emag_id();
+        var previousRequestStatus = selectRequestStatus(db, emagId);
+        var statusChanged = previousRequestStatus == null ? rmaResult.request_status() == 7 : previousRequestStatus != rmaResult.request_status();
+        if (statusChanged && rmaResult.order_id() != null) {
+            // Only finalized returns (status 7) count for the return rate.
+            ReturnRate.markOrdersChanged(db, List.of(rmaResult.order_id()));
+        }
+        if (statusChanged && rmaResult.date() != null) {
+            ProductMonthCount.markMonthsChanged(db, List.of(YearMonth.from(rmaResult.date())));
+        }
         var inserted = insertRMAResult(db, rmaResult);
         if (inserted == 0) {
             updateRMAResult(db,rmaResult);
@@ -26,6 +38,15 @@ public class RMA {
         return 0;
     }
 
+    private static @Nullable Integer selectRequestStatus(Connection db, int emagId) throws SQLException {
+        try (var s = db.prepareStatement("SELECT request_status FROM rma_result WHERE emag_id = ?")) {
+            s.setInt(1, emagId);
+            try (var rs = s.executeQuery()) {
+                return rs.next() ? rs.getInt(1) : null;
+            }
+        }
+    }
+
     private static void updateDependents(Connection db, RMAResult rmaResult) {
         // TODO:
     }
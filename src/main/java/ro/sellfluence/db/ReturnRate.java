@@ -0,0 +1,211 @@
+package ro.sellfluence.db;
+
+import org.jspecify.annotations.Nullable;
+import ro.sellfluence.support.Logs;
+
+import java.sql.Connection;
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.logging.Logger;
+
+import static java.util.logging.Level.INFO;
+
+/**
+ * Collect all database methods maintaining the data behind the rolling return rate chart.
+ * <p>
+ * orders_canonical is a materialized view, which is refreshed concurrently, so that readers are not blocked.
+ * sales_daily and returns_linked are tables, which are rebuilt only for the sale days
+ * of the orders recorded as changed since the last refresh.
+ */
+public class ReturnRate {
+
+    private static final Logger logger = Logs.getConsoleLogger("ReturnRate", INFO);
+
+    /**
+     * Record that the orders were added or changed, or that returns for them were added or changed.
+     *
+     * @param db database connection.
+     * @param orderIds eMAG IDs of the orders.
+     * @throws SQLException on database error.
+     */
+    static void markOrdersChanged(Connection db, Collection<String> orderIds) throws SQLException {
+        if (orderIds.isEmpty()) {
+            return;
+        }
+        try (var s = db.prepareStatement("INSERT INTO return_rate_dirty_order (order_id) VALUES (?) ON CONFLICT DO NOTHING")) {
+            for (String orderId : new HashSet<>(orderIds)) {
+                s.setString(1, orderId);
+                s.addBatch();
+            }
+            s.executeBatch();
+        }
+    }
+
+    /**
+     * Record that the orders with the PNK need to be rebuilt,
+     * because a product was added for the PNK or its PNK changed.
+     *
+     * @param db database connection.
+     * @param partNumberKey PNK of the orders.
+     * @throws SQLException on database error.
+     */
+    static void markProductChanged(Connection db, String partNumberKey) throws SQLException {
+        try (var s = db.prepareStatement("""
+                INSERT INTO return_rate_dirty_order (order_id)
+                SELECT DISTINCT o.id
+                FROM product_in_order AS pio
+                INNER JOIN emag_order AS o ON pio.emag_order_surrogate_id = o.surrogate_id
+                WHERE pio.part_number_key = ?
+                  AND o.id IS NOT NULL
+                ON CONFLICT DO NOTHING
+                """)) {
+            s.setString(1, partNumberKey);
+            s.executeUpdate();
+        }
+    }
+
+    /**
+     * Bring the return rate data up to date.
+     *
+     * @param db database connection.
+     * @param full if true, sales_daily and returns_linked are rebuilt for all days,
+     *             otherwise only for the sale days of the changed orders.
+     * @return number of sale days rebuilt, -1 for all.
+     * @throws SQLException on database error.
+     */
+    static int refresh(Connection db, boolean full) throws SQLException {
+        var stageStart = System.nanoTime();
+        var changedOrders = takeChangedOrders(db);
+        @Nullable Set<LocalDate> days = null;
+        if (!full) {
+            days = saleDays(db, changedOrders);
+        }
+        stageStart = logStage("Collect %d changed orders".formatted(changedOrders.size()), stageStart);
+        try (var s = db.prepareStatement("REFRESH MATERIALIZED VIEW CONCURRENTLY orders_canonical")) {
+            s.execute();
+        }
+        stageStart = logStage("Refresh orders_canonical", stageStart);
+        if (days != null) {
+            // An order changes its canonical date when the storno entry arrives, so take the days before and after.
+            days.addAll(saleDays(db, changedOrders));
+            if (days.isEmpty()) {
+                return 0;
+            }
+        }
+        var salesRows = replaceSalesDaily(db, days);
+        stageStart = logStage("Rebuild %d rows of sales_daily".formatted(salesRows), stageStart);
+        var returnRows = replaceReturnsLinked(db, days);
+        logStage("Rebuild %d rows of returns_linked".formatted(returnRows), stageStart);
+        return days == null ? -1 : days.size();
+    }
+
+    private static long logStage(String stage, long stageStart) {
+        var now = System.nanoTime();
+        logger.log(INFO, "%s took %.2f seconds".formatted(stage, (now - stageStart) / 1e9));
+        return now;
+    }
+
+    private static Set<String> takeChangedOrders(Connection db) throws SQLException {
+        var orderIds = new HashSet<String>();
+        try (var s = db.prepareStatement("DELETE FROM return_rate_dirty_order RETURNING order_id")) {
+            try (var rs = s.executeQuery()) {
+                while (rs.next()) {
+                    orderIds.add(rs.getString(1));
+                }
+            }
+        }
+        return orderIds;
+    }
+
+    private static Set<LocalDate> saleDays(Connection db, Set<String> orderIds) throws SQLException {
+        var days = new HashSet<LocalDate>();
+        if (orderIds.isEmpty()) {
+            return days;
+        }
+        try (var s = db.prepareStatement("SELECT DISTINCT order_ts::date FROM orders_canonical WHERE order_id = ANY(?)")) {
+            s.setArray(1, db.createArrayOf("varchar", orderIds.toArray()));
+            try (var rs = s.executeQuery()) {
+                while (rs.next()) {
+                    days.add(rs.getDate(1).toLocalDate());
+                }
+            }
+        }
+        return days;
+    }
+
+    private static int replaceSalesDaily(Connection db, @Nullable Set<LocalDate> days) throws SQLException {
+        deleteDays(db, "sales_daily", days);
+        try (var s = db.prepareStatement("""
+                INSERT INTO sales_daily (product_code, product_id, sale_d, sold_qty)
+                SELECT
+                  p.product_code,
+                  pio.product_id,
+                  (oc.order_ts::date),
+                  SUM(pio.initial_qty)::bigint
+                FROM product_in_order pio
+                JOIN product p
+                  ON p.emag_pnk = pio.part_number_key
+                JOIN orders_canonical oc
+                  ON oc.order_surrogate_id = pio.emag_order_surrogate_id
+                WHERE oc.status IN (4,5)
+                """ + daysCondition(days) + """
+                GROUP BY 1,2,3
+                """)) {
+            setDays(db, s, days);
+            return s.executeUpdate();
+        }
+    }
+
+    private static int replaceReturnsLinked(Connection db, @Nullable Set<LocalDate> days) throws SQLException {
+        deleteDays(db, "returns_linked", days);
+        try (var s = db.prepareStatement("""
+                INSERT INTO returns_linked (product_id, product_code, sale_d, return_d, returned_qty)
+                SELECT
+                  erp.product_id,
+                  p.product_code,
+                  (oc.order_ts::date),
+                  (rr.date::date),
+                  SUM(erp.quantity)::bigint
+                FROM emag_returned_products erp
+                JOIN rma_result rr
+                  ON rr.emag_id = erp.emag_id
+                 AND rr.request_status = 7
+                JOIN orders_canonical oc
+                  ON oc.order_id = rr.order_id
+                JOIN product_in_order pio
+                  ON pio.emag_order_surrogate_id = oc.order_surrogate_id
+                 AND pio.product_id = erp.product_id
+                 AND pio.mkt_id = erp.product_emag_id
+                JOIN product p
+                 ON p.emag_pnk = pio.part_number_key
+                WHERE TRUE
+                """ + daysCondition(days) + """
+                GROUP BY 1,2,3,4
+                """)) {
+            setDays(db, s, days);
+            return s.executeUpdate();
+        }
+    }
+
+    private static void deleteDays(Connection db, String table, @Nullable Set<LocalDate> days) throws SQLException {
+        try (var s = db.prepareStatement("DELETE FROM " + table + (days == null ? "" : " WHERE sale_d = ANY(?)"))) {
+            setDays(db, s, days);
+            s.executeUpdate();
+        }
+    }
+
+    private static String daysCondition(@Nullable Set<LocalDate> days) {
+        return days == null ? "" : "AND (oc.order_ts::date) = ANY(?)\n";
+    }
+
+    private static void setDays(Connection db, PreparedStatement s, @Nullable Set<LocalDate> days) throws SQLException {
+        if (days != null) {
+            s.setArray(1, db.createArrayOf("date", days.stream().map(Date::valueOf).toArray()));
+        }
+    }
+}
@@ -0,0 +1,249 @@
+package ro.sellfluence.db;
+
+import ro.sellfluence.db.EmagMirrorDB.RollingReturnRatePoint;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static ro.sellfluence.support.UsefulMethods.require;
+
+/**
+ * Compute the cohort-linked rolling return rate of any product from memory.
+ * <p>
+ * The content of sales_daily and returns_linked for all products is held in primitive arrays, with days
+ * stored as epoch days. A computation adds the sales and returns as start and end deltas into a day-indexed array
+ * and turns it into the rolling sums with a single prefix sum pass, so it takes O(days + rows)
+ * for any combination of the parameters.
+ * <p>
+ * The results are the same as those of {@link EmagMirrorDB#getCohortSmoothedRollingReturnRate}.
+ */
+public final class RollingReturnRateEngine {
+
+    /**
+     * Sales and returns of one product.
+     *
+     * @param saleDays epoch days with sales, ascending.
+     * @param soldQty quantity sold on the corresponding day.
+     * @param returnSaleDays epoch day of the sale of each return.
+     * @param returnDays epoch day of each return.
+     * @param returnedQty quantity returned.
+     */
+    private record ProductSeries(int[] saleDays, long[] soldQty,
+                                 int[] returnSaleDays, int[] returnDays, long[] returnedQty) {
+    }
+
+    /**
+     * Collects the rows of one product in growing arrays.
+     */
+    private static final class SeriesBuilder {
+        private int[] saleDays = new int[16];
+        private long[] soldQty = new long[16];
+        private int sales;
+        private int[] returnSaleDays = new int[16];
+        private int[] returnDays = new int[16];
+        private long[] returnedQty = new long[16];
+        private int returns;
+
+        void addSale(int saleDay, long quantity) {
+            if (sales == saleDays.length) {
+                saleDays = Arrays.copyOf(saleDays, 2 * sales);
+                soldQty = Arrays.copyOf(soldQty, 2 * sales);
+            }
+            saleDays[sales] = saleDay;
+            soldQty[sales] = quantity;
+            sales++;
+        }
+
+        void addReturn(int saleDay, int returnDay, long quantity) {
+            if (returns == returnDays.length) {
+                returnSaleDays = Arrays.copyOf(returnSaleDays, 2 * returns);
+                returnDays = Arrays.copyOf(returnDays, 2 * returns);
+                returnedQty = Arrays.copyOf(returnedQty, 2 * returns);
+            }
+            returnSaleDays[returns] = saleDay;
+            returnDays[returns] = returnDay;
+            returnedQty[returns] = quantity;
+            returns++;
+        }
+
+        ProductSeries build() {
+            return new ProductSeries(
+                    Arrays.copyOf(saleDays, sales),
+                    Arrays.copyOf(soldQty, sales),
+                    Arrays.copyOf(returnSaleDays, returns),
+                    Arrays.copyOf(returnDays, returns),
+                    Arrays.copyOf(returnedQty, returns)
+            );
+        }
+    }
+
+    private final Map<String, ProductSeries> seriesByProductCode;
+
+    private RollingReturnRateEngine(Map<String, SeriesBuilder> builders) {
+        var series = new HashMap<String, ProductSeries>();
+        builders.forEach((productCode, builder) -> series.put(productCode, builder.build()));
+        seriesByProductCode = Map.copyOf(series);
+    }
+
+    /**
+     * Read sales_daily and returns_linked of all products.
+     *
+     * @param db database connection, both tables are read in the same transaction.
+     * @return the engine holding the data.
+     * @throws SQLException on database error.
+     */
+    static RollingReturnRateEngine load(Connection db) throws SQLException {
+        var builders = new HashMap<String, SeriesBuilder>();
+        try (var s = db.prepareStatement("""
+                SELECT product_code, sale_d, SUM(sold_qty)::bigint AS sold_qty
+                FROM sales_daily
+                WHERE product_code IS NOT NULL
+                GROUP BY product_code, sale_d
+                ORDER BY product_code, sale_d
+                """)) {
+            s.setFetchSize(10_000);
+            try (var rs = s.executeQuery()) {
+                while (rs.next()) {
+                    builders.computeIfAbsent(rs.getString("product_code"), _ -> new SeriesBuilder())
+                            .addSale(epochDay(rs.getDate("sale_d").toLocalDate()), rs.getLong("sold_qty"));
+                }
+            }
+        }
+        try (var s = db.prepareStatement("""
+                SELECT product_code, sale_d, return_d, SUM(returned_qty)::bigint AS returned_qty
+                FROM returns_linked
+                WHERE product_code IS NOT NULL
+                GROUP BY product_code, sale_d, return_d
+                """)) {
+            s.setFetchSize(10_000);
+            try (var rs = s.executeQuery()) {
+                while (rs.next()) {
+                    builders.computeIfAbsent(rs.getString("product_code"), _ -> new SeriesBuilder())
+                            .addReturn(
+                                    epochDay(rs.getDate("sale_d").toLocalDate()),
+                                    epochDay(rs.getDate("return_d").toLocalDate()),
+                                    rs.getLong("returned_qty")
+                            );
+                }
+            }
+        }
+        return new RollingReturnRateEngine(builders);
+    }
+
+    /**
+     * Assemble an engine from individual rows.
+     */
+    static final class Builder {
+        private final Map<String, SeriesBuilder> builders = new HashMap<>();
+
+        Builder addSale(String productCode, LocalDate saleDate, long soldQty) {
+            builders.computeIfAbsent(productCode, _ -> new SeriesBuilder()).addSale(epochDay(saleDate), soldQty);
+            return this;
+        }
+
+        Builder addReturn(String productCode, LocalDate saleDate, LocalDate returnDate, long returnedQty) {
+            builders.computeIfAbsent(productCode, _ -> new SeriesBuilder()).addReturn(epochDay(saleDate), epochDay(returnDate), returnedQty);
+            return this;
+        }
+
+        RollingReturnRateEngine build() {
+            return new RollingReturnRateEngine(builders);
+        }
+    }
+
+    /**
+     * Compute a daily cohort-linked rolling return rate for one product and smooth it with a Bayesian prior.
+     *
+     * @param productCode        product code used by the frontend.
+     * @param rollDays           rolling denominator window size (for example, 90).
+     * @param maxReturnDays      maximum allowed return delay from sale date (for example, 90).
+     * @param priorStrength      Bayesian prior strength m (for example, 100).
+     * @param reliableMinSoldQty reliability threshold flag (for example, 20 or 30).
+     * @return list of daily points ordered by date, empty if the product has no sales or returns.
+     */
+    public List<RollingReturnRatePoint> compute(String productCode,
+                                                int rollDays,
+                                                int maxReturnDays,
+                                                double priorStrength,
+                                                long reliableMinSoldQty) {
+        require(rollDays > 0, () -> "rollDays must be > 0.");
+        require(maxReturnDays > 0, () -> "maxReturnDays must be > 0.");
+        require(priorStrength > 0, () -> "priorStrength must be > 0.");
+        require(reliableMinSoldQty >= 0, () -> "reliableMinSoldQty must be >= 0.");
+        var series = seriesByProductCode.get(productCode);
+        if (series == null) {
+            return List.of();
+        }
+        var maxDelay = Math.min(maxReturnDays, rollDays - 1);
+        // The calendar spans all sale days and the sale and return days of the returns within the delay.
+        var first = Integer.MAX_VALUE;
+        var last = Integer.MIN_VALUE;
+        for (int saleDay : series.saleDays) {
+            first = Math.min(first, saleDay);
+            last = Math.max(last, saleDay);
+        }
+        for (int i = 0; i < series.returnDays.length; i++) {
+            if (series.returnDays[i] - series.returnSaleDays[i] <= maxDelay) {
+                first = Math.min(first, Math.min(series.returnSaleDays[i], series.returnDays[i]));
+                last = Math.max(last, Math.max(series.returnSaleDays[i], series.returnDays[i]));
+            }
+        }
+        if (first > last) {
+            return List.of();
+        }
+        var length = last - first + 1;
+        // A sale counts from its day until rollDays later, a return from its day until rollDays after the sale.
+        var sold = new long[length];
+        var returned = new long[length];
+        for (int i = 0; i < series.saleDays.length; i++) {
+            var start = series.saleDays[i] - first;
+            sold[start] += series.soldQty[i];
+            addIfInside(sold, start + rollDays, -series.soldQty[i]);
+        }
+        for (int i = 0; i < series.returnDays.length; i++) {
+            if (series.returnDays[i] - series.returnSaleDays[i] <= maxDelay) {
+                returned[series.returnDays[i] - first] += series.returnedQty[i];
+                addIfInside(returned, series.returnSaleDays[i] - first + rollDays, -series.returnedQty[i]);
+            }
+        }
+        long totalSold = 0;
+        long totalReturned = 0;
+        for (int d = 0; d < length; d++) {
+            if (d > 0) {
+                sold[d] += sold[d - 1];
+                returned[d] += returned[d - 1];
+            }
+            totalSold += sold[d];
+            totalReturned += returned[d];
+        }
+        var p0 = totalSold == 0 ? 0.0 : (double) totalReturned / totalSold;
+        var result = new ArrayList<RollingReturnRatePoint>(length);
+        for (int d = 0; d < length; d++) {
+            result.add(new RollingReturnRatePoint(
+                    LocalDate.ofEpochDay(first + d),
+                    sold[d],
+                    returned[d],
+                    sold[d] == 0 ? null : (double) returned[d] / sold[d],
+                    (returned[d] + p0 * priorStrength) / (sold[d] + priorStrength),
+                    sold[d] >= reliableMinSoldQty
+            ));
+        }
+        return result;
+    }
+
+    private static void addIfInside(long[] deltas, int index, long delta) {
+        if (index < deltas.length) {
+            deltas[index] += delta;
+        }
+    }
+
+    private static int epochDay(LocalDate date) {
+        return Math.toIntExact(date.toEpochDay());
+    }
+}
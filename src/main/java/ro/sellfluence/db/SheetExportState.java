@@ -0,0 +1,119 @@
+package ro.sellfluence.db;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Collect all database methods for the sheet_export_state and sheet_export_key tables.
+ * <p>
+ * For each tab of a spreadsheet to which orders are exported, they record the keys of the exported rows,
+ * the last row written and the key found in that row. If the last row of the tab still holds that key and
+ * the row below is empty, the recorded keys are those in the tab, and only new rows need to be sent.
+ */
+public class SheetExportState {
+
+    /**
+     * What is known about a tab after the last export.
+     *
+     * @param tabName name of the tab.
+     * @param lastRow number of the last row written, starting with 1.
+     * @param lastKey key found in the last row.
+     * @param keys    keys of all rows in the tab.
+     */
+    public record State(String tabName, int lastRow, String lastKey, Set<String> keys) {
+    }
+
+    /**
+     * Read the state of all tabs of a spreadsheet.
+     *
+     * @param db            database connection.
+     * @param spreadsheetId ID of the spreadsheet.
+     * @return state by tab name.
+     * @throws SQLException on database error.
+     */
+    static Map<String, State> readStates(Connection db, String spreadsheetId) throws SQLException {
+        var keysByTab = new HashMap<String, Set<String>>();
+        try (var s = db.prepareStatement("SELECT tab_name, export_key FROM sheet_export_key WHERE spreadsheet_id = ?")) {
+            s.setString(1, spreadsheetId);
+            try (var rs = s.executeQuery()) {
+                while (rs.next()) {
+                    keysByTab.computeIfAbsent(rs.getString(1), _ -> new HashSet<>()).add(rs.getString(2));
+                }
+            }
+        }
+        var states = new HashMap<String, State>();
+        try (var s = db.prepareStatement("SELECT tab_name, last_row, last_key FROM sheet_export_state WHERE spreadsheet_id = ?")) {
+            s.setString(1, spreadsheetId);
+            try (var rs = s.executeQuery()) {
+                while (rs.next()) {
+                    var tabName = rs.getString(1);
+                    states.put(tabName, new State(tabName, rs.getInt(2), rs.getString(3), keysByTab.getOrDefault(tabName, Set.of())));
+                }
+            }
+        }
+        return states;
+    }
+
+    /**
+     * Replace the state of a tab after it was read completely.
+     *
+     * @param db            database connection.
+     * @param spreadsheetId ID of the spreadsheet.
+     * @param tabName       name of the tab.
+     * @param lastRow       number of the last row.
+     * @param lastKey       key in the last row.
+     * @param keys          keys of all rows.
+     * @throws SQLException on database error.
+     */
+    static void replace(Connection db, String spreadsheetId, String tabName, int lastRow, String lastKey, Collection<String> keys) throws SQLException {
+        try (var s = db.prepareStatement("DELETE FROM sheet_export_key WHERE spreadsheet_id = ? AND tab_name = ?")) {
+            s.setString(1, spreadsheetId);
+            s.setString(2, tabName);
+            s.executeUpdate();
+        }
+        append(db, spreadsheetId, tabName, lastRow, lastKey, keys);
+    }
+
+    /**
+     * Record rows appended to a tab.
+     *
+     * @param db            database connection.
+     * @param spreadsheetId ID of the spreadsheet.
+     * @param tabName       name of the tab.
+     * @param lastRow       number of the new last row.
+     * @param lastKey       key in the new last row.
+     * @param keys          keys of the appended rows.
+     * @throws SQLException on database error.
+     */
+    static void append(Connection db, String spreadsheetId, String tabName, int lastRow, String lastKey, Collection<String> keys) throws SQLException {
+        try (var s = db.prepareStatement("""
+                INSERT INTO sheet_export_state (spreadsheet_id, tab_name, last_row, last_key, updated)
+                VALUES (?, ?, ?, ?, now())
+                ON CONFLICT (spreadsheet_id, tab_name)
+                DO UPDATE SET last_row = EXCLUDED.last_row, last_key = EXCLUDED.last_key, updated = EXCLUDED.updated
+                """)) {
+            s.setString(1, spreadsheetId);
+            s.setString(2, tabName);
+            s.setInt(3, lastRow);
+            s.setString(4, lastKey);
+            s.executeUpdate();
+        }
+        if (keys.isEmpty()) {
+            return;
+        }
+        try (var s = db.prepareStatement("INSERT INTO sheet_export_key (spreadsheet_id, tab_name, export_key) VALUES (?, ?, ?) ON CONFLICT DO NOTHING")) {
+            for (String key : new HashSet<>(keys)) {
+                s.setString(1, spreadsheetId);
+                s.setString(2, tabName);
+                s.setString(3, key);
+                s.addBatch();
+            }
+            s.executeBatch();
+        }
+    }
+}
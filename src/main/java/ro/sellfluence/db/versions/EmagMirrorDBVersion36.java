@@ -0,0 +1,29 @@
+package ro.sellfluence.db.versions;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+
+import static ro.sellfluence.db.versions.EmagMirrorDBVersion1.executeStatement;
+
+class EmagMirrorDBVersion36 {
+    /**
+     * Add a fingerprint of the order as received from eMAG, which allows skipping unchanged orders when refetching.
+     *
+     * @param db database connection to use.
+     * @throws SQLException all errors are passed back to the caller.
+     */
+    static void version36(Connection db) throws SQLException {
+        addOrderFingerprint(db);
+    }
+
+    private static void addOrderFingerprint(Connection db) throws SQLException {
+        executeStatement(db, """
+                ALTER TABLE emag_order
+                    ADD COLUMN fingerprint TEXT;
+                """);
+        executeStatement(db, """
+                CREATE INDEX idx_emag_order_fingerprint
+                    ON emag_order (fingerprint);
+                """);
+    }
+}
@@ -0,0 +1,44 @@
+package ro.sellfluence.db.versions;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+
+import static ro.sellfluence.db.versions.EmagMirrorDBVersion1.executeStatement;
+
+class EmagMirrorDBVersion37 {
+    /**
+     * Add a table recording the product and month combinations whose GMV needs to be recomputed,
+     * because orders containing the product were added or changed.
+     *
+     * @param db database connection to use.
+     * @throws SQLException all errors are passed back to the caller.
+     */
+    static void version37(Connection db) throws SQLException {
+        createGMVDirtyTable(db);
+        markRecentlyModifiedOrders(db);
+    }
+
+    private static void createGMVDirtyTable(Connection db) throws SQLException {
+        executeStatement(db, """
+                CREATE TABLE gmv_dirty (
+                    part_number_key TEXT NOT NULL,
+                    month           DATE NOT NULL,
+                    PRIMARY KEY (part_number_key, month)
+                );
+                """);
+    }
+
+    /**
+     * Orders stored shortly before the upgrade may not be included in the GMV table yet.
+     */
+    private static void markRecentlyModifiedOrders(Connection db) throws SQLException {
+        executeStatement(db, """
+                INSERT INTO gmv_dirty (part_number_key, month)
+                SELECT DISTINCT pio.part_number_key, date_trunc('month', o.date)::date
+                FROM product_in_order AS pio
+                INNER JOIN emag_order AS o ON pio.emag_order_surrogate_id = o.surrogate_id
+                WHERE o.modified >= LOCALTIMESTAMP - INTERVAL '7 days'
+                  AND pio.part_number_key IS NOT NULL;
+                """);
+    }
+}
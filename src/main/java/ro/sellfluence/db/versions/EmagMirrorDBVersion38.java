@@ -0,0 +1,105 @@
+package ro.sellfluence.db.versions;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+
+import static ro.sellfluence.db.versions.EmagMirrorDBVersion1.executeStatement;
+
+class EmagMirrorDBVersion38 {
+    /**
+     * Allow refreshing the return rate data without blocking the readers of the chart.
+     * <ul>
+     *     <li>orders_canonical gets a unique index, so that it can be refreshed concurrently.</li>
+     *     <li>sales_daily and returns_linked become tables, which are updated only for the sale days
+     *     of orders changed since the last refresh.</li>
+     *     <li>A table records the IDs of the changed orders.</li>
+     * </ul>
+     *
+     * @param db database connection to use.
+     * @throws SQLException all errors are passed back to the caller.
+     */
+    static void version38(Connection db) throws SQLException {
+        makeOrdersCanonicalUnique(db);
+        convertSalesDailyToTable(db);
+        convertReturnsLinkedToTable(db);
+        createReturnRateDirtyOrderTable(db);
+    }
+
+    private static void makeOrdersCanonicalUnique(Connection db) throws SQLException {
+        executeStatement(db, """
+                DROP INDEX idx_orders_canonical_order_id;
+                """);
+        executeStatement(db, """
+                CREATE UNIQUE INDEX idx_orders_canonical_order_id
+                    ON orders_canonical (order_id, vendor_id);
+                """);
+    }
+
+    private static void convertSalesDailyToTable(Connection db) throws SQLException {
+        executeStatement(db, """
+                CREATE TABLE sales_daily_table AS
+                SELECT product_code, product_id, sale_d, sold_qty
+                FROM sales_daily;
+                """);
+        executeStatement(db, """
+                DROP MATERIALIZED VIEW sales_daily;
+                """);
+        executeStatement(db, """
+                ALTER TABLE sales_daily_table RENAME TO sales_daily;
+                """);
+        executeStatement(db, """
+                CREATE UNIQUE INDEX idx_sales_daily_unique
+                    ON sales_daily (product_code, product_id, sale_d);
+                """);
+        executeStatement(db, """
+                CREATE INDEX idx_sales_daily_product_date
+                    ON sales_daily (product_id, sale_d);
+                """);
+        executeStatement(db, """
+                CREATE INDEX idx_sales_daily_sale_d
+                    ON sales_daily (sale_d);
+                """);
+    }
+
+    private static void convertReturnsLinkedToTable(Connection db) throws SQLException {
+        executeStatement(db, """
+                CREATE TABLE returns_linked_table AS
+                SELECT product_id, product_code, sale_d, return_d, returned_qty
+                FROM returns_linked;
+                """);
+        executeStatement(db, """
+                DROP MATERIALIZED VIEW returns_linked;
+                """);
+        executeStatement(db, """
+                ALTER TABLE returns_linked_table RENAME TO returns_linked;
+                """);
+        executeStatement(db, """
+                CREATE UNIQUE INDEX idx_returns_linked_unique
+                    ON returns_linked (product_id, product_code, sale_d, return_d);
+                """);
+        executeStatement(db, """
+                CREATE INDEX idx_returns_linked_product_sale_return
+                    ON returns_linked (product_id, sale_d, return_d);
+                """);
+        executeStatement(db, """
+                CREATE INDEX idx_returns_linked_sale_d
+                    ON returns_linked (sale_d);
+                """);
+    }
+
+    private static void createReturnRateDirtyOrderTable(Connection db) throws SQLException {
+        executeStatement(db, """
+                CREATE TABLE return_rate_dirty_order (
+                    order_id VARCHAR(255) PRIMARY KEY
+                );
+                """);
+        // Orders stored after the last refresh of the views are not yet included.
+        executeStatement(db, """
+                INSERT INTO return_rate_dirty_order (order_id)
+                SELECT DISTINCT id
+                FROM emag_order
+                WHERE modified >= LOCALTIMESTAMP - INTERVAL '7 days'
+                  AND id IS NOT NULL;
+                """);
+    }
+}
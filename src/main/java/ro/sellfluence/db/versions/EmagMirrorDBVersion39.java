@@ -0,0 +1,59 @@
+package ro.sellfluence.db.versions;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+
+import static ro.sellfluence.db.versions.EmagMirrorDBVersion1.executeStatement;
+
+class EmagMirrorDBVersion39 {
+    /**
+     * Add a table holding the number of ordered, cancelled (storno), returned and refused items
+     * for each product and month, and a table recording the months which need to be recomputed.
+     * All months with data are marked, so that the first update after the upgrade fills the table.
+     *
+     * @param db database connection to use.
+     * @throws SQLException all errors are passed back to the caller.
+     */
+    static void version39(Connection db) throws SQLException {
+        createProductMonthCountTable(db);
+        createProductMonthCountDirtyTable(db);
+        markAllMonths(db);
+    }
+
+    private static void createProductMonthCountTable(Connection db) throws SQLException {
+        executeStatement(db, """
+                CREATE TABLE product_month_count (
+                    pnk         VARCHAR(255) NOT NULL,
+                    month       DATE NOT NULL,
+                    order_qty   INT NOT NULL DEFAULT 0,
+                    storno_qty  INT NOT NULL DEFAULT 0,
+                    return_qty  INT NOT NULL DEFAULT 0,
+                    refused_qty INT GENERATED ALWAYS AS (storno_qty - return_qty) STORED,
+                    PRIMARY KEY (pnk, month)
+                );
+                """);
+        executeStatement(db, """
+                CREATE INDEX idx_product_month_count_month
+                    ON product_month_count (month, pnk);
+                """);
+    }
+
+    private static void createProductMonthCountDirtyTable(Connection db) throws SQLException {
+        executeStatement(db, """
+                CREATE TABLE product_month_count_dirty (
+                    month DATE PRIMARY KEY
+                );
+                """);
+    }
+
+    private static void markAllMonths(Connection db) throws SQLException {
+        executeStatement(db, """
+                INSERT INTO product_month_count_dirty (month)
+                SELECT date_trunc('month', date)::date FROM emag_order WHERE date IS NOT NULL
+                UNION
+                SELECT date_trunc('month', storno_date)::date FROM storno WHERE storno_date IS NOT NULL
+                UNION
+                SELECT date_trunc('month', date)::date FROM rma_result WHERE date IS NOT NULL;
+                """);
+    }
+}
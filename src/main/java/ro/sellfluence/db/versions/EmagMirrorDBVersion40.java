@@ -0,0 +1,45 @@
+package ro.sellfluence.db.versions;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+
+import static ro.sellfluence.db.versions.EmagMirrorDBVersion1.executeStatement;
+
+class EmagMirrorDBVersion40 {
+    /**
+     * Add tables recording which orders were exported to which tab of a spreadsheet and the last row written,
+     * so that exports only need to check the last row instead of reading the whole tab.
+     *
+     * @param db database connection to use.
+     * @throws SQLException all errors are passed back to the caller.
+     */
+    static void version40(Connection db) throws SQLException {
+        createSheetExportStateTable(db);
+        createSheetExportKeyTable(db);
+    }
+
+    private static void createSheetExportStateTable(Connection db) throws SQLException {
+        executeStatement(db, """
+                CREATE TABLE sheet_export_state (
+                    spreadsheet_id VARCHAR(255) NOT NULL,
+                    tab_name       VARCHAR(255) NOT NULL,
+                    last_row       INT NOT NULL,
+                    last_key       VARCHAR(1024) NOT NULL,
+                    updated        TIMESTAMP NOT NULL,
+                    PRIMARY KEY (spreadsheet_id, tab_name)
+                );
+                """);
+    }
+
+    private static void createSheetExportKeyTable(Connection db) throws SQLException {
+        executeStatement(db, """
+                CREATE TABLE sheet_export_key (
+                    spreadsheet_id VARCHAR(255) NOT NULL,
+                    tab_name       VARCHAR(255) NOT NULL,
+                    export_key     VARCHAR(1024) NOT NULL,
+                    PRIMARY KEY (spreadsheet_id, tab_name, export_key),
+                    FOREIGN KEY (spreadsheet_id, tab_name) REFERENCES sheet_export_state (spreadsheet_id, tab_name) ON DELETE CASCADE
+                );
+                """);
+    }
+}
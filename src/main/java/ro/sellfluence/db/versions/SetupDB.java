@@ -40,6 +40,11 @@ public class SetupDB {
                 EmagMirrorDBVersion32::version32,
                 EmagMirrorDBVersion33::version33,
                 EmagMirrorDBVersion34::version34,
-                EmagMirrorDBVersion35::version35);
+                EmagMirrorDBVersion35::version35,
+                EmagMirrorDBVersion36::version36,
+                EmagMirrorDBVersion37::version37,
+                EmagMirrorDBVersion38::version38,
+                EmagMirrorDBVersion39::version39,
+                EmagMirrorDBVersion40::version40);
     }
 }
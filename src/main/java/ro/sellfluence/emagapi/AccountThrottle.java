@@ -0,0 +1,291 @@
+package ro.sellfluence.emagapi;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.LongSupplier;
+import java.util.logging.Logger;
+
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static java.util.logging.Level.INFO;
+import static java.util.logging.Level.WARNING;
+
+/**
+ * Rate limiter and circuit breaker for the requests of one eMAG account.
+ * <p>
+ * Requests take a token from a bucket, which is refilled at an adaptive rate.
+ * Each failed request (5xx or IOException) halves the rate, each successful request raises it a little,
+ * until the maximum rate is reached again.
+ * <p>
+ * When too many of the recent requests failed, the circuit opens and requests wait until the open period ends.
+ * Then a single probe request is let through. If it succeeds, the circuit closes again,
+ * otherwise it opens again for twice the time.
+ * <p>
+ * All {@link EmagApi} instances for the same account share one throttle, see {@link #forAccount(String)}.
+ */
+public class AccountThrottle {
+
+    private static final Logger logger = Logger.getLogger(AccountThrottle.class.getName());
+
+    private static final Map<String, AccountThrottle> throttles = new ConcurrentHashMap<>();
+
+    static final double MAX_REQUESTS_PER_SECOND = 10.0;
+    static final double MIN_REQUESTS_PER_SECOND = 0.2;
+    private static final double INITIAL_REQUESTS_PER_SECOND = 5.0;
+    private static final double RATE_INCREASE_PER_SUCCESS = 0.25;
+    private static final double BURST = 5.0;
+
+    /**
+     * Number of recent requests on which the failure rate is computed.
+     */
+    static final int WINDOW = 20;
+
+    /**
+     * The circuit is only opened after at least this many requests were seen in the window.
+     */
+    static final int MIN_REQUESTS_IN_WINDOW = 10;
+    static final double FAILURE_RATE_THRESHOLD = 0.5;
+
+    static final long INITIAL_OPEN_NANOS = SECONDS.toNanos(15);
+    private static final long MAX_OPEN_NANOS = SECONDS.toNanos(240);
+
+    /**
+     * Time waited by requests while a probe request is running in the half open state.
+     */
+    private static final long PROBE_WAIT_MILLISECONDS = 500;
+
+    public enum State {
+        /**
+         * Requests are only limited by the rate.
+         */
+        CLOSED,
+        /**
+         * Requests wait until the open period has passed.
+         */
+        OPEN,
+        /**
+         * A single probe request decides whether the circuit closes or opens again.
+         */
+        HALF_OPEN
+    }
+
+    /**
+     * Snapshot of the throttle state.
+     *
+     * @param state of the circuit breaker.
+     * @param requestsPerSecond current refill rate of the token bucket.
+     * @param failureRate among the recent requests.
+     * @param recentRequests number of requests on which the failure rate is based.
+     * @param millisecondsUntilRetry time remaining in the open state, 0 if not open.
+     */
+    public record Status(State state, double requestsPerSecond, double failureRate, int recentRequests,
+                         long millisecondsUntilRetry) {
+    }
+
+    private final String account;
+    private final EmagApi.Sleeper sleeper;
+    private final LongSupplier nanoClock;
+
+    private State state = State.CLOSED;
+    private double requestsPerSecond = INITIAL_REQUESTS_PER_SECOND;
+    private double tokens = BURST;
+    private long lastRefill;
+    private long openUntil;
+    private long openNanos = INITIAL_OPEN_NANOS;
+    /**
+     * Thread sending the probe request in the half open state, null if none is running.
+     */
+    private Thread probe;
+    /**
+     * Number of probe requests which failed and opened the circuit again.
+     */
+    private long failedProbes;
+
+    private final boolean[] outcomes = new boolean[WINDOW];
+    private int outcomeCount;
+    private int nextOutcome;
+    private int failuresInWindow;
+
+    AccountThrottle(String account, EmagApi.Sleeper sleeper, LongSupplier nanoClock) {
+        this.account = account;
+        this.sleeper = sleeper;
+        this.nanoClock = nanoClock;
+        lastRefill = nanoClock.getAsLong();
+    }
+
+    /**
+     * Get the throttle shared by all requests for the account.
+     *
+     * @param account eMAG user name.
+     * @return the throttle for the account.
+     */
+    public static AccountThrottle forAccount(String account) {
+        return throttles.computeIfAbsent(account, name -> new AccountThrottle(name, Thread::sleep, System::nanoTime));
+    }
+
+    /**
+     * Get the state of all throttles created so far.
+     *
+     * @return map from the account to the state of its throttle.
+     */
+    public static Map<String, Status> allStatuses() {
+        var statuses = new TreeMap<String, Status>();
+        throttles.forEach((account, throttle) -> statuses.put(account, throttle.status()));
+        return statuses;
+    }
+
+    /**
+     * Longest time any account still has to wait before requests are let through again.
+     *
+     * @return milliseconds until all circuits accept requests, 0 if none is open.
+     */
+    public static long millisecondsUntilAllAccountsAcceptRequests() {
+        return throttles.values().stream().mapToLong(throttle -> throttle.status().millisecondsUntilRetry()).max().orElse(0);
+    }
+
+    /**
+     * Wait until a request may be sent.
+     *
+     * @throws InterruptedException if interrupted while waiting.
+     */
+    public void acquire() throws InterruptedException {
+        while (true) {
+            long waitMilliseconds;
+            synchronized (this) {
+                var now = nanoClock.getAsLong();
+                refill(now);
+                if (state == State.OPEN && now - openUntil >= 0) {
+                    state = State.HALF_OPEN;
+                    probe = null;
+                    logger.log(INFO, "Sending a probe request for %s.".formatted(account));
+                }
+                switch (state) {
+                    case OPEN -> waitMilliseconds = Math.max(1, NANOSECONDS.toMillis(openUntil - now));
+                    case HALF_OPEN -> {
+                        if (probe == null) {
+                            probe = Thread.currentThread();
+                            return;
+                        }
+                        waitMilliseconds = PROBE_WAIT_MILLISECONDS;
+                    }
+                    default -> {
+                        if (tokens >= 1.0) {
+                            tokens -= 1.0;
+                            return;
+                        }
+                        waitMilliseconds = Math.max(1, (long) Math.ceil((1.0 - tokens) * 1000.0 / requestsPerSecond));
+                    }
+                }
+            }
+            sleeper.sleep(waitMilliseconds);
+        }
+    }
+
+    /**
+     * Record a request which received an answer from eMAG.
+     */
+    public synchronized void recordSuccess() {
+        refill(nanoClock.getAsLong());
+        requestsPerSecond = Math.min(MAX_REQUESTS_PER_SECOND, requestsPerSecond + RATE_INCREASE_PER_SUCCESS);
+        if (state == State.HALF_OPEN) {
+            logger.log(INFO, "Requests for %s succeed again, closing the circuit.".formatted(account));
+            state = State.CLOSED;
+            probe = null;
+            openNanos = INITIAL_OPEN_NANOS;
+            clearWindow();
+        }
+        addOutcome(false);
+    }
+
+    /**
+     * Record a request which failed with a server error or an IOException.
+     */
+    public synchronized void recordFailure() {
+        var now = nanoClock.getAsLong();
+        refill(now);
+        requestsPerSecond = Math.max(MIN_REQUESTS_PER_SECOND, requestsPerSecond / 2);
+        addOutcome(true);
+        if (state == State.HALF_OPEN) {
+            failedProbes++;
+            openNanos = Math.min(MAX_OPEN_NANOS, openNanos * 2);
+            open(now);
+        } else if (state == State.CLOSED && outcomeCount >= MIN_REQUESTS_IN_WINDOW && failureRate() >= FAILURE_RATE_THRESHOLD) {
+            open(now);
+        }
+    }
+
+    /**
+     * Called after each request, when it ended without an outcome, e.g., because it was interrupted or cancelled.
+     * If the request was the probe of the half open state, the next request becomes the probe.
+     * Otherwise, and after {@link #recordSuccess()} or {@link #recordFailure()}, nothing happens.
+     */
+    public synchronized void recordAbandoned() {
+        if (state == State.HALF_OPEN && probe == Thread.currentThread()) {
+            logger.log(INFO, "The probe request for %s was abandoned.".formatted(account));
+            probe = null;
+        }
+    }
+
+    /**
+     * Count the probe requests which failed, i.e., how often the circuit opened again after it was open.
+     * A request retrying after failures gives up when this number changes.
+     *
+     * @return number of failed probe requests since the throttle was created.
+     */
+    public synchronized long failedProbes() {
+        return failedProbes;
+    }
+
+    /**
+     * Get the current state.
+     *
+     * @return a snapshot of the state.
+     */
+    public synchronized Status status() {
+        var now = nanoClock.getAsLong();
+        var remaining = state == State.OPEN ? Math.max(0, NANOSECONDS.toMillis(openUntil - now)) : 0;
+        return new Status(state, requestsPerSecond, failureRate(), outcomeCount, remaining);
+    }
+
+    private void open(long now) {
+        state = State.OPEN;
+        probe = null;
+        openUntil = now + openNanos;
+        tokens = 0;
+        logger.log(WARNING, "Too many failed requests for %s, pausing requests for %d s.".formatted(account, NANOSECONDS.toSeconds(openNanos)));
+    }
+
+    private void refill(long now) {
+        var elapsedNanos = now - lastRefill;
+        if (elapsedNanos > 0) {
+            tokens = Math.min(BURST, tokens + requestsPerSecond * elapsedNanos / SECONDS.toNanos(1));
+            lastRefill = now;
+        }
+    }
+
+    private void addOutcome(boolean failed) {
+        if (outcomeCount == WINDOW) {
+            if (outcomes[nextOutcome]) {
+                failuresInWindow--;
+            }
+        } else {
+            outcomeCount++;
+        }
+        outcomes[nextOutcome] = failed;
+        if (failed) {
+            failuresInWindow++;
+        }
+        nextOutcome = (nextOutcome + 1) % WINDOW;
+    }
+
+    private void clearWindow() {
+        outcomeCount = 0;
+        nextOutcome = 0;
+        failuresInWindow = 0;
+    }
+
+    private double failureRate() {
+        return outcomeCount == 0 ? 0.0 : (double) failuresInWindow / outcomeCount;
+    }
+}
@@ -7,6 +7,7 @@ import com.google.gson.stream.JsonReader;
 import com.google.gson.stream.JsonToken;
 import com.google.gson.stream.JsonWriter;
 import org.jspecify.annotations.NonNull;
+import org.jspecify.annotations.Nullable;
 import ro.sellfluence.support.Logs;
 import tools.jackson.core.JsonGenerator;
 import tools.jackson.core.JsonParser;
@@ -29,12 +30,18 @@ import java.net.http.HttpResponse;
 import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Base64;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.logging.Handler;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -65,9 +72,6 @@ public class EmagApi {
 
     private static final Logger jsonLogger = Logs.getFileLogger("emag_decoded_json", FINE, 20, 100_000_000);
 
-    private static final int MAX_REQUEST_RETRIES = 4;
-    private static final long INITIAL_RETRY_DELAY_MILLISECONDS = 10_000;
-
     public static final String emagRO = "https://marketplace-api.emag.ro";
 
     public static final String emagROApi3 = "https://marketplace-api.emag.ro/api-3";
@@ -79,13 +83,39 @@ public class EmagApi {
     private final String emagUser;
     private final String credentials;
     private final HttpClient httpClient;
-    private final Sleeper sleeper;
+    private final AccountThrottle throttle;
+    private volatile int pagesInFlight = 1;
 
     @FunctionalInterface
     interface Sleeper {
         void sleep(long milliseconds) throws InterruptedException;
     }
 
+    /**
+     * Receives the decoded items of one page of an eMAG response.
+     *
+     * @param <T> type of the items.
+     * @param <E> exception thrown by the consumer.
+     */
+    @FunctionalInterface
+    public interface PageConsumer<T, E extends Exception> {
+        void accept(List<T> page) throws E;
+    }
+
+    /**
+     * Number of pages which are fetched ahead while the consumer is still processing a page.
+     */
+    private static final int PAGES_AHEAD = 2;
+
+    /**
+     * Element passed from the page fetching thread to the consumer.
+     *
+     * @param items of the page or null to signal that no more pages follow.
+     * @param <T> type of the items.
+     */
+    private record QueuedPage<T>(@Nullable List<T> items) {
+    }
+
     private static final DateTimeFormatter emagDate = DateTimeFormatter.ofPattern("yyyy-MM-dd");
 
     public static int statusFinalized = 4;
@@ -178,14 +208,34 @@ public class EmagApi {
 
 
     public EmagApi(String username, String password) {
-        this(username, password, Thread::sleep);
+        this(username, password, AccountThrottle.forAccount(username));
     }
 
     EmagApi(String username, String password, Sleeper sleeper) {
+        this(username, password, new AccountThrottle(username, sleeper, System::nanoTime));
+    }
+
+    EmagApi(String username, String password, AccountThrottle throttle) {
         emagUser = username;
         credentials = Base64.getEncoder().encodeToString((username + ":" + password).getBytes());
         httpClient = HttpClient.newHttpClient();
-        this.sleeper = sleeper;
+        this.throttle = throttle;
+    }
+
+    /**
+     * Close the HTTP client. Requests still running are completed, new ones fail.
+     */
+    public void shutdown() {
+        httpClient.close();
+    }
+
+    /**
+     * Get the state of the rate limiter and circuit breaker used for this account.
+     *
+     * @return snapshot of the throttle state.
+     */
+    public AccountThrottle.Status throttleStatus() {
+        return throttle.status();
     }
 
     public CountResponse countOrderRequest() throws IOException, InterruptedException {
@@ -227,8 +277,23 @@ public class EmagApi {
                 .header("Authorization", "Basic " + credentials)
                 .header("Content-Type", "application/json")
                 .POST(HttpRequest.BodyPublishers.ofString(requestBody)).build();
-        var httpResponse = httpClient.send(httpRequest, HttpResponse.BodyHandlers.ofString());
-        int statusCode = httpResponse.statusCode();
+        throttle.acquire();
+        HttpResponse<String> httpResponse;
+        int statusCode;
+        try {
+            httpResponse = httpClient.send(httpRequest, HttpResponse.BodyHandlers.ofString());
+            statusCode = httpResponse.statusCode();
+            if (statusCode == HTTP_INTERNAL_ERROR || statusCode == HTTP_BAD_GATEWAY || statusCode == HTTP_GATEWAY_TIMEOUT) {
+                throttle.recordFailure();
+            } else {
+                throttle.recordSuccess();
+            }
+        } catch (IOException e) {
+            throttle.recordFailure();
+            throw e;
+        } finally {
+            throttle.recordAbandoned();
+        }
         communicationLogger.log(FINE, "Status code = " + statusCode);
         String receivedJSON = null;
         if (statusCode == HTTP_OK) {
@@ -241,9 +306,105 @@ public class EmagApi {
         return emagRequest(emagROApi3 + "/" +category + "/read", true, filter, data, responseClass);
     }
 
+    /**
+     * Read all pages of a request and hand over each page to the consumer while the following pages are fetched.
+     *
+     * @param category eMAG API category, e.g., order or rma.
+     * @param filter filter items.
+     * @param data data items, if any.
+     * @param responseClass type of the items in the response.
+     * @param pageConsumer receiving the items of each non-empty page.
+     * @param <T> type of the items.
+     * @param <E> exception thrown by the consumer.
+     * @throws InterruptedException if interrupted while waiting.
+     * @throws E if the consumer throws it.
+     * @see #emagRequestInPages(String, boolean, Map, Map, Class, PageConsumer)
+     */
+    public <T, E extends Exception> void readRequestInPages(String category, Map<String, Object> filter, Map<String, Object> data, Class<T> responseClass, PageConsumer<T, E> pageConsumer) throws InterruptedException, E {
+        emagRequestInPages(emagROApi3 + "/" + category + "/read", true, filter, data, responseClass, pageConsumer);
+    }
+
     public <T> @NonNull ArrayList<T> emagRequest(String url, boolean post, Map<String, Object> filter, Map<String, Object> data, Class<T> responseClass) throws InterruptedException {
-        var page = 0;
-        var finished = false;
+        var accumulatedResponses = new ArrayList<T>();
+        emagRequest(url, post, filter, data, responseClass, accumulatedResponses::addAll);
+        return accumulatedResponses;
+    }
+
+    /**
+     * Read all pages of a request on a separate virtual thread and pass them to the consumer in the calling thread.
+     * Fetching the next pages thus overlaps with processing the current page.
+     * At most {@link #PAGES_AHEAD} pages are held waiting for the consumer,
+     * so that memory use is bounded by a few pages and not by the size of the result.
+     *
+     * <p>Errors while fetching are rethrown in the calling thread after all pages received
+     * before the error were consumed. If the consumer throws, fetching is stopped.</p>
+     *
+     * @param url to which the request is sent.
+     * @param post true for a POST request, false for GET.
+     * @param filter filter items.
+     * @param data data items, if any.
+     * @param responseClass type of the items in the response.
+     * @param pageConsumer receiving the items of each non-empty page.
+     * @param <T> type of the items.
+     * @param <E> exception thrown by the consumer.
+     * @throws InterruptedException if interrupted while waiting.
+     * @throws E if the consumer throws it.
+     */
+    public <T, E extends Exception> void emagRequestInPages(String url, boolean post, Map<String, Object> filter, Map<String, Object> data, Class<T> responseClass, PageConsumer<T, E> pageConsumer) throws InterruptedException, E {
+        var queue = new ArrayBlockingQueue<QueuedPage<T>>(PAGES_AHEAD);
+        // Set before the fetcher is cancelled. The consumer no longer takes pages, so the end marker must not be
+        // put into a possibly full queue, where it would block the fetcher and the closing of the executor.
+        var stopped = new AtomicBoolean();
+        try (var executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            Future<?> fetcher = executor.submit(() -> {
+                try {
+                    emagRequest(url, post, filter, data, responseClass, page -> queue.put(new QueuedPage<>(page)));
+                } finally {
+                    if (!stopped.get()) {
+                        queue.put(new QueuedPage<>(null));
+                    }
+                }
+                return null;
+            });
+            try {
+                var page = queue.take();
+                while (page.items() != null) {
+                    pageConsumer.accept(page.items());
+                    page = queue.take();
+                }
+                fetcher.get();
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof RuntimeException runtimeException) {
+                    throw runtimeException;
+                }
+                if (e.getCause() instanceof InterruptedException interruptedException) {
+                    throw interruptedException;
+                }
+                throw new RuntimeException(e.getCause());
+            } finally {
+                stopped.set(true);
+                fetcher.cancel(true);
+            }
+        }
+    }
+
+    /**
+     * Read all pages of a request and pass the items of each page to the consumer as soon as it was decoded.
+     * With the default of one page in flight, pages are fetched and consumed in the same thread,
+     * one after the other. Otherwise, see {@link #setPagesInFlight(int)}.
+     *
+     * @param url to which the request is sent.
+     * @param post true for a POST request, false for GET.
+     * @param filter filter items, which are placed on the first level of the request.
+     * @param data data items, if any.
+     * @param responseClass type of the items in the response.
+     * @param pageConsumer receiving the items of each non-empty page.
+     * @param <T> type of the items.
+     * @param <E> exception thrown by the consumer.
+     * @throws InterruptedException if interrupted while waiting for a response or a retry.
+     * @throws E if the consumer throws it.
+     */
+    public <T, E extends Exception> void emagRequest(String url, boolean post, Map<String, Object> filter, Map<String, Object> data, Class<T> responseClass, PageConsumer<T, E> pageConsumer) throws InterruptedException, E {
         var jsonInput = new HashMap<String, Object>(
                 Map.of("itemsPerPage", 100)
         );
@@ -253,15 +414,109 @@ public class EmagApi {
         if (data != null && !data.isEmpty()) {
             jsonInput.put("data", data);
         }
-        var accumulatedResponses = new ArrayList<T>();
-        var retryCount = MAX_REQUEST_RETRIES;
-        var retryDelay = INITIAL_RETRY_DELAY_MILLISECONDS;
-        while (!finished) {
-            page++;
-            jsonInput.put("currentPage", page);
+        if (pagesInFlight > 1) {
+            requestPagesConcurrently(url, post, jsonInput, responseClass, pageConsumer);
+        } else {
+            var page = 0;
+            var finished = false;
+            while (!finished) {
+                page++;
+                var result = requestPage(url, post, jsonInput, page, responseClass);
+                if (!result.items().isEmpty()) {
+                    pageConsumer.accept(result.items());
+                }
+                finished = result.last();
+            }
+        }
+    }
+
+    /**
+     * Set the number of pages which are requested at the same time.
+     * As the number of pages is not known in advance, pages are requested speculatively
+     * and up to this number of requests past the last page are wasted.
+     * Pages are nevertheless passed to the consumer in order.
+     *
+     * @param maxPagesInFlight maximum number of concurrent page requests, 1 to read pages one after the other.
+     */
+    public void setPagesInFlight(int maxPagesInFlight) {
+        if (maxPagesInFlight < 1) {
+            throw new IllegalArgumentException("Pages in flight must be at least 1 but was %d.".formatted(maxPagesInFlight));
+        }
+        pagesInFlight = maxPagesInFlight;
+    }
+
+    /**
+     * Outcome of requesting a single page.
+     *
+     * @param items received, possibly empty.
+     * @param last true if no further pages must be requested.
+     * @param <T> type of the items.
+     */
+    private record PageResult<T>(List<T> items, boolean last) {
+    }
+
+    /**
+     * Keep up to {@link #pagesInFlight} page requests running on virtual threads and pass the pages
+     * to the consumer in order until the last page was received.
+     */
+    private <T, E extends Exception> void requestPagesConcurrently(String url, boolean post, Map<String, Object> jsonInput, Class<T> responseClass, PageConsumer<T, E> pageConsumer) throws InterruptedException, E {
+        var inFlight = new ArrayDeque<Future<PageResult<T>>>();
+        try (var executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            try {
+                var nextPage = 1;
+                var finished = false;
+                while (!finished) {
+                    while (inFlight.size() < pagesInFlight) {
+                        var page = nextPage++;
+                        inFlight.add(executor.submit(() -> requestPage(url, post, jsonInput, page, responseClass)));
+                    }
+                    PageResult<T> result;
+                    try {
+                        result = inFlight.removeFirst().get();
+                    } catch (ExecutionException e) {
+                        if (e.getCause() instanceof RuntimeException runtimeException) {
+                            throw runtimeException;
+                        }
+                        if (e.getCause() instanceof InterruptedException interruptedException) {
+                            throw interruptedException;
+                        }
+                        throw new RuntimeException(e.getCause());
+                    }
+                    if (!result.items().isEmpty()) {
+                        pageConsumer.accept(result.items());
+                    }
+                    finished = result.last();
+                }
+            } finally {
+                inFlight.forEach(request -> request.cancel(true));
+            }
+        }
+    }
+
+    /**
+     * Request one page, retrying on the server errors 500, 502, 504 and on IOException.
+     * The retries are paced by the {@link AccountThrottle}, which lowers the rate after each failure
+     * and holds all requests of the account while its circuit is open.
+     * The request gives up when a probe request of the account failed, i.e., when eMAG still fails
+     * after the circuit was open.
+     *
+     * @param url to which the request is sent.
+     * @param post true for a POST request, false for GET.
+     * @param jsonInput filter and data items, which are sent together with the page number.
+     * @param page number of the page, starting with 1.
+     * @param responseClass type of the items in the response.
+     * @param <T> type of the items.
+     * @return the items of the page and whether this was the last page.
+     * @throws InterruptedException if interrupted while waiting for a response or a retry.
+     */
+    private <T> PageResult<T> requestPage(String url, boolean post, Map<String, Object> jsonInput, int page, Class<T> responseClass) throws InterruptedException {
+        var pageInput = new HashMap<>(jsonInput);
+        pageInput.put("currentPage", page);
+        var failedProbesAtStart = throttle.failedProbes();
+        while (true) {
             // Filter items are on the first level together with the pagination items.
             // The data item, which is also on the first level, is used only for submitting data.
-            var jsonAsString = gson.toJson(jsonInput);
+            var jsonAsString = gson.toJson(pageInput);
             jsonLogger.log(FINE, "JSON = " + jsonAsString);
             var httpRequestBuilder = HttpRequest.newBuilder()
                     .uri(URI.create(url))
@@ -269,18 +524,20 @@ public class EmagApi {
                     .header("Content-Type", "application/json");
             var httpRequest = post ? httpRequestBuilder.POST(HttpRequest.BodyPublishers.ofString(jsonAsString)).build() : httpRequestBuilder.GET().build();
             communicationLogger.log(INFO, () -> "Sent " + jsonAsString);
+            throttle.acquire();
             try {
                 var httpResponse = httpClient.send(httpRequest, HttpResponse.BodyHandlers.ofString());
                 int statusCode = httpResponse.statusCode();
                 communicationLogger.log(FINE, "Status code = " + statusCode);
+                if (statusCode == HTTP_INTERNAL_ERROR || statusCode == HTTP_BAD_GATEWAY || statusCode == HTTP_GATEWAY_TIMEOUT) {
+                    throttle.recordFailure();
+                } else {
+                    throttle.recordSuccess();
+                }
                 if (statusCode == HTTP_OK) {
-                    retryCount = MAX_REQUEST_RETRIES;
-                    retryDelay = INITIAL_RETRY_DELAY_MILLISECONDS;
                     String receivedJSON = httpResponse.body();
                     communicationLogger.log(INFO, () -> "Received " + receivedJSON);
                     try {
-                        //var responseItemClass = TypeToken.getParameterized(Response.class, responseClass);
-                        //Response<T> response = gson.fromJson(receivedJSON, responseItemClass.getType());
                         var typeRef = new TypeReference<Response<T>>() {
                             @Override
                             public Type getType() {
@@ -291,18 +548,15 @@ public class EmagApi {
 
                         if (response.isError) {
                             errorLogger.log(SEVERE, "Received error response %s".formatted(Arrays.toString(response.messages)));
-                            if (Arrays.stream(response.messages).anyMatch(x -> x.contains("Invalid vendor ip"))) {
+                            var invalidIp = Arrays.stream(response.messages).anyMatch(x -> x.contains("Invalid vendor ip"));
+                            if (invalidIp) {
                                 errorLogger.log(INFO, "Please register your IP address in the EMAG dashboard for user %s.".formatted(emagUser));
-                                finished = true;
                             }
+                            return new PageResult<>(List.of(), invalidIp);
                         } else {
                             errorLogger.log(INFO, () -> "Received %d items.".formatted(response.results.length));
                             jsonLogger.log(FINE, () -> "Decoded JSON: %s".formatted(response));
-                            if (response.results.length > 0) {
-                                accumulatedResponses.addAll(Arrays.asList(response.results));
-                            } else {
-                                finished = true;
-                            }
+                            return new PageResult<>(Arrays.asList(response.results), response.results.length == 0);
                         }
                     } catch (MismatchedInputException e) {
                         String message = "JSON decoded ended with error %s".formatted(e.getMessage());
@@ -312,30 +566,25 @@ public class EmagApi {
                     }
                 } else if (statusCode == HTTP_FORBIDDEN) {
                     errorLogger.log(SEVERE, "Received 403 for user %s, please check your password.".formatted(emagUser));
-                    finished = true;
-                } else if ((statusCode == HTTP_INTERNAL_ERROR || statusCode == HTTP_BAD_GATEWAY || statusCode == HTTP_GATEWAY_TIMEOUT) && retryCount > 0) {
-                    errorLogger.log(WARNING, "Received %d, retrying, retryCount=%d, retryDelay=%d s".formatted(statusCode, retryCount, retryDelay / 1000));
-                    retryCount--;
-                    sleeper.sleep(retryDelay);
-                    retryDelay *= 2; // Double delay
-                    page--; // Refetch the same page.
+                    return new PageResult<>(List.of(), true);
+                } else if ((statusCode == HTTP_INTERNAL_ERROR || statusCode == HTTP_BAD_GATEWAY || statusCode == HTTP_GATEWAY_TIMEOUT) && throttle.failedProbes() == failedProbesAtStart) {
+                    errorLogger.log(WARNING, "Received %d, retrying, throttle %s".formatted(statusCode, throttle.status()));
                 } else {
                     logger.log(SEVERE, "Received error status %s".formatted(statusCode));
                     throw new RuntimeException(String.format("Emag API error %d", statusCode));
                 }
             } catch (IOException e) {
-                if (retryCount > 0) {
-                    logger.log(WARNING, "Received IOException %s, retrying, retryCount=%d, retryDelay=%d s".formatted(e, retryCount, retryDelay / 1000));
+                throttle.recordFailure();
+                if (throttle.failedProbes() == failedProbesAtStart) {
+                    logger.log(WARNING, "Received IOException %s, retrying, throttle %s".formatted(e, throttle.status()));
                 } else {
                     throw new RuntimeException("Received IOException", e);
                 }
-                retryCount--;
-                sleeper.sleep(retryDelay);
-                retryDelay *= 2; // Double delay
-                page--; // Refetch the same page.
+            } finally {
+                // Releases the probe if the request was interrupted before its outcome was recorded.
+                throttle.recordAbandoned();
             }
         }
-        return accumulatedResponses;
     }
 
     public static void setAPILogLevel(Level level) {
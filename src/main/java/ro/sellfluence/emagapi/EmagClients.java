@@ -0,0 +1,70 @@
+package ro.sellfluence.emagapi;
+
+import org.jspecify.annotations.Nullable;
+import ro.sellfluence.support.UserPassword;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+/**
+ * Registry of one {@link EmagApi} per account alias.
+ * <p>
+ * The credentials are looked up only the first time an alias is used,
+ * and all requests for the account share the same HTTP client, which keeps its connections open.
+ */
+public class EmagClients {
+
+    private static final EmagClients shared = new EmagClients(alias -> {
+        var credentials = UserPassword.findAlias(alias);
+        return credentials == null ? null : new EmagApi(credentials.getUsername(), credentials.getPassword());
+    });
+
+    private final Map<String, EmagApi> clients = new ConcurrentHashMap<>();
+    private final Function<String, @Nullable EmagApi> factory;
+
+    EmagClients(Function<String, @Nullable EmagApi> factory) {
+        this.factory = factory;
+    }
+
+    /**
+     * Get the registry shared by all fetch tasks of the application.
+     *
+     * @return the shared registry.
+     */
+    public static EmagClients shared() {
+        return shared;
+    }
+
+    /**
+     * Get the client for the account.
+     *
+     * @param alias of the account in the credentials file.
+     * @return the client or null if there are no credentials for the alias.
+     */
+    public @Nullable EmagApi forAlias(String alias) {
+        return clients.computeIfAbsent(alias, factory);
+    }
+
+    /**
+     * Drop the client for the account, e.g., after its password was changed.
+     * The next call to {@link #forAlias(String)} reads the credentials again.
+     *
+     * @param alias of the account in the credentials file.
+     */
+    public void invalidate(String alias) {
+        var client = clients.remove(alias);
+        if (client != null) {
+            client.shutdown();
+        }
+    }
+
+    /**
+     * Close the HTTP clients of all accounts and forget them.
+     */
+    public void closeAll() {
+        for (String alias : clients.keySet()) {
+            invalidate(alias);
+        }
+    }
+}
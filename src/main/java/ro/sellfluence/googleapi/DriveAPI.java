@@ -14,12 +14,16 @@ import ro.sellfluence.support.Logs;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.security.GeneralSecurityException;
+import java.time.Duration;
 import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.regex.Pattern;
@@ -30,16 +34,23 @@ public class DriveAPI {
     private static final Logger warnLogger = Logs.getConsoleLogger("DriveAPI", Level.WARNING);
 
     private static final JsonFactory jsonFactory = GsonFactory.getDefaultInstance();
-    private static final Map<String, DriveAPI> nameToAPI = new HashMap<>();
+    private static final Map<String, DriveAPI> nameToAPI = new ConcurrentHashMap<>();
 
     private final String appName;
 
-    private final Map<String, String> nameForId = new HashMap<>();
+    private final Map<String, String> nameForId = new ConcurrentHashMap<>();
 
     private record CachedFile(LocalDateTime lastUpdated, String fileId) {
     }
 
-    private final Map<String, CachedFile> driveCache = new HashMap<>();
+    /**
+     * How long a file ID found by name is used before searching for the name again.
+     */
+    private static final Duration fileIdTimeToLive = Duration.ofMinutes(10);
+
+    private static final String spreadsheetMimeType = "application/vnd.google-apps.spreadsheet";
+
+    private final Map<String, CachedFile> driveCache = new ConcurrentHashMap<>();
 
     /**
      * Initialise the drive API.
@@ -53,12 +64,7 @@ public class DriveAPI {
 
 
     public static DriveAPI getDriveAPI(String appName) {
-        var api = nameToAPI.get(appName);
-        if (api == null) {
-            api = new DriveAPI(appName);
-            nameToAPI.put(appName, api);
-        }
-        return api;
+        return nameToAPI.computeIfAbsent(appName, DriveAPI::new);
     }
 
     /**
@@ -98,7 +104,7 @@ public class DriveAPI {
     public String getFileId(String name) {
         Objects.requireNonNull(name);
         var cached = driveCache.get(name);
-        if (cached != null && cached.lastUpdated.plusMinutes(10).isAfter(LocalDateTime.now())) {
+        if (cached != null && cached.lastUpdated.plus(fileIdTimeToLive).isAfter(LocalDateTime.now())) {
             return cached.fileId;
         }
         try {
@@ -171,6 +177,68 @@ public class DriveAPI {
         }
     }
 
+    /**
+     * Find the IDs of many spreadsheets with a single listing of all spreadsheets, so that the following
+     * calls to {@link #getFileId(String)} for these names need no search.
+     * <p>
+     * Names matching more than one file, and names not found, are left for {@link #getFileId(String)}
+     * to resolve or report.
+     *
+     * @param names of the spreadsheets.
+     * @return number of names whose ID was stored.
+     * @throws RuntimeException if something goes wrong.
+     */
+    public int prefetchSpreadsheetIds(Collection<String> names) {
+        var wanted = new HashSet<>(names);
+        if (wanted.isEmpty()) {
+            return 0;
+        }
+        var filesByName = new HashMap<String, List<File>>();
+        try {
+            String pageToken = null;
+            do {
+                FileList fileList = setupDriveService().files().list()
+                        .setQ("mimeType='%s' and trashed=false".formatted(spreadsheetMimeType))
+                        .setFields("nextPageToken, files(id, name, trashed, ownedByMe)")
+                        .setPageSize(1000)
+                        .setPageToken(pageToken)
+                        .execute();
+                pageToken = fileList.getNextPageToken();
+                fileList.getFiles().stream()
+                        .filter(f -> wanted.contains(f.getName()) && !f.getTrashed())
+                        .forEach(f -> filesByName.computeIfAbsent(f.getName(), _ -> new ArrayList<>()).add(f));
+            } while (pageToken != null);
+        } catch (IOException e) {
+            throw new RuntimeException("Couldn't retrieve the list of spreadsheets.", e);
+        }
+        var stored = 0;
+        for (var entry : filesByName.entrySet()) {
+            var name = entry.getKey();
+            var files = entry.getValue();
+            if (files.size() > 1) {
+                files = files.stream().filter(f -> Boolean.TRUE.equals(f.getOwnedByMe())).toList();
+                if (files.size() == 1) {
+                    warnLogger.log(Level.WARNING, "Found more than one file with the name %s, using the single one owned by me with the ID %s.".formatted(name, files.getFirst().getId()));
+                }
+            }
+            if (files.size() == 1) {
+                updateCaches(name, files.getFirst().getId());
+                stored++;
+            }
+        }
+        return stored;
+    }
+
+    /**
+     * Forget the name of a file ID, after Google reported that the file no longer exists.
+     * The next call to {@link #getFileId(String)} searches for the name again.
+     *
+     * @param fileId ID of the file.
+     */
+    public void invalidateFileId(String fileId) {
+        driveCache.values().removeIf(cached -> cached.fileId.equals(fileId));
+    }
+
     private void updateCaches(String name, String fileId) {
         nameForId.put(fileId, name);
         driveCache.put(name, new CachedFile(LocalDateTime.now(), fileId));
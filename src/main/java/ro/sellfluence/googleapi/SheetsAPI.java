@@ -30,14 +30,20 @@ import ro.sellfluence.googleapi.DriveAPI.FileResult;
 import ro.sellfluence.support.Logs;
 
 import java.io.IOException;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
 import java.security.GeneralSecurityException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.logging.Logger;
 import java.util.stream.Collectors;
 
@@ -45,6 +51,8 @@ import static java.util.Objects.requireNonNull;
 import static java.util.logging.Level.INFO;
 import static java.util.logging.Level.WARNING;
 import static ro.sellfluence.googleapi.Credentials.getCredentials;
+import static ro.sellfluence.googleapi.SheetsQuota.Kind.READ;
+import static ro.sellfluence.googleapi.SheetsQuota.Kind.WRITE;
 
 /**
  * This class represents a spreadsheet in Google-Drive.
@@ -80,7 +88,7 @@ public class SheetsAPI {
     /**
      * Cache spreadsheets by app name and ID.
      */
-    private static final Map<String, SheetsAPI> spreadSheets = new HashMap<>();
+    private static final Map<String, SheetsAPI> spreadSheets = new ConcurrentHashMap<>();
 
     /**
      * Get a spreadsheet by its ID.
@@ -139,6 +147,20 @@ public class SheetsAPI {
         return spreadSheets.computeIfAbsent(key, _ -> new SheetsAPI(appName, id, spreadSheetName));
     }
 
+    /**
+     * Look up the IDs of many spreadsheets with one Drive listing, instead of one search for each
+     * name in {@link #getSpreadSheetByName(String, String)}.
+     *
+     * @param appName          name of the application
+     *                         as registered in the <a href="https://console.cloud.google.com/apis/credentials/consent">console</a>
+     * @param spreadSheetNames names of the spreadsheets to be used.
+     */
+    public static void prefetchSpreadSheetIds(String appName, Collection<String> spreadSheetNames) {
+        requireNonNull(appName);
+        var stored = DriveAPI.getDriveAPI(appName).prefetchSpreadsheetIds(spreadSheetNames);
+        logger.log(INFO, () -> "Found the IDs of %d of %d spreadsheets with one listing.".formatted(stored, spreadSheetNames.size()));
+    }
+
     public String getSpreadSheetName() {
         return spreadSheetName;
     }
@@ -151,7 +173,7 @@ public class SheetsAPI {
         requireNonNull(name);
         var spreadsheets = getSheetsService().spreadsheets();
         var get = repeatCellRequest(4, "get(%s)".formatted(spreadSheetId), () -> spreadsheets.get(spreadSheetId));
-        var response = repeatCellRequest(4, "", get::execute);
+        var response = repeatCellRequest(READ, 4, "", get::execute);
         var matchingSheets = response.getSheets().stream()
                 .filter(sheet -> name.equals(sheet.getProperties().getTitle())).toList();
         if (matchingSheets.isEmpty()) {
@@ -179,7 +201,7 @@ public class SheetsAPI {
                     () -> spreadsheets.get(spreadSheetId)
             );
             var response = repeatCellRequest(
-                    5,
+                    READ, 5,
                     "getSheetProperties()",
                     get::execute
             );
@@ -220,6 +242,154 @@ public class SheetsAPI {
         return getSheetProperties().stream().filter(m -> m.index() == index - 1).toList().getFirst().title();
     }
 
+    /**
+     * Some columns of several tabs, read at one point in time.
+     *
+     * @param columnsByTab column values by tab name and column name. Tabs which do not exist are missing.
+     */
+    public record ColumnSnapshot(Map<String, Map<String, List<String>>> columnsByTab) {
+
+        public boolean hasTab(String tabName) {
+            return columnsByTab.containsKey(tabName);
+        }
+
+        /**
+         * Get a column of a tab as it was when the snapshot was read.
+         *
+         * @param tabName    name of the tab.
+         * @param columnName name of the column.
+         * @return the values down to the last non-empty cell, or null if the tab or the column was not read.
+         */
+        public @Nullable List<String> getColumn(String tabName, String columnName) {
+            var columns = columnsByTab.get(tabName);
+            return columns == null ? null : columns.get(columnName);
+        }
+    }
+
+    /**
+     * Maximum total length of the encoded ranges in one batchGet, which keeps the request URL well below the limit.
+     */
+    private static final int maxBatchGetRangesLength = 6_000;
+
+    /**
+     * Read the names of the tabs again, as they may have been changed since they were last read.
+     *
+     * @return names of all tabs.
+     */
+    public Set<String> refreshTabNames() {
+        sheetMetaData = null;
+        return getSheetProperties().stream().map(SheetMetaData::title).collect(Collectors.toSet());
+    }
+
+    /**
+     * Build a range in A1 notation for a tab, quoting the tab name.
+     *
+     * @param tabName name of the tab.
+     * @param cells   cells of the range, e.g. A5:G6.
+     * @return the range.
+     */
+    public static String tabRange(String tabName, String cells) {
+        return "'%s'!%s".formatted(tabName.replace("'", "''"), cells);
+    }
+
+    /**
+     * Read the same columns of many tabs with as few batchGet requests as possible, usually one.
+     * Tabs which do not exist in the spreadsheet are left out of the snapshot.
+     * The tab names are those read by {@link #getSheetProperties()}, use {@link #refreshTabNames()} to read them again.
+     *
+     * @param tabNames    names of the tabs.
+     * @param columnNames names of the columns to read from each tab.
+     * @return snapshot of the columns.
+     */
+    public ColumnSnapshot readColumns(Collection<String> tabNames, String... columnNames) {
+        var existingTabs = getSheetProperties().stream().map(SheetMetaData::title).collect(Collectors.toSet());
+        var tabs = tabNames.stream().distinct().filter(existingTabs::contains).toList();
+        var ranges = new ArrayList<String>();
+        for (var tab : tabs) {
+            for (var column : columnNames) {
+                ranges.add(tabRange(tab, "%1$s:%1$s".formatted(column)));
+            }
+        }
+        var values = batchGet(ranges, COLUMNS, null);
+        var columnsByTab = new LinkedHashMap<String, Map<String, List<String>>>();
+        var i = 0;
+        for (var tab : tabs) {
+            var columns = new HashMap<String, List<String>>();
+            for (var column : columnNames) {
+                var columnValues = values.get(i++);
+                columns.put(column, columnValues.isEmpty() ? List.of() : columnValues.getFirst().stream().map(o -> (String) o).toList());
+            }
+            columnsByTab.put(tab, columns);
+        }
+        return new ColumnSnapshot(columnsByTab);
+    }
+
+    /**
+     * Read many small ranges row by row with as few batchGet requests as possible, usually one.
+     * All ranges must refer to existing tabs.
+     *
+     * @param ranges            ranges in A1 notation.
+     * @param valueRenderOption how the values are rendered, null for formatted values.
+     * @return for each range its rows, without trailing empty rows.
+     */
+    public List<List<List<Object>>> readRanges(List<String> ranges, @Nullable String valueRenderOption) {
+        return batchGet(ranges, ROWS, valueRenderOption);
+    }
+
+    /**
+     * Read the ranges, splitting them over several requests only when the URL would get too long.
+     *
+     * @return for each range the values in the major dimension.
+     */
+    private List<List<List<Object>>> batchGet(List<String> ranges, String majorDimension, @Nullable String valueRenderOption) {
+        var result = new ArrayList<List<List<Object>>>();
+        var from = 0;
+        while (from < ranges.size()) {
+            var to = from;
+            var rangesLength = 0;
+            do {
+                rangesLength += encodedLength(ranges.get(to));
+                to++;
+            } while (to < ranges.size() && rangesLength + encodedLength(ranges.get(to)) <= maxBatchGetRangesLength);
+            result.addAll(batchGetOnce(ranges.subList(from, to), majorDimension, valueRenderOption));
+            from = to;
+        }
+        return result;
+    }
+
+    private static int encodedLength(String range) {
+        return URLEncoder.encode(range, StandardCharsets.UTF_8).length() + "&ranges=".length();
+    }
+
+    private List<List<List<Object>>> batchGetOnce(List<String> ranges, String majorDimension, @Nullable String valueRenderOption) {
+        var inputValues = getSheetsService().spreadsheets().values();
+        var batchGet = repeatCellRequest(
+                4,
+                "batchGet(%s,%d ranges)".formatted(spreadSheetName, ranges.size()),
+                () -> inputValues.batchGet(spreadSheetId)
+        );
+        var command = batchGet.setRanges(List.copyOf(ranges)).setMajorDimension(majorDimension);
+        if (valueRenderOption != null) {
+            command = command.setValueRenderOption(valueRenderOption);
+        }
+        var finalCommand = command;
+        BatchGetValuesResponse response = repeatCellRequest(
+                READ,
+                5,
+                "batchGet(%s,%d ranges)".formatted(spreadSheetName, ranges.size()),
+                finalCommand::execute
+        );
+        var valueRanges = response.getValueRanges();
+        if (valueRanges == null || valueRanges.size() != ranges.size()) {
+            throw new RuntimeException("Expected %d ranges from the spreadsheet %s but got %s.".formatted(
+                    ranges.size(), spreadSheetName, valueRanges == null ? "none" : valueRanges.size()));
+        }
+        // The value ranges are returned in the order of the requested ranges.
+        return valueRanges.stream()
+                .map(valueRange -> valueRange.getValues() == null ? List.<List<Object>>of() : valueRange.getValues())
+                .toList();
+    }
+
     public int getLastRow(String sheetName, String columnName) {
         return getColumn(sheetName, columnName).size();
     }
@@ -229,7 +399,7 @@ public class SheetsAPI {
             var range = "%1$s!%2$s:%2$s".formatted(sheetName, columnName);
             var command = getSheetsService().spreadsheets().values().get(spreadSheetId, range).setMajorDimension(COLUMNS);
             var response = repeatCellRequest(
-                    5,
+                    READ, 5,
                     "getColumn(%s,%s)".formatted(sheetName, columnName),
                     command::execute
             );
@@ -254,7 +424,7 @@ public class SheetsAPI {
             );
             var command = get.setMajorDimension("COLUMNS");
             var response = repeatCellRequest(
-                    5,
+                    READ, 5,
                     "getColumnInChunks(%s,%s, %d)".formatted(sheetName, columnName, chunkSize),
                     command::execute
             );
@@ -277,11 +447,6 @@ public class SheetsAPI {
             }
 
             startRow += chunkSize;
-            try {
-                Thread.sleep(2_000);
-            } catch (InterruptedException e) {
-                throw new RuntimeException(e);
-            }
         }
         return allValues;
     }
@@ -296,7 +461,7 @@ public class SheetsAPI {
         );
         var command = get.setMajorDimension(ROWS);
         var result = repeatCellRequest(
-                5,
+                READ, 5,
                 "getRow(%s,%d)".formatted(sheetName, rowNumber),
                 command::execute
         );
@@ -317,7 +482,7 @@ public class SheetsAPI {
         );
         var command = get.setMajorDimension("ROWS").setValueRenderOption("UNFORMATTED_VALUE").setFields("values");
         var response = repeatCellRequest(
-                5,
+                READ, 5,
                 "getRowAsDates(%s,%d)".formatted(sheetName, rowNumber),
                 command::execute
         );
@@ -338,7 +503,7 @@ public class SheetsAPI {
         );
         var command = getCommand.setMajorDimension(ROWS);
         var response = repeatCellRequest(
-                5,
+                READ, 5,
                 "getRowsInColumnRange(%s,%s,%s)".formatted(sheetName, firstColumn, lastColumns),
                 command::execute
         );
@@ -362,7 +527,7 @@ public class SheetsAPI {
                 .setValueInputOption(USER_ENTERED)
                 .setFields("*");
         return repeatCellRequest(
-                5,
+                WRITE, 5,
                 "updateRange(%s,%s,%s)".formatted(spreadSheetId, range, content),
                 command::execute
         );
@@ -389,12 +554,117 @@ public class SheetsAPI {
                 () -> inputValues.batchUpdate(spreadSheetId, body)
         );
         return repeatCellRequest(
-                5,
+                WRITE, 5,
                 "updateRanges(%s,%s)".formatted(rows, Arrays.toString(ranges)),
                 update::execute
         );
     }
 
+    /**
+     * Result of flushing a {@link WriteBuffer}.
+     *
+     * @param ranges number of ranges written, each of which would have been one updateRange call.
+     * @param calls  number of batchUpdate calls made.
+     */
+    public record FlushResult(int ranges, int calls) {
+
+        public int savedCalls() {
+            return ranges - calls;
+        }
+    }
+
+    /**
+     * Approximate maximum size of one batchUpdate request in characters, below the recommended payload size of 2 MB.
+     */
+    private static final int maxBatchUpdateSize = 1_500_000;
+
+    /**
+     * Create a buffer collecting range updates of this spreadsheet.
+     *
+     * @return new empty buffer.
+     */
+    public WriteBuffer newWriteBuffer() {
+        return new WriteBuffer();
+    }
+
+    /**
+     * Collects range updates for this spreadsheet and writes them with as few batchUpdate calls as possible.
+     * Nothing is written before {@link #flush()} is called. A buffer is meant to be used by one thread.
+     */
+    public final class WriteBuffer {
+        private final List<ValueRange> pending = new ArrayList<>();
+        private final List<Integer> pendingSizes = new ArrayList<>();
+
+        private WriteBuffer() {
+        }
+
+        /**
+         * Queue the update of a range.
+         *
+         * @param range  range in A1 notation.
+         * @param values rows of values.
+         */
+        public void updateRange(String range, List<List<Object>> values) {
+            pending.add(new ValueRange().setRange(range).setMajorDimension(ROWS).setValues(values));
+            pendingSizes.add(estimateSize(range, values));
+        }
+
+        public int pendingRanges() {
+            return pending.size();
+        }
+
+        /**
+         * Write all queued ranges. A request is only split when it would get too large.
+         *
+         * @return number of ranges written and calls made.
+         */
+        public FlushResult flush() {
+            var ranges = pending.size();
+            var calls = 0;
+            var from = 0;
+            while (from < ranges) {
+                var to = from;
+                var size = 0;
+                do {
+                    size += pendingSizes.get(to);
+                    to++;
+                } while (to < ranges && size + pendingSizes.get(to) <= maxBatchUpdateSize);
+                batchUpdate(pending.subList(from, to));
+                calls++;
+                from = to;
+            }
+            pending.clear();
+            pendingSizes.clear();
+            return new FlushResult(ranges, calls);
+        }
+
+        private static int estimateSize(String range, List<List<Object>> values) {
+            var size = range.length() + 32;
+            for (var row : values) {
+                size += 2;
+                for (var value : row) {
+                    size += String.valueOf(value).length() + 3;
+                }
+            }
+            return size;
+        }
+    }
+
+    private BatchUpdateValuesResponse batchUpdate(List<ValueRange> data) {
+        var body = new BatchUpdateValuesRequest().setValueInputOption(USER_ENTERED).setData(List.copyOf(data));
+        var inputValues = getSheetsService().spreadsheets().values();
+        var update = repeatCellRequest(
+                4,
+                "batchUpdate(%s,%d ranges)".formatted(spreadSheetName, data.size()),
+                () -> inputValues.batchUpdate(spreadSheetId, body)
+        );
+        return repeatCellRequest(
+                WRITE, 5,
+                "flush(%s,%d ranges)".formatted(spreadSheetName, data.size()),
+                update::execute
+        );
+    }
+
     /**
      * Updates part of a sheet column.
      *
@@ -452,7 +722,7 @@ public class SheetsAPI {
                 () -> spreadsheets.batchUpdate(spreadSheetId, body)
         );
         return repeatCellRequest(
-                5,
+                WRITE, 5,
                 "formatDate(%s,%d,%d,%d,%d)".formatted(spreadSheetId, startColumn, endColumn, startRow, endRow),
                 batchUpdate::execute
         );
@@ -497,7 +767,7 @@ public class SheetsAPI {
                 () -> spreadsheets.batchUpdate(spreadSheetId, body)
         );
         return repeatCellRequest(
-                5,
+                WRITE, 5,
                 "formatPercentage(%s,%d,%d,%d,%d)".formatted(tabName, startColumn, endColumn, startRow, endRow),
                 batchUpdate::execute
         );
@@ -534,7 +804,7 @@ public class SheetsAPI {
         try {
             var batchUpdate = getSheetsService().spreadsheets().batchUpdate(spreadSheetId, body);
             return repeatCellRequest(
-                    4,
+                    WRITE, 4,
                     "formatAsCheckboxes(%s,%d,%d,%d,%d)".formatted(spreadSheetId, startColumn, endColumn, startRow, endRow),
                     batchUpdate::execute
             );
@@ -555,12 +825,35 @@ public class SheetsAPI {
         T execute() throws IOException;
     }
 
+    /**
+     * Prepare a request, which does not contact Google yet.
+     */
     private <T> T repeatCellRequest(int maxRepetition, String callerDescription, Caller<T> caller) {
+        return repeatCellRequest(null, maxRepetition, callerDescription, caller);
+    }
+
+    /**
+     * Execute a call, retrying it on I/O errors.
+     * <p>
+     * Calls sending a request to Google pass its kind and wait for the {@link SheetsQuota} before each attempt.
+     * If Google answers that the quota is exceeded, the shared quota pauses all requests of that kind,
+     * otherwise the call is repeated after an increasing delay.
+     *
+     * @param kind              of request, or null if the call does not contact Google.
+     * @param maxRepetition     maximum number of attempts.
+     * @param callerDescription for messages.
+     * @param caller            the call.
+     * @return the result of the call.
+     */
+    private <T> T repeatCellRequest(SheetsQuota.@Nullable Kind kind, int maxRepetition, String callerDescription, Caller<T> caller) {
         var retryCount = maxRepetition;
         var retryDelay = 5_000;
         T result = null;
         while (retryCount > 0) {
             try {
+                if (kind != null) {
+                    SheetsQuota.shared().acquire(kind);
+                }
                 var t0 = System.currentTimeMillis();
                 result = caller.execute();
                 var t1 = System.currentTimeMillis();
@@ -568,16 +861,32 @@ public class SheetsAPI {
                     logger.log(WARNING, "Slow call to %s. Time: %d ms".formatted(callerDescription, t1 - t0));
                 }
                 retryCount = 0;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException("Interrupted while waiting for the quota in %s".formatted(callerDescription), e);
             } catch (IOException e) {
+                var quotaExceeded = false;
                 if (e instanceof GoogleJsonResponseException g) {
                     if (g.getStatusCode() == 400) {
                         throw new RuntimeException("Bad request. %s on sheet %s".formatted(g.getDetails().getMessage(), spreadSheetName), e);
                     }
+                    if (g.getStatusCode() == 404) {
+                        // The spreadsheet was deleted or replaced, the next lookup by name must search for it again.
+                        DriveAPI.getDriveAPI(appName).invalidateFileId(spreadSheetId);
+                        spreadSheets.remove("%s\t%s".formatted(appName, spreadSheetId));
+                        throw new RuntimeException("Spreadsheet %s not found in %s".formatted(spreadSheetName, callerDescription), e);
+                    }
+                    quotaExceeded = g.getStatusCode() == 429 && kind != null;
                 }
                 retryCount--;
                 if (retryCount == 0) {
                     throw new RuntimeException("Issue in %s".formatted(callerDescription), e);
                 }
+                if (quotaExceeded) {
+                    SheetsQuota.shared().recordQuotaExceeded(kind);
+                    logger.log(WARNING, "Quota exceeded in %s. Retry count %d".formatted(callerDescription, retryCount));
+                    continue;
+                }
                 logger.log(WARNING, "IOException. Retrying after %d s. Retry count %d".formatted(retryDelay / 1000, retryCount));
                 try {
                     Thread.sleep(retryDelay);
@@ -620,7 +929,7 @@ public class SheetsAPI {
         );
         var command = batchGet.setRanges(ranges).setMajorDimension(COLUMNS).setValueRenderOption(UNFORMATTED_VALUE);
         BatchGetValuesResponse response = repeatCellRequest(
-                5,
+                READ, 5,
                 "getMultipleColumns(%s,%s)".formatted(spreadSheetId, String.join(",", columns)),
                 command::execute
         );
@@ -0,0 +1,126 @@
+package ro.sellfluence.googleapi;
+
+import java.util.function.LongSupplier;
+import java.util.logging.Logger;
+
+import static java.util.concurrent.TimeUnit.MINUTES;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+import static java.util.logging.Level.WARNING;
+
+/**
+ * Rate limiter for the Google Sheets API, shared by all spreadsheets and threads of the application.
+ * <p>
+ * Read and write requests take a token from separate buckets, as Google counts them against separate
+ * per-minute quotas. The buckets are refilled a little below the quota, and the burst is small enough that
+ * no minute exceeds it. When Google still answers that the quota is exceeded, the bucket of that kind goes
+ * into debt, so that all threads pause instead of each one sleeping on its own.
+ */
+public class SheetsQuota {
+
+    private static final Logger logger = Logger.getLogger(SheetsQuota.class.getName());
+
+    /**
+     * Default quota of Google for read and for write requests per minute and user.
+     */
+    static final int QUOTA_PER_MINUTE = 60;
+
+    static final double REQUESTS_PER_MINUTE = 50.0;
+    static final double BURST = 10.0;
+
+    /**
+     * Tokens owed after each quota exceeded answer, in addition to an empty bucket.
+     */
+    static final double PENALTY = 15.0;
+
+    public enum Kind {
+        READ,
+        WRITE
+    }
+
+    @FunctionalInterface
+    interface Sleeper {
+        void sleep(long milliseconds) throws InterruptedException;
+    }
+
+    private static final SheetsQuota shared = new SheetsQuota(Thread::sleep, System::nanoTime);
+
+    private final Sleeper sleeper;
+    private final LongSupplier nanoClock;
+    private final double[] tokens = new double[Kind.values().length];
+    private final long[] lastRefill = new long[Kind.values().length];
+
+    SheetsQuota(Sleeper sleeper, LongSupplier nanoClock) {
+        this.sleeper = sleeper;
+        this.nanoClock = nanoClock;
+        var now = nanoClock.getAsLong();
+        for (var kind : Kind.values()) {
+            tokens[kind.ordinal()] = BURST;
+            lastRefill[kind.ordinal()] = now;
+        }
+    }
+
+    /**
+     * Get the limiter used by all {@link SheetsAPI} instances.
+     *
+     * @return the shared instance.
+     */
+    public static SheetsQuota shared() {
+        return shared;
+    }
+
+    /**
+     * Wait until a request of the kind may be sent.
+     *
+     * @param kind of request.
+     * @throws InterruptedException if interrupted while waiting.
+     */
+    public void acquire(Kind kind) throws InterruptedException {
+        while (true) {
+            long waitMilliseconds;
+            synchronized (this) {
+                refill(kind, nanoClock.getAsLong());
+                var available = tokens[kind.ordinal()];
+                if (available >= 1.0) {
+                    tokens[kind.ordinal()] = available - 1.0;
+                    return;
+                }
+                waitMilliseconds = Math.max(1, (long) Math.ceil((1.0 - available) * MINUTES.toMillis(1) / REQUESTS_PER_MINUTE));
+            }
+            sleeper.sleep(waitMilliseconds);
+        }
+    }
+
+    /**
+     * Record that Google rejected a request because the quota was exceeded.
+     * Repeated rejections increase the pause up to about one minute.
+     *
+     * @param kind of the rejected request.
+     */
+    public synchronized void recordQuotaExceeded(Kind kind) {
+        refill(kind, nanoClock.getAsLong());
+        var owed = Math.max(-REQUESTS_PER_MINUTE, Math.min(0.0, tokens[kind.ordinal()]) - PENALTY);
+        tokens[kind.ordinal()] = owed;
+        logger.log(WARNING, "Google Sheets %s quota exceeded, pausing these requests for %d s."
+                .formatted(kind, Math.round(-owed * 60 / REQUESTS_PER_MINUTE)));
+    }
+
+    /**
+     * Get the tokens currently available.
+     *
+     * @param kind of request.
+     * @return number of tokens, negative while paused after a rejection.
+     */
+    public synchronized double availableTokens(Kind kind) {
+        refill(kind, nanoClock.getAsLong());
+        return tokens[kind.ordinal()];
+    }
+
+    private void refill(Kind kind, long now) {
+        var index = kind.ordinal();
+        var elapsedNanos = now - lastRefill[index];
+        if (elapsedNanos > 0) {
+            tokens[index] = Math.min(BURST, tokens[index] + REQUESTS_PER_MINUTE * elapsedNanos / NANOSECONDS.convert(1, MINUTES));
+            lastRefill[index] = now;
+        }
+    }
+}
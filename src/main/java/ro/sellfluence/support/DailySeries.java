@@ -0,0 +1,77 @@
+package ro.sellfluence.support;
+
+import java.time.LocalDate;
+import java.util.Map;
+
+/**
+ * Values for each day of a date range, held in a primitive array indexed by the day within the range.
+ * Days without a value are 0.
+ */
+public class DailySeries {
+    private final LocalDate first;
+    private final long[] values;
+
+    /**
+     * Create a series with all values 0.
+     *
+     * @param first first day of the range.
+     * @param endExclusive first day after the range.
+     */
+    public DailySeries(LocalDate first, LocalDate endExclusive) {
+        this.first = first;
+        values = new long[Math.toIntExact(Math.max(0, endExclusive.toEpochDay() - first.toEpochDay()))];
+    }
+
+    /**
+     * Create a series from a map, ignoring the days outside the range.
+     *
+     * @param valuesByDate values, missing days are 0.
+     * @param first first day of the range.
+     * @param endExclusive first day after the range.
+     * @return the series.
+     */
+    public static DailySeries of(Map<LocalDate, ? extends Number> valuesByDate, LocalDate first, LocalDate endExclusive) {
+        var series = new DailySeries(first, endExclusive);
+        valuesByDate.forEach((date, value) -> {
+            if (value != null) {
+                series.add(date, value.longValue());
+            }
+        });
+        return series;
+    }
+
+    /**
+     * Add to the value of a day.
+     *
+     * @param date day to which the value is added, ignored if outside the range.
+     * @param value to add.
+     */
+    public void add(LocalDate date, long value) {
+        var index = indexOf(date);
+        if (index >= 0 && index < values.length) {
+            values[index] += value;
+        }
+    }
+
+    public int size() {
+        return values.length;
+    }
+
+    public long get(int index) {
+        return values[index];
+    }
+
+    public LocalDate date(int index) {
+        return first.plusDays(index);
+    }
+
+    /**
+     * Get the index of a day.
+     *
+     * @param date day to look up.
+     * @return index, which is negative or not less than {@link #size()} for days outside the range.
+     */
+    public int indexOf(LocalDate date) {
+        return Math.toIntExact(date.toEpochDay() - first.toEpochDay());
+    }
+}
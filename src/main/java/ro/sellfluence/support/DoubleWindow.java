@@ -27,6 +27,16 @@ public class DoubleWindow {
         return sum;
     }
 
+    /**
+     * Mean of the values in the window.
+     *
+     * @return the mean, NaN if no value was added yet.
+     */
+    public double getMean() {
+        var count = full ? window.length : pointer;
+        return count == 0 ? Double.NaN : sum / count;
+    }
+
     public boolean isFull() {
         return full;
     }
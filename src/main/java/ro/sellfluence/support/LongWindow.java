@@ -0,0 +1,49 @@
+package ro.sellfluence.support;
+
+/**
+ * Sum and mean over the last values added, like {@link DoubleWindow} for integral values.
+ */
+public class LongWindow {
+    private long sum = 0;
+    private final long[] window;
+    private boolean full = false;
+    private int pointer = 0;
+
+    public LongWindow(int windowSize) {
+        if (windowSize <= 0) {
+            throw new IllegalArgumentException("windowSize must be > 0");
+        }
+        window = new long[windowSize];
+    }
+
+    public void add(long value) {
+        if (full) {
+            sum -= window[pointer];
+        }
+        window[pointer] = value;
+        pointer++;
+        if (pointer == window.length) {
+            pointer = 0;
+            full = true;
+        }
+        sum += value;
+    }
+
+    public long getSum() {
+        return sum;
+    }
+
+    /**
+     * Mean of the values in the window.
+     *
+     * @return the mean, NaN if no value was added yet.
+     */
+    public double getMean() {
+        var count = full ? window.length : pointer;
+        return count == 0 ? Double.NaN : (double) sum / count;
+    }
+
+    public boolean isFull() {
+        return full;
+    }
+}
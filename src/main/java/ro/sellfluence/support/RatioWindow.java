@@ -0,0 +1,41 @@
+package ro.sellfluence.support;
+
+/**
+ * Ratio of two sums over the same window, for example returns over orders of the last 90 days.
+ */
+public class RatioWindow {
+    private final LongWindow numerator;
+    private final LongWindow denominator;
+
+    public RatioWindow(int windowSize) {
+        numerator = new LongWindow(windowSize);
+        denominator = new LongWindow(windowSize);
+    }
+
+    public void add(long numeratorValue, long denominatorValue) {
+        numerator.add(numeratorValue);
+        denominator.add(denominatorValue);
+    }
+
+    public long getNumeratorSum() {
+        return numerator.getSum();
+    }
+
+    public long getDenominatorSum() {
+        return denominator.getSum();
+    }
+
+    /**
+     * Ratio of the sums in the window.
+     *
+     * @return the ratio, NaN if the denominator sum is 0.
+     */
+    public double getRatio() {
+        var denominatorSum = denominator.getSum();
+        return denominatorSum == 0 ? Double.NaN : (double) numerator.getSum() / denominatorSum;
+    }
+
+    public boolean isFull() {
+        return numerator.isFull();
+    }
+}
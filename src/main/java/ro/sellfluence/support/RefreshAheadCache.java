@@ -0,0 +1,235 @@
+package ro.sellfluence.support;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+import java.util.logging.Logger;
+
+import static java.util.logging.Level.WARNING;
+
+/**
+ * Thread safe cache, which loads the value of a key only once, even when many threads ask for it at the same time.
+ * <p>
+ * A value is reloaded in the background when it is requested after the refresh time, while the old value is
+ * still returned. After the expiry time, the value is reloaded before returning it.
+ * When the cache holds more than the maximum number of entries, the least recently used ones are removed.
+ *
+ * @param <K> type of the key.
+ * @param <V> type of the value.
+ */
+public class RefreshAheadCache<K, V> {
+
+    private static final Logger logger = Logger.getLogger(RefreshAheadCache.class.getName());
+
+    public interface Loader<K, V> {
+        V load(K key) throws Exception;
+    }
+
+    /**
+     * Counters since the cache was created.
+     *
+     * @param hits number of requests answered from the cache.
+     * @param misses number of requests which had to wait for a load.
+     * @param loads number of completed loads, including the refreshes.
+     * @param failedLoads number of loads which threw an exception.
+     * @param averageLoadMilliseconds average time of a load.
+     * @param size current number of entries.
+     */
+    public record Stats(long hits, long misses, long loads, long failedLoads, double averageLoadMilliseconds,
+                        int size) {
+    }
+
+    private final class Entry {
+        private final K key;
+        private volatile CompletableFuture<V> value = new CompletableFuture<>();
+        private volatile long loadedAt;
+        private volatile long lastAccess;
+        private final AtomicBoolean refreshing = new AtomicBoolean();
+
+        private Entry(K key) {
+            this.key = key;
+        }
+    }
+
+    private final String name;
+    private final int maxEntries;
+    private final long expireAfterNanos;
+    private final long refreshAfterNanos;
+    private final Loader<K, V> loader;
+    private final Executor refreshExecutor;
+    private final LongSupplier nanoClock;
+    private final Map<K, Entry> entries = new ConcurrentHashMap<>();
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong loads = new AtomicLong();
+    private final AtomicLong failedLoads = new AtomicLong();
+    private final AtomicLong loadNanos = new AtomicLong();
+
+    /**
+     * Create a cache refreshing the values on virtual threads.
+     *
+     * @param name used in log messages.
+     * @param maxEntries maximum number of keys held.
+     * @param expireAfter age after which a value is no longer returned.
+     * @param refreshAfter age after which a value is reloaded in the background.
+     * @param loader reads the value for a key.
+     */
+    public RefreshAheadCache(String name, int maxEntries, Duration expireAfter, Duration refreshAfter, Loader<K, V> loader) {
+        this(name, maxEntries, expireAfter, refreshAfter, loader, Executors.newVirtualThreadPerTaskExecutor(), System::nanoTime);
+    }
+
+    public RefreshAheadCache(String name, int maxEntries, Duration expireAfter, Duration refreshAfter, Loader<K, V> loader,
+                             Executor refreshExecutor, LongSupplier nanoClock) {
+        if (maxEntries <= 0) {
+            throw new IllegalArgumentException("maxEntries must be > 0");
+        }
+        if (refreshAfter.compareTo(expireAfter) > 0) {
+            throw new IllegalArgumentException("refreshAfter must not be longer than expireAfter");
+        }
+        this.name = name;
+        this.maxEntries = maxEntries;
+        this.expireAfterNanos = expireAfter.toNanos();
+        this.refreshAfterNanos = refreshAfter.toNanos();
+        this.loader = loader;
+        this.refreshExecutor = refreshExecutor;
+        this.nanoClock = nanoClock;
+    }
+
+    /**
+     * Get the value for a key, loading it if needed.
+     *
+     * @param key to look up.
+     * @return the value.
+     * @throws RuntimeException if the value could not be loaded.
+     */
+    public V get(K key) {
+        var now = nanoClock.getAsLong();
+        var created = new AtomicBoolean();
+        var entry = entries.computeIfAbsent(key, k -> {
+            created.set(true);
+            return new Entry(k);
+        });
+        entry.lastAccess = now;
+        if (created.get()) {
+            misses.incrementAndGet();
+            evictIfNeeded();
+            load(entry, entry.value);
+        } else {
+            var current = entry.value;
+            if (!current.isDone()) {
+                // Another thread is loading the value.
+                misses.incrementAndGet();
+            } else if (current.isCompletedExceptionally() || now - entry.loadedAt >= expireAfterNanos) {
+                misses.incrementAndGet();
+                reload(entry, current);
+            } else {
+                hits.incrementAndGet();
+                if (now - entry.loadedAt >= refreshAfterNanos && entry.refreshing.compareAndSet(false, true)) {
+                    refreshExecutor.execute(() -> refresh(entry));
+                }
+            }
+        }
+        try {
+            return entry.value.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while loading %s for %s".formatted(name, key), e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException("Could not load %s for %s".formatted(name, key), e.getCause());
+        }
+    }
+
+    /**
+     * Remove all entries, so that the next request reads the value again.
+     */
+    public void invalidateAll() {
+        entries.clear();
+    }
+
+    public Stats stats() {
+        var loadCount = loads.get();
+        return new Stats(
+                hits.get(),
+                misses.get(),
+                loadCount,
+                failedLoads.get(),
+                loadCount == 0 ? 0.0 : loadNanos.get() / 1e6 / loadCount,
+                entries.size()
+        );
+    }
+
+    /**
+     * Replace an expired or failed value; only the first thread noticing it loads, the others wait for it.
+     */
+    private void reload(Entry entry, CompletableFuture<V> expired) {
+        CompletableFuture<V> future;
+        synchronized (entry) {
+            if (entry.value != expired) {
+                return;
+            }
+            future = new CompletableFuture<>();
+            entry.value = future;
+        }
+        load(entry, future);
+    }
+
+    private void refresh(Entry entry) {
+        try {
+            var start = nanoClock.getAsLong();
+            var value = loader.load(entry.key);
+            recordLoad(start);
+            synchronized (entry) {
+                if (entry.value.isDone()) {
+                    entry.value = CompletableFuture.completedFuture(value);
+                    entry.loadedAt = nanoClock.getAsLong();
+                }
+            }
+        } catch (Exception e) {
+            failedLoads.incrementAndGet();
+            logger.log(WARNING, "Refreshing %s for %s failed, keeping the old value.".formatted(name, entry.key), e);
+        } finally {
+            entry.refreshing.set(false);
+        }
+    }
+
+    private void load(Entry entry, CompletableFuture<V> future) {
+        var start = nanoClock.getAsLong();
+        try {
+            var value = loader.load(entry.key);
+            recordLoad(start);
+            entry.loadedAt = nanoClock.getAsLong();
+            future.complete(value);
+        } catch (Exception e) {
+            failedLoads.incrementAndGet();
+            future.completeExceptionally(e);
+        }
+    }
+
+    private void recordLoad(long start) {
+        loads.incrementAndGet();
+        loadNanos.addAndGet(nanoClock.getAsLong() - start);
+    }
+
+    private void evictIfNeeded() {
+        while (entries.size() > maxEntries) {
+            Entry oldest = null;
+            for (var entry : entries.values()) {
+                if (oldest == null || entry.lastAccess - oldest.lastAccess < 0) {
+                    oldest = entry;
+                }
+            }
+            if (oldest == null) {
+                return;
+            }
+            entries.remove(oldest.key, oldest);
+        }
+    }
+}
@@ -4,8 +4,15 @@ import org.apache.commons.statistics.distribution.NormalDistribution;
 
 import java.time.YearMonth;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class Statistics {
+
+    /**
+     * z critical values by confidence level, as inverting the normal distribution is expensive.
+     */
+    private static final Map<Double, Double> zValues = new ConcurrentHashMap<>();
+
     public static Estimate estimateRateOrNull(long part, long total, double confidenceLevel) {
         if (total <= 0 || part < 0 || part > total) {
             return null;
@@ -54,6 +61,10 @@ public class Statistics {
      * z = Phi^{-1}(0.975) ~= 1.96
      */
     private static double zValue(double confidenceLevel) {
+        return zValues.computeIfAbsent(confidenceLevel, Statistics::computeZValue);
+    }
+
+    private static double computeZValue(double confidenceLevel) {
         double alpha = 1.0 - confidenceLevel;
         double quantile = 1.0 - alpha / 2.0;
 
@@ -84,14 +95,43 @@ public class Statistics {
      */
     public static Estimate estimateRate(long part, long total, double confidenceLevel) {
         validateInputs(total, part, confidenceLevel);
+        // z critical value for the requested confidence level (about 1.96 for 95%).
+        return wilson(part, total, zValue(confidenceLevel));
+    }
 
+    /**
+     * Computes Wilson confidence intervals for many rates with the same confidence level.
+     * The z critical value is looked up only once.
+     */
+    public static final class RateEstimator {
+        private final double z;
+
+        public RateEstimator(double confidenceLevel) {
+            validateInputs(1, 0, confidenceLevel);
+            z = zValue(confidenceLevel);
+        }
+
+        /**
+         * Same as {@link Statistics#estimateRateOrNull(long, long, double)} with the confidence level of this estimator.
+         *
+         * @param part  part (e.g. returned products).
+         * @param total total amount (e.g. shipped products).
+         * @return estimate or null if part and total do not form a valid rate.
+         */
+        public Estimate estimateOrNull(long part, long total) {
+            if (total <= 0 || part < 0 || part > total) {
+                return null;
+            }
+            return wilson(part, total, z);
+        }
+    }
+
+    private static Estimate wilson(long part, long total, double z) {
         // Sample size: the number of observations the rate is based on.
         double n = total;
         // Observed proportion in the sample, e.g. returned / shipped.
         double pHat = (double) part / n;
 
-        // z critical value for the requested confidence level (about 1.96 for 95%).
-        double z = zValue(confidenceLevel);
         // z^2 appears multiple times in the Wilson interval formula, so compute it once.
         double z2 = z * z;
 
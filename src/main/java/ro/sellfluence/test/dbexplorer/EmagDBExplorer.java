@@ -202,7 +202,7 @@ public class EmagDBExplorer {
 
     private static void showGMVTable(ActionEvent actionEvent) {
         try {
-            var data = emagMirrorDB.getGMVTable();
+            var data = emagMirrorDB.readGMVMatrix();
             if (gmvPanel == null) {
                 gmvPanel = new GMVTable();
             }
@@ -1,5 +1,6 @@
 package ro.sellfluence.test.dbexplorer;
 
+import ro.sellfluence.db.GMVMatrix;
 import ro.sellfluence.db.ProductTable.ProductInfo;
 
 import javax.swing.JPanel;
@@ -129,7 +130,24 @@ public class GMVTable extends JPanel {
                 tableData[r][c] = gmvData.getOrDefault(sortedMonths.get(c), BigDecimal.ZERO);
             }
         }
+        showData(sortedProducts, sortedMonths, columnNames, tableData);
+    }
+
+    public void updateData(GMVMatrix matrix) {
+        List<ProductInfo> sortedProducts = matrix.products();
+        List<YearMonth> sortedMonths = matrix.months();
+        Object[] columnNames = sortedMonths.stream().map(YearMonth::toString).toArray();
+        Object[][] tableData = new Object[sortedProducts.size()][sortedMonths.size()];
+        for (int r = 0; r < sortedProducts.size(); r++) {
+            for (int c = 0; c < sortedMonths.size(); c++) {
+                var gmv = matrix.gmv(r, c);
+                tableData[r][c] = gmv != null ? gmv : BigDecimal.ZERO;
+            }
+        }
+        showData(sortedProducts, sortedMonths, columnNames, tableData);
+    }
 
+    private void showData(List<ProductInfo> sortedProducts, List<YearMonth> sortedMonths, Object[] columnNames, Object[][] tableData) {
         mainModel.setDataVector(tableData, columnNames);
 
         // Set the row header table (1 column: product names)
@@ -0,0 +1,73 @@
+package ro.sellfluence.api;
+
+import org.junit.jupiter.api.Test;
+import ro.sellfluence.support.Statistics;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class MonthStatsKernelTest {
+
+    @Test
+    void windowSumsCoverThePrecedingMonths() {
+        int[] orders = {10, 20, 30, 40};
+        int[] returns = {1, 2, 3, 4};
+        int[] storno = {2, 2, 4, 4};
+
+        var stats = MonthStatsKernel.compute(orders, returns, storno, 1, 4, 2, 0.95);
+
+        assertEquals(2, stats[0].length);
+        assertEquals(30, stats[0][0].orderCount());
+        assertEquals(3, stats[0][0].returnCount());
+        assertEquals(4, stats[0][0].stornoCount());
+        assertEquals(1, stats[0][0].refusedCount());
+        assertEquals(50, stats[0][1].orderCount());
+        assertEquals(Statistics.estimateRate(5, 50, 0.95), stats[0][1].returnRate());
+    }
+
+    @Test
+    void monthsWithoutOrdersHaveNoRates() {
+        var stats = MonthStatsKernel.compute(new int[3], new int[3], new int[3], 1, 3, 1, 0.9);
+
+        assertNull(stats[0][1].returnRate());
+        assertNull(stats[0][1].stornoRate());
+        assertNull(stats[0][1].refusedRate());
+    }
+
+    @Test
+    void parallelGridMatchesTheSingleRates() {
+        var random = new Random(7);
+        var rows = 1_000;
+        var months = 27;
+        var orders = new int[rows * months];
+        var returns = new int[orders.length];
+        var storno = new int[orders.length];
+        for (int i = 0; i < orders.length; i++) {
+            orders[i] = random.nextInt(50);
+            returns[i] = random.nextInt(5);
+            storno[i] = returns[i] + random.nextInt(5);
+        }
+
+        var stats = MonthStatsKernel.compute(orders, returns, storno, rows, months, 3, 0.95);
+
+        for (int r = 0; r < rows; r += 97) {
+            for (int m = 3; m < months; m++) {
+                var o = 0;
+                var ret = 0;
+                var s = 0;
+                for (int k = m - 3; k < m; k++) {
+                    o += orders[r * months + k];
+                    ret += returns[r * months + k];
+                    s += storno[r * months + k];
+                }
+                var cell = stats[r][m - 3];
+                assertEquals(o, cell.orderCount());
+                assertEquals(Statistics.estimateRateOrNull(ret, o, 0.95), cell.returnRate());
+                assertEquals(Statistics.estimateRateOrNull(s, o, 0.95), cell.stornoRate());
+                assertEquals(Statistics.estimateRateOrNull(s - ret, o, 0.95), cell.refusedRate());
+            }
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package ro.sellfluence.app;
+
+import org.junit.jupiter.api.Test;
+import ro.sellfluence.emagapi.OrderResult;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class EmagDBAppTest {
+
+    private final List<List<String>> requests = new ArrayList<>();
+    private final List<String> stored = new ArrayList<>();
+
+    @Test
+    void requestsMissingOrdersOfAGroupIndividually() throws Exception {
+        var transferred = EmagDBApp.transferOrdersById(
+                "account",
+                List.of("1", "2", "3"),
+                (ids, pageConsumer) -> {
+                    requests.add(ids);
+                    pageConsumer.accept(ids.stream().filter(id -> ids.size() == 1 || !id.equals("2")).map(EmagDBAppTest::order).toList());
+                },
+                this::store
+        );
+
+        assertEquals(List.of(List.of("1", "2", "3"), List.of("2")), requests);
+        assertEquals(List.of("1", "3", "2"), stored);
+        assertEquals(3, transferred);
+    }
+
+    @Test
+    void fallsBackToSingleRequestsWhenTheIdFilterIsIgnored() throws Exception {
+        var orderIds = IntStream.rangeClosed(1, 2 * EmagDBApp.orderIdsPerRequest + 50).mapToObj(Integer::toString).toList();
+
+        var transferred = EmagDBApp.transferOrdersById(
+                "account",
+                orderIds,
+                (ids, pageConsumer) -> {
+                    requests.add(ids);
+                    if (ids.size() == 1) {
+                        pageConsumer.accept(List.of(order(ids.getFirst())));
+                    } else {
+                        // eMAG answers with all orders, ignoring the filter. The second page must not be read.
+                        pageConsumer.accept(List.of(order("other")));
+                        pageConsumer.accept(List.of(order("more")));
+                    }
+                },
+                this::store
+        );
+
+        assertEquals(orderIds.size() + 1, requests.size());
+        assertEquals(EmagDBApp.orderIdsPerRequest, requests.getFirst().size());
+        assertTrue(requests.stream().skip(1).allMatch(ids -> ids.size() == 1));
+        assertEquals(orderIds, requests.stream().skip(1).map(List::getFirst).toList());
+        assertEquals("other", stored.getFirst());
+        assertEquals(orderIds.size() + 1, transferred);
+    }
+
+    private int store(List<OrderResult> page) {
+        page.forEach(order -> stored.add(order.id()));
+        return page.size();
+    }
+
+    private static OrderResult order(String id) {
+        var date = LocalDateTime.of(2026, 10, 1, 12, 0);
+        return new OrderResult(
+                "Vendor", id, 4, 1, 2, "online", 1, "courier", "courier", null,
+                null, date, 1, BigDecimal.TEN, null, null, null, null, null, null,
+                null, false, null, null, null, null, null, null, null, null,
+                0, null, null, null, 0, 0, date, date, null, "RON"
+        );
+    }
+}
@@ -0,0 +1,84 @@
+package ro.sellfluence.app;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ResponseCacheTest {
+
+    private final AtomicReference<Instant> clock = new AtomicReference<>(Instant.parse("2026-10-17T10:15:30.500Z"));
+    private final AtomicInteger computations = new AtomicInteger();
+    private final ResponseCache cache = new ResponseCache(10, Duration.ofHours(1), clock::get);
+
+    private String compute() {
+        return "{\"n\":" + computations.incrementAndGet() + "}";
+    }
+
+    @Test
+    void answerIsComputedOnceUntilInvalidated() throws Exception {
+        var first = cache.get("/app/x", this::compute);
+        var second = cache.get("/app/x", this::compute);
+        assertSame(first, second);
+
+        cache.invalidate();
+        var third = cache.get("/app/x", this::compute);
+
+        assertEquals("{\"n\":2}", new String(third.json(), StandardCharsets.UTF_8));
+        assertNotEquals(first.etag(), third.etag());
+        assertEquals(new ResponseCache.Stats(1, 1, 2, 1), cache.stats());
+    }
+
+    @Test
+    void answerIsComputedAgainAfterMaxAge() throws Exception {
+        cache.get("/app/x", this::compute);
+        clock.set(clock.get().plus(Duration.ofMinutes(61)));
+
+        cache.get("/app/x", this::compute);
+
+        assertEquals(2, computations.get());
+    }
+
+    @Test
+    void failedComputationIsNotCached() throws Exception {
+        assertNull(cache.get("/app/x", () -> null));
+
+        assertEquals("{\"n\":1}", new String(cache.get("/app/x", this::compute).json(), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void gzipBodyHoldsTheJson() throws Exception {
+        var body = cache.get("/app/x", this::compute);
+
+        try (var in = new GZIPInputStream(new ByteArrayInputStream(body.gzip()))) {
+            assertEquals("{\"n\":1}", new String(in.readAllBytes(), StandardCharsets.UTF_8));
+        }
+    }
+
+    @Test
+    void conditionalHeadersAreMatched() throws Exception {
+        var body = cache.get("/app/x", this::compute);
+        var strongTag = body.etag().substring(2);
+
+        assertTrue(body.isNotModified(body.etag(), null));
+        assertTrue(body.isNotModified("\"other\", " + strongTag, null));
+        assertFalse(body.isNotModified("\"other\"", body.lastModifiedHeader()));
+        assertEquals("Sat, 17 Oct 2026 10:15:30 GMT", body.lastModifiedHeader());
+        assertTrue(body.isNotModified(null, "Sat, 17 Oct 2026 10:15:30 GMT"));
+        assertFalse(body.isNotModified(null, "Sat, 17 Oct 2026 10:15:29 GMT"));
+        assertFalse(body.isNotModified(null, "yesterday"));
+        assertFalse(body.isNotModified(null, null));
+    }
+}
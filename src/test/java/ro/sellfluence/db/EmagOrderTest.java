@@ -0,0 +1,155 @@
+package ro.sellfluence.db;
+
+import org.junit.jupiter.api.Test;
+import ro.sellfluence.emagapi.OrderResult;
+
+import java.lang.reflect.Proxy;
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static ro.sellfluence.support.UsefulMethods.toTimestamp;
+
+class EmagOrderTest {
+
+    private static final LocalDateTime modified = LocalDateTime.of(2026, 3, 1, 10, 0);
+
+    @Test
+    void unchangedOrderHasNoColumnChanges() {
+        var changes = EmagOrder.diffOrderColumns(order(4, 1, modified, "refunded"), order(4, 1, modified, "refunded"));
+
+        assertTrue(changes.isEmpty());
+    }
+
+    @Test
+    void changedColumnsAreCollectedWithTheirNewValues() {
+        var changes = EmagOrder.diffOrderColumns(order(3, 0, modified, null), order(4, 1, modified.plusHours(1), "refunded"));
+
+        assertEquals(List.of("modified", "status", "is_complete", "refund_status"), changes.columns());
+    }
+
+    @Test
+    void olderModificationTimeIsNotWritten() {
+        var changes = EmagOrder.diffOrderColumns(order(4, 1, modified, null), order(4, 1, modified.minusDays(1), null));
+
+        assertTrue(changes.isEmpty());
+    }
+
+    @Test
+    void allChangesAreWrittenWithASingleUpdate() throws Exception {
+        var sql = new AtomicReference<String>();
+        var parameters = new HashMap<Integer, Object>();
+        var changes = EmagOrder.diffOrderColumns(order(3, 0, modified, null), order(4, 1, modified.plusHours(1), null));
+
+        var affectedRows = changes.execute(connectionCapturing(sql, parameters), 42);
+
+        assertEquals(1, affectedRows);
+        assertEquals("UPDATE emag_order SET modified = ?, status = ?, is_complete = ? WHERE surrogate_id = ?", sql.get());
+        assertEquals(Map.of(1, toTimestamp(modified.plusHours(1)), 2, 4, 3, 1, 4, 42), parameters);
+    }
+
+    @Test
+    void fingerprintIsStableForEqualOrdersAndChangesWithTheContent() {
+        var fingerprint = EmagOrder.fingerprint(order(4, 1, modified, null));
+
+        assertEquals(64, fingerprint.length());
+        assertEquals(fingerprint, EmagOrder.fingerprint(order(4, 1, modified, null)));
+        assertNotEquals(fingerprint, EmagOrder.fingerprint(order(4, 1, modified, "refunded")));
+    }
+
+    @Test
+    void fingerprintOfAnOrderWithUnhandledDifferencesIsNotStored() throws Exception {
+        var sql = new AtomicReference<String>();
+        var batchRows = new ArrayList<Map<Integer, Object>>();
+
+        EmagOrder.updateFingerprints(connectionBatching(sql, batchRows), Map.of(7, "handled", 8, "unhandled"), Set.of(8));
+
+        assertEquals("UPDATE emag_order SET fingerprint = ? WHERE surrogate_id = ?", sql.get());
+        assertEquals(List.of(Map.of(1, "handled", 2, 7)), batchRows);
+    }
+
+    private static OrderResult order(int status, Integer isComplete, LocalDateTime modified, String refundStatus) {
+        return new OrderResult(
+                "Vendor", "1001", status, isComplete, 2, "online", 1, "courier", "courier", null,
+                null, modified.minusDays(2), 1, BigDecimal.TEN, null, null, null, null, null, null,
+                null, false, null, refundStatus, null, null, null, null, null, null,
+                0, null, null, null, 0, 0, modified.minusDays(2), modified, null, "RON"
+        );
+    }
+
+    private static Connection connectionCapturing(AtomicReference<String> sql, Map<Integer, Object> parameters) {
+        return (Connection) Proxy.newProxyInstance(
+                EmagOrderTest.class.getClassLoader(),
+                new Class<?>[]{Connection.class},
+                (_, method, arguments) -> {
+                    if (method.getName().equals("prepareStatement")) {
+                        sql.set((String) arguments[0]);
+                        return preparedStatementCapturing(parameters);
+                    }
+                    throw new UnsupportedOperationException(method.getName());
+                }
+        );
+    }
+
+    private static Connection connectionBatching(AtomicReference<String> sql, List<Map<Integer, Object>> batchRows) {
+        return (Connection) Proxy.newProxyInstance(
+                EmagOrderTest.class.getClassLoader(),
+                new Class<?>[]{Connection.class},
+                (_, method, arguments) -> {
+                    if (method.getName().equals("prepareStatement")) {
+                        sql.set((String) arguments[0]);
+                        return preparedStatementBatching(batchRows);
+                    }
+                    throw new UnsupportedOperationException(method.getName());
+                }
+        );
+    }
+
+    private static PreparedStatement preparedStatementBatching(List<Map<Integer, Object>> batchRows) {
+        var parameters = new HashMap<Integer, Object>();
+        return (PreparedStatement) Proxy.newProxyInstance(
+                EmagOrderTest.class.getClassLoader(),
+                new Class<?>[]{PreparedStatement.class},
+                (_, method, arguments) -> switch (method.getName()) {
+                    case "setString", "setInt" -> {
+                        parameters.put((Integer) arguments[0], arguments[1]);
+                        yield null;
+                    }
+                    case "addBatch" -> {
+                        batchRows.add(Map.copyOf(parameters));
+                        parameters.clear();
+                        yield null;
+                    }
+                    case "executeBatch" -> new int[batchRows.size()];
+                    case "close" -> null;
+                    default -> throw new UnsupportedOperationException(method.getName());
+                }
+        );
+    }
+
+    private static PreparedStatement preparedStatementCapturing(Map<Integer, Object> parameters) {
+        return (PreparedStatement) Proxy.newProxyInstance(
+                EmagOrderTest.class.getClassLoader(),
+                new Class<?>[]{PreparedStatement.class},
+                (_, method, arguments) -> switch (method.getName()) {
+                    case "setObject", "setInt" -> {
+                        parameters.put((Integer) arguments[0], arguments[1]);
+                        yield null;
+                    }
+                    case "executeUpdate" -> 1;
+                    case "close" -> null;
+                    default -> throw new UnsupportedOperationException(method.getName());
+                }
+        );
+    }
+}
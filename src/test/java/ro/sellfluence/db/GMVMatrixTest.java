@@ -0,0 +1,61 @@
+package ro.sellfluence.db;
+
+import org.junit.jupiter.api.Test;
+import ro.sellfluence.db.ProductTable.ProductInfo;
+
+import java.math.BigDecimal;
+import java.time.YearMonth;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class GMVMatrixTest {
+
+    private static final YearMonth january = YearMonth.of(2026, 1);
+    private static final YearMonth march = YearMonth.of(2026, 3);
+
+    private final GMVMatrix matrix = new GMVMatrix(
+            List.of(product("P2", "Z. 2 - Second"), product("P1", "Z. 1 - First"), product("P3", "Z. 3 - Without GMV")),
+            Map.of(
+                    "P1", Map.of(january, new BigDecimal("10.50"), march, new BigDecimal("-3.2")),
+                    "P2", Map.of(march, new BigDecimal("7"))
+            )
+    );
+
+    @Test
+    void productsAreSortedByNameAndMonthsAscending() {
+        assertEquals(List.of("P1", "P2", "P3"), matrix.products().stream().map(ProductInfo::productCode).toList());
+        assertEquals(List.of(january, march), matrix.months());
+        assertEquals(-1, matrix.monthIndex(YearMonth.of(2026, 2)));
+    }
+
+    @Test
+    void valuesKeepTwoDecimalsAndMissingCellsAreNull() {
+        assertEquals(new BigDecimal("10.50"), matrix.gmv(0, 0));
+        assertEquals(new BigDecimal("-3.20"), matrix.gmv(0, 1));
+        assertNull(matrix.gmv(1, 0));
+        assertEquals(new BigDecimal("7.00"), matrix.gmv(1, 1));
+        assertNull(matrix.gmv(2, 1));
+    }
+
+    @Test
+    void monthColumnMatchesTheReadByMonth() {
+        assertEquals(Map.of("Z. 1 - First", new BigDecimal("-3.20"), "Z. 2 - Second", new BigDecimal("7.00")), matrix.gmvByProductName(march));
+        assertEquals(Map.of(), matrix.gmvByProductName(YearMonth.of(2025, 12)));
+    }
+
+    @Test
+    void nestedFormContainsAllProducts() {
+        var nested = matrix.toSortedMap();
+
+        assertEquals(3, nested.size());
+        assertEquals(Map.of(march, new BigDecimal("7.00")), nested.get(matrix.products().get(1)));
+        assertEquals(Map.of(), nested.get(matrix.products().get(2)));
+    }
+
+    private static ProductInfo product(String productCode, String name) {
+        return new ProductInfo(productCode.toLowerCase(), productCode, name, null, false, false, null, null, null, null);
+    }
+}
@@ -0,0 +1,68 @@
+package ro.sellfluence.db;
+
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class GMVTest {
+
+    private static final LocalDate january = LocalDate.of(2026, 1, 15);
+    private static final LocalDate february = LocalDate.of(2026, 2, 10);
+    private static final LocalDate march = LocalDate.of(2026, 3, 5);
+
+    @Test
+    void singlePassComputesTheGMVByMonth() {
+        var entriesByProduct = Map.of(
+                "A", List.of(
+                        // Finalized order: 2 × 10.00 in January.
+                        entry("1", january, 4, 11, 2, 2, 0, "10.00"),
+                        // Storno in the month of the order: only the remaining quantity 0 counts.
+                        entry("2", january, 4, 12, 1, 1, 0, "10.00"),
+                        entry("2", january, 5, 12, 0, 1, 1, "10.00"),
+                        // Storno a month later: 3 × 10.00 in January, 1 × 10.00 subtracted in February.
+                        entry("3", january, 4, 13, 3, 3, 0, "10.00"),
+                        entry("3", february, 5, 13, 0, 3, 1, "10.00"),
+                        // Storno in a month without other orders: 2 × 10.00 in February, subtracted in March.
+                        entry("5", february, 4, 14, 2, 2, 0, "10.00"),
+                        entry("5", march, 5, 14, 0, 2, 2, "10.00")
+                ),
+                "B", List.of(
+                        entry("1", january, 4, 21, 1, 1, 0, "99.99"),
+                        entry("4", february, 4, 22, 5, 5, 0, "20.50")
+                )
+        );
+
+        var singlePass = new GMV.AllProductsGMV();
+        entriesByProduct.entrySet().stream()
+                .sorted(Map.Entry.comparingByKey())
+                .forEach(productEntries -> productEntries.getValue().stream()
+                        .sorted(Comparator.comparing(POInfo::orderId).thenComparing(POInfo::orderStatus))
+                        .forEach(poInfo -> singlePass.add(productEntries.getKey(), poInfo)));
+
+        assertEquals(
+                Map.of(
+                        "A", Map.of(
+                                YearMonth.of(2026, 1), new BigDecimal("50.00"),
+                                YearMonth.of(2026, 2), new BigDecimal("10.00"),
+                                YearMonth.of(2026, 3), new BigDecimal("-20.00")
+                        ),
+                        "B", Map.of(
+                                YearMonth.of(2026, 1), new BigDecimal("99.99"),
+                                YearMonth.of(2026, 2), new BigDecimal("102.50")
+                        )
+                ),
+                singlePass.result()
+        );
+    }
+
+    private static POInfo entry(String orderId, LocalDate date, int status, int productInOrderId, int quantity, int initialQuantity, int stornoQuantity, String price) {
+        return new POInfo(orderId, Integer.parseInt(orderId) * 10 + status, date, status, productInOrderId, "product", quantity, initialQuantity, stornoQuantity, new BigDecimal(price));
+    }
+}
@@ -0,0 +1,82 @@
+package ro.sellfluence.db;
+
+import org.junit.jupiter.api.Test;
+import ro.sellfluence.emagapi.OrderResult;
+
+import java.lang.reflect.Proxy;
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.time.LocalDateTime;
+import java.time.YearMonth;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static ro.sellfluence.support.UsefulMethods.toDate;
+
+class ProductMonthCountTest {
+
+    @Test
+    void orderAndModificationMonthsAreMarkedOnce() throws Exception {
+        var marked = new HashSet<Date>();
+        var orders = List.of(
+                order(LocalDateTime.of(2026, 1, 30, 10, 0), LocalDateTime.of(2026, 2, 2, 8, 0)),
+                order(LocalDateTime.of(2026, 1, 5, 10, 0), LocalDateTime.of(2026, 1, 6, 8, 0))
+        );
+
+        ProductMonthCount.markOrdersChanged(connectionCapturing(marked), orders);
+
+        assertEquals(Set.of(toDate(YearMonth.of(2026, 1)), toDate(YearMonth.of(2026, 2))), marked);
+    }
+
+    @Test
+    void nothingIsWrittenWithoutOrders() throws Exception {
+        var marked = new HashSet<Date>();
+
+        ProductMonthCount.markOrdersChanged(connectionCapturing(marked), List.of());
+
+        assertEquals(Set.of(), marked);
+    }
+
+    private static OrderResult order(LocalDateTime date, LocalDateTime modified) {
+        return new OrderResult(
+                "Vendor", "1001", 4, 1, 2, "online", 1, "courier", "courier", null,
+                null, date, 1, BigDecimal.TEN, null, null, null, null, null, null,
+                null, false, null, null, null, null, null, null, null, null,
+                0, null, null, null, 0, 0, date, modified, null, "RON"
+        );
+    }
+
+    private static Connection connectionCapturing(Set<Date> marked) {
+        return (Connection) Proxy.newProxyInstance(
+                ProductMonthCountTest.class.getClassLoader(),
+                new Class<?>[]{Connection.class},
+                (_, method, arguments) -> {
+                    if (method.getName().equals("prepareStatement")) {
+                        assertEquals("INSERT INTO product_month_count_dirty (month) VALUES (?) ON CONFLICT DO NOTHING", arguments[0]);
+                        return preparedStatementCapturing(marked);
+                    }
+                    throw new UnsupportedOperationException(method.getName());
+                }
+        );
+    }
+
+    private static PreparedStatement preparedStatementCapturing(Set<Date> marked) {
+        return (PreparedStatement) Proxy.newProxyInstance(
+                ProductMonthCountTest.class.getClassLoader(),
+                new Class<?>[]{PreparedStatement.class},
+                (_, method, arguments) -> switch (method.getName()) {
+                    case "setDate" -> {
+                        marked.add((Date) arguments[1]);
+                        yield null;
+                    }
+                    case "addBatch", "close" -> null;
+                    case "executeBatch" -> new int[0];
+                    default -> throw new UnsupportedOperationException(method.getName());
+                }
+        );
+    }
+}
@@ -5,8 +5,12 @@ import org.junit.jupiter.api.Test;
 import java.lang.reflect.Proxy;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicReference;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
@@ -105,6 +109,51 @@ class ProductTableTest {
         assertEquals("Editor-selected tab", parameters.get(8));
     }
 
+    @Test
+    void changingThePnkMarksTheOrdersOfTheOldAndTheNewPnkAsChanged() throws Exception {
+        var markedPnks = new ArrayList<String>();
+        var connection = connectionCapturingProductUpdate(new AtomicReference<>(), new HashMap<>(), "OLD-PNK", markedPnks);
+        var product = new ProductTable.ProductInfo(
+                "PNK-123",
+                "CODE-123",
+                "Z. 1 - Test product",
+                null,
+                true,
+                false,
+                "Category",
+                "Keyword",
+                "Employee sheet",
+                "Tab"
+        );
+
+        ProductTable.updateExistingProduct(connection, product);
+
+        // Once for the GMV and once for the return rate.
+        assertEquals(List.of("OLD-PNK", "OLD-PNK", "PNK-123", "PNK-123"), markedPnks);
+    }
+
+    @Test
+    void updatingAProductWithoutChangingThePnkMarksNothing() throws Exception {
+        var markedPnks = new ArrayList<String>();
+        var connection = connectionCapturingProductUpdate(new AtomicReference<>(), new HashMap<>(), "PNK-123", markedPnks);
+        var product = new ProductTable.ProductInfo(
+                "PNK-123",
+                "CODE-123",
+                "Z. 1 - Test product",
+                null,
+                true,
+                false,
+                "Category",
+                "Keyword",
+                "Employee sheet",
+                "Tab"
+        );
+
+        ProductTable.updateExistingProduct(connection, product);
+
+        assertEquals(List.of(), markedPnks);
+    }
+
     private static Connection connectionCapturing(AtomicReference<String> sql, Map<Integer, Object> parameters) {
         return (Connection) Proxy.newProxyInstance(
                 ProductTableTest.class.getClassLoader(),
@@ -141,6 +190,19 @@ class ProductTableTest {
     private static Connection connectionCapturingProductUpdate(
             AtomicReference<String> updateSql,
             Map<Integer, Object> parameters
+    ) {
+        return connectionCapturingProductUpdate(updateSql, parameters, "PNK-123", new ArrayList<>());
+    }
+
+    /**
+     * @param storedPnk PNK of the product before the update.
+     * @param markedPnks receives the PNKs marked as changed.
+     */
+    private static Connection connectionCapturingProductUpdate(
+            AtomicReference<String> updateSql,
+            Map<Integer, Object> parameters,
+            String storedPnk,
+            List<String> markedPnks
     ) {
         return (Connection) Proxy.newProxyInstance(
                 ProductTableTest.class.getClassLoader(),
@@ -152,7 +214,13 @@ class ProductTableTest {
                             updateSql.set(sql);
                             parameters.clear();
                         }
-                        return productStatement(sql, parameters);
+                        if (sql.stripLeading().startsWith("INSERT INTO gmv_dirty")) {
+                            return markingStatement(markedPnks);
+                        }
+                        if (sql.stripLeading().startsWith("INSERT INTO return_rate_dirty_order")) {
+                            return markingStatement(markedPnks);
+                        }
+                        return productStatement(sql, parameters, storedPnk);
                     }
                     if (method.getName().equals("close")) {
                         return null;
@@ -162,7 +230,7 @@ class ProductTableTest {
         );
     }
 
-    private static PreparedStatement productStatement(String sql, Map<Integer, Object> parameters) {
+    private static PreparedStatement productStatement(String sql, Map<Integer, Object> parameters, String storedPnk) {
         return (PreparedStatement) Proxy.newProxyInstance(
                 ProductTableTest.class.getClassLoader(),
                 new Class<?>[]{PreparedStatement.class},
@@ -173,6 +241,37 @@ class ProductTableTest {
                     }
                     case "close" -> null;
                     case "executeUpdate" -> sql.stripLeading().startsWith("INSERT INTO product") ? 0 : 1;
+                    case "executeQuery" -> resultSetWithString(storedPnk);
+                    default -> throw new UnsupportedOperationException(method.getName());
+                }
+        );
+    }
+
+    private static PreparedStatement markingStatement(List<String> markedPnks) {
+        return (PreparedStatement) Proxy.newProxyInstance(
+                ProductTableTest.class.getClassLoader(),
+                new Class<?>[]{PreparedStatement.class},
+                (_, method, arguments) -> switch (method.getName()) {
+                    case "setString" -> {
+                        markedPnks.add((String) arguments[1]);
+                        yield null;
+                    }
+                    case "close" -> null;
+                    case "executeUpdate" -> 1;
+                    default -> throw new UnsupportedOperationException(method.getName());
+                }
+        );
+    }
+
+    private static ResultSet resultSetWithString(String value) {
+        var remaining = new AtomicInteger(1);
+        return (ResultSet) Proxy.newProxyInstance(
+                ProductTableTest.class.getClassLoader(),
+                new Class<?>[]{ResultSet.class},
+                (_, method, _) -> switch (method.getName()) {
+                    case "next" -> remaining.getAndDecrement() > 0;
+                    case "getString" -> value;
+                    case "close" -> null;
                     default -> throw new UnsupportedOperationException(method.getName());
                 }
         );
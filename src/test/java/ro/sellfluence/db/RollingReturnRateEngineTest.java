@@ -0,0 +1,151 @@
+package ro.sellfluence.db;
+
+import org.junit.jupiter.api.Test;
+import ro.sellfluence.db.EmagMirrorDB.RollingReturnRatePoint;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RollingReturnRateEngineTest {
+
+    private static final LocalDate start = LocalDate.of(2026, 1, 1);
+
+    private record Sale(LocalDate saleDate, long quantity) {
+    }
+
+    private record Return(LocalDate saleDate, LocalDate returnDate, long quantity) {
+    }
+
+    @Test
+    void salesAndReturnsLeaveTheWindowAfterRollDays() {
+        var engine = new RollingReturnRateEngine.Builder()
+                .addSale("A", start, 10)
+                .addSale("A", start.plusDays(2), 5)
+                .addReturn("A", start, start.plusDays(1), 2)
+                .build();
+
+        var points = engine.compute("A", 3, 90, 100, 12);
+
+        assertEquals(3, points.size());
+        assertEquals(start, points.getFirst().date());
+        assertEquals(List.of(10L, 10L, 15L), points.stream().map(RollingReturnRatePoint::soldQty).toList());
+        assertEquals(List.of(0L, 2L, 2L), points.stream().map(RollingReturnRatePoint::returnedQty).toList());
+        assertEquals(List.of(false, false, true), points.stream().map(RollingReturnRatePoint::reliable).toList());
+        assertEquals(0.2, points.get(1).rawRate());
+        var p0 = 4.0 / 35.0;
+        assertEquals((2 + p0 * 100) / (10 + 100), points.get(1).smoothedRate(), 1e-12);
+    }
+
+    @Test
+    void returnsLaterThanTheMaximumDelayAreIgnored() {
+        var engine = new RollingReturnRateEngine.Builder()
+                .addSale("A", start, 10)
+                .addReturn("A", start, start.plusDays(5), 1)
+                .build();
+
+        var points = engine.compute("A", 30, 4, 100, 0);
+
+        assertEquals(1, points.size());
+        assertEquals(0, points.getFirst().returnedQty());
+    }
+
+    @Test
+    void daysWithoutSalesHaveNoRawRate() {
+        var engine = new RollingReturnRateEngine.Builder()
+                .addSale("A", start, 10)
+                .addSale("A", start.plusDays(5), 10)
+                .build();
+
+        var points = engine.compute("A", 2, 90, 100, 0);
+
+        assertNull(points.get(3).rawRate());
+        assertEquals(0.0, points.get(3).smoothedRate());
+    }
+
+    @Test
+    void unknownProductHasNoPoints() {
+        assertTrue(new RollingReturnRateEngine.Builder().build().compute("X", 90, 90, 100, 20).isEmpty());
+    }
+
+    @Test
+    void matchesTheWindowDefinitionOfTheQueryForRandomData() {
+        var random = new Random(42);
+        var sales = new ArrayList<Sale>();
+        var returns = new ArrayList<Return>();
+        var builder = new RollingReturnRateEngine.Builder();
+        for (int i = 0; i < 300; i++) {
+            var sale = new Sale(start.plusDays(random.nextInt(400)), 1 + random.nextInt(5));
+            sales.add(sale);
+            builder.addSale("A", sale.saleDate(), sale.quantity());
+            if (random.nextInt(4) == 0) {
+                var ret = new Return(sale.saleDate(), sale.saleDate().plusDays(random.nextInt(120)), 1);
+                returns.add(ret);
+                builder.addReturn("A", ret.saleDate(), ret.returnDate(), ret.quantity());
+            }
+        }
+        var engine = builder.build();
+
+        for (int[] parameters : new int[][]{{90, 90}, {30, 90}, {90, 14}, {1, 1}}) {
+            var rollDays = parameters[0];
+            var maxReturnDays = parameters[1];
+            var expected = bruteForce(sales, returns, rollDays, maxReturnDays, 100, 20);
+            var actual = engine.compute("A", rollDays, maxReturnDays, 100, 20);
+            assertEquals(expected.size(), actual.size());
+            for (int i = 0; i < expected.size(); i++) {
+                var e = expected.get(i);
+                var a = actual.get(i);
+                assertEquals(e.date(), a.date());
+                assertEquals(e.soldQty(), a.soldQty());
+                assertEquals(e.returnedQty(), a.returnedQty());
+                assertEquals(e.rawRate(), a.rawRate());
+                assertEquals(e.smoothedRate(), a.smoothedRate(), 1e-12);
+                assertEquals(e.reliable(), a.reliable());
+            }
+        }
+    }
+
+    /**
+     * Evaluate the window sums of the query day by day.
+     */
+    private static List<RollingReturnRatePoint> bruteForce(List<Sale> sales, List<Return> allReturns,
+                                                           int rollDays, int maxReturnDays,
+                                                           double m, long reliableMinSoldQty) {
+        var returns = allReturns.stream()
+                .filter(r -> !r.returnDate().isAfter(r.saleDate().plusDays(maxReturnDays))
+                             && !r.returnDate().isAfter(r.saleDate().plusDays(rollDays - 1)))
+                .toList();
+        var first = sales.stream().map(Sale::saleDate).min(LocalDate::compareTo).orElseThrow();
+        var last = sales.stream().map(Sale::saleDate).max(LocalDate::compareTo).orElseThrow();
+        for (var r : returns) {
+            last = r.returnDate().isAfter(last) ? r.returnDate() : last;
+        }
+        var sold = new ArrayList<Long>();
+        var returned = new ArrayList<Long>();
+        for (var d = first; !d.isAfter(last); d = d.plusDays(1)) {
+            var day = d;
+            sold.add(sales.stream()
+                    .filter(s -> !s.saleDate().isAfter(day) && day.isBefore(s.saleDate().plusDays(rollDays)))
+                    .mapToLong(Sale::quantity).sum());
+            returned.add(returns.stream()
+                    .filter(r -> !r.returnDate().isAfter(day) && day.isBefore(r.saleDate().plusDays(rollDays)))
+                    .mapToLong(Return::quantity).sum());
+        }
+        var totalSold = sold.stream().mapToLong(Long::longValue).sum();
+        var totalReturned = returned.stream().mapToLong(Long::longValue).sum();
+        var p0 = totalSold == 0 ? 0.0 : (double) totalReturned / totalSold;
+        var result = new ArrayList<RollingReturnRatePoint>();
+        for (int i = 0; i < sold.size(); i++) {
+            long s = sold.get(i);
+            long r = returned.get(i);
+            result.add(new RollingReturnRatePoint(first.plusDays(i), s, r,
+                    s == 0 ? null : (double) r / s, (r + p0 * m) / (s + m), s >= reliableMinSoldQty));
+        }
+        return result;
+    }
+}
@@ -0,0 +1,111 @@
+package ro.sellfluence.emagapi;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class AccountThrottleTest {
+
+    private final AtomicLong clock = new AtomicLong();
+    private final List<Long> sleeps = new ArrayList<>();
+    private final AccountThrottle throttle = new AccountThrottle("user", milliseconds -> {
+        sleeps.add(milliseconds);
+        clock.addAndGet(MILLISECONDS.toNanos(milliseconds));
+    }, clock::get);
+
+    @Test
+    void burstIsServedWithoutWaitingAndFurtherRequestsWaitForTokens() throws Exception {
+        for (int i = 0; i < 5; i++) {
+            throttle.acquire();
+        }
+        assertEquals(List.of(), sleeps);
+
+        throttle.acquire();
+
+        assertEquals(List.of(200L), sleeps);
+    }
+
+    @Test
+    void failuresSlowDownTheRateAndSuccessesSpeedItUpAgain() {
+        throttle.recordFailure();
+        throttle.recordFailure();
+
+        assertEquals(1.25, throttle.status().requestsPerSecond());
+
+        throttle.recordSuccess();
+
+        assertEquals(1.5, throttle.status().requestsPerSecond());
+    }
+
+    @Test
+    void circuitOpensWhenTooManyRecentRequestsFailAndClosesAfterASuccessfulProbe() throws Exception {
+        for (int i = 0; i < AccountThrottle.MIN_REQUESTS_IN_WINDOW; i++) {
+            throttle.recordFailure();
+        }
+        assertEquals(AccountThrottle.State.OPEN, throttle.status().state());
+
+        throttle.acquire();
+
+        var openMilliseconds = NANOSECONDS.toMillis(AccountThrottle.INITIAL_OPEN_NANOS);
+        assertEquals(List.of(openMilliseconds), sleeps);
+        assertEquals(AccountThrottle.State.HALF_OPEN, throttle.status().state());
+
+        throttle.recordSuccess();
+
+        assertEquals(AccountThrottle.State.CLOSED, throttle.status().state());
+        assertEquals(1, throttle.status().recentRequests());
+    }
+
+    @Test
+    void failedProbeOpensTheCircuitForTwiceTheTime() throws Exception {
+        for (int i = 0; i < AccountThrottle.MIN_REQUESTS_IN_WINDOW; i++) {
+            throttle.recordFailure();
+        }
+        throttle.acquire();
+        throttle.recordFailure();
+
+        var status = throttle.status();
+
+        assertEquals(AccountThrottle.State.OPEN, status.state());
+        assertEquals(2 * NANOSECONDS.toMillis(AccountThrottle.INITIAL_OPEN_NANOS), status.millisecondsUntilRetry());
+        assertEquals(1, throttle.failedProbes());
+    }
+
+    @Test
+    void abandonedProbeLetsTheNextRequestProbe() throws Exception {
+        for (int i = 0; i < AccountThrottle.MIN_REQUESTS_IN_WINDOW; i++) {
+            throttle.recordFailure();
+        }
+        throttle.acquire();
+        sleeps.clear();
+
+        throttle.recordAbandoned();
+        throttle.acquire();
+
+        assertEquals(List.of(), sleeps);
+        assertEquals(AccountThrottle.State.HALF_OPEN, throttle.status().state());
+    }
+
+    @Test
+    void occasionalFailuresDoNotOpenTheCircuit() {
+        for (int i = 0; i < AccountThrottle.WINDOW; i++) {
+            if (i % 3 == 0) {
+                throttle.recordFailure();
+            } else {
+                throttle.recordSuccess();
+            }
+        }
+
+        var status = throttle.status();
+
+        assertEquals(AccountThrottle.State.CLOSED, status.state());
+        assertTrue(status.failureRate() < AccountThrottle.FAILURE_RATE_THRESHOLD);
+    }
+}
@@ -8,16 +8,25 @@ import org.junit.jupiter.api.Test;
 import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.nio.charset.StandardCharsets;
+import java.sql.SQLException;
+import java.time.Duration;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import static java.net.HttpURLConnection.HTTP_INTERNAL_ERROR;
 import static java.net.HttpURLConnection.HTTP_OK;
+import static java.util.Collections.nCopies;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 class EmagApiTest {
 
@@ -29,7 +38,7 @@ class EmagApiTest {
             """;
 
     @Test
-    void retries500OnTheCurrentPageWithAPageLocalExponentialBackoff() throws Exception {
+    void retries500OnTheCurrentPagePacedByTheThrottle() throws Exception {
         var responses = List.of(
                 new ScriptedResponse(HTTP_INTERNAL_ERROR, ""),
                 new ScriptedResponse(HTTP_OK, PAGE_WITH_RESULT),
@@ -43,33 +52,29 @@ class EmagApiTest {
         var server = startServer(responses, requestedPages);
         try {
             var delays = new ArrayList<Long>();
-            var emagApi = new EmagApi("user", "password", delays::add);
+            var emagApi = emagApiWithFakeClock(delays);
 
             var result = emagApi.emagRequest(endpoint(server), true, Map.of(), null, Map.class);
 
             assertEquals(1, result.size());
             assertEquals("kept", result.getFirst().get("value"));
             assertEquals(List.of(1, 1, 2, 2, 2, 2, 2), requestedPages);
-            assertEquals(List.of(10_000L, 10_000L, 20_000L, 40_000L, 80_000L), delays);
+            // Only the lowered request rate delays the retries, the circuit stays closed.
+            assertTrue(delays.stream().allMatch(delay -> delay < NANOSECONDS.toMillis(AccountThrottle.INITIAL_OPEN_NANOS)), delays::toString);
         } finally {
             server.stop(0);
         }
     }
 
     @Test
-    void givesUpAfterFourRetriesOfA500Response() throws Exception {
-        var responses = List.of(
-                new ScriptedResponse(HTTP_INTERNAL_ERROR, ""),
-                new ScriptedResponse(HTTP_INTERNAL_ERROR, ""),
-                new ScriptedResponse(HTTP_INTERNAL_ERROR, ""),
-                new ScriptedResponse(HTTP_INTERNAL_ERROR, ""),
-                new ScriptedResponse(HTTP_INTERNAL_ERROR, "")
-        );
+    void givesUpWhenTheProbeAfterTheOpenCircuitFails() throws Exception {
+        // The circuit opens with the failure which fills the minimum window, then the probe fails too.
+        var responses = nCopies(AccountThrottle.MIN_REQUESTS_IN_WINDOW + 1, new ScriptedResponse(HTTP_INTERNAL_ERROR, ""));
         var requestedPages = new CopyOnWriteArrayList<Integer>();
         var server = startServer(responses, requestedPages);
         try {
             var delays = new ArrayList<Long>();
-            var emagApi = new EmagApi("user", "password", delays::add);
+            var emagApi = emagApiWithFakeClock(delays);
 
             var exception = assertThrows(
                     RuntimeException.class,
@@ -77,13 +82,132 @@ class EmagApiTest {
             );
 
             assertEquals("Emag API error 500", exception.getMessage());
-            assertEquals(List.of(1, 1, 1, 1, 1), requestedPages);
-            assertEquals(List.of(10_000L, 20_000L, 40_000L, 80_000L), delays);
+            assertEquals(nCopies(AccountThrottle.MIN_REQUESTS_IN_WINDOW + 1, 1), requestedPages);
+            assertTrue(delays.contains(NANOSECONDS.toMillis(AccountThrottle.INITIAL_OPEN_NANOS)), delays::toString);
+        } finally {
+            server.stop(0);
+        }
+    }
+
+    @Test
+    void handsOverEachPageToTheConsumerInOrder() throws Exception {
+        var responses = List.of(
+                new ScriptedResponse(HTTP_OK, PAGE_WITH_RESULT),
+                new ScriptedResponse(HTTP_OK, PAGE_WITH_RESULT),
+                new ScriptedResponse(HTTP_OK, EMPTY_PAGE)
+        );
+        var requestedPages = new CopyOnWriteArrayList<Integer>();
+        var server = startServer(responses, requestedPages);
+        try {
+            var emagApi = new EmagApi("user", "password", _ -> {});
+            var pageSizes = new ArrayList<Integer>();
+
+            emagApi.emagRequestInPages(endpoint(server), true, Map.of(), null, Map.class, page -> pageSizes.add(page.size()));
+
+            assertEquals(List.of(1, 1), pageSizes);
+            assertEquals(List.of(1, 2, 3), requestedPages);
         } finally {
             server.stop(0);
         }
     }
 
+    @Test
+    void rethrowsFetchErrorsAfterConsumingTheReceivedPages() throws Exception {
+        var responses = new ArrayList<ScriptedResponse>();
+        responses.add(new ScriptedResponse(HTTP_OK, PAGE_WITH_RESULT));
+        responses.addAll(nCopies(AccountThrottle.MIN_REQUESTS_IN_WINDOW + 1, new ScriptedResponse(HTTP_INTERNAL_ERROR, "")));
+        var requestedPages = new CopyOnWriteArrayList<Integer>();
+        var server = startServer(responses, requestedPages);
+        try {
+            var emagApi = emagApiWithFakeClock(new ArrayList<>());
+            var pageSizes = new ArrayList<Integer>();
+
+            var exception = assertThrows(
+                    RuntimeException.class,
+                    () -> emagApi.emagRequestInPages(endpoint(server), true, Map.of(), null, Map.class, page -> pageSizes.add(page.size()))
+            );
+
+            assertEquals("Emag API error 500", exception.getMessage());
+            assertEquals(List.of(1), pageSizes);
+        } finally {
+            server.stop(0);
+        }
+    }
+
+    @Test
+    void requestsSeveralPagesConcurrentlyAndHandsThemOverInOrder() throws Exception {
+        var requestedPages = new CopyOnWriteArrayList<Integer>();
+        var server = startPagedServer(3, requestedPages);
+        try {
+            var emagApi = new EmagApi("user", "password", _ -> {});
+            emagApi.setPagesInFlight(3);
+            var pages = new ArrayList<List<?>>();
+
+            emagApi.emagRequestInPages(endpoint(server), true, Map.of(), null, Map.class, pages::add);
+
+            var receivedPageNumbers = pages.stream().map(page -> ((Number) ((Map<?, ?>) page.getFirst()).get("page")).intValue()).toList();
+            assertEquals(List.of(1, 2, 3), receivedPageNumbers);
+            assertTrue(requestedPages.containsAll(List.of(1, 2, 3, 4)));
+            assertTrue(requestedPages.stream().allMatch(page -> page <= 6));
+        } finally {
+            server.stop(0);
+        }
+    }
+
+    @Test
+    void stopsFetchingWhenTheConsumerThrowsWhilePagesAreQueued() throws Exception {
+        var requestedPages = new CopyOnWriteArrayList<Integer>();
+        var server = startPagedServer(20, requestedPages);
+        try {
+            var emagApi = new EmagApi("user", "password", _ -> {});
+
+            var exception = assertTimeoutPreemptively(Duration.ofSeconds(30), () -> assertThrows(
+                    SQLException.class,
+                    () -> emagApi.emagRequestInPages(endpoint(server), true, Map.of(), null, Map.class, _ -> {
+                        // Give the fetcher time to fill the queue and block on the next page.
+                        Thread.sleep(500);
+                        throw new SQLException("Database error");
+                    })
+            ));
+
+            assertEquals("Database error", exception.getMessage());
+            assertTrue(requestedPages.size() < 20, "requested pages: " + requestedPages);
+        } finally {
+            server.stop(0);
+        }
+    }
+
+    /**
+     * Start a server answering each page number with one item carrying that number, up to the given last page,
+     * and with an empty page beyond it.
+     */
+    private static HttpServer startPagedServer(int lastPage, List<Integer> requestedPages) throws IOException {
+        var server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/order/read", exchange -> {
+            var requestBody = new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8);
+            var page = JsonParser.parseString(requestBody).getAsJsonObject().get("currentPage").getAsInt();
+            requestedPages.add(page);
+            sendResponse(exchange, HTTP_OK, page <= lastPage ? """
+                    {"isError": false, "messages": [], "errors": [], "results": [{"page": %d}]}
+                    """.formatted(page) : EMPTY_PAGE);
+        });
+        server.setExecutor(Executors.newVirtualThreadPerTaskExecutor());
+        server.start();
+        return server;
+    }
+
+    /**
+     * Create an API client whose throttle runs on a clock advanced only by its sleeps, which are recorded.
+     */
+    private static EmagApi emagApiWithFakeClock(List<Long> delays) {
+        var clock = new AtomicLong();
+        var throttle = new AccountThrottle("user", milliseconds -> {
+            delays.add(milliseconds);
+            clock.addAndGet(MILLISECONDS.toNanos(milliseconds));
+        }, clock::get);
+        return new EmagApi("user", "password", throttle);
+    }
+
     private static HttpServer startServer(List<ScriptedResponse> responses, List<Integer> requestedPages) throws IOException {
         var responseIndex = new AtomicInteger();
         var server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
@@ -0,0 +1,43 @@
+package ro.sellfluence.emagapi;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+class EmagClientsTest {
+
+    private final List<String> lookups = new ArrayList<>();
+    private final EmagClients clients = new EmagClients(alias -> {
+        lookups.add(alias);
+        return alias.equals("unknown") ? null : new EmagApi(alias, "password", _ -> {});
+    });
+
+    @Test
+    void reusesTheClientOfAnAccount() {
+        var first = clients.forAlias("account");
+
+        assertSame(first, clients.forAlias("account"));
+        assertEquals(List.of("account"), lookups);
+    }
+
+    @Test
+    void createsANewClientAfterInvalidation() {
+        var first = clients.forAlias("account");
+
+        clients.invalidate("account");
+
+        assertNotSame(first, clients.forAlias("account"));
+        assertEquals(List.of("account", "account"), lookups);
+    }
+
+    @Test
+    void returnsNullForMissingCredentials() {
+        assertNull(clients.forAlias("unknown"));
+    }
+}
@@ -0,0 +1,80 @@
+package ro.sellfluence.googleapi;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.MINUTES;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static ro.sellfluence.googleapi.SheetsQuota.Kind.READ;
+import static ro.sellfluence.googleapi.SheetsQuota.Kind.WRITE;
+
+class SheetsQuotaTest {
+
+    private final AtomicLong clock = new AtomicLong();
+    private final List<Long> sleeps = new ArrayList<>();
+    private final SheetsQuota quota = new SheetsQuota(milliseconds -> {
+        sleeps.add(milliseconds);
+        clock.addAndGet(MILLISECONDS.toNanos(milliseconds));
+    }, clock::get);
+
+    @Test
+    void burstIsServedWithoutWaitingAndFurtherRequestsWaitForTokens() throws Exception {
+        for (int i = 0; i < SheetsQuota.BURST; i++) {
+            quota.acquire(READ);
+        }
+        assertEquals(List.of(), sleeps);
+
+        quota.acquire(READ);
+
+        assertEquals(List.of(1200L), sleeps);
+    }
+
+    @Test
+    void readsAndWritesHaveSeparateBuckets() throws Exception {
+        for (int i = 0; i < SheetsQuota.BURST; i++) {
+            quota.acquire(READ);
+        }
+
+        quota.acquire(WRITE);
+
+        assertEquals(List.of(), sleeps);
+    }
+
+    @Test
+    void noMinuteExceedsTheQuota() throws Exception {
+        var start = clock.get();
+        var requests = 0;
+        while (clock.get() - start < MINUTES.toNanos(1)) {
+            quota.acquire(WRITE);
+            requests++;
+        }
+
+        // The last request was let through after the minute ended.
+        assertTrue(requests - 1 <= SheetsQuota.QUOTA_PER_MINUTE, "requests in one minute: " + (requests - 1));
+    }
+
+    @Test
+    void rejectedRequestsPauseAllRequestsOfTheKind() throws Exception {
+        quota.recordQuotaExceeded(READ);
+        assertEquals(-SheetsQuota.PENALTY, quota.availableTokens(READ));
+
+        quota.acquire(READ);
+
+        assertEquals(List.of(19_200L), sleeps);
+        assertEquals(SheetsQuota.BURST, quota.availableTokens(WRITE));
+    }
+
+    @Test
+    void repeatedRejectionsPauseAtMostAboutOneMinute() {
+        for (int i = 0; i < 10; i++) {
+            quota.recordQuotaExceeded(WRITE);
+        }
+
+        assertEquals(-SheetsQuota.REQUESTS_PER_MINUTE, quota.availableTokens(WRITE));
+    }
+}
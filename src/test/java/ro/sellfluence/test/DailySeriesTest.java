@@ -0,0 +1,31 @@
+package ro.sellfluence.test;
+
+import org.junit.jupiter.api.Test;
+import ro.sellfluence.support.DailySeries;
+
+import java.time.LocalDate;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class DailySeriesTest {
+
+    private static final LocalDate first = LocalDate.of(2026, 2, 27);
+
+    @Test
+    void missingDaysAreZeroAndDaysOutsideTheRangeAreIgnored() {
+        var series = DailySeries.of(
+                Map.of(first, 3, first.plusDays(2), 5, first.minusDays(1), 7, first.plusDays(4), 9),
+                first,
+                first.plusDays(4)
+        );
+
+        assertEquals(4, series.size());
+        assertEquals(3, series.get(0));
+        assertEquals(0, series.get(1));
+        assertEquals(5, series.get(2));
+        assertEquals(0, series.get(3));
+        assertEquals(LocalDate.of(2026, 3, 1), series.date(2));
+        assertEquals(2, series.indexOf(LocalDate.of(2026, 3, 1)));
+    }
+}
@@ -0,0 +1,45 @@
+package ro.sellfluence.test;
+
+import org.junit.jupiter.api.Test;
+import ro.sellfluence.support.LongWindow;
+import ro.sellfluence.support.RatioWindow;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RatioWindowTest {
+
+    @Test
+    void longWindowKeepsSumAndMeanOfTheLastValues() {
+        var window = new LongWindow(3);
+        assertTrue(Double.isNaN(window.getMean()));
+
+        window.add(1);
+        window.add(2);
+        assertFalse(window.isFull());
+        assertEquals(1.5, window.getMean());
+
+        window.add(3);
+        window.add(10);
+
+        assertTrue(window.isFull());
+        assertEquals(15, window.getSum());
+        assertEquals(5.0, window.getMean());
+    }
+
+    @Test
+    void ratioIsComputedOverTheSameWindow() {
+        var window = new RatioWindow(2);
+        window.add(1, 0);
+        window.add(0, 0);
+
+        assertTrue(Double.isNaN(window.getRatio()));
+
+        window.add(1, 4);
+
+        assertEquals(1, window.getNumeratorSum());
+        assertEquals(4, window.getDenominatorSum());
+        assertEquals(0.25, window.getRatio());
+    }
+}
@@ -0,0 +1,120 @@
+package ro.sellfluence.test;
+
+import org.junit.jupiter.api.Test;
+import ro.sellfluence.support.RefreshAheadCache;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static java.util.concurrent.TimeUnit.MINUTES;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class RefreshAheadCacheTest {
+
+    private final AtomicLong clock = new AtomicLong();
+    private final AtomicInteger loads = new AtomicInteger();
+
+    private RefreshAheadCache<String, String> cache(int maxEntries) {
+        return new RefreshAheadCache<>("test", maxEntries, Duration.ofMinutes(60), Duration.ofMinutes(50),
+                key -> key + loads.incrementAndGet(), Runnable::run, clock::get);
+    }
+
+    @Test
+    void valueIsLoadedOnceAndThenServedFromTheCache() {
+        var cache = cache(10);
+
+        assertEquals("a1", cache.get("a"));
+        assertEquals("a1", cache.get("a"));
+
+        var stats = cache.stats();
+        assertEquals(1, stats.hits());
+        assertEquals(1, stats.misses());
+        assertEquals(1, stats.loads());
+    }
+
+    @Test
+    void valueIsRefreshedAheadAndReloadedAfterExpiry() {
+        var cache = cache(10);
+        cache.get("a");
+
+        clock.set(MINUTES.toNanos(55));
+        // The refresh runs on the calling thread here, the old value was already chosen.
+        assertEquals("a2", cache.get("a"));
+        assertEquals(2, loads.get());
+
+        clock.set(MINUTES.toNanos(55 + 61));
+        assertEquals("a3", cache.get("a"));
+    }
+
+    @Test
+    void leastRecentlyUsedEntryIsEvicted() {
+        var cache = cache(2);
+        cache.get("a");
+        clock.incrementAndGet();
+        cache.get("b");
+        clock.incrementAndGet();
+        cache.get("a");
+        clock.incrementAndGet();
+        cache.get("c");
+
+        assertEquals(2, cache.stats().size());
+        assertEquals("a1", cache.get("a"));
+        assertEquals("b4", cache.get("b"));
+    }
+
+    @Test
+    void invalidationForcesANewLoad() {
+        var cache = cache(10);
+        cache.get("a");
+
+        cache.invalidateAll();
+
+        assertEquals("a2", cache.get("a"));
+    }
+
+    @Test
+    void failedLoadIsRetriedOnTheNextRequest() {
+        var attempts = new AtomicInteger();
+        var cache = new RefreshAheadCache<String, String>("test", 10, Duration.ofMinutes(60), Duration.ofMinutes(50), key -> {
+            if (attempts.incrementAndGet() == 1) {
+                throw new IllegalStateException("database down");
+            }
+            return key;
+        }, Runnable::run, clock::get);
+
+        assertThrows(RuntimeException.class, () -> cache.get("a"));
+        assertEquals("a", cache.get("a"));
+        assertEquals(1, cache.stats().failedLoads());
+    }
+
+    @Test
+    void concurrentRequestsShareOneLoad() throws Exception {
+        var release = new CountDownLatch(1);
+        var cache = new RefreshAheadCache<String, String>("test", 10, Duration.ofMinutes(60), Duration.ofMinutes(50), key -> {
+            loads.incrementAndGet();
+            release.await();
+            return key;
+        }, Runnable::run, clock::get);
+        try (var executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            var results = new ArrayList<Future<String>>();
+            for (int i = 0; i < 20; i++) {
+                results.add(executor.submit(() -> cache.get("a")));
+            }
+            Thread.sleep(100);
+            release.countDown();
+            for (var result : results) {
+                assertEquals("a", result.get());
+            }
+        }
+
+        assertEquals(1, loads.get());
+        var stats = cache.stats();
+        assertEquals(20, stats.hits() + stats.misses());
+    }
+}